@@ -0,0 +1,57 @@
+package com.rosterloh.things.driver.bmx280;
+
+import com.rosterloh.things.driver.core.Clock;
+import com.rosterloh.things.driver.testutils.Bmx280Emulator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Bmx280#computeAltitude(float)} against the exact barometric formula, on pressures
+ * spread over the sensor's range.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AltitudeBenchmark {
+
+    private static final int PRESSURES = 1024;
+    private static final float SEA_LEVEL_PRESSURE = 1019.5f;
+
+    private final float[] mPressures = new float[PRESSURES];
+    private Bmx280 mBmx280;
+    private int mNext;
+
+    @Setup
+    public void setUp() throws IOException {
+        mBmx280 = new Bmx280(new Bmx280Emulator(), Clock.SYSTEM);
+        mBmx280.setSeaLevelPressure(SEA_LEVEL_PRESSURE);
+        for (int i = 0; i < PRESSURES; i++) {
+            mPressures[i] = Bmx280.MIN_PRESSURE_HPA
+                    + (Bmx280.MAX_PRESSURE_HPA - Bmx280.MIN_PRESSURE_HPA) * ((i * 397) % PRESSURES) / PRESSURES;
+        }
+    }
+
+    @Benchmark
+    public float exact() {
+        return Bmx280.computeAltitudeExact(nextPressure(), SEA_LEVEL_PRESSURE);
+    }
+
+    @Benchmark
+    public float table() {
+        return mBmx280.computeAltitude(nextPressure());
+    }
+
+    private float nextPressure() {
+        mNext = (mNext + 1) & (PRESSURES - 1);
+        return mPressures[mNext];
+    }
+}
@@ -0,0 +1,109 @@
+package com.rosterloh.things.driver.bmx280;
+
+import com.rosterloh.things.driver.core.SampleTiming;
+import com.rosterloh.things.driver.core.TraceRecorder;
+import com.rosterloh.things.driver.core.TraceReplayBus;
+import com.rosterloh.things.driver.testutils.Bmx280Emulator;
+import com.rosterloh.things.driver.testutils.VirtualClock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AltitudeEstimator} fed at 2 kHz with pressure replayed from a trace of a BMP280 emulator
+ * going up and down with sample noise. {@link #update()} measures the filter alone on the decoded
+ * samples, {@link #sample()} the whole read through the replayed driver as well.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AltitudeEstimatorBenchmark {
+
+    private static final int SAMPLES = 2000;
+    private static final long PERIOD_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+    private static final int RAW_TEMPERATURE = 519888;
+    private static final int RAW_PRESSURE = 415148;
+
+    private final VirtualClock mClock = new VirtualClock();
+    private final long[] mTimestamps = new long[SAMPLES];
+    private final float[] mPressures = new float[SAMPLES];
+    private final AltitudeEstimator mEstimator = new AltitudeEstimator();
+    private final AltitudeEstimator mSampleEstimator = new AltitudeEstimator();
+    private TraceReplayBus mReplay;
+    private Bmx280 mBmx280;
+    private int mNext;
+
+    @Setup
+    public void setUp() throws IOException {
+        mReplay = new TraceReplayBus(new ByteArrayInputStream(record()));
+        mBmx280 = new Bmx280(mReplay, mClock);
+        configure(mBmx280);
+        mReplay.mark();
+        final long[] timestamps = new long[2];
+        for (int i = 0; i < SAMPLES; i++) {
+            mClock.advance(PERIOD_NANOS);
+            mPressures[i] = mBmx280.readTemperatureAndPressure(timestamps)[1];
+            mTimestamps[i] = SampleTiming.midpoint(timestamps[0], timestamps[1]);
+        }
+        mReplay.reset();
+    }
+
+    @Benchmark
+    public float update() {
+        if (mNext == SAMPLES) {
+            mNext = 0;
+            mEstimator.reset();
+        }
+        final float altitude = mEstimator.update(mTimestamps[mNext], mPressures[mNext]);
+        mNext++;
+        return altitude;
+    }
+
+    @Benchmark
+    public float sample() throws IOException {
+        if (mReplay.isFinished()) {
+            mReplay.reset();
+        }
+        mClock.advance(PERIOD_NANOS);
+        return mSampleEstimator.sample(mBmx280);
+    }
+
+    /**
+     * Record a slow climb and descent of about 40 m, at 14 m per 1000 raw counts near the
+     * datasheet sample, with 0.3 m of noise.
+     */
+    private static byte[] record() throws IOException {
+        final VirtualClock clock = new VirtualClock();
+        final Bmx280Emulator emulator = new Bmx280Emulator(Bmx280.CHIP_ID_BMP280, clock);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final Random random = new Random(42);
+        try (Bmx280 bmx280 = new Bmx280(new TraceRecorder(emulator, out, clock), clock)) {
+            configure(bmx280);
+            for (int i = 0; i < SAMPLES; i++) {
+                final double phase = 2 * Math.PI * i / SAMPLES;
+                emulator.setRawSamples(RAW_TEMPERATURE,
+                        RAW_PRESSURE + (int) (1500 * Math.sin(phase) + 20 * random.nextGaussian()), 0);
+                clock.advanceMillis(10);
+                bmx280.readPressure();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void configure(Bmx280 bmx280) throws IOException {
+        bmx280.setTemperatureOversampling(Bmx280.OVERSAMPLING_1X);
+        bmx280.setPressureOversampling(Bmx280.OVERSAMPLING_1X);
+        bmx280.setMode(Bmx280.MODE_NORMAL);
+    }
+}
@@ -0,0 +1,54 @@
+package com.rosterloh.things.driver.bmx280;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compensation formulas of {@link Bmx280}, fed with the calibration and samples of the datasheet
+ * example.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class Bmx280Benchmark {
+
+    private int[] mTempCalibration = {27504, 26435, -1000};
+    private int[] mPressureCalibration = {36477, -10685, 3024, 2855, 140, -7, 15500, -14600, 6000};
+    private int[] mHumidityCalibration = {75, 356, 0, 333, 0, 30};
+    private int mRawTemperature = 519888;
+    private int mRawPressure = 415148;
+    private int mRawHumidity = 34345;
+    private float mFineTemperature = 128422.0f;
+
+    @Benchmark
+    public float[] compensateTemperature() {
+        return Bmx280.compensateTemperature(mRawTemperature, mTempCalibration);
+    }
+
+    @Benchmark
+    public float compensatePressure() {
+        return Bmx280.compensatePressure(mRawPressure, mFineTemperature, mPressureCalibration);
+    }
+
+    @Benchmark
+    public float compensateHumidity() {
+        return Bmx280.compensateHumidity(mRawHumidity, mFineTemperature, mHumidityCalibration);
+    }
+
+    /**
+     * Everything {@link Bmx280#readTemperaturePressureAndHumidity()} computes after the bus reads.
+     */
+    @Benchmark
+    public float[] compensateAll() {
+        final float[] temperatures = Bmx280.compensateTemperature(mRawTemperature, mTempCalibration);
+        final float pressure = Bmx280.compensatePressure(mRawPressure, temperatures[1], mPressureCalibration);
+        final float humidity = Bmx280.compensateHumidity(mRawHumidity, temperatures[1], mHumidityCalibration);
+        return new float[]{temperatures[0], pressure, humidity};
+    }
+}
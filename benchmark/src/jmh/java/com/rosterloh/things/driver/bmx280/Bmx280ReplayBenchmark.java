@@ -0,0 +1,84 @@
+package com.rosterloh.things.driver.bmx280;
+
+import com.rosterloh.things.driver.core.Clock;
+import com.rosterloh.things.driver.core.TraceRecorder;
+import com.rosterloh.things.driver.core.TraceReplayBus;
+import com.rosterloh.things.driver.testutils.Bmx280Emulator;
+import com.rosterloh.things.driver.testutils.VirtualClock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full {@link Bmx280#readTemperaturePressureAndHumidity()} calls, bus transactions included,
+ * played back from a trace at full speed. By default the trace is recorded from the emulator;
+ * pass {@code -p trace=/path/to/trace} to replay one captured on a device instead. The trace
+ * must hold the driver start up, then the same oversampling and mode set up as here, then any
+ * number of reads. The drivers time their reads with {@link Clock#SYSTEM} here, since there is
+ * no SystemClock off the device.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class Bmx280ReplayBenchmark {
+
+    private static final int READS = 100;
+
+    @Param("")
+    public String trace;
+
+    private TraceReplayBus mReplay;
+    private Bmx280 mBmx280;
+
+    @Setup
+    public void setUp() throws IOException {
+        try (InputStream in = trace.isEmpty() ? record() : new FileInputStream(trace)) {
+            mReplay = new TraceReplayBus(in);
+        }
+        mBmx280 = new Bmx280(mReplay, Clock.SYSTEM);
+        configure(mBmx280);
+        mReplay.mark();
+    }
+
+    @Benchmark
+    public float[] readTemperaturePressureAndHumidity() throws IOException {
+        if (mReplay.isFinished()) {
+            mReplay.reset();
+        }
+        return mBmx280.readTemperaturePressureAndHumidity();
+    }
+
+    private static InputStream record() throws IOException {
+        final VirtualClock clock = new VirtualClock();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Bmx280 bmx280 = new Bmx280(new TraceRecorder(
+                new Bmx280Emulator(Bmx280.CHIP_ID_BME280, clock), out, clock), clock)) {
+            configure(bmx280);
+            for (int i = 0; i < READS; i++) {
+                clock.advanceMillis(10);
+                bmx280.readTemperaturePressureAndHumidity();
+            }
+        }
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    private static void configure(Bmx280 bmx280) throws IOException {
+        bmx280.setTemperatureOversampling(Bmx280.OVERSAMPLING_1X);
+        bmx280.setPressureOversampling(Bmx280.OVERSAMPLING_1X);
+        bmx280.setHumidityOversampling(Bmx280.OVERSAMPLING_1X);
+        bmx280.setMode(Bmx280.MODE_NORMAL);
+    }
+}
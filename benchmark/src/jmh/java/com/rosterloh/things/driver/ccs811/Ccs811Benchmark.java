@@ -0,0 +1,27 @@
+package com.rosterloh.things.driver.ccs811;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Result decoding of {@link Ccs811}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class Ccs811Benchmark {
+
+    // 1200 ppm eCO2, 150 ppb TVOC, data ready in application mode
+    private byte[] mAlgResultData = {0x04, (byte) 0xB0, 0x00, (byte) 0x96, (byte) 0x98, 0x00, 0x01, 0x2C};
+
+    @Benchmark
+    public int[] decodeAlgorithmResults() {
+        return Ccs811.decodeAlgorithmResults(mAlgResultData);
+    }
+}
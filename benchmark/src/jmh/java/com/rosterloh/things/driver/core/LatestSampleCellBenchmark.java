@@ -0,0 +1,47 @@
+package com.rosterloh.things.driver.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One thread publishing BMx280 samples into a {@link LatestSampleCell} while three threads read
+ * them. Neither side should allocate.
+ */
+@State(Scope.Group)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LatestSampleCellBenchmark {
+
+    private final LatestSampleCell mCell = new LatestSampleCell(3, 0, Clock.SYSTEM);
+    private final float[] mSample = {25.08f, 1006.53f, 71.68f};
+
+    @Benchmark
+    @Group("cell")
+    @GroupThreads(1)
+    public void publish() {
+        mCell.publish(mSample, null);
+    }
+
+    @Benchmark
+    @Group("cell")
+    @GroupThreads(3)
+    public long read(Reader reader) {
+        return mCell.read(reader.mValues, null);
+    }
+
+    /**
+     * Per reader destination array.
+     */
+    @State(Scope.Thread)
+    public static class Reader {
+        private final float[] mValues = new float[3];
+    }
+}
@@ -0,0 +1,55 @@
+package com.rosterloh.things.driver.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link RollingStatistics} over 1 min, 15 min and 1 h of 1 Hz samples, kept full so every add
+ * also expires a sample from each window. Adds should report no allocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RollingStatisticsBenchmark {
+
+    private static final long PERIOD = TimeUnit.SECONDS.toNanos(1);
+    private static final int VALUES = 4096;
+
+    private final float[] mValues = new float[VALUES];
+    private RollingStatistics mStatistics;
+    private long mTimestamp;
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(1);
+        for (int i = 0; i < VALUES; i++) {
+            mValues[i] = 21f + (float) random.nextGaussian();
+        }
+        mStatistics = RollingStatistics.forPeriod(PERIOD);
+        for (int i = 0; i < 3600; i++) {
+            add();
+        }
+    }
+
+    @Benchmark
+    public void add() {
+        mTimestamp += PERIOD;
+        mStatistics.add(mTimestamp, mValues[mNext]);
+        mNext = (mNext + 1) & (VALUES - 1);
+    }
+
+    @Benchmark
+    public float query() {
+        return mStatistics.getStandardDeviation(RollingStatistics.ONE_HOUR_WINDOW)
+                + mStatistics.getMax(RollingStatistics.FIFTEEN_MINUTE_WINDOW);
+    }
+}
@@ -0,0 +1,56 @@
+package com.rosterloh.things.driver.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends to a {@link SampleLogWriter} without syncing. Apart from the occasional segment roll
+ * these should report no allocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SampleLogBenchmark {
+
+    private File mDirectory;
+    private SampleLogWriter mWriter;
+    private float[] mBmx280 = {25.08f, 1006.53f, 71.68f};
+    private int[] mCcs811 = {400, 0, 0x98, 0};
+    private long mTimestamp;
+
+    @Setup
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("samplelog").toFile();
+        mWriter = new SampleLogWriter(mDirectory, SampleLogWriter.DEFAULT_RECORDS_PER_SEGMENT, 4);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mWriter.close();
+        for (File file : mDirectory.listFiles()) {
+            file.delete();
+        }
+        mDirectory.delete();
+    }
+
+    @Benchmark
+    public void appendCompensated() throws IOException {
+        mWriter.append(mTimestamp++, 1, mBmx280);
+    }
+
+    @Benchmark
+    public void appendRaw() throws IOException {
+        mWriter.appendRaw(mTimestamp++, 2, mCcs811);
+    }
+}
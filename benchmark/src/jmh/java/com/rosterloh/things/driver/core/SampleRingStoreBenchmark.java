@@ -0,0 +1,49 @@
+package com.rosterloh.things.driver.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends and range queries of {@link SampleRingStore} holding two weeks of 1 Hz samples with
+ * three float channels. Both should report no allocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SampleRingStoreBenchmark {
+
+    private static final int CAPACITY = SampleRingStore.capacityFor(14 * 24 * 3600, 1);
+
+    private SampleRingStore mStore;
+    private float[] mSample = {25.08f, 1006.53f, 71.68f};
+    private float[] mHour = new float[3600];
+    private long mTimestamp;
+
+    @Setup
+    public void setUp() {
+        mStore = new SampleRingStore(CAPACITY, 3, 0);
+        for (int i = 0; i < CAPACITY; i++) {
+            mStore.append(mTimestamp++, mSample, null);
+        }
+    }
+
+    @Benchmark
+    public void append() {
+        mStore.append(mTimestamp++, mSample, null);
+    }
+
+    /**
+     * Pressure over the last hour.
+     */
+    @Benchmark
+    public int copyLastHour() {
+        return mStore.copyFloats(mTimestamp - 3600, mTimestamp, 1, mHour, 0);
+    }
+}
@@ -0,0 +1,63 @@
+package com.rosterloh.things.driver.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding one BME280 sample for upload: {@link SampleWireEncoder} into a reused buffer against
+ * the JSON it replaces. Encoding should report no allocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SampleWireBenchmark {
+
+    private static final long PERIOD = TimeUnit.SECONDS.toNanos(1);
+
+    private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(64 * 1024);
+    private final SampleWireEncoder mEncoder = new SampleWireEncoder();
+    private final SampleWireDecoder mDecoder = new SampleWireDecoder();
+    private final float[] mValues = {21.53f, 1006.53f, 45.21f};
+    private long mTimestamp;
+
+    @Setup
+    public void setUp() {
+        mEncoder.encode(mBuffer, 1, 0, 2, mValues, 3);
+    }
+
+    @Benchmark
+    public int encode() {
+        mTimestamp += PERIOD;
+        if (!mEncoder.encode(mBuffer, 1, mTimestamp, 2, mValues, 3)) {
+            mBuffer.clear();
+            mEncoder.reset();
+            mEncoder.encode(mBuffer, 1, mTimestamp, 2, mValues, 3);
+        }
+        return mBuffer.position();
+    }
+
+    @Benchmark
+    public int decode() {
+        mBuffer.position(0);
+        mDecoder.reset();
+        mDecoder.next(mBuffer);
+        return mDecoder.getSensorId();
+    }
+
+    @Benchmark
+    public byte[] json() {
+        mTimestamp += PERIOD;
+        return String.format(Locale.US, "{\"sensor\":%d,\"timestamp\":%d,\"values\":[%.2f,%.2f,%.2f]}",
+                1, mTimestamp, mValues[0], mValues[1], mValues[2]).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,46 @@
+package com.rosterloh.things.driver.htu21d;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checksum and conversion formulas of {@link Htu21d}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class Htu21dBenchmark {
+
+    private byte[] mSample = {0x68, 0x3A};
+    private int mRawTemperature = 28671;
+    private int mRawHumidity = 26662;
+
+    @Benchmark
+    public long calculateCRC8() {
+        return Htu21d.calculateCRC8(mSample);
+    }
+
+    /**
+     * CRC of a sample as {@code readSampleWithHold} calls it, copying the two data bytes first.
+     */
+    @Benchmark
+    public long calculateCRC8WithCopy() {
+        return Htu21d.calculateCRC8(new byte[]{mSample[0], mSample[1]});
+    }
+
+    @Benchmark
+    public float compensateTemperature() {
+        return Htu21d.compensateTemperature(mRawTemperature);
+    }
+
+    @Benchmark
+    public float compensateHumidity() {
+        return Htu21d.compensateHumidity(mRawHumidity);
+    }
+}
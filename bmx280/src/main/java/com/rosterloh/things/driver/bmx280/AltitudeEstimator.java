@@ -0,0 +1,228 @@
+package com.rosterloh.things.driver.bmx280;
+
+import com.rosterloh.things.driver.core.SampleTiming;
+
+import java.io.IOException;
+
+/**
+ * Altitude and vertical speed from the barometric pressure of a {@link Bmx280}, e.g. for
+ * altitude hold:
+ * <pre>
+ *     AltitudeEstimator estimator = new AltitudeEstimator();
+ *     estimator.setSeaLevelPressure(qnh);
+ *     // at the sensor's output rate
+ *     estimator.sample(bmx280);
+ *     float climbRate = estimator.getVerticalSpeed();
+ * </pre>
+ *
+ * <p>Each pressure sample is converted to altitude as in {@link Bmx280#computeAltitude(float)} and
+ * fed to a two state Kalman filter, altitude and vertical speed, driven by white noise
+ * acceleration. The acceleration noise sets how quickly the estimate follows real climbs and
+ * descents, the altitude noise how much it trusts a single sample. The filter keeps its state in
+ * a handful of primitive fields and does not allocate, so it can run at any rate the sensor
+ * delivers.
+ */
+public final class AltitudeEstimator {
+
+    /**
+     * Default standard deviation of the vertical acceleration, in m/s^2.
+     */
+    public static final float DEFAULT_ACCELERATION_NOISE = 1f;
+    /**
+     * Default standard deviation of the altitude of a single sample, in m.
+     */
+    public static final float DEFAULT_ALTITUDE_NOISE = 0.5f;
+    /**
+     * Sea-level pressure of the standard atmosphere, in hPa.
+     * @deprecated use {@link Bmx280#STANDARD_SEA_LEVEL_PRESSURE_HPA}
+     */
+    @Deprecated
+    public static final float STANDARD_SEA_LEVEL_PRESSURE_HPA = Bmx280.STANDARD_SEA_LEVEL_PRESSURE_HPA;
+
+    private static final double NANOS_PER_SECOND = 1e9;
+    // Variance of the vertical speed before the second sample, (10 m/s)^2
+    private static final double INITIAL_SPEED_VARIANCE = 100;
+
+    private final double mAccelerationVariance;
+    private final double mAltitudeVariance;
+    // Bus timestamps of sample(), also its lock so the getters are not held up by the read
+    private final long[] mTimestamps = new long[2];
+    private float mSeaLevelPressure = Bmx280.STANDARD_SEA_LEVEL_PRESSURE_HPA;
+    private float mSeaLevelPressureInverse = 1f / Bmx280.STANDARD_SEA_LEVEL_PRESSURE_HPA;
+    private float mLastPressure;
+    private long mLastTimestamp;
+    private long mUpdateCount;
+    private double mAltitude;
+    private double mSpeed;
+    // Covariance of altitude and speed, symmetric so P10 == P01
+    private double mP00;
+    private double mP01;
+    private double mP11;
+
+    /**
+     * Create an estimator with the default noise.
+     */
+    public AltitudeEstimator() {
+        this(DEFAULT_ACCELERATION_NOISE, DEFAULT_ALTITUDE_NOISE);
+    }
+
+    /**
+     * Create an estimator.
+     * @param accelerationNoise standard deviation of the vertical acceleration in m/s^2. Higher
+     *                          values follow changes faster but smooth less.
+     * @param altitudeNoise standard deviation of the altitude of a single sample in m.
+     */
+    public AltitudeEstimator(float accelerationNoise, float altitudeNoise) {
+        if (!(accelerationNoise > 0) || !(altitudeNoise > 0)) {
+            throw new IllegalArgumentException("invalid noise " + accelerationNoise + "/" + altitudeNoise);
+        }
+        mAccelerationVariance = (double) accelerationNoise * accelerationNoise;
+        mAltitudeVariance = (double) altitudeNoise * altitudeNoise;
+    }
+
+    /**
+     * Set the pressure at sea level that altitude is referenced to, e.g. the local QNH. The
+     * current estimate moves with the reference, so the vertical speed is not disturbed.
+     * @param pressure sea-level pressure in hPa.
+     */
+    public synchronized void setSeaLevelPressure(float pressure) {
+        if (!(pressure > 0)) {
+            throw new IllegalArgumentException("invalid sea-level pressure " + pressure);
+        }
+        final float inverse = 1f / pressure;
+        if (mUpdateCount > 0) {
+            mAltitude += BarometricAltitude.fast(mLastPressure, inverse)
+                    - BarometricAltitude.fast(mLastPressure, mSeaLevelPressureInverse);
+        }
+        mSeaLevelPressure = pressure;
+        mSeaLevelPressureInverse = inverse;
+    }
+
+    /**
+     * Returns the pressure at sea level in hPa.
+     */
+    public synchronized float getSeaLevelPressure() {
+        return mSeaLevelPressure;
+    }
+
+    /**
+     * Read the pressure of a sensor and add it to the estimate, timestamped at the middle of its
+     * bus transactions. Concurrent calls read one after another.
+     * @param bmx280 sensor with pressure sampling enabled.
+     * @return the estimated altitude in m
+     * @throws IOException on failure
+     * @throws IllegalStateException on configuration error
+     */
+    public float sample(Bmx280 bmx280) throws IOException, IllegalStateException {
+        synchronized (mTimestamps) {
+            final float pressure = bmx280.readTemperatureAndPressure(mTimestamps)[1];
+            return update(SampleTiming.midpoint(mTimestamps[0], mTimestamps[1]), pressure);
+        }
+    }
+
+    /**
+     * Add a pressure sample to the estimate.
+     * @param timestampNanos time of the sample, after the previous one.
+     * @param pressure barometric pressure in hPa.
+     * @return the estimated altitude in m
+     */
+    public synchronized float update(long timestampNanos, float pressure) {
+        final double measured = BarometricAltitude.fast(pressure, mSeaLevelPressureInverse);
+        if (mUpdateCount == 0) {
+            mAltitude = measured;
+            mSpeed = 0;
+            mP00 = mAltitudeVariance;
+            mP01 = 0;
+            mP11 = INITIAL_SPEED_VARIANCE;
+        } else {
+            if (timestampNanos <= mLastTimestamp) {
+                throw new IllegalArgumentException("timestamp " + timestampNanos + " not after last sample");
+            }
+            predict((timestampNanos - mLastTimestamp) / NANOS_PER_SECOND);
+            correct(measured);
+        }
+        mLastTimestamp = timestampNanos;
+        mLastPressure = pressure;
+        mUpdateCount++;
+        return (float) mAltitude;
+    }
+
+    /**
+     * Returns the estimated altitude in m above the sea-level reference.
+     */
+    public synchronized float getAltitude() {
+        return (float) mAltitude;
+    }
+
+    /**
+     * Returns the estimated vertical speed in m/s, positive when climbing.
+     */
+    public synchronized float getVerticalSpeed() {
+        return (float) mSpeed;
+    }
+
+    /**
+     * Returns the standard deviation of the estimated altitude in m.
+     */
+    public synchronized float getAltitudeUncertainty() {
+        return (float) Math.sqrt(mP00);
+    }
+
+    /**
+     * Returns the standard deviation of the estimated vertical speed in m/s.
+     */
+    public synchronized float getVerticalSpeedUncertainty() {
+        return (float) Math.sqrt(mP11);
+    }
+
+    /**
+     * Returns the timestamp of the last sample.
+     */
+    public synchronized long getTimestampNanos() {
+        return mLastTimestamp;
+    }
+
+    /**
+     * Returns the number of samples in the estimate.
+     */
+    public synchronized long getUpdateCount() {
+        return mUpdateCount;
+    }
+
+    /**
+     * Forget the estimate, so the next sample starts a new one. The sea-level reference is kept.
+     */
+    public synchronized void reset() {
+        mUpdateCount = 0;
+        mLastTimestamp = 0;
+        mAltitude = 0;
+        mSpeed = 0;
+    }
+
+    /**
+     * Move the state dt seconds ahead at constant speed and grow its covariance by the
+     * acceleration noise: P = F P F' + G q G' with F = [1 dt; 0 1] and G = [dt^2/2; dt].
+     */
+    private void predict(double dt) {
+        final double dt2 = dt * dt;
+        mAltitude += mSpeed * dt;
+        mP00 += dt * (2 * mP01 + dt * mP11) + mAccelerationVariance * dt2 * dt2 / 4;
+        mP01 += dt * mP11 + mAccelerationVariance * dt2 * dt / 2;
+        mP11 += mAccelerationVariance * dt2;
+    }
+
+    /**
+     * Blend in a measured altitude, weighted by the Kalman gain.
+     */
+    private void correct(double measured) {
+        final double innovation = measured - mAltitude;
+        final double s = mP00 + mAltitudeVariance;
+        final double k0 = mP00 / s;
+        final double k1 = mP01 / s;
+        mAltitude += k0 * innovation;
+        mSpeed += k1 * innovation;
+        mP11 -= k1 * mP01;
+        mP00 -= k0 * mP00;
+        mP01 -= k0 * mP01;
+    }
+}
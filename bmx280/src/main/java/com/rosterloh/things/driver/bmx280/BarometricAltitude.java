@@ -0,0 +1,66 @@
+package com.rosterloh.things.driver.bmx280;
+
+/**
+ * Pressure to altitude conversion with the international barometric formula,
+ * h = 44330 m * (1 - (p / p0)^(1 / 5.255)).
+ *
+ * <p>{@link #fast(float, float)} avoids the Math.pow of the exact formula by interpolating a
+ * table of the formula over pressure ratios from 0.25 to 1.25. That covers the sensor's 300 to
+ * 1100 hPa at any sea-level reference from 880 to 1200 hPa. The table holds 1025 floats and the
+ * interpolated altitude stays within {@link #MAX_ERROR_M} of the exact formula; ratios outside
+ * the table fall back to the exact formula.
+ */
+/*package*/ final class BarometricAltitude {
+
+    /**
+     * Maximum difference between {@link #fast(float, float)} and {@link #exact(float, float)}, in
+     * m, over the range of the table.
+     */
+    static final float MAX_ERROR_M = 0.02f;
+
+    private static final double METERS = 44330.0;
+    private static final double EXPONENT = 1.0 / 5.255;
+    private static final float MIN_RATIO = 0.25f;
+    private static final float MAX_RATIO = 1.25f;
+    private static final int INTERVALS = 1024;
+    private static final float INTERVALS_PER_RATIO = INTERVALS / (MAX_RATIO - MIN_RATIO);
+    private static final float[] TABLE = new float[INTERVALS + 1];
+
+    static {
+        for (int i = 0; i <= INTERVALS; i++) {
+            TABLE[i] = (float) exact(MIN_RATIO + i / (double) INTERVALS_PER_RATIO);
+        }
+    }
+
+    private BarometricAltitude() {
+    }
+
+    /**
+     * Returns the altitude in m of a pressure, using the exact formula.
+     * @param pressure pressure in hPa.
+     * @param seaLevelPressure sea-level reference in hPa.
+     */
+    static float exact(float pressure, float seaLevelPressure) {
+        return (float) exact(pressure / (double) seaLevelPressure);
+    }
+
+    /**
+     * Returns the altitude in m of a pressure, interpolated from the table.
+     * @param pressure pressure in hPa.
+     * @param seaLevelPressureInverse reciprocal of the sea-level reference in 1/hPa.
+     */
+    static float fast(float pressure, float seaLevelPressureInverse) {
+        final float ratio = pressure * seaLevelPressureInverse;
+        if (!(ratio >= MIN_RATIO && ratio < MAX_RATIO)) {
+            return (float) exact(ratio);
+        }
+        final float position = (ratio - MIN_RATIO) * INTERVALS_PER_RATIO;
+        final int index = Math.min((int) position, INTERVALS - 1);
+        final float fraction = position - index;
+        return TABLE[index] + fraction * (TABLE[index + 1] - TABLE[index]);
+    }
+
+    private static double exact(double ratio) {
+        return METERS * (1.0 - Math.pow(ratio, EXPONENT));
+    }
+}
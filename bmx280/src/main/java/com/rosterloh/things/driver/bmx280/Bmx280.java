@@ -4,7 +4,13 @@ import android.support.annotation.IntDef;
 import android.support.annotation.VisibleForTesting;
 
 import com.google.android.things.pio.I2cDevice;
-import com.google.android.things.pio.PeripheralManagerService;
+import com.rosterloh.things.driver.core.BusDevice;
+import com.rosterloh.things.driver.core.BusDiscovery;
+import com.rosterloh.things.driver.core.Clock;
+import com.rosterloh.things.driver.core.I2cRegisterBus;
+import com.rosterloh.things.driver.core.RegisterBus;
+import com.rosterloh.things.driver.core.RollingStatistics;
+import com.rosterloh.things.driver.core.SampleTiming;
 
 import java.io.IOException;
 import java.lang.annotation.Retention;
@@ -14,7 +20,7 @@ import java.lang.annotation.RetentionPolicy;
  * Driver for the BMP/BME 280 temperature sensor.
  */
 @SuppressWarnings({"unused", "WeakerAccess"})
-public class Bmx280 implements AutoCloseable {
+public class Bmx280 extends BusDevice {
 
     /**
      * Chip ID for the BMP280
@@ -47,6 +53,17 @@ public class Bmx280 implements AutoCloseable {
      * Maximum pressure in hPa the sensor can measure.
      */
     public static final float MAX_PRESSURE_HPA = 1100f;
+
+    /**
+     * Sea-level pressure of the standard atmosphere, in hPa.
+     */
+    public static final float STANDARD_SEA_LEVEL_PRESSURE_HPA = 1013.25f;
+
+    /**
+     * Maximum difference in m between {@link #computeAltitude(float)} and the exact barometric
+     * formula, for pressures of 300 to 1100 hPa and sea-level references of 880 to 1200 hPa.
+     */
+    public static final float MAX_ALTITUDE_ERROR_M = BarometricAltitude.MAX_ERROR_M;
     /**
      * Maximum power consumption in micro-amperes when measuring temperature.
      */
@@ -55,6 +72,18 @@ public class Bmx280 implements AutoCloseable {
      * Maximum power consumption in micro-amperes when measuring pressure.
      */
     public static final float MAX_POWER_CONSUMPTION_PRESSURE_UA = 720f;
+    /**
+     * Maximum power consumption in micro-amperes when measuring humidity (BME280 only).
+     */
+    public static final float MAX_POWER_CONSUMPTION_HUMIDITY_UA = 340f;
+    /**
+     * Maximum power consumption in micro-amperes in sleep mode.
+     */
+    public static final float MAX_POWER_CONSUMPTION_SLEEP_UA = 0.3f;
+    /**
+     * Maximum power consumption in micro-amperes in standby between normal mode measurements.
+     */
+    public static final float MAX_POWER_CONSUMPTION_STANDBY_UA = 0.5f;
     /**
      * Maximum frequency of the measurements.
      */
@@ -88,6 +117,35 @@ public class Bmx280 implements AutoCloseable {
     public static final int OVERSAMPLING_8X = 4;
     public static final int OVERSAMPLING_16X = 5;
 
+    /**
+     * IIR filter coefficient.
+     */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({FILTER_OFF, FILTER_2, FILTER_4, FILTER_8, FILTER_16})
+    public @interface Filter {}
+    public static final int FILTER_OFF = 0;
+    public static final int FILTER_2 = 1;
+    public static final int FILTER_4 = 2;
+    public static final int FILTER_8 = 3;
+    public static final int FILTER_16 = 4;
+
+    /**
+     * Finds a BMP280 or BME280 at either address for {@link BusDiscovery}, from its chip id.
+     */
+    public static final BusDiscovery.Device<Bmx280> DISCOVERY =
+            new BusDiscovery.Device<Bmx280>("bmx280", 0x76, DEFAULT_I2C_ADDRESS) {
+        @Override
+        protected int identify(RegisterBus bus) throws IOException {
+            final int chipId = bus.readRegByte(BMX280_REG_ID) & 0xFF;
+            return chipId == CHIP_ID_BMP280 || chipId == CHIP_ID_BME280 ? chipId : NOT_IDENTIFIED;
+        }
+
+        @Override
+        protected Bmx280 connect(RegisterBus bus, Clock clock) throws IOException {
+            return new Bmx280(bus, clock);
+        }
+    };
+
     // Registers
     private static final int BMX280_REG_TEMP_CALIB_1 = 0x88;
     private static final int BMX280_REG_TEMP_CALIB_2 = 0x8A;
@@ -112,6 +170,7 @@ public class Bmx280 implements AutoCloseable {
     private static final int BMX280_REG_ID = 0xD0;
     private static final int BMX280_REG_CTRL_HUM = 0xF2;
     private static final int BMX280_REG_CTRL = 0xF4;
+    private static final int BMX280_REG_CONFIG = 0xF5;
 
     private static final int BMX280_REG_PRESS = 0xF7;
     private static final int BMX280_REG_TEMP = 0xFA;
@@ -125,8 +184,16 @@ public class Bmx280 implements AutoCloseable {
     private static final int BMX280_OVERSAMPLING_PRESSURE_BITSHIFT = 2;
     private static final int BMX280_OVERSAMPLING_TEMPERATURE_MASK = 0b11100000;
     private static final int BMX280_OVERSAMPLING_TEMPERATURE_BITSHIFT = 5;
+    private static final int BMX280_FILTER_MASK = 0b00011100;
+    private static final int BMX280_FILTER_BITSHIFT = 2;
+
+    // Maximum measurement time, see datasheet section 9.1
+    private static final int MEASUREMENT_STARTUP_US = 1250;
+    private static final int MEASUREMENT_PER_SAMPLE_US = 2300;
+    private static final int MEASUREMENT_SETUP_US = 575;
+    // Normal mode standby time of the reset value of the config register, which is kept
+    private static final int STANDBY_US = 500;
 
-    private I2cDevice mDevice;
     private final int[] mTempCalibrationData = new int[3];
     private final int[] mPressureCalibrationData = new int[9];
     private final int[] mHumidityCalibrationData = new int[6];
@@ -137,6 +204,12 @@ public class Bmx280 implements AutoCloseable {
     private int mHumidityOversampling;
     private int mPressureOversampling;
     private int mTemperatureOversampling;
+    private int mFilter;
+    // Set from any thread, the reciprocal is taken per conversion so it always matches
+    private volatile float mSeaLevelPressure = STANDARD_SEA_LEVEL_PRESSURE_HPA;
+    private RollingStatistics mTemperatureStatistics;
+    private RollingStatistics mPressureStatistics;
+    private RollingStatistics mHumidityStatistics;
 
     /**
      * Create a new BMP/BME280 sensor driver connected on the given bus.
@@ -154,10 +227,29 @@ public class Bmx280 implements AutoCloseable {
      * @throws IOException if creation fails
      */
     public Bmx280(String bus, int address) throws IOException {
-        PeripheralManagerService pioService = new PeripheralManagerService();
-        I2cDevice device = pioService.openI2cDevice(bus, address);
+        this(I2cRegisterBus.open(bus, address));
+    }
+
+    /**
+     * Create a new BMP/BME280 sensor driver connected to the given register bus.
+     * @param bus register bus of the sensor, I2C or SPI.
+     * @throws IOException if creation fails
+     */
+    public Bmx280(RegisterBus bus) throws IOException {
+        this(bus, Clock.ELAPSED_REALTIME);
+    }
+
+    /**
+     * Create a new BMP/BME280 sensor driver connected to the given register bus.
+     * @param bus register bus of the sensor, I2C or SPI.
+     * @param clock time source of the sample timestamps and energy meter, e.g.
+     *              {@link Clock#SYSTEM} or a virtual clock in unit tests.
+     * @throws IOException if creation fails
+     */
+    public Bmx280(RegisterBus bus, Clock clock) throws IOException {
+        super(bus, clock);
         try {
-            connect(device);
+            connect();
         } catch (IOException e) {
             try {
                 close();
@@ -168,41 +260,52 @@ public class Bmx280 implements AutoCloseable {
     }
 
     /**
-     * Create a new BMP/BME280 sensor driver connected to the given I2c device.
+     * Create a new BMP/BME280 sensor driver connected to the given I2c device, timing with
+     * {@link Clock#SYSTEM}.
      * @param device I2C device of the sensor.
      * @throws IOException if creation fails
      */
     /*package*/  Bmx280(I2cDevice device) throws IOException {
-        connect(device);
+        this(device, Clock.SYSTEM);
+    }
+
+    /**
+     * Create a new BMP/BME280 sensor driver connected to the given I2c device.
+     * @param device I2C device of the sensor.
+     * @param clock time source of the sample timestamps and energy meter.
+     * @throws IOException if creation fails
+     */
+    /*package*/  Bmx280(I2cDevice device, Clock clock) throws IOException {
+        this(new I2cRegisterBus(device), clock);
     }
 
-    private void connect(I2cDevice device) throws IOException {
-        mDevice = device;
+    private void connect() throws IOException {
+        final RegisterBus bus = getBus();
 
-        mChipId = mDevice.readRegByte(BMX280_REG_ID);
+        mChipId = bus.readRegByte(BMX280_REG_ID);
 
         // Read temperature calibration data (3 words). First value is unsigned.
-        mTempCalibrationData[0] = mDevice.readRegWord(BMX280_REG_TEMP_CALIB_1) & 0xffff;
-        mTempCalibrationData[1] = (short) mDevice.readRegWord(BMX280_REG_TEMP_CALIB_2);
-        mTempCalibrationData[2] = (short) mDevice.readRegWord(BMX280_REG_TEMP_CALIB_3);
+        mTempCalibrationData[0] = bus.readRegWord(BMX280_REG_TEMP_CALIB_1) & 0xffff;
+        mTempCalibrationData[1] = (short) bus.readRegWord(BMX280_REG_TEMP_CALIB_2);
+        mTempCalibrationData[2] = (short) bus.readRegWord(BMX280_REG_TEMP_CALIB_3);
         // Read pressure calibration data (9 words). First value is unsigned.
-        mPressureCalibrationData[0] = mDevice.readRegWord(BMX280_REG_PRESS_CALIB_1) & 0xffff;
-        mPressureCalibrationData[1] = (short) mDevice.readRegWord(BMX280_REG_PRESS_CALIB_2);
-        mPressureCalibrationData[2] = (short) mDevice.readRegWord(BMX280_REG_PRESS_CALIB_3);
-        mPressureCalibrationData[3] = (short) mDevice.readRegWord(BMX280_REG_PRESS_CALIB_4);
-        mPressureCalibrationData[4] = (short) mDevice.readRegWord(BMX280_REG_PRESS_CALIB_5);
-        mPressureCalibrationData[5] = (short) mDevice.readRegWord(BMX280_REG_PRESS_CALIB_6);
-        mPressureCalibrationData[6] = (short) mDevice.readRegWord(BMX280_REG_PRESS_CALIB_7);
-        mPressureCalibrationData[7] = (short) mDevice.readRegWord(BMX280_REG_PRESS_CALIB_8);
-        mPressureCalibrationData[8] = (short) mDevice.readRegWord(BMX280_REG_PRESS_CALIB_9);
+        mPressureCalibrationData[0] = bus.readRegWord(BMX280_REG_PRESS_CALIB_1) & 0xffff;
+        mPressureCalibrationData[1] = (short) bus.readRegWord(BMX280_REG_PRESS_CALIB_2);
+        mPressureCalibrationData[2] = (short) bus.readRegWord(BMX280_REG_PRESS_CALIB_3);
+        mPressureCalibrationData[3] = (short) bus.readRegWord(BMX280_REG_PRESS_CALIB_4);
+        mPressureCalibrationData[4] = (short) bus.readRegWord(BMX280_REG_PRESS_CALIB_5);
+        mPressureCalibrationData[5] = (short) bus.readRegWord(BMX280_REG_PRESS_CALIB_6);
+        mPressureCalibrationData[6] = (short) bus.readRegWord(BMX280_REG_PRESS_CALIB_7);
+        mPressureCalibrationData[7] = (short) bus.readRegWord(BMX280_REG_PRESS_CALIB_8);
+        mPressureCalibrationData[8] = (short) bus.readRegWord(BMX280_REG_PRESS_CALIB_9);
         if (mChipId == CHIP_ID_BME280) {
             // Read humidity calibration data
-            mHumidityCalibrationData[0] = mDevice.readRegByte(BMX280_REG_HUM_CALIB_1) & 0xff; // unsigned char
-            mHumidityCalibrationData[1] = mDevice.readRegWord(BMX280_REG_HUM_CALIB_2); // signed short
-            mHumidityCalibrationData[2] = mDevice.readRegByte(BMX280_REG_HUM_CALIB_3) & 0xff; // unsigned char
+            mHumidityCalibrationData[0] = bus.readRegByte(BMX280_REG_HUM_CALIB_1) & 0xff; // unsigned char
+            mHumidityCalibrationData[1] = bus.readRegWord(BMX280_REG_HUM_CALIB_2); // signed short
+            mHumidityCalibrationData[2] = bus.readRegByte(BMX280_REG_HUM_CALIB_3) & 0xff; // unsigned char
 
             synchronized (mBuffer) {
-                mDevice.readRegBuffer(BMX280_REG_HUM_CALIB_4, mBuffer, 3);
+                bus.readRegBuffer(BMX280_REG_HUM_CALIB_4, mBuffer, 3);
                 // msb[7:0] lsb[7:0] xlsb[7:4]
                 int e4 = mBuffer[0] & 0xff;
                 int e5 = mBuffer[1] & 0xff;
@@ -212,8 +315,9 @@ public class Bmx280 implements AutoCloseable {
                 // e5[7:4] e6[7:0]
                 mHumidityCalibrationData[4] = ((e5 & 0xf0) << 4) | e6;
             }
-            mHumidityCalibrationData[5] = mDevice.readRegByte(BMX280_REG_HUM_CALIB_7); // signed char
+            mHumidityCalibrationData[5] = bus.readRegByte(BMX280_REG_HUM_CALIB_7); // signed char
         }
+        updateEnergyMeter();
     }
 
     /**
@@ -223,18 +327,16 @@ public class Bmx280 implements AutoCloseable {
      * @throws IllegalStateException if device is not open
      */
     public void setMode(@Mode int mode) throws IOException, IllegalStateException {
-        if (mDevice == null) {
-            throw new IllegalStateException("I2C device not open");
-        }
-
-        int regCtrl = mDevice.readRegByte(BMX280_REG_CTRL) & 0xff;
+        final RegisterBus bus = getBus();
+        int regCtrl = bus.readRegByte(BMX280_REG_CTRL) & 0xff;
         if (mode == MODE_SLEEP) {
             regCtrl &= ~BMX280_POWER_MODE_MASK;
         } else {
             regCtrl |= BMX280_POWER_MODE_NORMAL;
         }
-        mDevice.writeRegByte(BMX280_REG_CTRL, (byte) (regCtrl));
+        bus.writeRegByte(BMX280_REG_CTRL, (byte) (regCtrl));
         mMode = mode;
+        updateEnergyMeter();
     }
 
     /**
@@ -243,21 +345,17 @@ public class Bmx280 implements AutoCloseable {
      * @throws IOException on failure
      */
     public void setHumidityOversampling(@Oversampling int oversampling) throws IOException {
-        if (mDevice == null) {
-            throw new IllegalStateException("I2C device not open");
-        }
+        final RegisterBus bus = getBus();
         if (mChipId != CHIP_ID_BME280) {
             throw new IllegalStateException("device does not support humidity measurement");
         }
 
-        int regCtrl = mDevice.readRegByte(BMX280_REG_CTRL_HUM) & 0xff;
-        if (oversampling == OVERSAMPLING_SKIPPED) {
-            regCtrl &= ~BMX280_OVERSAMPLING_HUMIDITY_MASK;
-        } else {
-            regCtrl |= oversampling;
-        }
-        mDevice.writeRegByte(BMX280_REG_CTRL_HUM, (byte) (regCtrl));
+        int regCtrl = bus.readRegByte(BMX280_REG_CTRL_HUM) & 0xff;
+        regCtrl &= ~BMX280_OVERSAMPLING_HUMIDITY_MASK;
+        regCtrl |= oversampling;
+        bus.writeRegByte(BMX280_REG_CTRL_HUM, (byte) (regCtrl));
         mHumidityOversampling = oversampling;
+        updateEnergyMeter();
     }
 
     /**
@@ -267,18 +365,13 @@ public class Bmx280 implements AutoCloseable {
      * @throws IllegalStateException if device is not open
      */
     public void setTemperatureOversampling(@Oversampling int oversampling) throws IOException, IllegalStateException {
-        if (mDevice == null) {
-            throw new IllegalStateException("I2C device not open");
-        }
-
-        int regCtrl = mDevice.readRegByte(BMX280_REG_CTRL) & 0xff;
-        if (oversampling == OVERSAMPLING_SKIPPED) {
-            regCtrl &= ~BMX280_OVERSAMPLING_TEMPERATURE_MASK;
-        } else {
-            regCtrl |= oversampling << BMX280_OVERSAMPLING_TEMPERATURE_BITSHIFT;
-        }
-        mDevice.writeRegByte(BMX280_REG_CTRL, (byte) (regCtrl));
+        final RegisterBus bus = getBus();
+        int regCtrl = bus.readRegByte(BMX280_REG_CTRL) & 0xff;
+        regCtrl &= ~BMX280_OVERSAMPLING_TEMPERATURE_MASK;
+        regCtrl |= oversampling << BMX280_OVERSAMPLING_TEMPERATURE_BITSHIFT;
+        bus.writeRegByte(BMX280_REG_CTRL, (byte) (regCtrl));
         mTemperatureOversampling = oversampling;
+        updateEnergyMeter();
     }
 
     /**
@@ -288,33 +381,136 @@ public class Bmx280 implements AutoCloseable {
      * @throws IllegalStateException if device is not open
      */
     public void setPressureOversampling(@Oversampling int oversampling) throws IOException, IllegalStateException {
-        if (mDevice == null) {
-            throw new IllegalStateException("I2C device not open");
+        final RegisterBus bus = getBus();
+        int regCtrl = bus.readRegByte(BMX280_REG_CTRL) & 0xff;
+        regCtrl &= ~BMX280_OVERSAMPLING_PRESSURE_MASK;
+        regCtrl |= oversampling << BMX280_OVERSAMPLING_PRESSURE_BITSHIFT;
+        bus.writeRegByte(BMX280_REG_CTRL, (byte) (regCtrl));
+        mPressureOversampling = oversampling;
+        updateEnergyMeter();
+    }
+
+    /**
+     * Returns the humidity oversampling multiplier.
+     */
+    public @Oversampling int getHumidityOversampling() {
+        return mHumidityOversampling;
+    }
+
+    /**
+     * Returns the temperature oversampling multiplier.
+     */
+    public @Oversampling int getTemperatureOversampling() {
+        return mTemperatureOversampling;
+    }
+
+    /**
+     * Returns the pressure oversampling multiplier.
+     */
+    public @Oversampling int getPressureOversampling() {
+        return mPressureOversampling;
+    }
+
+    /**
+     * Set the coefficient of the IIR filter applied to temperature and pressure. The filter
+     * smooths short term disturbances at the cost of a slower step response. Writes to the
+     * config register may be ignored in normal mode, so the sensor is put to sleep while it is
+     * written and its power mode restored afterwards.
+     * @param filter filter coefficient.
+     * @throws IOException on failure
+     * @throws IllegalStateException if device is not open
+     */
+    public void setFilter(@Filter int filter) throws IOException, IllegalStateException {
+        final RegisterBus bus = getBus();
+        final int regCtrl = bus.readRegByte(BMX280_REG_CTRL) & 0xff;
+        final boolean sleeping = (regCtrl & BMX280_POWER_MODE_MASK) == BMX280_POWER_MODE_SLEEP;
+        if (!sleeping) {
+            bus.writeRegByte(BMX280_REG_CTRL, (byte) (regCtrl & ~BMX280_POWER_MODE_MASK));
+        }
+        int regConfig = bus.readRegByte(BMX280_REG_CONFIG) & 0xff;
+        regConfig &= ~BMX280_FILTER_MASK;
+        regConfig |= filter << BMX280_FILTER_BITSHIFT;
+        bus.writeRegByte(BMX280_REG_CONFIG, (byte) (regConfig));
+        if (!sleeping) {
+            bus.writeRegByte(BMX280_REG_CTRL, (byte) (regCtrl));
         }
+        mFilter = filter;
+    }
 
-        int regCtrl = mDevice.readRegByte(BMX280_REG_CTRL) & 0xff;
-        if (oversampling == OVERSAMPLING_SKIPPED) {
-            regCtrl &= ~BMX280_OVERSAMPLING_PRESSURE_MASK;
-        } else {
-            regCtrl |= oversampling << BMX280_OVERSAMPLING_PRESSURE_BITSHIFT;
+    /**
+     * Returns the IIR filter coefficient.
+     */
+    public @Filter int getFilter() {
+        return mFilter;
+    }
+
+    /**
+     * Returns the maximum time of one measurement with the current oversampling, in microseconds.
+     */
+    public int getMeasurementTimeUs() {
+        return getMeasurementTimeUs(mTemperatureOversampling, mPressureOversampling, mHumidityOversampling);
+    }
+
+    /**
+     * Returns the maximum time of one measurement, in microseconds. See datasheet section 9.1.
+     * @param temperature temperature oversampling multiplier.
+     * @param pressure pressure oversampling multiplier.
+     * @param humidity humidity oversampling multiplier.
+     */
+    public static int getMeasurementTimeUs(@Oversampling int temperature, @Oversampling int pressure,
+                                           @Oversampling int humidity) {
+        int time = MEASUREMENT_STARTUP_US + MEASUREMENT_PER_SAMPLE_US * sampleCount(temperature);
+        if (pressure != OVERSAMPLING_SKIPPED) {
+            time += MEASUREMENT_PER_SAMPLE_US * sampleCount(pressure) + MEASUREMENT_SETUP_US;
         }
-        mDevice.writeRegByte(BMX280_REG_CTRL, (byte) (regCtrl));
-        mPressureOversampling = oversampling;
+        if (humidity != OVERSAMPLING_SKIPPED) {
+            time += MEASUREMENT_PER_SAMPLE_US * sampleCount(humidity) + MEASUREMENT_SETUP_US;
+        }
+        return time;
     }
 
     /**
-     * Close the driver and the underlying device.
-     * @throws IOException on failure
+     * Returns the estimated supply current in the current mode and oversampling, in micro-amperes.
      */
-    @Override
-    public void close() throws IOException {
-        if (mDevice != null) {
-            try {
-                mDevice.close();
-            } finally {
-                mDevice = null;
-            }
+    public float getSupplyCurrentUa() {
+        return getSupplyCurrentUa(mMode, mTemperatureOversampling, mPressureOversampling, mHumidityOversampling);
+    }
+
+    /**
+     * Returns the estimated supply current in micro-amperes. In normal mode the sensor measures
+     * back to back, 0.5 ms of standby apart, so the current is the charge of one measurement at
+     * the maximum current of each phase averaged over the cycle.
+     * @param mode power mode.
+     * @param temperature temperature oversampling multiplier.
+     * @param pressure pressure oversampling multiplier.
+     * @param humidity humidity oversampling multiplier.
+     */
+    public static float getSupplyCurrentUa(@Mode int mode, @Oversampling int temperature,
+                                           @Oversampling int pressure, @Oversampling int humidity) {
+        if (mode == MODE_SLEEP) {
+            return MAX_POWER_CONSUMPTION_SLEEP_UA;
+        }
+        // Charge in microampere microseconds; the startup phase is counted at the temperature current
+        float charge = (MEASUREMENT_STARTUP_US + MEASUREMENT_PER_SAMPLE_US * sampleCount(temperature))
+                * MAX_POWER_CONSUMPTION_TEMP_UA;
+        if (pressure != OVERSAMPLING_SKIPPED) {
+            charge += (MEASUREMENT_PER_SAMPLE_US * sampleCount(pressure) + MEASUREMENT_SETUP_US)
+                    * MAX_POWER_CONSUMPTION_PRESSURE_UA;
+        }
+        if (humidity != OVERSAMPLING_SKIPPED) {
+            charge += (MEASUREMENT_PER_SAMPLE_US * sampleCount(humidity) + MEASUREMENT_SETUP_US)
+                    * MAX_POWER_CONSUMPTION_HUMIDITY_UA;
         }
+        charge += STANDBY_US * MAX_POWER_CONSUMPTION_STANDBY_UA;
+        return charge / (getMeasurementTimeUs(temperature, pressure, humidity) + STANDBY_US);
+    }
+
+    private static int sampleCount(@Oversampling int oversampling) {
+        return oversampling == OVERSAMPLING_SKIPPED ? 0 : 1 << (oversampling - 1);
+    }
+
+    private void updateEnergyMeter() {
+        getEnergyMeter().setState(mMode, getSupplyCurrentUa());
     }
 
     /**
@@ -343,8 +539,13 @@ public class Bmx280 implements AutoCloseable {
         if (mTemperatureOversampling == OVERSAMPLING_SKIPPED) {
             throw new IllegalStateException("temperature oversampling is skipped");
         }
+        final SampleTiming timing = getSampleTiming();
+        final long start = timing.begin();
         int rawTemp = readSample(BMX280_REG_TEMP);
-        return compensateTemperature(rawTemp, mTempCalibrationData)[0];
+        final long timestamp = SampleTiming.midpoint(start, timing.end(start));
+        final float temperature = compensateTemperature(rawTemp, mTempCalibrationData)[0];
+        addToStatistics(mTemperatureStatistics, timestamp, temperature);
+        return temperature;
     }
 
     /**
@@ -360,6 +561,82 @@ public class Bmx280 implements AutoCloseable {
         return values[1];
     }
 
+    /**
+     * Read the current altitude, see {@link #computeAltitude(float)}.
+     * @return the altitude in m above the sea-level reference
+     * @throws IOException on failure
+     * @throws IllegalStateException on configuration error
+     */
+    public float readAltitude() throws IOException, IllegalStateException {
+        return computeAltitude(readPressure());
+    }
+
+    /**
+     * Set the pressure at sea level that altitudes are referenced to, e.g. the local QNH. The
+     * default is {@link #STANDARD_SEA_LEVEL_PRESSURE_HPA}.
+     * @param pressure sea-level pressure in hPa.
+     */
+    public void setSeaLevelPressure(float pressure) {
+        if (!(pressure > 0)) {
+            throw new IllegalArgumentException("invalid sea-level pressure " + pressure);
+        }
+        mSeaLevelPressure = pressure;
+    }
+
+    /**
+     * Returns the pressure at sea level in hPa.
+     */
+    public float getSeaLevelPressure() {
+        return mSeaLevelPressure;
+    }
+
+    /**
+     * Convert a pressure to altitude above the sea-level reference. The barometric formula is
+     * interpolated from a table, which is several times faster than
+     * {@link #computeAltitudeExact(float, float)} and within {@link #MAX_ALTITUDE_ERROR_M} of it
+     * over the sensor's pressure range.
+     * @param pressure barometric pressure in hPa.
+     * @return the altitude in m
+     */
+    public float computeAltitude(float pressure) {
+        return BarometricAltitude.fast(pressure, 1f / mSeaLevelPressure);
+    }
+
+    /**
+     * Convert a pressure to altitude with the exact international barometric formula,
+     * h = 44330 m * (1 - (p / p0)^(1 / 5.255)).
+     * @param pressure barometric pressure in hPa.
+     * @param seaLevelPressure sea-level pressure p0 in hPa.
+     * @return the altitude in m
+     */
+    public static float computeAltitudeExact(float pressure, float seaLevelPressure) {
+        return BarometricAltitude.exact(pressure, seaLevelPressure);
+    }
+
+    /**
+     * Collect rolling statistics of every temperature read from now on.
+     * @param statistics statistics in degrees Celsius, or null to stop collecting.
+     */
+    public void setTemperatureStatistics(RollingStatistics statistics) {
+        mTemperatureStatistics = statistics;
+    }
+
+    /**
+     * Collect rolling statistics of every pressure read from now on.
+     * @param statistics statistics in hPa, or null to stop collecting.
+     */
+    public void setPressureStatistics(RollingStatistics statistics) {
+        mPressureStatistics = statistics;
+    }
+
+    /**
+     * Collect rolling statistics of every humidity read from now on.
+     * @param statistics statistics in %rH, or null to stop collecting.
+     */
+    public void setHumidityStatistics(RollingStatistics statistics) {
+        mHumidityStatistics = statistics;
+    }
+
     /**
      * Read the humidity temperature.
      * @return the current relative humidity in percent
@@ -382,6 +659,19 @@ public class Bmx280 implements AutoCloseable {
      * @throws IllegalStateException on configuration error
      */
     public float[] readTemperatureAndPressure() throws IOException, IllegalStateException {
+        return readTemperatureAndPressure(null);
+    }
+
+    /**
+     * Read the current temperature and barometric pressure, and when they were read.
+     * @param timestamps array receiving the time right before and right after the bus
+     *                   transactions in its first two elements, on the driver's clock, or null.
+     * @return a 2-element array. The first element is temperature in degrees Celsius and the
+     * second is barometric pressure in hPa units.
+     * @throws IOException on failure
+     * @throws IllegalStateException on configuration error
+     */
+    public float[] readTemperatureAndPressure(long[] timestamps) throws IOException, IllegalStateException {
         if (mTemperatureOversampling == OVERSAMPLING_SKIPPED) {
             throw new IllegalStateException("temperature oversampling is skipped");
         }
@@ -390,10 +680,17 @@ public class Bmx280 implements AutoCloseable {
         }
         // The pressure compensation formula requires the fine temperature reading, so we always
         // read temperature first.
+        final SampleTiming timing = getSampleTiming();
+        final long start = timing.begin();
         int rawTemp = readSample(BMX280_REG_TEMP);
         float[] temperatures = compensateTemperature(rawTemp, mTempCalibrationData);
         int rawPressure = readSample(BMX280_REG_PRESS);
+        final long end = timing.end(start);
+        putTimestamps(timestamps, start, end);
+        final long timestamp = SampleTiming.midpoint(start, end);
         float pressure = compensatePressure(rawPressure, temperatures[1], mPressureCalibrationData);
+        addToStatistics(mTemperatureStatistics, timestamp, temperatures[0]);
+        addToStatistics(mPressureStatistics, timestamp, pressure);
         return new float[]{temperatures[0], pressure};
     }
 
@@ -415,10 +712,15 @@ public class Bmx280 implements AutoCloseable {
         }
         // The humidity compensation formula requires the fine temperature reading, so we always
         // read temperature first.
+        final SampleTiming timing = getSampleTiming();
+        final long start = timing.begin();
         int rawTemp = readSample(BMX280_REG_TEMP);
         float[] temperatures = compensateTemperature(rawTemp, mTempCalibrationData);
         int rawHumidity = readSample(BMX280_REG_HUM);
+        final long timestamp = SampleTiming.midpoint(start, timing.end(start));
         float humidity = compensateHumidity(rawHumidity, temperatures[1], mHumidityCalibrationData);
+        addToStatistics(mTemperatureStatistics, timestamp, temperatures[0]);
+        addToStatistics(mHumidityStatistics, timestamp, humidity);
         return new float[]{temperatures[0], humidity};
     }
 
@@ -429,6 +731,19 @@ public class Bmx280 implements AutoCloseable {
      * @throws IOException on failure
      */
     public float[] readTemperaturePressureAndHumidity() throws IOException, IllegalStateException {
+        return readTemperaturePressureAndHumidity(null);
+    }
+
+    /**
+     * Read the current temperature, pressure and humidity, and when they were read.
+     * @param timestamps array receiving the time right before and right after the bus
+     *                   transactions in its first two elements, on the driver's clock, or null.
+     * @return a 3-element array. The first element is temperature in degrees Celsius, the second
+     * is barometric pressure in hPa units and the third is humidity in %rH.
+     * @throws IOException on failure
+     */
+    public float[] readTemperaturePressureAndHumidity(long[] timestamps)
+            throws IOException, IllegalStateException {
         if (mChipId != CHIP_ID_BME280) {
             throw new IllegalStateException("device does not support humidity measurement");
         }
@@ -443,12 +758,20 @@ public class Bmx280 implements AutoCloseable {
         }
         // The pressure and humidity compensation formulas require the fine temperature reading, so we always
         // read temperature first.
+        final SampleTiming timing = getSampleTiming();
+        final long start = timing.begin();
         int rawTemp = readSample(BMX280_REG_TEMP);
         float[] temperatures = compensateTemperature(rawTemp, mTempCalibrationData);
         int rawPressure = readSample(BMX280_REG_PRESS);
         float pressure = compensatePressure(rawPressure, temperatures[1], mPressureCalibrationData);
         int rawHumidity = readSample(BMX280_REG_HUM);
+        final long end = timing.end(start);
+        putTimestamps(timestamps, start, end);
+        final long timestamp = SampleTiming.midpoint(start, end);
         float humidity = compensateHumidity(rawHumidity, temperatures[1], mHumidityCalibrationData);
+        addToStatistics(mTemperatureStatistics, timestamp, temperatures[0]);
+        addToStatistics(mPressureStatistics, timestamp, pressure);
+        addToStatistics(mHumidityStatistics, timestamp, humidity);
         return new float[]{temperatures[0], pressure, humidity};
     }
 
@@ -457,18 +780,14 @@ public class Bmx280 implements AutoCloseable {
      * @throws IOException on failure
      */
     private int readSample(int address) throws IOException, IllegalStateException {
-        if (mDevice == null) {
-            throw new IllegalStateException("I2C device not open");
-        }
-
         synchronized (mBuffer) {
             if (address == BMX280_REG_HUM) {
-                mDevice.readRegBuffer(address, mBuffer, 2);
+                getBus().readRegBuffer(address, mBuffer, 2);
                 int msb = mBuffer[0] & 0xff;
                 int lsb = mBuffer[1] & 0xff;
                 return (msb << 8 | lsb);
             } else {
-                mDevice.readRegBuffer(address, mBuffer, 3);
+                getBus().readRegBuffer(address, mBuffer, 3);
                 // msb[7:0] lsb[7:0] xlsb[7:4]
                 int msb = mBuffer[0] & 0xff;
                 int lsb = mBuffer[1] & 0xff;
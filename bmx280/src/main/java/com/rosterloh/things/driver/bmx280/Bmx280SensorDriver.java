@@ -1,11 +1,14 @@
 package com.rosterloh.things.driver.bmx280;
 
 import android.hardware.Sensor;
+import android.support.annotation.VisibleForTesting;
 
 import com.google.android.things.userdriver.UserDriverManager;
 import com.google.android.things.userdriver.UserSensor;
 import com.google.android.things.userdriver.UserSensorDriver;
 import com.google.android.things.userdriver.UserSensorReading;
+import com.rosterloh.things.driver.core.Deadband;
+import com.rosterloh.things.driver.core.DeadbandChannel;
 
 import java.io.IOException;
 import java.util.UUID;
@@ -25,6 +28,39 @@ public class Bmx280SensorDriver implements AutoCloseable {
     private TemperatureUserDriver mTemperatureUserDriver;
     private PressureUserDriver mPressureUserDriver;
     private HumidityUserDriver mHumidityUserDriver;
+    private final Measurement mTemperature = new Measurement() {
+        @Override
+        public float readValue() throws IOException {
+            return mDevice.readTemperature();
+        }
+
+        @Override
+        void setOversampling(int oversampling) throws IOException {
+            mDevice.setTemperatureOversampling(oversampling);
+        }
+    };
+    private final Measurement mPressure = new Measurement() {
+        @Override
+        public float readValue() throws IOException {
+            return mDevice.readPressure();
+        }
+
+        @Override
+        void setOversampling(int oversampling) throws IOException {
+            mDevice.setPressureOversampling(oversampling);
+        }
+    };
+    private final Measurement mHumidity = new Measurement() {
+        @Override
+        public float readValue() throws IOException {
+            return mDevice.readHumidity();
+        }
+
+        @Override
+        void setOversampling(int oversampling) throws IOException {
+            mDevice.setHumidityOversampling(oversampling);
+        }
+    };
 
     /**
      * Create a new framework sensor driver connected on the given bus.
@@ -53,6 +89,11 @@ public class Bmx280SensorDriver implements AutoCloseable {
         mDevice = new Bmx280(bus, address);
     }
 
+    @VisibleForTesting
+    Bmx280SensorDriver(Bmx280 device) {
+        mDevice = device;
+    }
+
     /**
      * Close the driver and the underlying device.
      * @throws IOException
@@ -116,6 +157,20 @@ public class Bmx280SensorDriver implements AutoCloseable {
         }
     }
 
+    /**
+     * Filter temperature readings through a deadband.
+     * @param deadband change-only filter, or null to report every reading.
+     * @see DeadbandChannel#setDeadband(Deadband)
+     */
+    public void setTemperatureDeadband(Deadband deadband) {
+        mTemperature.setDeadband(deadband);
+    }
+
+    @VisibleForTesting
+    Measurement getTemperature() {
+        return mTemperature;
+    }
+
     /**
      * Unregister the temperature {@link UserSensor}.
      */
@@ -126,6 +181,20 @@ public class Bmx280SensorDriver implements AutoCloseable {
         }
     }
 
+    /**
+     * Filter pressure readings through a deadband.
+     * @param deadband change-only filter, or null to report every reading.
+     * @see DeadbandChannel#setDeadband(Deadband)
+     */
+    public void setPressureDeadband(Deadband deadband) {
+        mPressure.setDeadband(deadband);
+    }
+
+    @VisibleForTesting
+    Measurement getPressure() {
+        return mPressure;
+    }
+
     /**
      * Unregister the pressure {@link UserSensor}.
      */
@@ -136,6 +205,20 @@ public class Bmx280SensorDriver implements AutoCloseable {
         }
     }
 
+    /**
+     * Filter humidity readings through a deadband.
+     * @param deadband change-only filter, or null to report every reading.
+     * @see DeadbandChannel#setDeadband(Deadband)
+     */
+    public void setHumidityDeadband(Deadband deadband) {
+        mHumidity.setDeadband(deadband);
+    }
+
+    @VisibleForTesting
+    Measurement getHumidity() {
+        return mHumidity;
+    }
+
     /**
      * Unregister the humidity {@link UserSensor}.
      */
@@ -147,9 +230,7 @@ public class Bmx280SensorDriver implements AutoCloseable {
     }
 
     private void maybeSleep() throws IOException {
-        if ((mTemperatureUserDriver == null || !mTemperatureUserDriver.isEnabled())
-                && (mPressureUserDriver == null || !mPressureUserDriver.isEnabled())
-                && (mHumidityUserDriver == null || !mHumidityUserDriver.isEnabled())) {
+        if (!mTemperature.isEnabled() && !mPressure.isEnabled() && !mHumidity.isEnabled()) {
             mDevice.setMode(Bmx280.MODE_SLEEP);
         } else {
             mDevice.setMode(Bmx280.MODE_NORMAL);
@@ -165,7 +246,6 @@ public class Bmx280SensorDriver implements AutoCloseable {
         private static final int DRIVER_VERSION = 1;
         private static final String DRIVER_REQUIRED_PERMISSION = "";
 
-        private boolean mEnabled;
         private UserSensor mUserSensor;
 
         private UserSensor getUserSensor() {
@@ -190,19 +270,12 @@ public class Bmx280SensorDriver implements AutoCloseable {
 
         @Override
         public UserSensorReading read() throws IOException {
-            return new UserSensorReading(new float[]{mDevice.readPressure()});
+            return new UserSensorReading(new float[]{mPressure.read()});
         }
 
         @Override
         public void setEnabled(boolean enabled) throws IOException {
-            mEnabled = enabled;
-            mDevice.setPressureOversampling(
-                    enabled ? Bmx280.OVERSAMPLING_1X : Bmx280.OVERSAMPLING_SKIPPED);
-            maybeSleep();
-        }
-
-        private boolean isEnabled() {
-            return mEnabled;
+            mPressure.setEnabled(enabled);
         }
     }
 
@@ -215,7 +288,6 @@ public class Bmx280SensorDriver implements AutoCloseable {
         private static final int DRIVER_VERSION = 1;
         private static final String DRIVER_REQUIRED_PERMISSION = "";
 
-        private boolean mEnabled;
         private UserSensor mUserSensor;
 
         private UserSensor getUserSensor() {
@@ -240,19 +312,12 @@ public class Bmx280SensorDriver implements AutoCloseable {
 
         @Override
         public UserSensorReading read() throws IOException {
-            return new UserSensorReading(new float[]{mDevice.readTemperature()});
+            return new UserSensorReading(new float[]{mTemperature.read()});
         }
 
         @Override
         public void setEnabled(boolean enabled) throws IOException {
-            mEnabled = enabled;
-            mDevice.setTemperatureOversampling(
-                    enabled ? Bmx280.OVERSAMPLING_1X : Bmx280.OVERSAMPLING_SKIPPED);
-            maybeSleep();
-        }
-
-        private boolean isEnabled() {
-            return mEnabled;
+            mTemperature.setEnabled(enabled);
         }
     }
 
@@ -265,7 +330,6 @@ public class Bmx280SensorDriver implements AutoCloseable {
         private static final int DRIVER_VERSION = 1;
         private static final String DRIVER_REQUIRED_PERMISSION = "";
 
-        private boolean mEnabled;
         private UserSensor mUserSensor;
 
         private UserSensor getUserSensor() {
@@ -290,19 +354,46 @@ public class Bmx280SensorDriver implements AutoCloseable {
 
         @Override
         public UserSensorReading read() throws IOException {
-            return new UserSensorReading(new float[]{mDevice.readHumidity()});
+            return new UserSensorReading(new float[]{mHumidity.read()});
         }
 
         @Override
         public void setEnabled(boolean enabled) throws IOException {
+            mHumidity.setEnabled(enabled);
+        }
+    }
+
+    /**
+     * One measurement of the device, reported through a {@link DeadbandChannel}.
+     */
+    @VisibleForTesting
+    abstract class Measurement implements Deadband.Source {
+        private final DeadbandChannel mChannel = new DeadbandChannel();
+        private volatile boolean mEnabled;
+
+        void setDeadband(Deadband deadband) {
+            mChannel.setDeadband(deadband);
+        }
+
+        float read() throws IOException {
+            return mChannel.read(this);
+        }
+
+        void setEnabled(boolean enabled) throws IOException {
             mEnabled = enabled;
-            mDevice.setHumidityOversampling(
-                    enabled ? Bmx280.OVERSAMPLING_1X : Bmx280.OVERSAMPLING_SKIPPED);
+            // Reads stop before the measurement is skipped and start once it is configured
+            if (!enabled) {
+                mChannel.setEnabled(false);
+            }
+            setOversampling(enabled ? Bmx280.OVERSAMPLING_1X : Bmx280.OVERSAMPLING_SKIPPED);
             maybeSleep();
+            mChannel.setEnabled(enabled);
         }
 
-        private boolean isEnabled() {
+        boolean isEnabled() {
             return mEnabled;
         }
+
+        abstract void setOversampling(@Bmx280.Oversampling int oversampling) throws IOException;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,238 @@
+package com.rosterloh.things.driver.bmx280;
+
+import java.io.IOException;
+
+/**
+ * Picks the cheapest pressure oversampling and IIR filter of a {@link Bmx280} that keeps the
+ * pressure noise under a target, from the noise seen in recent samples:
+ * <pre>
+ *     OversamplingTuner tuner = new OversamplingTuner(bmx280);
+ *     // sampling loop
+ *     float pressure = tuner.readPressure();
+ *     // reporting
+ *     int savedUs = tuner.getTimeSavedUs();
+ * </pre>
+ *
+ * <p>Samples are taken in windows of a fixed configuration. At the end of each window the
+ * variance of the differences between consecutive samples, which ignores a steady trend, gives
+ * the noise of a single conversion: averaging n conversions divides its variance by n, and an
+ * IIR filter of coefficient c by 2c - 1 while correlating consecutive outputs. The tuner then
+ * applies the configuration with the shortest measurement time, and the weaker filter on a
+ * tie, whose expected noise meets the target. Moving to a cheaper configuration needs a 20 %
+ * margin so the choice does not flap. Samples read more slowly than the sensor measures with
+ * the filter on are less correlated than assumed, which overestimates the noise and errs on the
+ * side of more oversampling. Real pressure changes faster than a steady trend count as noise.
+ *
+ * <p>Methods are synchronized, but the driver must not be reconfigured elsewhere meanwhile.
+ */
+public final class OversamplingTuner {
+
+    /**
+     * Default pressure noise target, in hPa RMS.
+     */
+    public static final float DEFAULT_TARGET_NOISE_HPA = 0.02f;
+    /**
+     * Default number of samples taken before each decision.
+     */
+    public static final int DEFAULT_WINDOW = 32;
+
+    private static final float STEP_DOWN_MARGIN = 0.8f;
+
+    private final Bmx280 mBmx280;
+    private final float mTargetNoise;
+    private final int mMaxFilter;
+    private final int mWindow;
+    private final int mReferenceTimeUs;
+    private int mSkip;
+    private boolean mHasPrevious;
+    private float mPrevious;
+    private int mCount;
+    // Welford mean and sum of squared deviations of the differences in the window
+    private double mMean;
+    private double mM2;
+    private double mNoiseVariance = Double.NaN;
+    private long mChangeCount;
+
+    /**
+     * Create a tuner for the default target, filter coefficients up to 4 and windows of
+     * {@link #DEFAULT_WINDOW} samples.
+     * @param bmx280 driver to tune, already configured for the reference measurement time.
+     */
+    public OversamplingTuner(Bmx280 bmx280) {
+        this(bmx280, DEFAULT_TARGET_NOISE_HPA, Bmx280.FILTER_4, DEFAULT_WINDOW);
+    }
+
+    /**
+     * Create a tuner.
+     * @param bmx280 driver to tune, already configured for the reference measurement time.
+     * @param targetNoiseHpa highest pressure noise accepted, in hPa RMS.
+     * @param maxFilter strongest IIR filter the tuner may apply, e.g. {@link Bmx280#FILTER_OFF}
+     *                  where the filter's lag is not acceptable.
+     * @param window number of samples taken before each decision, at least 4.
+     */
+    public OversamplingTuner(Bmx280 bmx280, float targetNoiseHpa, @Bmx280.Filter int maxFilter, int window) {
+        if (!(targetNoiseHpa > 0)) {
+            throw new IllegalArgumentException("invalid target noise " + targetNoiseHpa);
+        }
+        if (maxFilter < Bmx280.FILTER_OFF || maxFilter > Bmx280.FILTER_16) {
+            throw new IllegalArgumentException("invalid filter " + maxFilter);
+        }
+        if (window < 4) {
+            throw new IllegalArgumentException("invalid window " + window);
+        }
+        mBmx280 = bmx280;
+        mTargetNoise = targetNoiseHpa;
+        mMaxFilter = maxFilter;
+        mWindow = window;
+        mReferenceTimeUs = bmx280.getMeasurementTimeUs();
+        mSkip = settlingSamples(bmx280.getFilter());
+    }
+
+    /**
+     * Read the pressure and add it to the current window.
+     * @return the pressure in hPa
+     * @throws IOException on failure
+     */
+    public synchronized float readPressure() throws IOException {
+        final float pressure = mBmx280.readPressure();
+        addSample(pressure);
+        return pressure;
+    }
+
+    /**
+     * Add a pressure read elsewhere, e.g. with {@link Bmx280#readTemperatureAndPressure()}, to the
+     * current window. Retunes the driver when the window is complete.
+     * @param pressure pressure in hPa.
+     * @throws IOException if the new configuration cannot be applied
+     */
+    public synchronized void addSample(float pressure) throws IOException {
+        if (mSkip > 0) {
+            // Let the filter settle on the new configuration
+            mSkip--;
+            return;
+        }
+        if (mHasPrevious) {
+            final double difference = pressure - mPrevious;
+            mCount++;
+            final double delta = difference - mMean;
+            mMean += delta / mCount;
+            mM2 += delta * (difference - mMean);
+        }
+        mPrevious = pressure;
+        mHasPrevious = true;
+        if (mCount >= mWindow - 1) {
+            tune(mM2 / (mCount - 1));
+        }
+    }
+
+    /**
+     * Returns the estimated noise of a single conversion without filtering in hPa RMS, or NaN
+     * until the first window is complete.
+     */
+    public synchronized float getNoiseEstimateHpa() {
+        return (float) Math.sqrt(mNoiseVariance);
+    }
+
+    /**
+     * Returns the expected pressure noise with the current configuration in hPa RMS, or NaN
+     * until the first window is complete.
+     */
+    public synchronized float getExpectedNoiseHpa() {
+        return (float) Math.sqrt(expectedVariance(mBmx280.getPressureOversampling(), mBmx280.getFilter()));
+    }
+
+    /**
+     * Returns the pressure oversampling currently applied.
+     */
+    public @Bmx280.Oversampling int getPressureOversampling() {
+        return mBmx280.getPressureOversampling();
+    }
+
+    /**
+     * Returns the IIR filter coefficient currently applied.
+     */
+    public @Bmx280.Filter int getFilter() {
+        return mBmx280.getFilter();
+    }
+
+    /**
+     * Returns the maximum measurement time of the current configuration, in microseconds.
+     */
+    public int getMeasurementTimeUs() {
+        return mBmx280.getMeasurementTimeUs();
+    }
+
+    /**
+     * Returns the measurement time saved against the configuration the driver had when the tuner
+     * was created, in microseconds per measurement. Negative if more oversampling is needed.
+     */
+    public int getTimeSavedUs() {
+        return mReferenceTimeUs - mBmx280.getMeasurementTimeUs();
+    }
+
+    /**
+     * Returns the number of times the configuration was changed.
+     */
+    public synchronized long getChangeCount() {
+        return mChangeCount;
+    }
+
+    private void tune(double differenceVariance) throws IOException {
+        final int oversampling = mBmx280.getPressureOversampling();
+        final int filter = mBmx280.getFilter();
+        // Var(x[k] - x[k-1]) = 2 a Var(x) for a filter of gain a = 1/c, Var(x) = a / (2 - a) v / n
+        final double gain = 1.0 / coefficient(filter);
+        mNoiseVariance = differenceVariance * (2 - gain) / (2 * gain * gain) * sampleCount(oversampling);
+        final int currentTime = mBmx280.getMeasurementTimeUs();
+        final double target = (double) mTargetNoise * mTargetNoise;
+        final double margin = target * STEP_DOWN_MARGIN * STEP_DOWN_MARGIN;
+
+        int bestOversampling = Bmx280.OVERSAMPLING_16X;
+        int bestFilter = mMaxFilter;
+        int bestTime = Integer.MAX_VALUE;
+        for (int os = Bmx280.OVERSAMPLING_1X; os <= Bmx280.OVERSAMPLING_16X; os++) {
+            final int time = Bmx280.getMeasurementTimeUs(mBmx280.getTemperatureOversampling(), os,
+                    mBmx280.getHumidityOversampling());
+            for (int f = Bmx280.FILTER_OFF; f <= mMaxFilter; f++) {
+                final boolean cheaper = time < currentTime || (time == currentTime && f < filter);
+                final double limit = cheaper ? margin : target;
+                if (time < bestTime && expectedVariance(os, f) <= limit) {
+                    bestOversampling = os;
+                    bestFilter = f;
+                    bestTime = time;
+                }
+            }
+        }
+
+        if (bestOversampling != oversampling) {
+            mBmx280.setPressureOversampling(bestOversampling);
+        }
+        if (bestFilter != filter) {
+            mBmx280.setFilter(bestFilter);
+        }
+        if (bestOversampling != oversampling || bestFilter != filter) {
+            mChangeCount++;
+            mSkip = settlingSamples(bestFilter);
+        }
+        mHasPrevious = false;
+        mCount = 0;
+        mMean = 0;
+        mM2 = 0;
+    }
+
+    private double expectedVariance(int oversampling, int filter) {
+        return mNoiseVariance / sampleCount(oversampling) / (2 * coefficient(filter) - 1);
+    }
+
+    private static int sampleCount(int oversampling) {
+        return oversampling == Bmx280.OVERSAMPLING_SKIPPED ? 1 : 1 << (oversampling - 1);
+    }
+
+    private static int coefficient(int filter) {
+        return 1 << filter;
+    }
+
+    private static int settlingSamples(int filter) {
+        return 2 * coefficient(filter);
+    }
+}
@@ -0,0 +1,83 @@
+package com.rosterloh.things.driver.bmx280;
+
+import com.rosterloh.things.driver.testutils.Bmx280Emulator;
+import com.rosterloh.things.driver.testutils.VirtualClock;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AltitudeEstimatorTest {
+
+    private static final long PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Rule
+    public ExpectedException mExpectedException = ExpectedException.none();
+
+    @Test
+    public void tracksSteadyClimb() {
+        final AltitudeEstimator estimator = new AltitudeEstimator();
+        final Random random = new Random(42);
+        // 20 s at 100 Hz, climbing at 2 m/s from 100 m with 0.5 m of noise on every sample
+        for (int i = 0; i < 2000; i++) {
+            final double altitude = 100 + 2 * i * 0.01 + 0.5 * random.nextGaussian();
+            estimator.update(i * PERIOD_NANOS, pressureAt(altitude, Bmx280.STANDARD_SEA_LEVEL_PRESSURE_HPA));
+        }
+        assertEquals(140, estimator.getAltitude(), 0.5);
+        assertEquals(2, estimator.getVerticalSpeed(), 0.3);
+        assertTrue(estimator.getAltitudeUncertainty() < 0.5);
+        assertEquals(2000, estimator.getUpdateCount());
+    }
+
+    @Test
+    public void seaLevelChangeKeepsSpeed() {
+        final AltitudeEstimator estimator = new AltitudeEstimator();
+        for (int i = 0; i < 500; i++) {
+            estimator.update(i * PERIOD_NANOS, pressureAt(50 - i * 0.01, 1013.25f));
+        }
+        final float speed = estimator.getVerticalSpeed();
+        final float altitude = estimator.getAltitude();
+        estimator.setSeaLevelPressure(1020f);
+        assertEquals(speed, estimator.getVerticalSpeed(), 0);
+        // About 8.3 m per hPa near sea level
+        assertEquals(altitude + 56, estimator.getAltitude(), 1);
+        estimator.update(500 * PERIOD_NANOS, pressureAt(45, 1013.25f));
+        assertEquals(-1, estimator.getVerticalSpeed(), 0.2);
+    }
+
+    @Test
+    public void samplesSensor() throws IOException {
+        final VirtualClock clock = new VirtualClock();
+        final Bmx280 bmx280 = new Bmx280(new Bmx280Emulator(Bmx280.CHIP_ID_BMP280, clock), clock);
+        bmx280.setTemperatureOversampling(Bmx280.OVERSAMPLING_1X);
+        bmx280.setPressureOversampling(Bmx280.OVERSAMPLING_1X);
+        bmx280.setMode(Bmx280.MODE_NORMAL);
+        final AltitudeEstimator estimator = new AltitudeEstimator();
+        for (int i = 0; i < 10; i++) {
+            clock.advanceMillis(10);
+            estimator.sample(bmx280);
+        }
+        // 1006.53 hPa of the datasheet example
+        assertEquals(56.1f, estimator.getAltitude(), 0.1f);
+        assertEquals(0, estimator.getVerticalSpeed(), 0.01f);
+        assertEquals(bmx280.getSampleTiming().getLastMidpointNanos(), estimator.getTimestampNanos());
+    }
+
+    @Test
+    public void rejectsEarlierTimestamp() {
+        final AltitudeEstimator estimator = new AltitudeEstimator();
+        estimator.update(PERIOD_NANOS, 1000f);
+        mExpectedException.expect(IllegalArgumentException.class);
+        estimator.update(PERIOD_NANOS, 1000f);
+    }
+
+    private static float pressureAt(double altitude, float seaLevelPressure) {
+        return (float) (seaLevelPressure * Math.pow(1 - altitude / 44330.0, 5.255));
+    }
+}
@@ -0,0 +1,70 @@
+package com.rosterloh.things.driver.bmx280;
+
+import com.rosterloh.things.driver.core.Deadband;
+import com.rosterloh.things.driver.testutils.Bmx280Emulator;
+import com.rosterloh.things.driver.testutils.VirtualClock;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class Bmx280SensorDriverTest {
+
+    // Raw samples of the datasheet compensation example, 25.08 degrees and 71.68 %RH
+    private static final int RAW_TEMPERATURE = 519888;
+    private static final int RAW_PRESSURE = 415148;
+    private static final int RAW_HUMIDITY = 34345;
+
+    private final VirtualClock mClock = new VirtualClock();
+    private final Bmx280Emulator mEmulator = new Bmx280Emulator(Bmx280.CHIP_ID_BME280, mClock);
+    private Bmx280SensorDriver mDriver;
+
+    @Before
+    public void setUp() throws IOException {
+        mEmulator.setRawSamples(RAW_TEMPERATURE, RAW_PRESSURE, RAW_HUMIDITY);
+        mDriver = new Bmx280SensorDriver(new Bmx280(mEmulator, mClock));
+    }
+
+    @Test
+    public void readInsideDeadbandRepeatsLastReport() throws IOException {
+        final Deadband deadband = Deadband.absolute(0.5f, Long.MAX_VALUE);
+        deadband.setClock(mClock);
+        mDriver.setTemperatureDeadband(deadband);
+        final Bmx280SensorDriver.Measurement temperature = mDriver.getTemperature();
+        temperature.setEnabled(true);
+        mClock.advanceMillis(10);
+
+        final float reported = temperature.read();
+        Assert.assertEquals(25.08f, reported, 0.03f);
+        // A few hundredths of a degree warmer: read once and the last report repeated
+        mEmulator.setRawSamples(RAW_TEMPERATURE + 200, RAW_PRESSURE, RAW_HUMIDITY);
+        mClock.advanceMillis(10);
+        final long transactions = mEmulator.getTransactionCount();
+        Assert.assertEquals(reported, temperature.read(), 0);
+        Assert.assertTrue(mEmulator.getTransactionCount() > transactions);
+        Assert.assertEquals(1, deadband.getSuppressedCount());
+
+        mEmulator.setRawSamples(RAW_TEMPERATURE + 20000, RAW_PRESSURE, RAW_HUMIDITY);
+        mClock.advanceMillis(10);
+        Assert.assertTrue(temperature.read() > reported + 0.5f);
+    }
+
+    @Test
+    public void readAfterDisableDoesNotTouchDevice() throws IOException {
+        mDriver.setHumidityDeadband(Deadband.absolute(1f, Long.MAX_VALUE));
+        final Bmx280SensorDriver.Measurement temperature = mDriver.getTemperature();
+        final Bmx280SensorDriver.Measurement humidity = mDriver.getHumidity();
+        temperature.setEnabled(true);
+        humidity.setEnabled(true);
+        mClock.advanceMillis(10);
+        final float reported = humidity.read();
+        Assert.assertEquals(71.68f, reported, 0.1f);
+
+        // Humidity oversampling is now skipped, which the device would refuse to read
+        humidity.setEnabled(false);
+        final long transactions = mEmulator.getTransactionCount();
+        Assert.assertEquals(reported, humidity.read(), 0);
+        Assert.assertEquals(transactions, mEmulator.getTransactionCount());
+    }
+}
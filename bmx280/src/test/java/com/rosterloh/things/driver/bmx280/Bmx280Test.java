@@ -2,16 +2,29 @@ package com.rosterloh.things.driver.bmx280;
 
 import com.google.android.things.pio.I2cDevice;
 
+import com.rosterloh.things.driver.core.BusDiscovery;
+import com.rosterloh.things.driver.core.Clock;
+import com.rosterloh.things.driver.core.EnergyMeter;
+import com.rosterloh.things.driver.core.RollingStatistics;
+import com.rosterloh.things.driver.core.SampleTiming;
+import com.rosterloh.things.driver.core.TraceRecorder;
+import com.rosterloh.things.driver.core.TraceReplayBus;
+import com.rosterloh.things.driver.testutils.Bmx280Emulator;
+import com.rosterloh.things.driver.testutils.VirtualClock;
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 import static com.rosterloh.things.driver.testutils.BitsMatcher.hasBitsSet;
 import static org.mockito.Matchers.any;
@@ -180,6 +193,50 @@ public class Bmx280Test {
         bmx280.setHumidityOversampling(Bmx280.OVERSAMPLING_1X);
     }
 
+    @Test
+    public void setOversampling_clearsPreviousMultiplier() throws IOException {
+        Bmx280 bmx280 = new Bmx280(mI2c);
+        bmx280.setChipId(Bmx280.CHIP_ID_BME280);
+        // 16x temperature and pressure in normal mode, 16x humidity
+        final int ctrl = Bmx280.OVERSAMPLING_16X << 5 | Bmx280.OVERSAMPLING_16X << 2 | 0b11;
+        Mockito.when(mI2c.readRegByte(0xF4)).thenReturn((byte) ctrl);
+        Mockito.when(mI2c.readRegByte(0xF2)).thenReturn((byte) Bmx280.OVERSAMPLING_16X);
+
+        bmx280.setTemperatureOversampling(Bmx280.OVERSAMPLING_2X);
+        Mockito.verify(mI2c).writeRegByte(0xF4, (byte) (ctrl & ~0b11100000 | Bmx280.OVERSAMPLING_2X << 5));
+        bmx280.setPressureOversampling(Bmx280.OVERSAMPLING_1X);
+        Mockito.verify(mI2c).writeRegByte(0xF4, (byte) (ctrl & ~0b00011100 | Bmx280.OVERSAMPLING_1X << 2));
+        bmx280.setHumidityOversampling(Bmx280.OVERSAMPLING_2X);
+        Mockito.verify(mI2c).writeRegByte(0xF2, (byte) Bmx280.OVERSAMPLING_2X);
+    }
+
+    @Test
+    public void setFilter_sleepsWhileWritingConfig() throws IOException {
+        Bmx280 bmx280 = new Bmx280(mI2c);
+        final int ctrl = Bmx280.OVERSAMPLING_2X << 5 | Bmx280.OVERSAMPLING_16X << 2 | 0b11;
+        // 1000 ms standby and a filter of 16
+        final int config = 0b101 << 5 | Bmx280.FILTER_16 << 2;
+        Mockito.when(mI2c.readRegByte(0xF4)).thenReturn((byte) ctrl);
+        Mockito.when(mI2c.readRegByte(0xF5)).thenReturn((byte) config);
+
+        bmx280.setFilter(Bmx280.FILTER_2);
+        final InOrder inOrder = Mockito.inOrder(mI2c);
+        inOrder.verify(mI2c).writeRegByte(0xF4, (byte) (ctrl & ~0b11));
+        inOrder.verify(mI2c).writeRegByte(0xF5, (byte) (0b101 << 5 | Bmx280.FILTER_2 << 2));
+        inOrder.verify(mI2c).writeRegByte(0xF4, (byte) ctrl);
+        Assert.assertEquals(Bmx280.FILTER_2, bmx280.getFilter());
+    }
+
+    @Test
+    public void setFilter_inSleepMode() throws IOException {
+        Bmx280 bmx280 = new Bmx280(mI2c);
+        Mockito.when(mI2c.readRegByte(0xF4)).thenReturn((byte) (Bmx280.OVERSAMPLING_1X << 5));
+
+        bmx280.setFilter(Bmx280.FILTER_4);
+        Mockito.verify(mI2c).writeRegByte(0xF5, (byte) (Bmx280.FILTER_4 << 2));
+        Mockito.verify(mI2c, Mockito.never()).writeRegByte(eq(0xF4), Mockito.anyByte());
+    }
+
     @Test
     public void readTemperature() throws IOException {
         Bmx280 bmx280 = new Bmx280(mI2c);
@@ -395,4 +452,174 @@ public class Bmx280Test {
         mExpectedException.expectMessage("not open");
         bmx280.readTemperature();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void readFromEmulator() throws IOException {
+        VirtualClock clock = new VirtualClock();
+        Bmx280Emulator emulator = new Bmx280Emulator(Bmx280.CHIP_ID_BME280, clock);
+        Bmx280 bmx280 = new Bmx280(emulator, clock);
+        bmx280.setHumidityOversampling(Bmx280.OVERSAMPLING_1X);
+        bmx280.setTemperatureOversampling(Bmx280.OVERSAMPLING_1X);
+        bmx280.setPressureOversampling(Bmx280.OVERSAMPLING_1X);
+        bmx280.setMode(Bmx280.MODE_NORMAL);
+        clock.advanceMillis(10);
+
+        final float[] values = bmx280.readTemperaturePressureAndHumidity();
+        Assert.assertEquals(EXPECTED_TEMPERATURE, values[0], EXPECTED_TEMPERATURE * TOLERANCE);
+        Assert.assertEquals(EXPECTED_PRESSURE, values[1], EXPECTED_PRESSURE * TOLERANCE);
+        Assert.assertEquals(EXPECTED_HUMIDITY, values[2], EXPECTED_HUMIDITY * TOLERANCE);
+        Assert.assertTrue(emulator.getConversionCount() > 0);
+    }
+
+    @Test
+    public void timestampsBusTransactions() throws IOException {
+        VirtualClock clock = new VirtualClock();
+        Bmx280 bmx280 = new Bmx280(new Bmx280Emulator(Bmx280.CHIP_ID_BME280, clock), clock);
+        bmx280.setHumidityOversampling(Bmx280.OVERSAMPLING_1X);
+        bmx280.setTemperatureOversampling(Bmx280.OVERSAMPLING_1X);
+        bmx280.setPressureOversampling(Bmx280.OVERSAMPLING_1X);
+        bmx280.setMode(Bmx280.MODE_NORMAL);
+        clock.advanceMillis(10);
+
+        bmx280.readTemperaturePressureAndHumidity();
+        final SampleTiming timing = bmx280.getSampleTiming();
+        final long start = timing.getLastStartNanos();
+        Assert.assertEquals(clock.nanoTime(), timing.getLastEndNanos());
+        Assert.assertTrue(timing.getLastEndNanos() > start);
+        clock.advanceMillis(100);
+        bmx280.readTemperaturePressureAndHumidity();
+        Assert.assertEquals(2, timing.getSampleCount());
+        Assert.assertEquals(timing.getLastStartNanos() - start, timing.getMeanIntervalNanos());
+    }
+
+    @Test
+    public void replayRecordedTrace() throws IOException {
+        VirtualClock clock = new VirtualClock();
+        ByteArrayOutputStream trace = new ByteArrayOutputStream();
+        Bmx280 recorded = new Bmx280(new TraceRecorder(new Bmx280Emulator(Bmx280.CHIP_ID_BME280, clock),
+                trace, clock), clock);
+        recorded.setHumidityOversampling(Bmx280.OVERSAMPLING_1X);
+        recorded.setTemperatureOversampling(Bmx280.OVERSAMPLING_1X);
+        recorded.setPressureOversampling(Bmx280.OVERSAMPLING_1X);
+        recorded.setMode(Bmx280.MODE_NORMAL);
+        clock.advanceMillis(10);
+        final float[] expected = recorded.readTemperaturePressureAndHumidity();
+        recorded.close();
+
+        TraceReplayBus replay = new TraceReplayBus(new ByteArrayInputStream(trace.toByteArray()));
+        Bmx280 replayed = new Bmx280(replay, clock);
+        replayed.setHumidityOversampling(Bmx280.OVERSAMPLING_1X);
+        replayed.setTemperatureOversampling(Bmx280.OVERSAMPLING_1X);
+        replayed.setPressureOversampling(Bmx280.OVERSAMPLING_1X);
+        replayed.setMode(Bmx280.MODE_NORMAL);
+        Assert.assertArrayEquals(expected, replayed.readTemperaturePressureAndHumidity(), 0);
+        Assert.assertTrue(replay.isFinished());
+    }
+
+    @Test
+    public void computeAltitudeWithinMaxError() throws IOException {
+        Bmx280 bmx280 = new Bmx280(new Bmx280Emulator(), Clock.SYSTEM);
+        for (float seaLevel = 880f; seaLevel <= 1200f; seaLevel += 20f) {
+            bmx280.setSeaLevelPressure(seaLevel);
+            for (float pressure = Bmx280.MIN_PRESSURE_HPA; pressure <= Bmx280.MAX_PRESSURE_HPA; pressure += 0.37f) {
+                Assert.assertEquals(Bmx280.computeAltitudeExact(pressure, seaLevel),
+                        bmx280.computeAltitude(pressure), Bmx280.MAX_ALTITUDE_ERROR_M);
+            }
+        }
+        Assert.assertEquals(0f, Bmx280.computeAltitudeExact(1013.25f, 1013.25f), 0f);
+        // Outside the table
+        bmx280.setSeaLevelPressure(Bmx280.STANDARD_SEA_LEVEL_PRESSURE_HPA);
+        Assert.assertEquals(Bmx280.computeAltitudeExact(100f, 1013.25f),
+                bmx280.computeAltitude(100f), 0.01f);
+    }
+
+    @Test
+    public void readAltitude() throws IOException {
+        VirtualClock clock = new VirtualClock();
+        Bmx280 bmx280 = new Bmx280(new Bmx280Emulator(Bmx280.CHIP_ID_BMP280, clock), clock);
+        bmx280.setTemperatureOversampling(Bmx280.OVERSAMPLING_1X);
+        bmx280.setPressureOversampling(Bmx280.OVERSAMPLING_1X);
+        bmx280.setMode(Bmx280.MODE_NORMAL);
+        clock.advanceMillis(10);
+        Assert.assertEquals(56.1f, bmx280.readAltitude(), 0.1f);
+        bmx280.setSeaLevelPressure(EXPECTED_PRESSURE);
+        Assert.assertEquals(EXPECTED_PRESSURE, bmx280.getSeaLevelPressure(), 0f);
+        Assert.assertEquals(0f, bmx280.readAltitude(), 0.1f);
+    }
+
+    @Test
+    public void setSeaLevelPressure_invalid() throws IOException {
+        Bmx280 bmx280 = new Bmx280(new Bmx280Emulator(), Clock.SYSTEM);
+        mExpectedException.expect(IllegalArgumentException.class);
+        bmx280.setSeaLevelPressure(0f);
+    }
+
+    @Test
+    public void collectsStatistics() throws IOException {
+        VirtualClock clock = new VirtualClock();
+        Bmx280Emulator emulator = new Bmx280Emulator(Bmx280.CHIP_ID_BME280, clock);
+        Bmx280 bmx280 = new Bmx280(emulator, clock);
+        RollingStatistics temperature = new RollingStatistics(16, TimeUnit.MINUTES.toNanos(1));
+        RollingStatistics humidity = new RollingStatistics(16, TimeUnit.MINUTES.toNanos(1));
+        bmx280.setTemperatureStatistics(temperature);
+        bmx280.setHumidityStatistics(humidity);
+        bmx280.setTemperatureOversampling(Bmx280.OVERSAMPLING_1X);
+        bmx280.setPressureOversampling(Bmx280.OVERSAMPLING_1X);
+        bmx280.setHumidityOversampling(Bmx280.OVERSAMPLING_1X);
+        bmx280.setMode(Bmx280.MODE_NORMAL);
+        clock.advanceMillis(10);
+        bmx280.readTemperature();
+        bmx280.readTemperaturePressureAndHumidity();
+        Assert.assertEquals(2, temperature.getCount(RollingStatistics.ONE_MINUTE_WINDOW));
+        Assert.assertEquals(EXPECTED_TEMPERATURE, temperature.getMax(RollingStatistics.ONE_MINUTE_WINDOW),
+                EXPECTED_TEMPERATURE * TOLERANCE);
+        Assert.assertEquals(1, humidity.getCount(RollingStatistics.ONE_MINUTE_WINDOW));
+    }
+
+    @Test
+    public void estimatesSupplyCurrent() throws IOException {
+        Assert.assertEquals(9300, Bmx280.getMeasurementTimeUs(Bmx280.OVERSAMPLING_1X, Bmx280.OVERSAMPLING_1X,
+                Bmx280.OVERSAMPLING_1X));
+        Assert.assertEquals(8725, Bmx280.getMeasurementTimeUs(Bmx280.OVERSAMPLING_1X, Bmx280.OVERSAMPLING_SKIPPED,
+                Bmx280.OVERSAMPLING_2X));
+        Assert.assertEquals(Bmx280.MAX_POWER_CONSUMPTION_SLEEP_UA, Bmx280.getSupplyCurrentUa(Bmx280.MODE_SLEEP,
+                Bmx280.OVERSAMPLING_16X, Bmx280.OVERSAMPLING_16X, Bmx280.OVERSAMPLING_16X), 0);
+
+        VirtualClock clock = new VirtualClock();
+        Bmx280 bmx280 = new Bmx280(new Bmx280Emulator(Bmx280.CHIP_ID_BME280, clock), clock);
+        bmx280.setTemperatureOversampling(Bmx280.OVERSAMPLING_1X);
+        bmx280.setPressureOversampling(Bmx280.OVERSAMPLING_1X);
+        bmx280.setHumidityOversampling(Bmx280.OVERSAMPLING_1X);
+        Assert.assertEquals(9300, bmx280.getMeasurementTimeUs());
+        clock.advanceMillis(3600 * 1000);
+        bmx280.setMode(Bmx280.MODE_NORMAL);
+        // Measurement charge over a 9.3 ms measurement and 0.5 ms standby
+        final float normal = (3550 * 325f + 2875 * 720f + 2875 * 340f + 500 * 0.5f) / 9800;
+        Assert.assertEquals(normal, bmx280.getSupplyCurrentUa(), 1e-3f);
+        clock.advanceMillis(3600 * 1000);
+        final EnergyMeter meter = bmx280.getEnergyMeter();
+        Assert.assertEquals(Bmx280.MAX_POWER_CONSUMPTION_SLEEP_UA, meter.getStateChargeUah(Bmx280.MODE_SLEEP), 1e-6);
+        Assert.assertEquals(normal, meter.getStateChargeUah(Bmx280.MODE_NORMAL), 1e-3);
+        Assert.assertEquals((normal + Bmx280.MAX_POWER_CONSUMPTION_SLEEP_UA) / 2, meter.getAverageCurrentUa(), 1e-3f);
+    }
+
+    @Test
+    public void discoveredOnEmulator() throws IOException {
+        VirtualClock clock = new VirtualClock();
+        Bmx280Emulator absent = new Bmx280Emulator(Bmx280.CHIP_ID_BME280, clock);
+        absent.failAfter(0);
+        Bmx280Emulator present = new Bmx280Emulator(Bmx280.CHIP_ID_BMP280, clock);
+        BusDiscovery discovery = new BusDiscovery((bus, address) -> address == 0x76 ? absent : present, clock);
+        discovery.add(Bmx280.DISCOVERY);
+
+        final BusDiscovery.Found<?> found = discovery.scan("I2C1").get(0);
+        Assert.assertEquals(Bmx280.DEFAULT_I2C_ADDRESS, found.getAddress());
+        Assert.assertEquals(Bmx280.CHIP_ID_BMP280, found.getIdentity());
+        Assert.assertTrue(absent.isClosed());
+        Assert.assertEquals(1, present.getTransactionCount());
+
+        final Bmx280 bmx280 = discovery.open("I2C1", Bmx280.DISCOVERY);
+        Assert.assertEquals(Bmx280.CHIP_ID_BMP280, bmx280.getChipId());
+        Assert.assertFalse(present.isClosed());
+    }
+}
@@ -0,0 +1,139 @@
+package com.rosterloh.things.driver.bmx280;
+
+import com.rosterloh.things.driver.testutils.Bmx280Emulator;
+import com.rosterloh.things.driver.testutils.VirtualClock;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OversamplingTunerTest {
+
+    private static final int WINDOW = 256;
+
+    @Rule
+    public ExpectedException mExpectedException = ExpectedException.none();
+
+    private final Random mRandom = new Random(48);
+    private double mPressure = 1000;
+    private float mFiltered = Float.NaN;
+
+    @Test
+    public void raisesOversamplingWithoutFilter() throws IOException {
+        final Bmx280 bmx280 = createBmp280();
+        final OversamplingTuner tuner = new OversamplingTuner(bmx280, 0.02f, Bmx280.FILTER_OFF, WINDOW);
+        feed(tuner, bmx280, 0.04, 0, 8 * WINDOW);
+        // 0.04 hPa over 8 conversions is 0.014 hPa, over 4 it would be 0.02 hPa
+        assertEquals(Bmx280.OVERSAMPLING_8X, bmx280.getPressureOversampling());
+        assertEquals(Bmx280.FILTER_OFF, bmx280.getFilter());
+        assertEquals(0.04f, tuner.getNoiseEstimateHpa(), 0.004f);
+        assertTrue(tuner.getExpectedNoiseHpa() <= 0.02f);
+    }
+
+    @Test
+    public void prefersFilterToOversampling() throws IOException {
+        final Bmx280 bmx280 = createBmp280();
+        final OversamplingTuner tuner = new OversamplingTuner(bmx280, 0.02f, Bmx280.FILTER_4, WINDOW);
+        feed(tuner, bmx280, 0.04, 0, 8 * WINDOW);
+        // A filter of 4 divides the variance by 7, enough at a single conversion
+        assertEquals(Bmx280.OVERSAMPLING_1X, bmx280.getPressureOversampling());
+        assertEquals(Bmx280.FILTER_4, bmx280.getFilter());
+        // 2x temperature and 1x pressure against the 16x pressure the driver started with
+        assertEquals(8725, tuner.getMeasurementTimeUs());
+        assertEquals(43225 - 8725, tuner.getTimeSavedUs());
+        assertEquals(0.04f, tuner.getNoiseEstimateHpa(), 0.004f);
+    }
+
+    @Test
+    public void followsChangingNoise() throws IOException {
+        final Bmx280 bmx280 = createBmp280();
+        final OversamplingTuner tuner = new OversamplingTuner(bmx280, 0.02f, Bmx280.FILTER_OFF, WINDOW);
+        feed(tuner, bmx280, 0.01, 0, 4 * WINDOW);
+        assertEquals(Bmx280.OVERSAMPLING_1X, bmx280.getPressureOversampling());
+        final long changes = tuner.getChangeCount();
+        feed(tuner, bmx280, 0.01, 0, 4 * WINDOW);
+        assertEquals(changes, tuner.getChangeCount());
+
+        feed(tuner, bmx280, 0.1, 0, 4 * WINDOW);
+        assertEquals(Bmx280.OVERSAMPLING_16X, bmx280.getPressureOversampling());
+        assertTrue(tuner.getTimeSavedUs() <= 0);
+        feed(tuner, bmx280, 0.03, 0, 8 * WINDOW);
+        // 0.03 hPa needs 4x, with the margin for stepping down
+        assertEquals(Bmx280.OVERSAMPLING_4X, bmx280.getPressureOversampling());
+    }
+
+    @Test
+    public void ignoresSteadyTrend() throws IOException {
+        final Bmx280 bmx280 = createBmp280();
+        final OversamplingTuner tuner = new OversamplingTuner(bmx280, 0.02f, Bmx280.FILTER_OFF, WINDOW);
+        // 0.05 hPa per sample, e.g. a lift, on 0.01 hPa of noise
+        feed(tuner, bmx280, 0.01, -0.05, 8 * WINDOW);
+        assertEquals(Bmx280.OVERSAMPLING_1X, bmx280.getPressureOversampling());
+    }
+
+    @Test
+    public void retunesEmulatedSensor() throws IOException {
+        final VirtualClock clock = new VirtualClock();
+        final Bmx280Emulator emulator = new Bmx280Emulator(Bmx280.CHIP_ID_BMP280, clock);
+        final Bmx280 bmx280 = new Bmx280(emulator, clock);
+        bmx280.setTemperatureOversampling(Bmx280.OVERSAMPLING_2X);
+        bmx280.setPressureOversampling(Bmx280.OVERSAMPLING_16X);
+        bmx280.setMode(Bmx280.MODE_NORMAL);
+        final OversamplingTuner tuner = new OversamplingTuner(bmx280, 0.02f, Bmx280.FILTER_4, WINDOW);
+
+        for (int i = 0; i < 2 * WINDOW; i++) {
+            // About 0.04 hPa of noise on the raw pressure of the datasheet example
+            emulator.setRawSamples(519888, 415148 + (int) Math.round(6 * mRandom.nextGaussian()), 0);
+            clock.advanceMillis(50);
+            assertEquals(1006.5f, tuner.readPressure(), 1f);
+        }
+
+        // As in prefersFilterToOversampling, a single conversion behind a filter of 4
+        assertEquals(Bmx280.OVERSAMPLING_1X, bmx280.getPressureOversampling());
+        assertEquals(Bmx280.FILTER_4, bmx280.getFilter());
+        // The registers follow the driver, the filter written while the sensor was briefly asleep
+        final int ctrl = emulator.readRegByte(0xF4) & 0xff;
+        assertEquals(bmx280.getPressureOversampling(), (ctrl >> 2) & 0b111);
+        assertEquals(Bmx280.OVERSAMPLING_2X, ctrl >> 5);
+        // Back in normal mode after each change of the filter
+        assertEquals(0b11, ctrl & 0b11);
+        assertEquals(bmx280.getFilter(), (emulator.readRegByte(0xF5) >> 2) & 0b111);
+        assertTrue(bmx280.getFilter() > Bmx280.FILTER_OFF);
+    }
+
+    @Test
+    public void rejectsShortWindow() throws IOException {
+        mExpectedException.expect(IllegalArgumentException.class);
+        new OversamplingTuner(createBmp280(), 0.02f, Bmx280.FILTER_OFF, 3);
+    }
+
+    private static Bmx280 createBmp280() throws IOException {
+        final VirtualClock clock = new VirtualClock();
+        final Bmx280 bmx280 = new Bmx280(new Bmx280Emulator(Bmx280.CHIP_ID_BMP280, clock), clock);
+        bmx280.setTemperatureOversampling(Bmx280.OVERSAMPLING_2X);
+        bmx280.setPressureOversampling(Bmx280.OVERSAMPLING_16X);
+        bmx280.setMode(Bmx280.MODE_NORMAL);
+        return bmx280;
+    }
+
+    /**
+     * Feed samples of a pressure changing at a steady rate with white conversion noise, averaged
+     * and filtered the way the driver's current configuration would.
+     */
+    private void feed(OversamplingTuner tuner, Bmx280 bmx280, double noise, double slope, int samples)
+            throws IOException {
+        for (int i = 0; i < samples; i++) {
+            final int conversions = 1 << (bmx280.getPressureOversampling() - 1);
+            mPressure += slope;
+            final float raw = (float) (mPressure + noise / Math.sqrt(conversions) * mRandom.nextGaussian());
+            final float gain = 1f / (1 << bmx280.getFilter());
+            mFiltered = Float.isNaN(mFiltered) ? raw : mFiltered + gain * (raw - mFiltered);
+            tuner.addSample(mFiltered);
+        }
+    }
+}
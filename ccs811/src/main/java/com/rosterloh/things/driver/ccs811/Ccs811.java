@@ -4,7 +4,13 @@ import android.support.annotation.IntDef;
 import android.support.annotation.VisibleForTesting;
 
 import com.google.android.things.pio.I2cDevice;
-import com.google.android.things.pio.PeripheralManagerService;
+import com.rosterloh.things.driver.core.BusDevice;
+import com.rosterloh.things.driver.core.BusDiscovery;
+import com.rosterloh.things.driver.core.Clock;
+import com.rosterloh.things.driver.core.I2cRegisterBus;
+import com.rosterloh.things.driver.core.RegisterBus;
+import com.rosterloh.things.driver.core.RollingStatistics;
+import com.rosterloh.things.driver.core.SampleTiming;
 
 import java.io.IOException;
 import java.lang.annotation.Retention;
@@ -13,7 +19,7 @@ import java.lang.annotation.RetentionPolicy;
 /**
  * Driver for the CCS811 indoor air quality sensor.
  */
-public class Ccs811 implements AutoCloseable {
+public class Ccs811 extends BusDevice {
 
     /**
      * Chip ID for the BMP280
@@ -25,6 +31,25 @@ public class Ccs811 implements AutoCloseable {
      */
     public static final int DEFAULT_I2C_ADDRESS = 0x5B;
 
+    // Sensor constants from the datasheet.
+    // https://cdn.sparkfun.com/assets/learn_tutorials/1/4/3/CCS811_Datasheet-DS000459.pdf
+    /**
+     * Maximum eCO2 in ppm the sensor can report.
+     */
+    public static final float MAX_ECO2_PPM = 8192f;
+    /**
+     * Maximum TVOC in ppb the sensor can report.
+     */
+    public static final float MAX_TVOC_PPB = 1187f;
+    /**
+     * Maximum power consumption in micro-amperes, constant power mode (46 mW at 1.8 V).
+     */
+    public static final float MAX_POWER_CONSUMPTION_UA = 25600f;
+    /**
+     * Maximum power consumption in micro-amperes in idle mode.
+     */
+    public static final float MAX_POWER_CONSUMPTION_IDLE_UA = 19f;
+
     /**
      * Measurement mode.
      */
@@ -37,12 +62,58 @@ public class Ccs811 implements AutoCloseable {
     public static final int MODE_60S    = 3; // Low power pulse heating mode IAQ measurement every 60 seconds
     public static final int MODE_250MS  = 4; // Constant power mode, sensor measurement every 250ms
 
+    /**
+     * Interrupt mode. The nINT pin is driven low when a new result is available or, in threshold
+     * mode, only when the new eCO2 result crosses one of the configured thresholds.
+     */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({INTERRUPT_DISABLED, INTERRUPT_DATA_READY, INTERRUPT_THRESHOLD})
+    public @interface InterruptMode {}
+    public static final int INTERRUPT_DISABLED   = 0; // nINT pin not driven
+    public static final int INTERRUPT_DATA_READY = 1; // nINT asserted on every new result
+    public static final int INTERRUPT_THRESHOLD  = 2; // nINT asserted when eCO2 changes class
+
+    /**
+     * Air quality class of an eCO2 result relative to the configured thresholds.
+     */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({AIR_QUALITY_LOW, AIR_QUALITY_MEDIUM, AIR_QUALITY_HIGH})
+    public @interface AirQuality {}
+    public static final int AIR_QUALITY_LOW    = 0; // eCO2 below the low to medium threshold
+    public static final int AIR_QUALITY_MEDIUM = 1; // eCO2 between the two thresholds
+    public static final int AIR_QUALITY_HIGH   = 2; // eCO2 above the medium to high threshold
+
+    /**
+     * Default thresholds and hysteresis in ppm after reset, from the datasheet.
+     */
+    public static final int DEFAULT_THRESHOLD_LOW_MEDIUM = 1500;
+    public static final int DEFAULT_THRESHOLD_MEDIUM_HIGH = 2500;
+    public static final int DEFAULT_THRESHOLD_HYSTERESIS = 50;
+
+    /**
+     * Finds a CCS811 at either address for {@link BusDiscovery}, from its hardware id.
+     */
+    public static final BusDiscovery.Device<Ccs811> DISCOVERY =
+            new BusDiscovery.Device<Ccs811>("ccs811", 0x5A, DEFAULT_I2C_ADDRESS) {
+        @Override
+        protected int identify(RegisterBus bus) throws IOException {
+            final int hardwareId = bus.readRegByte(CCS811_HW_ID) & 0xFF;
+            return hardwareId == CHIP_ID_CCS811 ? hardwareId : NOT_IDENTIFIED;
+        }
+
+        @Override
+        protected Ccs811 connect(RegisterBus bus, Clock clock) throws IOException {
+            return new Ccs811(bus, clock);
+        }
+    };
+
     /**
      * Registers
      */
     private static final int CCS811_STATUS = 0x00;
     private static final int CCS811_MODE = 0x01;
     private static final int CCS811_ALG_RESULT_DATA = 0x02;
+    private static final int CCS811_THRESHOLDS = 0x10;
     private static final int CCS811_HW_ID = 0x20;
     private static final int CCS811_FW_BOOT_VERSION = 0x23;
     private static final int CCS811_FW_APP_VERSION = 0x24;
@@ -51,14 +122,21 @@ public class Ccs811 implements AutoCloseable {
     private static final int CCS811_SW_RESET = 0xFF;
 
     private static final int CCS811_DRIVE_MODE_MASK = 0b00000111;
+    private static final int CCS811_MODE_INT_THRESH_BITSHIFT = 2;
+    private static final int CCS811_MODE_INT_DATARDY_BITSHIFT = 3;
     private static final int CCS811_STATUS_DATA_READY_BITSHIFT = 3;
     private static final int CCS811_STATUS_APP_VALID_BITSHIFT = 4;
     private static final int CCS811_STATUS_FW_MODE_BITSHIFT = 7;
 
-    private I2cDevice mDevice;
     private final byte[] mBuffer = new byte[8];
     private int mChipId;
     private int mMode;
+    private int mInterruptMode;
+    private int mThresholdLowMedium = DEFAULT_THRESHOLD_LOW_MEDIUM;
+    private int mThresholdMediumHigh = DEFAULT_THRESHOLD_MEDIUM_HIGH;
+    private int mThresholdHysteresis = DEFAULT_THRESHOLD_HYSTERESIS;
+    private RollingStatistics mCo2Statistics;
+    private RollingStatistics mTvocStatistics;
 
     /**
      * Create a new CCS811 sensor driver connected on the given bus.
@@ -76,10 +154,29 @@ public class Ccs811 implements AutoCloseable {
      * @throws IOException if device cannot be opened
      */
     public Ccs811(final String bus, final int address) throws IOException {
-        final PeripheralManagerService pioService = new PeripheralManagerService();
-        final I2cDevice device = pioService.openI2cDevice(bus, address);
+        this(I2cRegisterBus.open(bus, address));
+    }
+
+    /**
+     * Create a new CCS811 sensor driver connected to the given register bus.
+     * @param bus register bus of the sensor.
+     * @throws IOException if device cannot be opened
+     */
+    public Ccs811(final RegisterBus bus) throws IOException {
+        this(bus, Clock.ELAPSED_REALTIME);
+    }
+
+    /**
+     * Create a new CCS811 sensor driver connected to the given register bus.
+     * @param bus register bus of the sensor.
+     * @param clock time source of the sample timestamps and energy meter, e.g.
+     *              {@link Clock#SYSTEM} or a virtual clock in unit tests.
+     * @throws IOException if device cannot be opened
+     */
+    public Ccs811(final RegisterBus bus, final Clock clock) throws IOException {
+        super(bus, clock);
         try {
-            connect(device);
+            connect();
         } catch (IOException e) {
             try {
                 close();
@@ -90,21 +187,32 @@ public class Ccs811 implements AutoCloseable {
     }
 
     /**
-     * Create a new CCS811 sensor driver connected to the given I2c device.
+     * Create a new CCS811 sensor driver connected to the given I2c device, timing with
+     * {@link Clock#SYSTEM}.
      * @param device I2C device of the sensor.
      * @throws IOException if device cannot be opened
      */
     /*package*/ Ccs811(final I2cDevice device) throws IOException {
-        connect(device);
+        this(device, Clock.SYSTEM);
+    }
+
+    /**
+     * Create a new CCS811 sensor driver connected to the given I2c device.
+     * @param device I2C device of the sensor.
+     * @param clock time source of the sample timestamps and energy meter.
+     * @throws IOException if device cannot be opened
+     */
+    /*package*/ Ccs811(final I2cDevice device, final Clock clock) throws IOException {
+        this(new I2cRegisterBus(device), clock);
     }
 
-    private void connect(final I2cDevice device) throws IOException {
-        mDevice = device;
+    private void connect() throws IOException {
+        final RegisterBus bus = getBus();
 
         softReset();
         delay(100);
 
-        mChipId = mDevice.readRegByte(CCS811_HW_ID);
+        mChipId = bus.readRegByte(CCS811_HW_ID);
 
         int status = getStatus();
         if ((status & 1) != 0) {
@@ -113,26 +221,13 @@ public class Ccs811 implements AutoCloseable {
         if ((status & (1 << CCS811_STATUS_APP_VALID_BITSHIFT)) != 0) {
             // Application start. Used to transition the CCS811 state from boot to application mode,
             // a write with no data is required.
-            mDevice.write(new byte[]{(byte) CCS811_START_APP}, 1);
+            bus.write(new byte[]{(byte) CCS811_START_APP}, 1);
             delay(100);
         } else {
             throw new IOException("CCS811 app not valid");
         }
-    }
-
-    /**
-     * Close the driver and the underlying device.
-     * @throws IOException if device cannot be closed
-     */
-    @Override
-    public void close() throws IOException {
-        if (mDevice != null) {
-            try {
-                mDevice.close();
-            } finally {
-                mDevice = null;
-            }
-        }
+        // The sensor comes out of reset idle
+        getEnergyMeter().setState(MODE_IDLE, getSupplyCurrentUa(MODE_IDLE));
     }
 
     /**
@@ -148,13 +243,9 @@ public class Ccs811 implements AutoCloseable {
      * @throws IllegalStateException if I2C device is not open
      */
     private void softReset() throws IOException, IllegalStateException {
-        if (mDevice == null) {
-            throw new IllegalStateException("I2C device not open");
-        }
-
         final byte[] resetSequence = new byte[]{0x11, (byte) 0xE5, 0x72, (byte) 0x8A};
 
-        mDevice.writeRegBuffer(CCS811_SW_RESET, resetSequence, resetSequence.length);
+        getBus().writeRegBuffer(CCS811_SW_RESET, resetSequence, resetSequence.length);
     }
 
     /**
@@ -177,15 +268,13 @@ public class Ccs811 implements AutoCloseable {
      * @throws IllegalStateException if I2C device is not open
      */
     public void setMode(@Mode int mode) throws IOException, IllegalStateException {
-        if (mDevice == null) {
-            throw new IllegalStateException("I2C device not open");
-        }
-
-        int regCtrl = mDevice.readRegByte(CCS811_MODE) & 0xff;
+        final RegisterBus bus = getBus();
+        int regCtrl = bus.readRegByte(CCS811_MODE) & 0xff;
         regCtrl &= ~(CCS811_DRIVE_MODE_MASK << 4); // Clear DRIVE_MODE bits
         regCtrl |= (mode << 4); // Mask in mode
-        mDevice.writeRegByte(CCS811_MODE, (byte) (regCtrl));
+        bus.writeRegByte(CCS811_MODE, (byte) (regCtrl));
         mMode = mode;
+        getEnergyMeter().setState(mode, getSupplyCurrentUa(mode));
     }
 
     /**
@@ -196,22 +285,148 @@ public class Ccs811 implements AutoCloseable {
         return mMode;
     }
 
+    /**
+     * Returns the time between two results in the given measurement mode.
+     * @param mode measurement mode.
+     * @return measurement period in milliseconds, or 0 if the sensor is idle.
+     */
+    public static int getMeasurementPeriodMs(@Mode int mode) {
+        switch (mode) {
+            case MODE_1S:
+                return 1000;
+            case MODE_10S:
+                return 10 * 1000;
+            case MODE_60S:
+                return 60 * 1000;
+            case MODE_250MS:
+                return 250;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Returns the estimated supply current in the given measurement mode, scaled from the
+     * datasheet's typical power of 46 mW in constant power modes, 7 mW in pulse heating mode and
+     * 1.2 mW in low power pulse heating mode.
+     * @param mode measurement mode.
+     * @return supply current in micro-amperes
+     */
+    public static float getSupplyCurrentUa(@Mode int mode) {
+        switch (mode) {
+            case MODE_1S:
+            case MODE_250MS:
+                return MAX_POWER_CONSUMPTION_UA;
+            case MODE_10S:
+                return MAX_POWER_CONSUMPTION_UA * 7f / 46f;
+            case MODE_60S:
+                return MAX_POWER_CONSUMPTION_UA * 1.2f / 46f;
+            default:
+                return MAX_POWER_CONSUMPTION_IDLE_UA;
+        }
+    }
+
+    /**
+     * Set the interrupt mode of the sensor. In {@link #INTERRUPT_THRESHOLD} mode the nINT pin is
+     * only asserted when eCO2 moves into a different {@link AirQuality} class, so the host can stay
+     * asleep until something interesting happens.
+     * @param mode interrupt mode.
+     * @throws IOException if mode set fails
+     * @throws IllegalStateException if I2C device is not open
+     * @see #setThresholds(int, int, int)
+     */
+    public void setInterruptMode(@InterruptMode int mode) throws IOException, IllegalStateException {
+        final RegisterBus bus = getBus();
+        int regCtrl = bus.readRegByte(CCS811_MODE) & 0xff;
+        regCtrl &= ~((1 << CCS811_MODE_INT_DATARDY_BITSHIFT) | (1 << CCS811_MODE_INT_THRESH_BITSHIFT));
+        if (mode != INTERRUPT_DISABLED) {
+            // Threshold interrupts also need the data ready interrupt enabled. See datasheet page 17
+            regCtrl |= 1 << CCS811_MODE_INT_DATARDY_BITSHIFT;
+        }
+        if (mode == INTERRUPT_THRESHOLD) {
+            regCtrl |= 1 << CCS811_MODE_INT_THRESH_BITSHIFT;
+        }
+        bus.writeRegByte(CCS811_MODE, (byte) (regCtrl));
+        mInterruptMode = mode;
+    }
+
+    /**
+     * Read the current interrupt mode of the sensor
+     * @return interrupt mode enum
+     */
+    public @InterruptMode int getInterruptMode() {
+        return mInterruptMode;
+    }
+
+    /**
+     * Set the eCO2 thresholds used by {@link #INTERRUPT_THRESHOLD} mode and {@link #classify(int)}.
+     * @param lowToMedium eCO2 in ppm at which the air quality changes from low to medium.
+     * @param mediumToHigh eCO2 in ppm at which the air quality changes from medium to high.
+     * @param hysteresis eCO2 in ppm that a result must move past a threshold before it changes class.
+     * @throws IOException if thresholds set fails
+     * @throws IllegalStateException if I2C device is not open
+     */
+    public void setThresholds(int lowToMedium, int mediumToHigh, int hysteresis)
+            throws IOException, IllegalStateException {
+        if (lowToMedium < 0 || mediumToHigh > 0xffff || lowToMedium >= mediumToHigh) {
+            throw new IllegalArgumentException("invalid thresholds " + lowToMedium + ", " + mediumToHigh);
+        }
+        if (hysteresis < 0 || hysteresis > 0xff) {
+            throw new IllegalArgumentException("invalid hysteresis " + hysteresis);
+        }
+
+        synchronized (mBuffer) {
+            mBuffer[0] = (byte) (lowToMedium >> 8);
+            mBuffer[1] = (byte) lowToMedium;
+            mBuffer[2] = (byte) (mediumToHigh >> 8);
+            mBuffer[3] = (byte) mediumToHigh;
+            mBuffer[4] = (byte) hysteresis;
+            getBus().writeRegBuffer(CCS811_THRESHOLDS, mBuffer, 5);
+        }
+        mThresholdLowMedium = lowToMedium;
+        mThresholdMediumHigh = mediumToHigh;
+        mThresholdHysteresis = hysteresis;
+    }
+
+    /**
+     * Returns the hysteresis in ppm set with {@link #setThresholds(int, int, int)}.
+     */
+    public int getThresholdHysteresis() {
+        return mThresholdHysteresis;
+    }
+
+    /**
+     * Classify an eCO2 result against the configured thresholds.
+     * @param eCO2 eCO2 in ppm.
+     * @return air quality class
+     */
+    public @AirQuality int classify(int eCO2) {
+        if (eCO2 < mThresholdLowMedium) {
+            return AIR_QUALITY_LOW;
+        } else if (eCO2 < mThresholdMediumHigh) {
+            return AIR_QUALITY_MEDIUM;
+        }
+        return AIR_QUALITY_HIGH;
+    }
+
     @VisibleForTesting
     int getStatus() throws IOException, IllegalStateException {
-        if (mDevice == null) {
-            throw new IllegalStateException("I2C device not open");
-        }
+        return getBus().readRegByte(CCS811_STATUS) & 0xff;
+    }
 
-        return mDevice.readRegByte(CCS811_STATUS) & 0xff;
+    /**
+     * Check if a new algorithm result is available. The flag is cleared when the result is read.
+     * @return true if the DATA_READY bit is set in the status register
+     * @throws IOException if read fails
+     * @throws IllegalStateException if I2C device is not open
+     */
+    public boolean isDataReady() throws IOException, IllegalStateException {
+        return (getStatus() & (1 << CCS811_STATUS_DATA_READY_BITSHIFT)) != 0;
     }
 
     @VisibleForTesting
     String getError() throws IOException {
-        if (mDevice == null) {
-            throw new IllegalStateException("I2C device not open");
-        }
-
-        int error = mDevice.readRegByte(CCS811_ERROR_ID) & 0xff;
+        int error = getBus().readRegByte(CCS811_ERROR_ID) & 0xff;
         String msg = "Error: ";
 
         if ((error & (1 << 5)) != 0) msg += "HeaterSupply ";
@@ -231,7 +446,7 @@ public class Ccs811 implements AutoCloseable {
     public String readBootVersion() {
         try {
             synchronized (mBuffer) {
-                mDevice.readRegBuffer(CCS811_FW_BOOT_VERSION, mBuffer, 2);
+                getBus().readRegBuffer(CCS811_FW_BOOT_VERSION, mBuffer, 2);
                 final int major = (mBuffer[0] & 0xf0) >> 4;
                 final int minor = (mBuffer[0] & 0x0f);
                 final int trivial = (mBuffer[1] & 0xff);
@@ -248,7 +463,7 @@ public class Ccs811 implements AutoCloseable {
     public String readAppVersion() {
         try {
             synchronized (mBuffer) {
-                mDevice.readRegBuffer(CCS811_FW_APP_VERSION, mBuffer, 2);
+                getBus().readRegBuffer(CCS811_FW_APP_VERSION, mBuffer, 2);
                 final int major = (mBuffer[0] & 0xf0) >> 4;
                 final int minor = (mBuffer[0] & 0x0f);
                 final int trivial = (mBuffer[1] & 0xff);
@@ -266,15 +481,61 @@ public class Ccs811 implements AutoCloseable {
      * @throws IllegalStateException if device is not open
      */
     public int[] readAlgorithmResults() throws IOException, IllegalStateException {
-        if (mDevice == null) {
-            throw new IllegalStateException("I2C device not open");
-        }
+        return readAlgorithmResults(null);
+    }
 
+    /**
+     * Read the current value of the algorithm result, and when it was read.
+     * @param timestamps array receiving the time right before and right after the bus
+     *                   transaction in its first two elements, on the driver's clock, or null.
+     * @return 2-element array. The first element is eCO2 in ppm, and the second is TVOC in ppb.
+     * @throws IOException if read fails
+     * @throws IllegalStateException if device is not open
+     */
+    public int[] readAlgorithmResults(final long[] timestamps) throws IOException, IllegalStateException {
         synchronized (mBuffer) {
-            mDevice.readRegBuffer(CCS811_ALG_RESULT_DATA, mBuffer, 8);
-            final int eCO2 = ((mBuffer[0] & 0xff) << 8) | (mBuffer[1] & 0xff);
-            final int tVOC = ((mBuffer[2] & 0xff) << 8) | (mBuffer[3] & 0xff);
-            return new int[]{eCO2, tVOC, mBuffer[4], mBuffer[5]};
+            final SampleTiming timing = getSampleTiming();
+            final long start = timing.begin();
+            getBus().readRegBuffer(CCS811_ALG_RESULT_DATA, mBuffer, 8);
+            final long end = timing.end(start);
+            putTimestamps(timestamps, start, end);
+            final int[] results = decodeAlgorithmResults(mBuffer);
+            // Only new results, reading the mailbox again returns the previous ones
+            if ((results[2] & (1 << CCS811_STATUS_DATA_READY_BITSHIFT)) != 0) {
+                final long timestamp = SampleTiming.midpoint(start, end);
+                addToStatistics(mCo2Statistics, timestamp, results[0]);
+                addToStatistics(mTvocStatistics, timestamp, results[1]);
+            }
+            return results;
         }
     }
+
+    /**
+     * Collect rolling statistics of every new eCO2 result read from now on.
+     * @param statistics statistics in ppm, or null to stop collecting.
+     */
+    public void setCo2Statistics(RollingStatistics statistics) {
+        mCo2Statistics = statistics;
+    }
+
+    /**
+     * Collect rolling statistics of every new TVOC result read from now on.
+     * @param statistics statistics in ppb, or null to stop collecting.
+     */
+    public void setTvocStatistics(RollingStatistics statistics) {
+        mTvocStatistics = statistics;
+    }
+
+    /**
+     * Decode the contents of the ALG_RESULT_DATA mailbox.
+     * @param data at least 6 bytes read from ALG_RESULT_DATA
+     * @return 4-element array of eCO2 in ppm, TVOC in ppb, status and error id
+     */
+    @VisibleForTesting
+    static int[] decodeAlgorithmResults(final byte[] data) {
+        // eCO2 and TVOC are big endian
+        final int eCO2 = ((data[0] & 0xff) << 8) | (data[1] & 0xff);
+        final int tVOC = ((data[2] & 0xff) << 8) | (data[3] & 0xff);
+        return new int[]{eCO2, tVOC, data[4], data[5]};
+    }
 }
@@ -0,0 +1,228 @@
+package com.rosterloh.things.driver.ccs811;
+
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import com.google.android.things.pio.Gpio;
+import com.google.android.things.pio.GpioCallback;
+import com.google.android.things.pio.PeripheralManagerService;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Event driven reader for the CCS811 that only touches the bus when the sensor asserts its nINT
+ * pin. In {@link Ccs811#INTERRUPT_THRESHOLD} mode the sensor only interrupts when eCO2 crosses one
+ * of the configured thresholds, so the host can sleep between air quality changes.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class Ccs811InterruptDriver implements AutoCloseable {
+
+    private static final String TAG = Ccs811InterruptDriver.class.getSimpleName();
+    private static final int MAX_READ_ATTEMPTS = 3;
+
+    private final Ccs811 mDevice;
+    // Updated on the GPIO callback thread, read from any thread
+    private final AtomicInteger mEventCount = new AtomicInteger();
+    private final AtomicInteger mErrorCount = new AtomicInteger();
+    private Gpio mInterruptGpio;
+    private volatile OnAirQualityChangedListener mListener;
+    private volatile int mAirQuality = -1;
+
+    private final GpioCallback mInterruptCallback = new GpioCallback() {
+        @Override
+        public boolean onGpioEdge(Gpio gpio) {
+            onInterrupt();
+            return true;
+        }
+
+        @Override
+        public void onGpioError(Gpio gpio, int error) {
+            Log.w(TAG, gpio + ": Error event " + error);
+        }
+    };
+
+    /**
+     * Create a new interrupt driver for the given sensor with nINT connected to the given GPIO.
+     * The sensor is not closed when this driver is closed.
+     * @param device CCS811 sensor to read from.
+     * @param interruptPin name of the GPIO the nINT pin is connected to.
+     * @throws IOException if the GPIO cannot be opened
+     */
+    public Ccs811InterruptDriver(Ccs811 device, String interruptPin) throws IOException {
+        final PeripheralManagerService pioService = new PeripheralManagerService();
+        mDevice = device;
+        mInterruptGpio = pioService.openGpio(interruptPin);
+        try {
+            configure();
+        } catch (IOException e) {
+            try {
+                close();
+            } catch (IOException ex) {
+                Log.e(TAG, "Failed to close gpio");
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Create a new interrupt driver for the given sensor and GPIO.
+     * @param device CCS811 sensor to read from.
+     * @param interruptGpio GPIO the nINT pin is connected to.
+     * @throws IOException if the GPIO cannot be configured
+     */
+    @VisibleForTesting
+    /*package*/ Ccs811InterruptDriver(Ccs811 device, Gpio interruptGpio) throws IOException {
+        mDevice = device;
+        mInterruptGpio = interruptGpio;
+        configure();
+    }
+
+    private void configure() throws IOException {
+        // nINT is an active low open drain output
+        mInterruptGpio.setDirection(Gpio.DIRECTION_IN);
+        mInterruptGpio.setActiveType(Gpio.ACTIVE_HIGH);
+        mInterruptGpio.setEdgeTriggerType(Gpio.EDGE_FALLING);
+    }
+
+    /**
+     * Start sampling in the given mode and deliver air quality changes to the listener.
+     * @param mode measurement mode, must not be {@link Ccs811#MODE_IDLE}.
+     * @param interruptMode {@link Ccs811#INTERRUPT_THRESHOLD} to only wake on threshold crossings,
+     * or {@link Ccs811#INTERRUPT_DATA_READY} to wake on every result and classify on the host.
+     * @param listener listener to notify.
+     * @throws IOException if the sensor cannot be configured
+     */
+    public void start(@Ccs811.Mode int mode, @Ccs811.InterruptMode int interruptMode,
+                      OnAirQualityChangedListener listener) throws IOException {
+        if (mInterruptGpio == null) {
+            throw new IllegalStateException("GPIO not open");
+        }
+        if (mode == Ccs811.MODE_IDLE || interruptMode == Ccs811.INTERRUPT_DISABLED) {
+            throw new IllegalArgumentException("interrupts need a measurement and an interrupt mode");
+        }
+
+        mListener = listener;
+        mAirQuality = -1;
+        mInterruptGpio.registerGpioCallback(mInterruptCallback);
+        mDevice.setInterruptMode(interruptMode);
+        mDevice.setMode(mode);
+    }
+
+    /**
+     * Stop delivering events and disable the sensor interrupt. The measurement mode is unchanged.
+     * @throws IOException if the sensor cannot be configured
+     */
+    public void stop() throws IOException {
+        if (mInterruptGpio != null) {
+            mInterruptGpio.unregisterGpioCallback(mInterruptCallback);
+        }
+        mListener = null;
+        mDevice.setInterruptMode(Ccs811.INTERRUPT_DISABLED);
+    }
+
+    /**
+     * Returns the last reported air quality class, or -1 if no result has been read yet.
+     */
+    public int getAirQuality() {
+        return mAirQuality;
+    }
+
+    /**
+     * Returns the number of interrupts serviced since the driver was created.
+     */
+    public int getEventCount() {
+        return mEventCount.get();
+    }
+
+    /**
+     * Returns the number of interrupts whose result could not be read, even after retrying.
+     */
+    public int getErrorCount() {
+        return mErrorCount.get();
+    }
+
+    @VisibleForTesting
+    void onInterrupt() {
+        mEventCount.incrementAndGet();
+        final int[] results;
+        try {
+            results = readResults();
+        } catch (IOException | IllegalStateException e) {
+            mErrorCount.incrementAndGet();
+            Log.e(TAG, "Failed to read results, nINT stays asserted", e);
+            return;
+        }
+        final int eCO2 = results[0];
+        final int airQuality = nextAirQuality(eCO2);
+        if (airQuality != mAirQuality) {
+            mAirQuality = airQuality;
+            final OnAirQualityChangedListener listener = mListener;
+            if (listener != null) {
+                listener.onAirQualityChanged(airQuality, eCO2, results[1]);
+            }
+        }
+    }
+
+    /**
+     * Reading the result is what releases the nINT pin. The GPIO is edge triggered, so a pin left
+     * asserted by a failed read would never interrupt again: retry a NACK a few times.
+     */
+    private int[] readResults() throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return mDevice.readAlgorithmResults();
+            } catch (IOException e) {
+                if (attempt >= MAX_READ_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Only leave the current class once the result has moved past a threshold by more than the
+     * hysteresis, so data ready mode reports the same changes the sensor would in threshold mode.
+     */
+    private int nextAirQuality(int eCO2) {
+        final int airQuality = mDevice.classify(eCO2);
+        if (mAirQuality < 0 || airQuality == mAirQuality) {
+            return airQuality;
+        }
+        final int hysteresis = mDevice.getThresholdHysteresis();
+        if (airQuality > mAirQuality) {
+            return Math.max(mAirQuality, mDevice.classify(eCO2 - hysteresis));
+        }
+        return Math.min(mAirQuality, mDevice.classify(eCO2 + hysteresis));
+    }
+
+    /**
+     * Close the driver and the interrupt GPIO. The sensor is left open.
+     * @throws IOException if the GPIO cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (mInterruptGpio != null) {
+            mInterruptGpio.unregisterGpioCallback(mInterruptCallback);
+            try {
+                mInterruptGpio.close();
+            } finally {
+                mInterruptGpio = null;
+            }
+        }
+        mListener = null;
+    }
+
+    /**
+     * Listener notified when the air quality class changes.
+     */
+    public interface OnAirQualityChangedListener {
+        /**
+         * Called on the GPIO callback thread when the air quality class changes.
+         * @param airQuality new air quality class
+         * @param eCO2 eCO2 in ppm that caused the change
+         * @param tVOC TVOC in ppb read with the eCO2 result
+         */
+        void onAirQualityChanged(@Ccs811.AirQuality int airQuality, int eCO2, int tVOC);
+    }
+}
@@ -0,0 +1,218 @@
+package com.rosterloh.things.driver.ccs811;
+
+import android.support.annotation.VisibleForTesting;
+
+import com.rosterloh.things.driver.core.Clock;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls a CCS811 in step with its measurement period instead of at an arbitrary client rate.
+ *
+ * <p>The sensor only produces a result every 250ms, 1s, 10s or 60s depending on
+ * {@link Ccs811#getMode()}. The scheduler reads once per period, shortly after the result is
+ * expected, and uses the DATA_READY status bit to find the phase of the sensor's measurement
+ * cycle: a read that finds no new data is counted as early and retried after a short step, and
+ * a gap of more than one period between results is counted as missed samples. Changes to the
+ * measurement mode are picked up on the next poll.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class Ccs811PollScheduler implements AutoCloseable {
+
+    // How often to look for a mode change while the sensor is idle
+    private static final int IDLE_CHECK_MS = 1000;
+    // Retry step after an early read, as a fraction of the period
+    private static final int RETRY_DIVISOR = 20;
+    private static final int MIN_RETRY_MS = 10;
+    // Reads creep this fraction of a period earlier each cycle so host and sensor clock drift
+    // is caught by an early read rather than a missed sample
+    private static final int DRIFT_DIVISOR = 100;
+
+    private final Ccs811 mDevice;
+    private final Callback mCallback;
+    private final Clock mClock;
+    private ScheduledExecutorService mExecutor;
+
+    private int mMode = -1;
+    private long mLastResultMs = -1;
+    private boolean mLastReadEarly;
+    private volatile long mReadCount;
+    private volatile long mEarlyReadCount;
+    private volatile long mMissedReadCount;
+
+    private final Runnable mPollRunnable = new Runnable() {
+        @Override
+        public void run() {
+            long delay = IDLE_CHECK_MS;
+            try {
+                delay = pollNow();
+            } finally {
+                // Reschedule even if onError threw, the executor would drop it silently
+                synchronized (Ccs811PollScheduler.this) {
+                    if (mExecutor != null) {
+                        mExecutor.schedule(this, delay, TimeUnit.MILLISECONDS);
+                    }
+                }
+            }
+        }
+    };
+
+    /**
+     * Create a new scheduler for the given sensor. Call {@link #start()} to begin polling.
+     * @param device CCS811 sensor to poll. The sensor is not closed with the scheduler.
+     * @param callback callback for results and errors, called on the scheduler thread.
+     */
+    public Ccs811PollScheduler(Ccs811 device, Callback callback) {
+        this(device, callback, Clock.ELAPSED_REALTIME);
+    }
+
+    /**
+     * Create a new scheduler for the given sensor. Call {@link #start()} to begin polling.
+     * @param device CCS811 sensor to poll. The sensor is not closed with the scheduler.
+     * @param callback callback for results and errors, called on the scheduler thread.
+     * @param clock clock for result timestamps. Waiting between polls always uses real time.
+     */
+    public Ccs811PollScheduler(Ccs811 device, Callback callback, Clock clock) {
+        mDevice = device;
+        mCallback = callback;
+        mClock = clock;
+    }
+
+    /**
+     * Start polling on a dedicated thread. Does nothing if already started.
+     */
+    public synchronized void start() {
+        if (mExecutor == null) {
+            mExecutor = new ScheduledThreadPoolExecutor(1);
+            mMode = -1;
+            mExecutor.execute(mPollRunnable);
+        }
+    }
+
+    /**
+     * Stop polling. Does nothing if not started.
+     */
+    public synchronized void stop() {
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+            mExecutor = null;
+        }
+    }
+
+    /**
+     * Stop polling. The sensor is left open.
+     */
+    @Override
+    public void close() {
+        stop();
+    }
+
+    /**
+     * Returns the number of results read.
+     */
+    public long getReadCount() {
+        return mReadCount;
+    }
+
+    /**
+     * Returns the number of reads that found no new result.
+     */
+    public long getEarlyReadCount() {
+        return mEarlyReadCount;
+    }
+
+    /**
+     * Returns the estimated number of results that were overwritten before they could be read.
+     */
+    public long getMissedReadCount() {
+        return mMissedReadCount;
+    }
+
+    /**
+     * Poll the sensor once at the current time. Any failure, such as a closed sensor or an
+     * exception thrown by {@link Callback#onResult(int, int)}, is passed to
+     * {@link Callback#onError(Exception)} and polling carries on.
+     * @return delay in milliseconds until the next poll.
+     */
+    @VisibleForTesting
+    long pollNow() {
+        try {
+            return poll(TimeUnit.NANOSECONDS.toMillis(mClock.nanoTime()));
+        } catch (Exception e) {
+            mLastReadEarly = false;
+            mCallback.onError(e);
+            return IDLE_CHECK_MS;
+        }
+    }
+
+    /**
+     * Poll the sensor once.
+     * @param nowMs current time in milliseconds.
+     * @return delay in milliseconds until the next poll.
+     */
+    @VisibleForTesting
+    long poll(long nowMs) {
+        final int mode = mDevice.getMode();
+        if (mode != mMode) {
+            // New measurement cycle, find its phase again
+            mMode = mode;
+            mLastResultMs = -1;
+            mLastReadEarly = false;
+        }
+        final int period = Ccs811.getMeasurementPeriodMs(mode);
+        if (period == 0) {
+            return IDLE_CHECK_MS;
+        }
+
+        try {
+            if (!mDevice.isDataReady()) {
+                if (mLastResultMs >= 0) {
+                    mEarlyReadCount++;
+                }
+                mLastReadEarly = true;
+                return Math.max(MIN_RETRY_MS, period / RETRY_DIVISOR);
+            }
+            final int[] results = mDevice.readAlgorithmResults();
+            if (mLastResultMs >= 0) {
+                final long periods = (nowMs - mLastResultMs + period / 2) / period;
+                if (periods > 1) {
+                    mMissedReadCount += periods - 1;
+                }
+            }
+            mReadCount++;
+            mLastResultMs = nowMs;
+            mCallback.onResult(results[0], results[1]);
+        } catch (IOException e) {
+            mCallback.onError(e);
+            return period;
+        }
+
+        // Straight after an early read the result arrived within the last retry step, so the
+        // phase is known. Otherwise creep earlier until an early read finds it again.
+        final long delay = mLastReadEarly ? period : period - Math.max(1, period / DRIFT_DIVISOR);
+        mLastReadEarly = false;
+        return delay;
+    }
+
+    /**
+     * Callback for scheduled results.
+     */
+    public interface Callback {
+        /**
+         * Called with each new algorithm result.
+         * @param eCO2 eCO2 in ppm
+         * @param tVOC TVOC in ppb
+         */
+        void onResult(int eCO2, int tVOC);
+
+        /**
+         * Called when the sensor could not be read, or a poll failed in any other way.
+         * Polling continues.
+         * @param e the failure
+         */
+        void onError(Exception e);
+    }
+}
@@ -0,0 +1,285 @@
+package com.rosterloh.things.driver.ccs811;
+
+import android.hardware.Sensor;
+import android.support.annotation.VisibleForTesting;
+
+import com.google.android.things.userdriver.UserDriverManager;
+import com.google.android.things.userdriver.UserSensor;
+import com.google.android.things.userdriver.UserSensorDriver;
+import com.google.android.things.userdriver.UserSensorReading;
+
+import java.io.IOException;
+import java.util.UUID;
+
+public class Ccs811SensorDriver implements AutoCloseable {
+
+    /**
+     * Custom sensor type for equivalent CO2 readings in ppm.
+     */
+    public static final int TYPE_ECO2 = Sensor.TYPE_DEVICE_PRIVATE_BASE + 0x811;
+    public static final String STRING_TYPE_ECO2 = "com.rosterloh.things.sensor.eco2";
+    /**
+     * Custom sensor type for total volatile organic compound readings in ppb.
+     */
+    public static final int TYPE_TVOC = Sensor.TYPE_DEVICE_PRIVATE_BASE + 0x812;
+    public static final String STRING_TYPE_TVOC = "com.rosterloh.things.sensor.tvoc";
+
+    // DRIVER parameters
+    // documented at https://source.android.com/devices/sensors/hal-interface.html#sensor_t
+    private static final String DRIVER_VENDOR = "ams";
+    private static final String DRIVER_NAME = "CCS811";
+    private static final float DRIVER_POWER = Ccs811.MAX_POWER_CONSUMPTION_UA / 1000.f;
+    private static final int DRIVER_VERSION = 1;
+    private static final String DRIVER_REQUIRED_PERMISSION = "";
+
+    @VisibleForTesting
+    static final int ECO2 = 0;
+    @VisibleForTesting
+    static final int TVOC = 1;
+
+    private Ccs811 mDevice;
+    private final int mDriveMode;
+
+    // Results shared between both sensors, refreshed when the sensor has a new one
+    private final int[] mResults = new int[2];
+    private boolean mHasResults;
+    private final boolean[] mEnabled = new boolean[2];
+
+    private Eco2UserDriver mEco2UserDriver;
+    private TvocUserDriver mTvocUserDriver;
+
+    /**
+     * Create a new framework sensor driver connected on the given bus.
+     * The driver emits {@link android.hardware.Sensor} with eCO2 and TVOC data when registered.
+     * @param bus I2C bus the sensor is connected to.
+     * @throws IOException if device cannot be opened
+     * @see #registerEco2Sensor()
+     * @see #registerTvocSensor()
+     */
+    public Ccs811SensorDriver(final String bus) throws IOException {
+        this(bus, Ccs811.DEFAULT_I2C_ADDRESS, Ccs811.MODE_1S);
+    }
+
+    /**
+     * Create a new framework sensor driver connected on the given bus and address.
+     * The driver emits {@link android.hardware.Sensor} with eCO2 and TVOC data when registered.
+     * @param bus I2C bus the sensor is connected to.
+     * @param address I2C address of the sensor.
+     * @throws IOException if device cannot be opened
+     * @see #registerEco2Sensor()
+     * @see #registerTvocSensor()
+     */
+    public Ccs811SensorDriver(final String bus, final int address) throws IOException {
+        this(bus, address, Ccs811.MODE_1S);
+    }
+
+    /**
+     * Create a new framework sensor driver connected on the given bus and address.
+     * The driver emits {@link android.hardware.Sensor} with eCO2 and TVOC data when registered.
+     * @param bus I2C bus the sensor is connected to.
+     * @param address I2C address of the sensor.
+     * @param mode measurement mode used while a sensor is enabled. Sets the sensor delays.
+     * @throws IOException if device cannot be opened
+     * @see #registerEco2Sensor()
+     * @see #registerTvocSensor()
+     */
+    public Ccs811SensorDriver(final String bus, final int address, @Ccs811.Mode final int mode)
+            throws IOException {
+        if (mode == Ccs811.MODE_IDLE) {
+            throw new IllegalArgumentException("sensor driver needs a measurement mode");
+        }
+        mDriveMode = mode;
+        mDevice = new Ccs811(bus, address);
+    }
+
+    @VisibleForTesting
+    Ccs811SensorDriver(Ccs811 device) {
+        mDriveMode = Ccs811.MODE_1S;
+        mDevice = device;
+    }
+
+    /**
+     * Close the driver and the underlying device.
+     * @throws IOException if device cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        unregisterEco2Sensor();
+        unregisterTvocSensor();
+        if (mDevice != null) {
+            try {
+                mDevice.close();
+            } finally {
+                mDevice = null;
+            }
+        }
+    }
+
+    /**
+     * Register a {@link UserSensor} that pipes eCO2 readings into the Android SensorManager.
+     * @see #unregisterEco2Sensor()
+     */
+    public void registerEco2Sensor() {
+        if (mDevice == null) {
+            throw new IllegalStateException("cannot register closed driver");
+        }
+
+        if (mEco2UserDriver == null) {
+            mEco2UserDriver = new Eco2UserDriver();
+            UserDriverManager.getManager().registerSensor(mEco2UserDriver.getUserSensor());
+        }
+    }
+
+    /**
+     * Register a {@link UserSensor} that pipes TVOC readings into the Android SensorManager.
+     * @see #unregisterTvocSensor()
+     */
+    public void registerTvocSensor() {
+        if (mDevice == null) {
+            throw new IllegalStateException("cannot register closed driver");
+        }
+
+        if (mTvocUserDriver == null) {
+            mTvocUserDriver = new TvocUserDriver();
+            UserDriverManager.getManager().registerSensor(mTvocUserDriver.getUserSensor());
+        }
+    }
+
+    /**
+     * Unregister the eCO2 {@link UserSensor}.
+     */
+    public void unregisterEco2Sensor() {
+        if (mEco2UserDriver != null) {
+            UserDriverManager.getManager().unregisterSensor(mEco2UserDriver.getUserSensor());
+            mEco2UserDriver = null;
+        }
+    }
+
+    /**
+     * Unregister the TVOC {@link UserSensor}.
+     */
+    public void unregisterTvocSensor() {
+        if (mTvocUserDriver != null) {
+            UserDriverManager.getManager().unregisterSensor(mTvocUserDriver.getUserSensor());
+            mTvocUserDriver = null;
+        }
+    }
+
+    /**
+     * Enable or disable one of the sensors, measuring while either of them is enabled.
+     * @param index {@link #ECO2} or {@link #TVOC}
+     */
+    @VisibleForTesting
+    void setSensorEnabled(int index, boolean enabled) throws IOException {
+        synchronized (mResults) {
+            mEnabled[index] = enabled;
+            if (!mEnabled[ECO2] && !mEnabled[TVOC]) {
+                mDevice.setMode(Ccs811.MODE_IDLE);
+            } else if (mDevice.getMode() != mDriveMode) {
+                mDevice.setMode(mDriveMode);
+                // Results from before the sensor idled are not reused
+                mHasResults = false;
+            }
+        }
+    }
+
+    /**
+     * Read the algorithm results, reusing the last results while the DATA_READY bit is clear, so
+     * both sensors together read the results once per measurement.
+     * @param index {@link #ECO2} or {@link #TVOC}
+     */
+    @VisibleForTesting
+    float readResult(int index) throws IOException {
+        synchronized (mResults) {
+            if (!mHasResults || mDevice.isDataReady()) {
+                final int[] results = mDevice.readAlgorithmResults();
+                mResults[ECO2] = results[0];
+                mResults[TVOC] = results[1];
+                mHasResults = true;
+            }
+            return mResults[index];
+        }
+    }
+
+    private static int getDelayUs(@Ccs811.Mode int mode) {
+        return Ccs811.getMeasurementPeriodMs(mode) * 1000;
+    }
+
+    private class Eco2UserDriver extends UserSensorDriver {
+        // DRIVER parameters
+        // documented at https://source.android.com/devices/sensors/hal-interface.html#sensor_t
+        private static final float DRIVER_MAX_RANGE = Ccs811.MAX_ECO2_PPM;
+        private static final float DRIVER_RESOLUTION = 1f;
+
+        private UserSensor mUserSensor;
+
+        private UserSensor getUserSensor() {
+            if (mUserSensor == null) {
+                mUserSensor = new UserSensor.Builder()
+                        .setCustomType(TYPE_ECO2, STRING_TYPE_ECO2, Sensor.REPORTING_MODE_CONTINUOUS)
+                        .setName(DRIVER_NAME)
+                        .setVendor(DRIVER_VENDOR)
+                        .setVersion(DRIVER_VERSION)
+                        .setMaxRange(DRIVER_MAX_RANGE)
+                        .setResolution(DRIVER_RESOLUTION)
+                        .setPower(DRIVER_POWER)
+                        .setMinDelay(getDelayUs(mDriveMode))
+                        .setRequiredPermission(DRIVER_REQUIRED_PERMISSION)
+                        .setMaxDelay(getDelayUs(mDriveMode))
+                        .setUuid(UUID.randomUUID())
+                        .setDriver(this)
+                        .build();
+            }
+            return mUserSensor;
+        }
+
+        @Override
+        public UserSensorReading read() throws IOException {
+            return new UserSensorReading(new float[]{readResult(ECO2)});
+        }
+
+        @Override
+        public void setEnabled(final boolean enabled) throws IOException {
+            setSensorEnabled(ECO2, enabled);
+        }
+    }
+
+    private class TvocUserDriver extends UserSensorDriver {
+        // DRIVER parameters
+        // documented at https://source.android.com/devices/sensors/hal-interface.html#sensor_t
+        private static final float DRIVER_MAX_RANGE = Ccs811.MAX_TVOC_PPB;
+        private static final float DRIVER_RESOLUTION = 1f;
+
+        private UserSensor mUserSensor;
+
+        private UserSensor getUserSensor() {
+            if (mUserSensor == null) {
+                mUserSensor = new UserSensor.Builder()
+                        .setCustomType(TYPE_TVOC, STRING_TYPE_TVOC, Sensor.REPORTING_MODE_CONTINUOUS)
+                        .setName(DRIVER_NAME)
+                        .setVendor(DRIVER_VENDOR)
+                        .setVersion(DRIVER_VERSION)
+                        .setMaxRange(DRIVER_MAX_RANGE)
+                        .setResolution(DRIVER_RESOLUTION)
+                        .setPower(DRIVER_POWER)
+                        .setMinDelay(getDelayUs(mDriveMode))
+                        .setRequiredPermission(DRIVER_REQUIRED_PERMISSION)
+                        .setMaxDelay(getDelayUs(mDriveMode))
+                        .setUuid(UUID.randomUUID())
+                        .setDriver(this)
+                        .build();
+            }
+            return mUserSensor;
+        }
+
+        @Override
+        public UserSensorReading read() throws IOException {
+            return new UserSensorReading(new float[]{readResult(TVOC)});
+        }
+
+        @Override
+        public void setEnabled(final boolean enabled) throws IOException {
+            setSensorEnabled(TVOC, enabled);
+        }
+    }
+}
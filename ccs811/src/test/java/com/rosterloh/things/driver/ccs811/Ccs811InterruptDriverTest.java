@@ -0,0 +1,100 @@
+package com.rosterloh.things.driver.ccs811;
+
+import com.google.android.things.pio.Gpio;
+import com.google.android.things.pio.GpioCallback;
+
+import com.rosterloh.things.driver.testutils.Ccs811Emulator;
+import com.rosterloh.things.driver.testutils.VirtualClock;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class Ccs811InterruptDriverTest {
+
+    @Mock
+    private Gpio mGpio;
+
+    @Rule
+    public MockitoRule mMokitoRule = MockitoJUnit.rule();
+
+    private final VirtualClock mClock = new VirtualClock();
+    private final Ccs811Emulator mEmulator = new Ccs811Emulator(true, mClock);
+    // Air quality classes reported to the listener
+    private final List<Integer> mChanges = new ArrayList<>();
+    private Ccs811InterruptDriver mDriver;
+    private GpioCallback mCallback;
+
+    @Before
+    public void setUp() throws IOException {
+        mDriver = new Ccs811InterruptDriver(new Ccs811(mEmulator, mClock), mGpio);
+    }
+
+    @Test
+    public void thresholdInterruptReportsChange() throws IOException {
+        start(Ccs811.INTERRUPT_THRESHOLD);
+        mEmulator.setAirQuality(1600, 120);
+        mClock.advanceMillis(1000);
+        assertTrue(mEmulator.isInterruptAsserted());
+
+        mCallback.onGpioEdge(mGpio);
+
+        assertFalse(mEmulator.isInterruptAsserted());
+        assertEquals(1, mDriver.getEventCount());
+        assertEquals(Ccs811.AIR_QUALITY_MEDIUM, mDriver.getAirQuality());
+        assertEquals(1, mChanges.size());
+        assertEquals(Ccs811.AIR_QUALITY_MEDIUM, (int) mChanges.get(0));
+    }
+
+    @Test
+    public void dataReadyAppliesHysteresis() throws IOException {
+        start(Ccs811.INTERRUPT_DATA_READY);
+        // Default thresholds at 1500 and 2500 ppm with 50 ppm of hysteresis
+        final int[] eCO2 = {1400, 1520, 1560, 1470, 1440};
+        final int[] expected = {
+                Ccs811.AIR_QUALITY_LOW, Ccs811.AIR_QUALITY_LOW, Ccs811.AIR_QUALITY_MEDIUM,
+                Ccs811.AIR_QUALITY_MEDIUM, Ccs811.AIR_QUALITY_LOW};
+        for (int i = 0; i < eCO2.length; i++) {
+            mEmulator.setAirQuality(eCO2[i], 0);
+            mClock.advanceMillis(1000);
+            mCallback.onGpioEdge(mGpio);
+            assertEquals("eCO2 " + eCO2[i], expected[i], mDriver.getAirQuality());
+        }
+        assertEquals(3, mChanges.size());
+        assertEquals(5, mDriver.getEventCount());
+    }
+
+    @Test
+    public void failedReadIsRetriedToReleaseInterrupt() throws IOException {
+        start(Ccs811.INTERRUPT_DATA_READY);
+        mEmulator.setAirQuality(1400, 0);
+        mClock.advanceMillis(1000);
+        // The first read of the result is NACKed
+        mEmulator.failAfter(0);
+
+        mCallback.onGpioEdge(mGpio);
+
+        assertFalse(mEmulator.isInterruptAsserted());
+        assertEquals(Ccs811.AIR_QUALITY_LOW, mDriver.getAirQuality());
+        assertEquals(0, mDriver.getErrorCount());
+    }
+
+    private void start(int interruptMode) throws IOException {
+        mDriver.start(Ccs811.MODE_1S, interruptMode, (airQuality, eCO2, tVOC) -> mChanges.add(airQuality));
+        final ArgumentCaptor<GpioCallback> callback = ArgumentCaptor.forClass(GpioCallback.class);
+        Mockito.verify(mGpio).registerGpioCallback(callback.capture());
+        mCallback = callback.getValue();
+    }
+}
@@ -0,0 +1,96 @@
+package com.rosterloh.things.driver.ccs811;
+
+import com.rosterloh.things.driver.testutils.VirtualClock;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+
+public class Ccs811PollSchedulerTest {
+
+    @Mock
+    private Ccs811 mCcs811;
+
+    @Mock
+    private Ccs811PollScheduler.Callback mCallback;
+
+    @Rule
+    public MockitoRule mMokitoRule = MockitoJUnit.rule();
+
+    private final VirtualClock mClock = new VirtualClock();
+    private Ccs811PollScheduler mScheduler;
+
+    @Before
+    public void setUp() throws IOException {
+        Mockito.when(mCcs811.getMode()).thenReturn(Ccs811.MODE_1S);
+        Mockito.when(mCcs811.readAlgorithmResults()).thenReturn(new int[]{400, 0, 0, 0});
+        mScheduler = new Ccs811PollScheduler(mCcs811, mCallback, mClock);
+    }
+
+    @Test
+    public void poll_idleDoesNotTouchBus() throws IOException {
+        Mockito.when(mCcs811.getMode()).thenReturn(Ccs811.MODE_IDLE);
+        mScheduler.poll(0);
+        Mockito.verify(mCcs811, never()).isDataReady();
+        Mockito.verify(mCcs811, never()).readAlgorithmResults();
+    }
+
+    @Test
+    public void poll_alignsToPeriod() throws IOException {
+        Mockito.when(mCcs811.isDataReady()).thenReturn(false, true);
+        // Not ready yet: retry after a short step
+        assertEquals(50, mScheduler.poll(0));
+        // Result found right after an early read: phase known, wait a full period
+        assertEquals(1000, mScheduler.poll(50));
+        Mockito.verify(mCallback).onResult(400, 0);
+        assertEquals(1, mScheduler.getReadCount());
+        // Not counted as early until the first result has been seen
+        assertEquals(0, mScheduler.getEarlyReadCount());
+    }
+
+    @Test
+    public void poll_countsEarlyAndMissedReads() throws IOException {
+        Mockito.when(mCcs811.isDataReady()).thenReturn(true, false, true);
+        mScheduler.poll(0);
+        mScheduler.poll(990);
+        assertEquals(1, mScheduler.getEarlyReadCount());
+        mScheduler.poll(3000);
+        assertEquals(2, mScheduler.getMissedReadCount());
+        assertEquals(2, mScheduler.getReadCount());
+    }
+
+    @Test
+    public void poll_resyncsOnModeChange() throws IOException {
+        Mockito.when(mCcs811.isDataReady()).thenReturn(true);
+        mScheduler.poll(0);
+        Mockito.when(mCcs811.getMode()).thenReturn(Ccs811.MODE_250MS);
+        // First result in the new mode does not count the gap as missed reads
+        assertEquals(248, mScheduler.poll(5000));
+        assertEquals(0, mScheduler.getMissedReadCount());
+        Mockito.verify(mCallback, Mockito.times(2)).onResult(anyInt(), anyInt());
+    }
+
+    @Test
+    public void pollNow_reportsRuntimeFailuresAndCarriesOn() throws IOException {
+        final IllegalStateException failure = new IllegalStateException("callback failed");
+        Mockito.when(mCcs811.isDataReady()).thenReturn(true);
+        Mockito.doThrow(failure).doNothing().when(mCallback).onResult(anyInt(), anyInt());
+
+        assertEquals(1000, mScheduler.pollNow());
+        Mockito.verify(mCallback).onError(failure);
+        // Timestamps come from the clock: two periods later one result was missed
+        mClock.advanceMillis(2000);
+        mScheduler.pollNow();
+        Mockito.verify(mCallback, Mockito.times(2)).onResult(400, 0);
+        assertEquals(1, mScheduler.getMissedReadCount());
+    }
+}
@@ -0,0 +1,67 @@
+package com.rosterloh.things.driver.ccs811;
+
+import com.rosterloh.things.driver.testutils.Ccs811Emulator;
+import com.rosterloh.things.driver.testutils.VirtualClock;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class Ccs811SensorDriverTest {
+
+    private final VirtualClock mClock = new VirtualClock();
+    private final Ccs811Emulator mEmulator = new Ccs811Emulator(true, mClock);
+    private Ccs811 mDevice;
+    private Ccs811SensorDriver mDriver;
+
+    @Before
+    public void setUp() throws IOException {
+        mDevice = new Ccs811(mEmulator, mClock);
+        mDriver = new Ccs811SensorDriver(mDevice);
+    }
+
+    @Test
+    public void sensorsShareOneReadPerResult() throws IOException {
+        mDriver.setSensorEnabled(Ccs811SensorDriver.ECO2, true);
+        mDriver.setSensorEnabled(Ccs811SensorDriver.TVOC, true);
+        mEmulator.setAirQuality(600, 50);
+        mClock.advanceMillis(1000);
+
+        Assert.assertEquals(600f, mDriver.readResult(Ccs811SensorDriver.ECO2), 0);
+        Assert.assertEquals(50f, mDriver.readResult(Ccs811SensorDriver.TVOC), 0);
+        // No new result yet: the cached one is returned
+        mEmulator.setAirQuality(700, 60);
+        Assert.assertEquals(600f, mDriver.readResult(Ccs811SensorDriver.ECO2), 0);
+        // A fresh result shows up as soon as DATA_READY is set, whenever it was last read
+        mClock.advanceMillis(1000);
+        Assert.assertEquals(60f, mDriver.readResult(Ccs811SensorDriver.TVOC), 0);
+        Assert.assertEquals(700f, mDriver.readResult(Ccs811SensorDriver.ECO2), 0);
+    }
+
+    @Test
+    public void idlesWhileBothSensorsAreDisabled() throws IOException {
+        mDriver.setSensorEnabled(Ccs811SensorDriver.ECO2, true);
+        Assert.assertEquals(Ccs811.MODE_1S, mDevice.getMode());
+        mDriver.setSensorEnabled(Ccs811SensorDriver.TVOC, true);
+        mDriver.setSensorEnabled(Ccs811SensorDriver.ECO2, false);
+        Assert.assertEquals(Ccs811.MODE_1S, mDevice.getMode());
+        mDriver.setSensorEnabled(Ccs811SensorDriver.TVOC, false);
+        Assert.assertEquals(Ccs811.MODE_IDLE, mDevice.getMode());
+    }
+
+    @Test
+    public void firstResultAfterIdleIsNotStale() throws IOException {
+        mDriver.setSensorEnabled(Ccs811SensorDriver.ECO2, true);
+        mEmulator.setAirQuality(600, 50);
+        mClock.advanceMillis(1000);
+        Assert.assertEquals(600f, mDriver.readResult(Ccs811SensorDriver.ECO2), 0);
+
+        mDriver.setSensorEnabled(Ccs811SensorDriver.ECO2, false);
+        mEmulator.setAirQuality(900, 80);
+        mClock.advanceMillis(60000);
+        mDriver.setSensorEnabled(Ccs811SensorDriver.ECO2, true);
+        mClock.advanceMillis(1000);
+        Assert.assertEquals(900f, mDriver.readResult(Ccs811SensorDriver.ECO2), 0);
+    }
+}
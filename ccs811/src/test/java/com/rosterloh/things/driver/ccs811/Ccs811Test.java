@@ -2,16 +2,26 @@ package com.rosterloh.things.driver.ccs811;
 
 import com.google.android.things.pio.I2cDevice;
 
+import com.rosterloh.things.driver.core.BusDiscovery;
+import com.rosterloh.things.driver.core.EnergyMeter;
+import com.rosterloh.things.driver.core.RollingStatistics;
+import com.rosterloh.things.driver.testutils.Bmx280Emulator;
+import com.rosterloh.things.driver.testutils.Ccs811Emulator;
+import com.rosterloh.things.driver.testutils.VirtualClock;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
+import static com.rosterloh.things.driver.testutils.BitsMatcher.hasBitsNotSet;
 import static com.rosterloh.things.driver.testutils.BitsMatcher.hasBitsSet;
 import static org.junit.Assert.*;
 import static org.mockito.ArgumentMatchers.any;
@@ -36,6 +46,12 @@ public class Ccs811Test {
         return new Ccs811(mI2c);
     }
 
+    private Ccs811 getValidInstance() throws IOException {
+        // Report a valid application so connect() can start it
+        Mockito.when(mI2c.readRegByte(0x00)).thenReturn((byte) (1 << 4));
+        return new Ccs811(mI2c);
+    }
+
     @Test
     public void close() throws IOException {
         Ccs811 ccs811 = getInstance();
@@ -103,4 +119,122 @@ public class Ccs811Test {
         mExpectedException.expectMessage("not open");
         ccs811.readAlgorithmResults();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void setInterruptMode() throws IOException {
+        Ccs811 ccs811 = getValidInstance();
+        ccs811.setInterruptMode(Ccs811.INTERRUPT_THRESHOLD);
+        Mockito.verify(mI2c).writeRegByte(eq(0x01), byteThat(hasBitsSet((byte) 0b00001100)));
+        assertEquals(Ccs811.INTERRUPT_THRESHOLD, ccs811.getInterruptMode());
+
+        Mockito.reset(mI2c);
+
+        ccs811.setInterruptMode(Ccs811.INTERRUPT_DISABLED);
+        Mockito.verify(mI2c).writeRegByte(eq(0x01), byteThat(hasBitsNotSet((byte) 0b11110011)));
+    }
+
+    @Test
+    public void setThresholds() throws IOException {
+        Ccs811 ccs811 = getValidInstance();
+        ccs811.setThresholds(800, 1200, 40);
+        ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass(byte[].class);
+        Mockito.verify(mI2c).writeRegBuffer(eq(0x10), captor.capture(), eq(5));
+        assertArrayEquals(new byte[]{0x03, 0x20, 0x04, (byte) 0xB0, 40},
+                Arrays.copyOf(captor.getValue(), 5));
+
+        assertEquals(Ccs811.AIR_QUALITY_LOW, ccs811.classify(799));
+        assertEquals(Ccs811.AIR_QUALITY_MEDIUM, ccs811.classify(800));
+        assertEquals(Ccs811.AIR_QUALITY_HIGH, ccs811.classify(1200));
+    }
+
+    @Test
+    public void setThresholds_throwsIfInverted() throws IOException {
+        Ccs811 ccs811 = getValidInstance();
+        mExpectedException.expect(IllegalArgumentException.class);
+        ccs811.setThresholds(1200, 800, 40);
+    }
+
+    @Test
+    public void decodeAlgorithmResults() {
+        int[] results = Ccs811.decodeAlgorithmResults(
+                new byte[]{0x04, (byte) 0xB0, 0x00, (byte) 0x96, (byte) 0x98, 0x00, 0x00, 0x00});
+        assertArrayEquals(new int[]{1200, 150, (byte) 0x98, 0}, results);
+    }
+
+    @Test
+    public void readFromEmulator() throws IOException {
+        VirtualClock clock = new VirtualClock();
+        Ccs811Emulator emulator = new Ccs811Emulator(true, clock);
+        emulator.setAirQuality(1200, 150);
+        Ccs811 ccs811 = new Ccs811(emulator, clock);
+        ccs811.setMode(Ccs811.MODE_1S);
+        assertFalse(ccs811.isDataReady());
+
+        clock.advanceMillis(1000);
+        assertTrue(ccs811.isDataReady());
+        int[] results = ccs811.readAlgorithmResults();
+        assertEquals(1200, results[0]);
+        assertEquals(150, results[1]);
+        // Reading the result clears data ready until the next period
+        assertFalse(ccs811.isDataReady());
+    }
+
+    @Test
+    public void collectsStatisticsOfNewResults() throws IOException {
+        VirtualClock clock = new VirtualClock();
+        Ccs811Emulator emulator = new Ccs811Emulator(true, clock);
+        Ccs811 ccs811 = new Ccs811(emulator, clock);
+        RollingStatistics co2 = RollingStatistics.forPeriod(1000000000L);
+        ccs811.setCo2Statistics(co2);
+        ccs811.setMode(Ccs811.MODE_1S);
+        emulator.setAirQuality(1200, 150);
+        clock.advanceMillis(1000);
+        ccs811.readAlgorithmResults();
+        // Read again before the next result
+        ccs811.readAlgorithmResults();
+        emulator.setAirQuality(1400, 150);
+        clock.advanceMillis(1000);
+        ccs811.readAlgorithmResults();
+        assertEquals(2, co2.getCount(RollingStatistics.ONE_MINUTE_WINDOW));
+        assertEquals(1300f, co2.getMean(RollingStatistics.ONE_MINUTE_WINDOW), 0);
+        assertEquals(1400f, co2.getMax(RollingStatistics.ONE_MINUTE_WINDOW), 0);
+    }
+
+    @Test
+    public void metersEnergyPerMode() throws IOException {
+        VirtualClock clock = new VirtualClock();
+        Ccs811 ccs811 = new Ccs811(new Ccs811Emulator(true, clock), clock);
+        EnergyMeter meter = ccs811.getEnergyMeter();
+        assertEquals(Ccs811.MODE_IDLE, meter.getState());
+        ccs811.setMode(Ccs811.MODE_60S);
+        assertEquals(Ccs811.MAX_POWER_CONSUMPTION_UA * 1.2f / 46f, meter.getStateCurrentUa(), 1e-3f);
+        clock.advanceMillis(3600 * 1000);
+        ccs811.setMode(Ccs811.MODE_IDLE);
+        clock.advanceMillis(3600 * 1000);
+        // Give or take the bus time of the mode writes
+        assertEquals(TimeUnit.HOURS.toNanos(1), meter.getStateNanos(Ccs811.MODE_60S), TimeUnit.MILLISECONDS.toNanos(1));
+        assertEquals(Ccs811.getSupplyCurrentUa(Ccs811.MODE_60S) + Ccs811.MAX_POWER_CONSUMPTION_IDLE_UA,
+                meter.getChargeUah(), 1e-3);
+    }
+
+    @Test
+    public void discoveredOnEmulator() throws IOException {
+        VirtualClock clock = new VirtualClock();
+        // A BME280 strapped to the CCS811's alternate address reads back a different hardware id
+        Bmx280Emulator other = new Bmx280Emulator(0x60, clock);
+        Ccs811Emulator emulator = new Ccs811Emulator(true, clock);
+        BusDiscovery discovery = new BusDiscovery((bus, address) -> address == 0x5A ? other : emulator, clock);
+        discovery.add(Ccs811.DISCOVERY);
+
+        assertEquals(1, discovery.scan("I2C1").size());
+        assertTrue(other.isClosed());
+        // Identified without the start-up delays of connecting
+        assertTrue(discovery.getScanNanos("I2C1") < TimeUnit.MILLISECONDS.toNanos(5));
+        assertEquals(1, emulator.getTransactionCount());
+
+        final Ccs811 ccs811 = discovery.open("I2C1", Ccs811.DISCOVERY);
+        assertSame(ccs811, discovery.open("I2C1", Ccs811.DISCOVERY));
+        ccs811.setMode(Ccs811.MODE_1S);
+        assertEquals(Ccs811.MODE_1S, ccs811.getMode());
+    }
+}
@@ -0,0 +1,121 @@
+package com.rosterloh.things.driver.core;
+
+import java.io.IOException;
+
+/**
+ * Base class for drivers of a peripheral reached through a {@link RegisterBus}. Owns the bus and
+ * takes care of the open checks so every driver reports a closed device the same way.
+ */
+public abstract class BusDevice implements AutoCloseable {
+
+    private final Clock mClock;
+    private final SampleTiming mSampleTiming;
+    private final EnergyMeter mEnergyMeter;
+    private RegisterBus mBus;
+
+    /**
+     * Create a driver for the peripheral on the given bus, timing with
+     * {@link Clock#ELAPSED_REALTIME}. The driver owns the bus from now on.
+     * @param bus register bus of the peripheral.
+     */
+    protected BusDevice(RegisterBus bus) {
+        this(bus, Clock.ELAPSED_REALTIME);
+    }
+
+    /**
+     * Create a driver for the peripheral on the given bus. The driver owns the bus from now on.
+     * @param bus register bus of the peripheral.
+     * @param clock time source of the sample timestamps and the energy meter, e.g.
+     *              {@link Clock#SYSTEM} or a virtual clock in unit tests.
+     */
+    protected BusDevice(RegisterBus bus, Clock clock) {
+        mBus = bus;
+        mClock = clock;
+        mSampleTiming = new SampleTiming(clock);
+        mEnergyMeter = new EnergyMeter(clock);
+    }
+
+    /**
+     * Returns the register bus of the peripheral.
+     * @throws IllegalStateException if the device has been closed
+     */
+    protected final RegisterBus getBus() throws IllegalStateException {
+        final RegisterBus bus = mBus;
+        if (bus == null) {
+            throw new IllegalStateException("Bus device not open");
+        }
+        return bus;
+    }
+
+    /**
+     * Returns the clock the driver was created with.
+     */
+    public Clock getClock() {
+        return mClock;
+    }
+
+    /**
+     * Returns the timestamps of the last sample read and the sampling statistics. Drivers mark
+     * each sample with {@link SampleTiming#begin()} and {@link SampleTiming#end(long)} around its
+     * bus transactions.
+     */
+    public SampleTiming getSampleTiming() {
+        return mSampleTiming;
+    }
+
+    /**
+     * Returns the estimated charge drawn by the peripheral. Drivers update its state whenever
+     * their configuration changes the supply current.
+     */
+    public EnergyMeter getEnergyMeter() {
+        return mEnergyMeter;
+    }
+
+    /**
+     * Add a value of a sample to rolling statistics. Concurrent reads may get here out of order,
+     * so a timestamp before the last sample's is clamped to it rather than rejected.
+     * @param statistics statistics of the value's channel, or null if not collected.
+     * @param timestamp timestamp of the sample, usually the middle of its bus transactions.
+     * @param value value read.
+     */
+    protected static void addToStatistics(RollingStatistics statistics, long timestamp, float value) {
+        if (statistics != null) {
+            statistics.addClamped(timestamp, value);
+        }
+    }
+
+    /**
+     * Store the bus time of a sample for a caller that asked for it.
+     * @param timestamps array receiving the start and end in its first two elements, or null.
+     * @param start time returned by {@link SampleTiming#begin()}.
+     * @param end time returned by {@link SampleTiming#end(long)}.
+     */
+    protected static void putTimestamps(long[] timestamps, long start, long end) {
+        if (timestamps != null) {
+            timestamps[0] = start;
+            timestamps[1] = end;
+        }
+    }
+
+    /**
+     * Returns true until the driver has been closed.
+     */
+    public boolean isOpen() {
+        return mBus != null;
+    }
+
+    /**
+     * Close the driver and the underlying device. Safe to call more than once.
+     * @throws IOException if the device cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (mBus != null) {
+            try {
+                mBus.close();
+            } finally {
+                mBus = null;
+            }
+        }
+    }
+}
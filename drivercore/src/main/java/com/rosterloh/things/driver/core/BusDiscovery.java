@@ -0,0 +1,392 @@
+package com.rosterloh.things.driver.core;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds which known devices are present on an I2C bus and hands out their drivers, for hardware
+ * variants that fit different sensors or addresses:
+ * <pre>{@code
+ * BusDiscovery discovery = new BusDiscovery();
+ * discovery.add(Bmx280.DISCOVERY);
+ * discovery.add(Htu21d.DISCOVERY);
+ * discovery.add(Ccs811.DISCOVERY);
+ * Bmx280 bmx280 = discovery.open("I2C1", Bmx280.DISCOVERY);
+ * Ccs811 ccs811 = discovery.open("I2C1", Ccs811.DISCOVERY); // null if not fitted
+ * }</pre>
+ *
+ * <p>A scan probes each address of each known device, in the order they were added, with a
+ * single read of its identity register; an address that does not acknowledge is absent. That is
+ * one short transaction per address, so a bus scans in a few milliseconds. An address already
+ * identified is not probed again for a later device. The devices found are cached per bus until
+ * {@link #forget(String)}, and keep the bus opened for the probe, which their driver takes over
+ * when opened. Connecting a driver does the driver's usual bus work, e.g. the CCS811 start-up
+ * delays, and is only done for the devices asked for.
+ *
+ * <p>Scans are synchronized, so a scan of one bus blocks the others. Drivers connect outside the
+ * lock, so connecting one device does not hold up scans or other devices; open drivers from a
+ * {@link DriverLauncher} to have them connect in parallel. A driver that fails to connect is
+ * not retried: later opens throw an IOException caused by that failure until the bus is forgotten
+ * and scanned again.
+ */
+public final class BusDiscovery {
+
+    private final BusOpener mOpener;
+    private final Clock mClock;
+    private final List<Device<?>> mDevices = new ArrayList<>();
+    private final Map<String, Scan> mScans = new HashMap<>();
+
+    /**
+     * Create a discovery of I2C devices timing scans with {@link Clock#ELAPSED_REALTIME}.
+     */
+    public BusDiscovery() {
+        this(new BusOpener() {
+            @Override
+            public RegisterBus open(String bus, int address) throws IOException {
+                return I2cRegisterBus.open(bus, address);
+            }
+        }, Clock.ELAPSED_REALTIME);
+    }
+
+    /**
+     * Create a discovery.
+     * @param opener opens the bus of one address, e.g. on emulators in tests.
+     * @param clock clock timing the scans, also given to the drivers connected.
+     */
+    public BusDiscovery(BusOpener opener, Clock clock) {
+        mOpener = opener;
+        mClock = clock;
+    }
+
+    /**
+     * Add a device to look for. Buses already scanned are not scanned again.
+     * @param device description of the device.
+     * @return this discovery
+     */
+    public synchronized BusDiscovery add(Device<?> device) {
+        mDevices.add(device);
+        return this;
+    }
+
+    /**
+     * Returns the known devices present on a bus, scanning it if it is not cached.
+     * @param bus bus name, e.g. "I2C1".
+     * @return the devices found, in the order they were identified
+     * @throws IOException if the bus cannot be opened
+     */
+    public synchronized List<Found<?>> scan(String bus) throws IOException {
+        return Collections.unmodifiableList(getScan(bus).mFound);
+    }
+
+    /**
+     * Returns the time the cached scan of a bus took, or -1 if it has not been scanned.
+     * @param bus bus name.
+     */
+    public synchronized long getScanNanos(String bus) {
+        final Scan scan = mScans.get(bus);
+        return scan == null ? -1 : scan.mNanos;
+    }
+
+    /**
+     * Returns the connected driver of the first device of a kind found on a bus, scanning the bus
+     * if needed. Later calls return the same driver.
+     * @param bus bus name, e.g. "I2C1".
+     * @param device kind of device.
+     * @return the driver, or null if the bus has no such device
+     * @throws IOException if the bus cannot be opened or the driver cannot connect
+     */
+    public <T> T open(String bus, Device<T> device) throws IOException {
+        Found<T> match = null;
+        synchronized (this) {
+            for (Found<?> found : getScan(bus).mFound) {
+                if (found.mDevice == device) {
+                    match = device.cast(found);
+                    break;
+                }
+            }
+        }
+        return match == null ? null : open(match);
+    }
+
+    /**
+     * Returns the connected driver of a device found by {@link #scan(String)}. Later calls return
+     * the same driver, waiting for it if another thread is connecting it.
+     * @param found device found.
+     * @return the driver
+     * @throws IOException if the driver cannot connect, now or on an earlier call
+     */
+    public <T> T open(Found<T> found) throws IOException {
+        final RegisterBus bus;
+        synchronized (this) {
+            while (found.mConnecting) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted waiting for " + found);
+                }
+            }
+            if (found.mDriver != null) {
+                return found.mDriver;
+            }
+            if (found.mError != null) {
+                throw new IOException(found + " failed to connect", found.mError);
+            }
+            if (found.mBus == null) {
+                throw new IllegalStateException(found + " has been forgotten");
+            }
+            // The driver owns the bus from now on, also when it fails to connect and closes it
+            bus = found.mBus;
+            found.mBus = null;
+            found.mConnecting = true;
+        }
+        T driver = null;
+        Exception error = null;
+        try {
+            driver = found.mDevice.connect(bus, mClock);
+            return driver;
+        } catch (Exception e) {
+            error = e;
+            throw e;
+        } finally {
+            synchronized (this) {
+                found.mDriver = driver;
+                found.mError = error;
+                found.mConnecting = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Drop the cached scan of a bus, closing the buses of the devices not opened. Drivers already
+     * opened are not affected.
+     * @param bus bus name.
+     * @throws IOException if a bus fails to close
+     */
+    public synchronized void forget(String bus) throws IOException {
+        final Scan scan = mScans.remove(bus);
+        if (scan != null) {
+            close(scan);
+        }
+    }
+
+    private Scan getScan(String bus) throws IOException {
+        Scan scan = mScans.get(bus);
+        if (scan == null) {
+            scan = scan(bus, new ArrayList<>(mDevices));
+            mScans.put(bus, scan);
+        }
+        return scan;
+    }
+
+    private Scan scan(String busName, List<Device<?>> devices) throws IOException {
+        final Scan scan = new Scan();
+        final long start = mClock.nanoTime();
+        final List<Integer> identified = new ArrayList<>();
+        try {
+            for (Device<?> device : devices) {
+                for (int address : device.mAddresses) {
+                    if (!identified.contains(address) && probe(scan, device, busName, address)) {
+                        identified.add(address);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            // A failed scan is not cached, so it must not keep the buses of the devices found
+            try {
+                close(scan);
+            } catch (IOException closeError) {
+                e.addSuppressed(closeError);
+            }
+            throw e;
+        }
+        scan.mNanos = mClock.nanoTime() - start;
+        return scan;
+    }
+
+    private boolean probe(Scan scan, Device<?> device, String busName, int address) throws IOException {
+        final RegisterBus bus = mOpener.open(busName, address);
+        int identity = Device.NOT_IDENTIFIED;
+        try {
+            identity = device.identify(bus);
+        } catch (IOException e) {
+            // Nothing acknowledged the address
+        } finally {
+            if (identity == Device.NOT_IDENTIFIED) {
+                bus.close();
+            }
+        }
+        if (identity == Device.NOT_IDENTIFIED) {
+            return false;
+        }
+        scan.mFound.add(device.found(busName, address, identity, bus));
+        return true;
+    }
+
+    /**
+     * Close the buses of the devices of a scan not opened, all of them even if one fails.
+     */
+    private static void close(Scan scan) throws IOException {
+        IOException error = null;
+        for (Found<?> found : scan.mFound) {
+            if (found.mBus != null) {
+                final RegisterBus unused = found.mBus;
+                found.mBus = null;
+                try {
+                    unused.close();
+                } catch (IOException e) {
+                    if (error == null) {
+                        error = e;
+                    }
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Opens the bus of one device.
+     */
+    public interface BusOpener {
+        /**
+         * Open a device.
+         * @param bus bus name.
+         * @param address device address.
+         * @return the device's bus
+         * @throws IOException if the bus cannot be opened
+         */
+        RegisterBus open(String bus, int address) throws IOException;
+    }
+
+    /**
+     * A kind of device discovery can look for, usually a constant of its driver.
+     * @param <T> driver type.
+     */
+    public abstract static class Device<T> {
+
+        /**
+         * Returned by {@link #identify(RegisterBus)} when the device at the address is a
+         * different one.
+         */
+        public static final int NOT_IDENTIFIED = -1;
+
+        private final String mName;
+        private final int[] mAddresses;
+
+        /**
+         * Describe a device.
+         * @param name device name used in reports.
+         * @param addresses addresses the device may use, in probing order.
+         */
+        protected Device(String name, int... addresses) {
+            mName = name;
+            mAddresses = addresses.clone();
+        }
+
+        /**
+         * Returns the device name.
+         */
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * Read the identity of the device at an address, in as few transactions as possible.
+         * @param bus bus of the address.
+         * @return the identity, e.g. the chip id, or {@link #NOT_IDENTIFIED}
+         * @throws IOException if the address does not acknowledge
+         */
+        protected abstract int identify(RegisterBus bus) throws IOException;
+
+        /**
+         * Create the driver of an identified device.
+         * @param bus bus of the device, owned by the driver from now on.
+         * @param clock clock of the discovery, for the driver's timestamps.
+         * @return the connected driver
+         * @throws IOException if the driver cannot connect
+         */
+        protected abstract T connect(RegisterBus bus, Clock clock) throws IOException;
+
+        private Found<T> found(String busName, int address, int identity, RegisterBus bus) {
+            return new Found<>(this, busName, address, identity, bus);
+        }
+
+        @SuppressWarnings("unchecked")
+        private Found<T> cast(Found<?> found) {
+            return (Found<T>) found;
+        }
+    }
+
+    /**
+     * A device found by a scan.
+     * @param <T> driver type.
+     */
+    public static final class Found<T> {
+        private final Device<T> mDevice;
+        private final String mBusName;
+        private final int mAddress;
+        private final int mIdentity;
+        // Guarded by the discovery
+        private RegisterBus mBus;
+        private boolean mConnecting;
+        private T mDriver;
+        private Exception mError;
+
+        private Found(Device<T> device, String busName, int address, int identity, RegisterBus bus) {
+            mDevice = device;
+            mBusName = busName;
+            mAddress = address;
+            mIdentity = identity;
+            mBus = bus;
+        }
+
+        /**
+         * Returns the kind of device.
+         */
+        public Device<T> getDevice() {
+            return mDevice;
+        }
+
+        /**
+         * Returns the name of the bus the device is on.
+         */
+        public String getBusName() {
+            return mBusName;
+        }
+
+        /**
+         * Returns the address the device answered on.
+         */
+        public int getAddress() {
+            return mAddress;
+        }
+
+        /**
+         * Returns the identity read by the probe, e.g. the chip id.
+         */
+        public int getIdentity() {
+            return mIdentity;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s at 0x%02X on %s", mDevice.getName(), mAddress, mBusName);
+        }
+    }
+
+    /**
+     * The cached result of scanning one bus.
+     */
+    private static final class Scan {
+        private final List<Found<?>> mFound = new ArrayList<>();
+        private long mNanos;
+    }
+}
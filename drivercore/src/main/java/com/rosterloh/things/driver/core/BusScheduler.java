@@ -0,0 +1,251 @@
+package com.rosterloh.things.driver.core;
+
+import android.support.annotation.IntDef;
+
+import java.io.InterruptedIOException;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Arbitrates the transactions of every device on one physical bus, e.g.
+ * <pre>
+ *     BusScheduler i2c1 = new BusScheduler();
+ *     Bmx280 bmx280 = new Bmx280(i2c1.register(I2cRegisterBus.open("I2C1", 0x77), "bmx280",
+ *             BusScheduler.PRIORITY_HIGH, 0));
+ *     Htu21d htu21d = new Htu21d(i2c1.register(I2cRegisterBus.open("I2C1", 0x40), "htu21d",
+ *             BusScheduler.PRIORITY_LOW, 0));
+ * </pre>
+ *
+ * <p>One transaction runs at a time. When the bus frees up the next transaction is chosen by:
+ * <ol>
+ *     <li>the earliest deadline among waiting transactions that are already past their
+ *     deadline,</li>
+ *     <li>otherwise the highest priority class with a waiting transaction,</li>
+ *     <li>and within that class, round robin between clients so one busy driver can't starve
+ *     another.</li>
+ * </ol>
+ * A deadline is the longest a client's transactions may wait in the queue; it also protects low
+ * priority clients from starvation. Transactions are never preempted, so a long transaction such
+ * as an HTU21D hold master read still blocks the bus for its whole duration. Use the no hold
+ * reads of such devices on a shared bus, the scheduler can then run other transactions while the
+ * device converts.
+ */
+public class BusScheduler {
+
+    /**
+     * Latency sensitive clients, e.g. high rate pressure sampling.
+     */
+    public static final int PRIORITY_HIGH = 0;
+    /**
+     * Default priority class.
+     */
+    public static final int PRIORITY_NORMAL = 1;
+    /**
+     * Background clients, e.g. slow environmental sensors.
+     */
+    public static final int PRIORITY_LOW = 2;
+
+    /**
+     * Deadline of clients that have none.
+     */
+    public static final long NO_DEADLINE = 0;
+
+    private static final int PRIORITY_CLASSES = 3;
+
+    private final Clock mClock;
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final List<ScheduledRegisterBus> mClients = new ArrayList<>();
+    // Round robin position per priority class, index of the client granted last
+    private final int[] mLastGranted = new int[PRIORITY_CLASSES];
+    private boolean mBusy;
+    private int mQueueLength;
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({PRIORITY_HIGH, PRIORITY_NORMAL, PRIORITY_LOW})
+    public @interface Priority {}
+
+    /**
+     * Create a scheduler measuring queue wait with {@link Clock#SYSTEM}.
+     */
+    public BusScheduler() {
+        this(Clock.SYSTEM);
+    }
+
+    /**
+     * Create a scheduler.
+     * @param clock clock used for deadlines and queue wait.
+     */
+    public BusScheduler(Clock clock) {
+        mClock = clock;
+        for (int i = 0; i < PRIORITY_CLASSES; i++) {
+            mLastGranted[i] = -1;
+        }
+    }
+
+    /**
+     * Route a device's transactions through this scheduler.
+     * @param bus device on the bus this scheduler arbitrates.
+     * @param name client name used in reports.
+     * @param priority priority class of the client.
+     * @param deadlineNanos longest time a transaction of this client should wait for the bus,
+     *                      or {@link #NO_DEADLINE}.
+     * @return bus to hand to the driver
+     */
+    public ScheduledRegisterBus register(RegisterBus bus, String name, @Priority int priority,
+                                         long deadlineNanos) {
+        if (priority < PRIORITY_HIGH || priority > PRIORITY_LOW) {
+            throw new IllegalArgumentException("invalid priority " + priority);
+        }
+        if (deadlineNanos < 0) {
+            throw new IllegalArgumentException("invalid deadline " + deadlineNanos);
+        }
+        mLock.lock();
+        try {
+            final ScheduledRegisterBus client = new ScheduledRegisterBus(this, bus, name, priority,
+                    deadlineNanos, mLock.newCondition());
+            mClients.add(client);
+            return client;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the clients registered so far, in registration order.
+     */
+    public List<ScheduledRegisterBus> getClients() {
+        mLock.lock();
+        try {
+            return new ArrayList<>(mClients);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of transactions waiting for the bus.
+     */
+    public int getQueueLength() {
+        mLock.lock();
+        try {
+            return mQueueLength;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Block until the client may run a transaction.
+     * @param client client asking for the bus
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    /*package*/ void acquire(ScheduledRegisterBus client) throws InterruptedIOException {
+        mLock.lock();
+        try {
+            final long enqueued = mClock.nanoTime();
+            if (!mBusy && mQueueLength == 0) {
+                // Uncontended, no queue to join
+                mBusy = true;
+                client.onGranted(0, false);
+                return;
+            }
+            final long deadline = client.getDeadlineNanos() == NO_DEADLINE
+                    ? Long.MAX_VALUE : enqueued + client.getDeadlineNanos();
+            final Ticket ticket = new Ticket(deadline);
+            client.enqueue(ticket);
+            mQueueLength++;
+            try {
+                while (!ticket.mGranted) {
+                    client.getCondition().await();
+                }
+            } catch (InterruptedException e) {
+                if (ticket.mGranted) {
+                    grantNext();
+                } else {
+                    client.remove(ticket);
+                    mQueueLength--;
+                }
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for " + client.getName());
+            }
+            final long granted = mClock.nanoTime();
+            client.onGranted(granted - enqueued, granted > deadline);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Hand the bus to the next waiting transaction, if any.
+     */
+    /*package*/ void release() {
+        mLock.lock();
+        try {
+            grantNext();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void grantNext() {
+        mBusy = false;
+        final int index = pickNext(mClock.nanoTime());
+        if (index < 0) {
+            return;
+        }
+        final ScheduledRegisterBus client = mClients.get(index);
+        mLastGranted[client.getPriority()] = index;
+        final Ticket ticket = client.dequeue();
+        mQueueLength--;
+        ticket.mGranted = true;
+        mBusy = true;
+        // Clients share one lock, waiters of a client all wake and recheck their own ticket
+        client.getCondition().signalAll();
+    }
+
+    private int pickNext(long now) {
+        if (mQueueLength == 0) {
+            return -1;
+        }
+        // Overdue transactions first, earliest deadline first
+        int overdue = -1;
+        long earliest = Long.MAX_VALUE;
+        for (int i = 0; i < mClients.size(); i++) {
+            final Ticket head = mClients.get(i).peek();
+            if (head != null && head.mDeadline <= now && head.mDeadline < earliest) {
+                earliest = head.mDeadline;
+                overdue = i;
+            }
+        }
+        if (overdue >= 0) {
+            return overdue;
+        }
+        // Then by priority class, round robin within the class
+        final int count = mClients.size();
+        for (int priority = PRIORITY_HIGH; priority <= PRIORITY_LOW; priority++) {
+            for (int step = 1; step <= count; step++) {
+                final int i = (mLastGranted[priority] + step + count) % count;
+                final ScheduledRegisterBus client = mClients.get(i);
+                if (client.getPriority() == priority && client.peek() != null) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A transaction waiting for the bus.
+     */
+    /*package*/ static final class Ticket {
+        private final long mDeadline;
+        private boolean mGranted;
+
+        Ticket(long deadline) {
+            mDeadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.rosterloh.things.driver.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Transaction counters for one {@link RegisterBus}, filled in by {@link InstrumentedRegisterBus}.
+ *
+ * <p>Counts, bytes, failures and bus time are kept per register, with raw reads and writes
+ * counted under {@link #RAW}. Latencies go into fixed power of two histograms, one for reads and
+ * one for writes. Recording only updates preallocated atomic counters, so it never allocates or
+ * blocks; {@link #snapshot()} copies them out for reporting.
+ */
+public final class BusStatistics {
+
+    /**
+     * Register index used for raw reads and writes that have no register address.
+     */
+    public static final int RAW = 256;
+    /**
+     * Number of latency histogram buckets. Bucket {@code i} counts transactions that took less
+     * than {@code 2^(i+1)} microseconds, the last bucket everything slower.
+     */
+    public static final int LATENCY_BUCKETS = 16;
+
+    private static final int REGISTERS = RAW + 1;
+    private static final int READ = 0;
+    private static final int WRITE = 1;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(REGISTERS);
+    private final AtomicLongArray mBytes = new AtomicLongArray(REGISTERS);
+    private final AtomicLongArray mErrors = new AtomicLongArray(REGISTERS);
+    private final AtomicLongArray mNanos = new AtomicLongArray(REGISTERS);
+    private final AtomicLongArray mLatency = new AtomicLongArray(2 * LATENCY_BUCKETS);
+
+    /**
+     * Record a completed or failed transaction.
+     * @param reg register address, or {@link #RAW}
+     * @param write true for a write, false for a read or combined transfer
+     * @param bytes number of data bytes moved
+     * @param nanos time the transaction took
+     * @param failed true if the transaction threw an IOException (e.g. the device NACKed)
+     */
+    public void record(int reg, boolean write, int bytes, long nanos, boolean failed) {
+        final int index = reg & 0xff;
+        final int slot = reg == RAW ? RAW : index;
+        mCounts.incrementAndGet(slot);
+        mNanos.addAndGet(slot, nanos);
+        if (failed) {
+            mErrors.incrementAndGet(slot);
+        } else {
+            mBytes.addAndGet(slot, bytes);
+        }
+        mLatency.incrementAndGet((write ? WRITE : READ) * LATENCY_BUCKETS + bucketOf(nanos));
+    }
+
+    /**
+     * Clear all counters.
+     */
+    public void reset() {
+        for (int i = 0; i < REGISTERS; i++) {
+            mCounts.set(i, 0);
+            mBytes.set(i, 0);
+            mErrors.set(i, 0);
+            mNanos.set(i, 0);
+        }
+        for (int i = 0; i < mLatency.length(); i++) {
+            mLatency.set(i, 0);
+        }
+    }
+
+    /**
+     * Copy the current counters. Counters keep running while the copy is taken, so a snapshot
+     * of a busy bus may be off by the transactions in flight.
+     * @return snapshot of the counters
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(copy(mCounts), copy(mBytes), copy(mErrors), copy(mNanos), copy(mLatency));
+    }
+
+    /**
+     * Returns the histogram bucket for a latency.
+     */
+    static int bucketOf(long nanos) {
+        final long micros = nanos / 1000;
+        if (micros <= 1) {
+            return 0;
+        }
+        return Math.min(LATENCY_BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+    }
+
+    private static long[] copy(AtomicLongArray array) {
+        final long[] values = new long[array.length()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = array.get(i);
+        }
+        return values;
+    }
+
+    /**
+     * Immutable copy of the counters.
+     */
+    public static final class Snapshot {
+
+        private final long[] mCounts;
+        private final long[] mBytes;
+        private final long[] mErrors;
+        private final long[] mNanos;
+        private final long[] mLatency;
+
+        private Snapshot(long[] counts, long[] bytes, long[] errors, long[] nanos, long[] latency) {
+            mCounts = counts;
+            mBytes = bytes;
+            mErrors = errors;
+            mNanos = nanos;
+            mLatency = latency;
+        }
+
+        /**
+         * Returns the number of transactions on a register, or {@link #RAW}.
+         */
+        public long getTransactionCount(int reg) {
+            return mCounts[reg];
+        }
+
+        /**
+         * Returns the number of data bytes moved by successful transactions on a register.
+         */
+        public long getByteCount(int reg) {
+            return mBytes[reg];
+        }
+
+        /**
+         * Returns the number of transactions on a register that failed with an IOException.
+         */
+        public long getErrorCount(int reg) {
+            return mErrors[reg];
+        }
+
+        /**
+         * Returns the total time in nanoseconds spent in transactions on a register.
+         */
+        public long getBusTimeNanos(int reg) {
+            return mNanos[reg];
+        }
+
+        /**
+         * Returns the total number of transactions.
+         */
+        public long getTransactionCount() {
+            return sum(mCounts);
+        }
+
+        /**
+         * Returns the total number of data bytes moved.
+         */
+        public long getByteCount() {
+            return sum(mBytes);
+        }
+
+        /**
+         * Returns the total number of failed transactions.
+         */
+        public long getErrorCount() {
+            return sum(mErrors);
+        }
+
+        /**
+         * Returns the total time in nanoseconds spent in transactions.
+         */
+        public long getBusTimeNanos() {
+            return sum(mNanos);
+        }
+
+        /**
+         * Returns the read latency histogram, see {@link #LATENCY_BUCKETS}.
+         */
+        public long[] getReadLatencyHistogram() {
+            return histogram(READ);
+        }
+
+        /**
+         * Returns the write latency histogram, see {@link #LATENCY_BUCKETS}.
+         */
+        public long[] getWriteLatencyHistogram() {
+            return histogram(WRITE);
+        }
+
+        /**
+         * Returns an upper bound for the given latency percentile over all transactions.
+         * @param percentile percentile between 0 and 100
+         * @return upper edge in nanoseconds of the bucket holding the percentile, or 0 if empty
+         */
+        public long getLatencyPercentileNanos(double percentile) {
+            long total = 0;
+            for (int i = 0; i < mLatency.length; i++) {
+                total += mLatency[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            final long target = (long) Math.ceil(total * percentile / 100.0);
+            long seen = 0;
+            for (int bucket = 0; bucket < LATENCY_BUCKETS; bucket++) {
+                seen += mLatency[READ * LATENCY_BUCKETS + bucket] + mLatency[WRITE * LATENCY_BUCKETS + bucket];
+                if (seen >= target) {
+                    return bucket == LATENCY_BUCKETS - 1 ? Long.MAX_VALUE : (2000L << bucket);
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        private long[] histogram(int direction) {
+            final long[] values = new long[LATENCY_BUCKETS];
+            System.arraycopy(mLatency, direction * LATENCY_BUCKETS, values, 0, LATENCY_BUCKETS);
+            return values;
+        }
+
+        private static long sum(long[] values) {
+            long total = 0;
+            for (long value : values) {
+                total += value;
+            }
+            return total;
+        }
+    }
+}
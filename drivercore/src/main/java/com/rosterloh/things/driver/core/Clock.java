@@ -0,0 +1,37 @@
+package com.rosterloh.things.driver.core;
+
+import android.os.SystemClock;
+
+/**
+ * Monotonic time source, so code that measures or schedules bus activity can run against real
+ * time on a device and against virtual time in tests and benchmarks.
+ */
+public interface Clock {
+
+    /**
+     * Clock backed by {@link System#nanoTime()}.
+     */
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * Clock backed by {@link SystemClock#elapsedRealtimeNanos()}, which keeps counting in deep
+     * sleep and is shared by every process on the device.
+     */
+    Clock ELAPSED_REALTIME = new Clock() {
+        @Override
+        public long nanoTime() {
+            return SystemClock.elapsedRealtimeNanos();
+        }
+    };
+
+    /**
+     * Returns the current time in nanoseconds. Only differences between two values are
+     * meaningful.
+     */
+    long nanoTime();
+}
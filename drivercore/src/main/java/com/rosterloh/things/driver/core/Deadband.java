@@ -0,0 +1,144 @@
+package com.rosterloh.things.driver.core;
+
+import java.io.IOException;
+
+/**
+ * Change-only reporting of a sensor value. A reading is reported when it differs from the last
+ * reported one by more than the threshold, or as a heartbeat once nothing has been reported for
+ * the maximum silence; every other reading is suppressed:
+ * <pre>
+ *     // report temperature changes over 0.1 degrees, and at least once a minute
+ *     sensorDriver.setTemperatureDeadband(Deadband.absolute(0.1f, TimeUnit.MINUTES.toNanos(1)));
+ * </pre>
+ *
+ * <p>The threshold is either absolute, in the unit of the value, or relative to the last
+ * reported value. {@link #accept(long, float)} filters readings taken elsewhere. Pull based
+ * drivers such as a {@code UserSensorDriver} report through a {@link DeadbandChannel}, which
+ * repeats the last reported value instead of waiting for a change.
+ */
+public final class Deadband {
+
+    private final float mThreshold;
+    private final boolean mRelative;
+    private final long mMaxSilenceNanos;
+    private Clock mClock = Clock.SYSTEM;
+    private boolean mHasReported;
+    private float mLastReported;
+    private long mLastReportedNanos;
+    private long mReportedCount;
+    private long mHeartbeatCount;
+    private long mSuppressedCount;
+
+    private Deadband(float threshold, boolean relative, long maxSilenceNanos) {
+        if (!(threshold >= 0)) {
+            throw new IllegalArgumentException("invalid threshold " + threshold);
+        }
+        if (maxSilenceNanos <= 0) {
+            throw new IllegalArgumentException("invalid maximum silence " + maxSilenceNanos);
+        }
+        mThreshold = threshold;
+        mRelative = relative;
+        mMaxSilenceNanos = maxSilenceNanos;
+    }
+
+    /**
+     * Create a deadband with an absolute threshold.
+     * @param threshold smallest change reported, in the unit of the value.
+     * @param maxSilenceNanos longest time without a report, or Long.MAX_VALUE for no heartbeat.
+     */
+    public static Deadband absolute(float threshold, long maxSilenceNanos) {
+        return new Deadband(threshold, false, maxSilenceNanos);
+    }
+
+    /**
+     * Create a deadband with a threshold relative to the last reported value.
+     * @param fraction smallest change reported, as a fraction of the last reported value.
+     * @param maxSilenceNanos longest time without a report, or Long.MAX_VALUE for no heartbeat.
+     */
+    public static Deadband relative(float fraction, long maxSilenceNanos) {
+        return new Deadband(fraction, true, maxSilenceNanos);
+    }
+
+    /**
+     * Change the clock timing heartbeats, e.g. to a virtual clock in tests.
+     * @param clock new time source.
+     */
+    public synchronized void setClock(Clock clock) {
+        mClock = clock;
+    }
+
+    /**
+     * Decide whether a reading is reported. The first reading always is.
+     * @param timestampNanos time of the reading.
+     * @param value value read.
+     * @return true to report the reading, false if it is suppressed
+     */
+    public synchronized boolean accept(long timestampNanos, float value) {
+        if (mHasReported) {
+            final float limit = mRelative ? mThreshold * Math.abs(mLastReported) : mThreshold;
+            // A NaN reading or last value always counts as a change
+            final boolean changed = !(Math.abs(value - mLastReported) <= limit);
+            if (!changed) {
+                if (timestampNanos - mLastReportedNanos < mMaxSilenceNanos) {
+                    mSuppressedCount++;
+                    return false;
+                }
+                mHeartbeatCount++;
+            }
+        }
+        mHasReported = true;
+        mLastReported = value;
+        mLastReportedNanos = timestampNanos;
+        mReportedCount++;
+        return true;
+    }
+
+    /**
+     * Decide whether a reading taken now, by the deadband's clock, is reported.
+     * @param value value read.
+     * @return true to report the reading, false if it is suppressed
+     */
+    public synchronized boolean accept(float value) {
+        return accept(mClock.nanoTime(), value);
+    }
+
+    /**
+     * Returns the number of readings reported, heartbeats included.
+     */
+    public synchronized long getReportedCount() {
+        return mReportedCount;
+    }
+
+    /**
+     * Returns the number of readings reported only because of the maximum silence.
+     */
+    public synchronized long getHeartbeatCount() {
+        return mHeartbeatCount;
+    }
+
+    /**
+     * Returns the number of readings suppressed.
+     */
+    public synchronized long getSuppressedCount() {
+        return mSuppressedCount;
+    }
+
+    /**
+     * Forget the last reported value, so the next reading is reported. Counters are kept.
+     */
+    public synchronized void reset() {
+        mHasReported = false;
+    }
+
+    /**
+     * Sensor value read by a {@link DeadbandChannel}.
+     */
+    public interface Source {
+        /**
+         * Read the current value.
+         * @return the value
+         * @throws IOException if the read fails
+         */
+        float readValue() throws IOException;
+    }
+}
@@ -0,0 +1,76 @@
+package com.rosterloh.things.driver.core;
+
+import java.io.IOException;
+
+/**
+ * One sensor of a pull based driver, such as a {@code UserSensorDriver}, reported through an
+ * optional {@link Deadband}. {@link #read(Deadband.Source)} never waits for a change: a reading
+ * inside the band repeats the last reported value, and a disabled channel repeats it without
+ * touching the device:
+ * <pre>
+ *     public UserSensorReading read() throws IOException {
+ *         return new UserSensorReading(new float[]{mTemperature.read(this)});
+ *     }
+ * </pre>
+ */
+public final class DeadbandChannel {
+
+    private volatile Deadband mDeadband;
+    private boolean mEnabled;
+    private float mLastReported = Float.NaN;
+
+    /**
+     * Report readings only when they change by more than the deadband, or as its heartbeat.
+     * In between, reads repeat the last reported value.
+     * @param deadband change-only filter, or null to report every reading.
+     */
+    public void setDeadband(Deadband deadband) {
+        mDeadband = deadband;
+    }
+
+    /**
+     * Returns the change-only filter, or null if every reading is reported.
+     */
+    public Deadband getDeadband() {
+        return mDeadband;
+    }
+
+    /**
+     * Enable or disable the channel. Enabling resets the deadband, so a new listener gets a
+     * reading right away. Once this returns, no read of a disabled channel is in progress and
+     * the device can be powered down.
+     * @param enabled true if the sensor has listeners.
+     */
+    public synchronized void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+        final Deadband deadband = mDeadband;
+        if (enabled && deadband != null) {
+            deadband.reset();
+        }
+    }
+
+    /**
+     * Returns true if the channel is enabled.
+     */
+    public synchronized boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Read the sensor and return the value to report.
+     * @param source sensor to read, only while the channel is enabled.
+     * @return the reading if it passes the deadband, else the last reported value, NaN if none
+     * @throws IOException if the read fails
+     */
+    public synchronized float read(Deadband.Source source) throws IOException {
+        if (!mEnabled) {
+            return mLastReported;
+        }
+        final float value = source.readValue();
+        final Deadband deadband = mDeadband;
+        if (deadband == null || deadband.accept(value)) {
+            mLastReported = value;
+        }
+        return mLastReported;
+    }
+}
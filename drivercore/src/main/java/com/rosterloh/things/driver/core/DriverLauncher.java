@@ -0,0 +1,349 @@
+package com.rosterloh.things.driver.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Opens and connects drivers concurrently, so boot waits for the slowest device instead of the
+ * sum of all of them:
+ * <pre>{@code
+ * DriverLauncher launcher = new DriverLauncher();
+ * Future<Bmx280> bmx280 = launcher.launch("I2C1", "bmx280", () -> new Bmx280("I2C1", 0x77));
+ * Future<Ccs811> ccs811 = launcher.launch("I2C1", "ccs811", () -> new Ccs811("I2C1"));
+ * Future<Htu21d> htu21d = launcher.launch("I2C2", "htu21d", () -> new Htu21d("I2C2"));
+ * DriverLauncher.Report report = launcher.awaitAll();
+ * Log.i(TAG, report.toString());
+ * }</pre>
+ *
+ * <p>Every device connects on its own thread, started when it is launched. Devices on different
+ * buses connect fully in parallel. On the same bus the platform still runs one transaction at a
+ * time, but the devices' transactions interleave: one device uses the bus while another waits
+ * out a reset or start-up delay, such as the CCS811's 200 ms. Give devices behind a multiplexer
+ * the name of the parent bus. To control the order of same bus transactions, connect the
+ * drivers through a {@link BusScheduler}.
+ *
+ * <p>A failed connection completes its future with the exception, an IOException or a runtime
+ * exception thrown by the driver, as the cause of an ExecutionException and is recorded in the
+ * report; the other devices are not affected. A launch cancelled through its future is reported
+ * as cancelled. A driver that still connects after its launch was cancelled is closed, if it is
+ * AutoCloseable, since nobody can get it from the future any more.
+ */
+public class DriverLauncher implements AutoCloseable {
+
+    private final Clock mClock;
+    private final ExecutorService mExecutor;
+    private final List<Launch<?>> mLaunches = new ArrayList<>();
+    private long mFirstLaunchNanos;
+    private boolean mClosed;
+
+    /**
+     * Create a launcher timing with {@link Clock#ELAPSED_REALTIME}.
+     */
+    public DriverLauncher() {
+        this(Clock.ELAPSED_REALTIME);
+    }
+
+    /**
+     * Create a launcher.
+     * @param clock clock for the timing report.
+     */
+    public DriverLauncher(Clock clock) {
+        mClock = clock;
+        final AtomicInteger threads = new AtomicInteger();
+        mExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "DriverLauncher-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Start connecting a device.
+     * @param bus name of the bus the device is on, e.g. "I2C1".
+     * @param name device name used in the report.
+     * @param connector opens and connects the driver, e.g. {@code () -> new Bmx280("I2C1")}.
+     * @return the driver once connected
+     */
+    public synchronized <T> Future<T> launch(String bus, String name, Connector<T> connector) {
+        if (mClosed) {
+            throw new IllegalStateException("launcher is closed");
+        }
+        final Launch<T> launch = new Launch<>(bus, name, connector);
+        launch.mLaunchNanos = mClock.nanoTime();
+        if (mLaunches.isEmpty()) {
+            mFirstLaunchNanos = launch.mLaunchNanos;
+        }
+        mExecutor.execute(launch.mFuture);
+        mLaunches.add(launch);
+        return launch.mFuture;
+    }
+
+    /**
+     * Wait for every device launched so far, connected or failed.
+     * @return the startup timing of each device
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Report awaitAll() throws InterruptedException {
+        final List<Launch<?>> launches;
+        final long firstLaunch;
+        synchronized (this) {
+            launches = new ArrayList<>(mLaunches);
+            firstLaunch = mFirstLaunchNanos;
+        }
+        final CancellationException[] cancelled = new CancellationException[launches.size()];
+        for (int i = 0; i < cancelled.length; i++) {
+            try {
+                launches.get(i).mFuture.get();
+            } catch (ExecutionException e) {
+                // Recorded by the launch itself
+            } catch (CancellationException e) {
+                // The connection may still be running, so its timing is not reported
+                cancelled[i] = e;
+            }
+        }
+        return new Report(launches, firstLaunch, cancelled);
+    }
+
+    /**
+     * Stop the launcher threads once the connections in progress complete. Futures already
+     * returned stay valid.
+     */
+    @Override
+    public synchronized void close() {
+        mClosed = true;
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Opens and connects one driver.
+     * @param <T> driver type.
+     */
+    public interface Connector<T> {
+        /**
+         * Open the device and connect the driver. Runs on a launcher thread.
+         * @return the connected driver
+         * @throws IOException if the device cannot be opened or does not respond
+         */
+        T connect() throws IOException;
+    }
+
+    /**
+     * One device being connected.
+     */
+    private final class Launch<T> implements Callable<T> {
+        private final String mBus;
+        private final String mName;
+        private final Connector<T> mConnector;
+        // Cannot be cancelled once the driver has been handed over
+        private final FutureTask<T> mFuture = new FutureTask<T>(this) {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                synchronized (Launch.this) {
+                    return !mConnected && super.cancel(mayInterruptIfRunning);
+                }
+            }
+        };
+        private boolean mConnected;
+        private long mLaunchNanos;
+        // Written by the launcher thread, read after the future completes
+        private long mStartNanos;
+        private long mEndNanos;
+        private Exception mError;
+
+        Launch(String bus, String name, Connector<T> connector) {
+            mBus = bus;
+            mName = name;
+            mConnector = connector;
+        }
+
+        @Override
+        public T call() throws Exception {
+            mStartNanos = mClock.nanoTime();
+            try {
+                final T driver = mConnector.connect();
+                synchronized (this) {
+                    mConnected = !mFuture.isCancelled();
+                }
+                if (!mConnected && driver instanceof AutoCloseable) {
+                    ((AutoCloseable) driver).close();
+                }
+                return driver;
+            } catch (Exception e) {
+                mError = e;
+                throw e;
+            } finally {
+                mEndNanos = mClock.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * Startup timing of the devices of one {@link #awaitAll()}, in launch order. Times are
+     * relative to the first launch.
+     */
+    public static final class Report {
+        private final String[] mBuses;
+        private final String[] mNames;
+        private final long[] mQueued;
+        private final long[] mStarts;
+        private final long[] mDurations;
+        private final Exception[] mErrors;
+
+        private Report(List<Launch<?>> launches, long firstLaunch, CancellationException[] cancelled) {
+            final int count = launches.size();
+            mBuses = new String[count];
+            mNames = new String[count];
+            mQueued = new long[count];
+            mStarts = new long[count];
+            mDurations = new long[count];
+            mErrors = new Exception[count];
+            for (int i = 0; i < count; i++) {
+                final Launch<?> launch = launches.get(i);
+                mBuses[i] = launch.mBus;
+                mNames[i] = launch.mName;
+                if (cancelled[i] != null) {
+                    mStarts[i] = launch.mLaunchNanos - firstLaunch;
+                    mErrors[i] = cancelled[i];
+                    continue;
+                }
+                mQueued[i] = launch.mStartNanos - launch.mLaunchNanos;
+                mStarts[i] = launch.mStartNanos - firstLaunch;
+                mDurations[i] = launch.mEndNanos - launch.mStartNanos;
+                mErrors[i] = launch.mError;
+            }
+        }
+
+        /**
+         * Returns the number of devices.
+         */
+        public int getDeviceCount() {
+            return mNames.length;
+        }
+
+        /**
+         * Returns the name of a device.
+         * @param device device index, in launch order.
+         */
+        public String getName(int device) {
+            return mNames[device];
+        }
+
+        /**
+         * Returns the bus name of a device.
+         * @param device device index, in launch order.
+         */
+        public String getBusName(int device) {
+            return mBuses[device];
+        }
+
+        /**
+         * Returns when a device started connecting, or was launched if cancelled, relative to the
+         * first launch.
+         * @param device device index, in launch order.
+         */
+        public long getStartNanos(int device) {
+            return mStarts[device];
+        }
+
+        /**
+         * Returns how long a device waited for a launcher thread, 0 if its launch was cancelled.
+         * @param device device index, in launch order.
+         */
+        public long getQueuedNanos(int device) {
+            return mQueued[device];
+        }
+
+        /**
+         * Returns how long a device took to connect, or to fail, 0 if its launch was cancelled.
+         * @param device device index, in launch order.
+         */
+        public long getDurationNanos(int device) {
+            return mDurations[device];
+        }
+
+        /**
+         * Returns the error of a device that failed to connect, a CancellationException if its
+         * launch was cancelled, or null.
+         * @param device device index, in launch order.
+         */
+        public Exception getError(int device) {
+            return mErrors[device];
+        }
+
+        /**
+         * Returns the time from the first launch until the last device finished.
+         */
+        public long getElapsedNanos() {
+            long elapsed = 0;
+            for (int i = 0; i < mNames.length; i++) {
+                elapsed = Math.max(elapsed, mStarts[i] + mDurations[i]);
+            }
+            return elapsed;
+        }
+
+        /**
+         * Returns the time connecting the devices one after another would have taken.
+         */
+        public long getSequentialNanos() {
+            long total = 0;
+            for (long duration : mDurations) {
+                total += duration;
+            }
+            return total;
+        }
+
+        /**
+         * Returns the time from the first launch until the last device of a bus finished.
+         * @param bus bus name.
+         */
+        public long getBusElapsedNanos(String bus) {
+            long elapsed = -1;
+            for (int i = 0; i < mNames.length; i++) {
+                if (mBuses[i].equals(bus)) {
+                    elapsed = Math.max(elapsed, mStarts[i] + mDurations[i]);
+                }
+            }
+            if (elapsed < 0) {
+                throw new IllegalArgumentException("unknown bus " + bus);
+            }
+            return elapsed;
+        }
+
+        /**
+         * Returns one line per device with its start, duration and outcome, then the totals.
+         */
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < mNames.length; i++) {
+                builder.append(String.format(Locale.US, "%s on %s: start %.1f ms, took %.1f ms, %s%n",
+                        mNames[i], mBuses[i], mStarts[i] / 1e6, mDurations[i] / 1e6,
+                        describe(mErrors[i])));
+            }
+            builder.append(String.format(Locale.US, "total %.1f ms, %.1f ms one after another",
+                    getElapsedNanos() / 1e6, getSequentialNanos() / 1e6));
+            return builder.toString();
+        }
+
+        private static String describe(Exception error) {
+            if (error == null) {
+                return "connected";
+            }
+            return error instanceof CancellationException ? "cancelled" : "failed: " + error.getMessage();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.rosterloh.things.driver.core;
+
+/**
+ * Estimated charge drawn by one sensor, from the supply current of the state its driver put it
+ * in and the extra current of each transaction that makes it work, e.g. a conversion started by
+ * a read:
+ * <pre>
+ *     EnergyMeter meter = bmx280.getEnergyMeter();
+ *     // later
+ *     float averageUa = meter.getAverageCurrentUa();
+ *     double usedUah = meter.getChargeUah();
+ * </pre>
+ *
+ * <p>Drivers call {@link #setState(int, float)} whenever their mode or configuration changes
+ * the supply current, and {@link #addTransaction(long, float)} for bursts on top of it. The
+ * meter integrates time and charge per state from its clock, and time and charge of the
+ * transactions. Figures are only as good as the datasheet currents the drivers pass in, which
+ * are typically maximum values, so they are an upper estimate.
+ *
+ * <p>Methods are synchronized so a sampling thread can record while other threads query.
+ */
+public final class EnergyMeter {
+
+    /**
+     * Number of states a meter keeps apart. Drivers use their mode constants as states.
+     */
+    public static final int MAX_STATES = 8;
+
+    private static final double NANOS_PER_HOUR = 3600e9;
+
+    private final long[] mStateNanos = new long[MAX_STATES];
+    // Charges are kept in microampere nanoseconds
+    private final double[] mStateCharge = new double[MAX_STATES];
+    private Clock mClock;
+    private int mState;
+    private float mStateCurrentUa;
+    private long mStartNanos;
+    private long mStateSinceNanos;
+    private long mTransactionCount;
+    private long mTransactionNanos;
+    private double mTransactionCharge;
+
+    /**
+     * Create a meter in state 0 with no supply current, starting now on
+     * {@link Clock#ELAPSED_REALTIME}.
+     */
+    public EnergyMeter() {
+        this(Clock.ELAPSED_REALTIME);
+    }
+
+    /**
+     * Create a meter in state 0 with no supply current, starting now.
+     * @param clock time source, e.g. {@link Clock#SYSTEM} in unit tests.
+     */
+    public EnergyMeter(Clock clock) {
+        mClock = clock;
+        reset();
+    }
+
+    /**
+     * Change the clock, e.g. to a virtual clock in tests. Totals are cleared.
+     * @param clock new time source.
+     */
+    public synchronized void setClock(Clock clock) {
+        mClock = clock;
+        reset();
+    }
+
+    /**
+     * Switch to a state from now on.
+     * @param state state index, below {@link #MAX_STATES}.
+     * @param currentUa supply current in the state, in micro-amperes.
+     */
+    public synchronized void setState(int state, float currentUa) {
+        if (state < 0 || state >= MAX_STATES) {
+            throw new IllegalArgumentException("invalid state " + state);
+        }
+        if (!(currentUa >= 0)) {
+            throw new IllegalArgumentException("invalid current " + currentUa);
+        }
+        accumulate(mClock.nanoTime());
+        mState = state;
+        mStateCurrentUa = currentUa;
+    }
+
+    /**
+     * Record a transaction drawing extra current on top of the state's.
+     * @param nanos time the extra current was drawn.
+     * @param currentUa extra current in micro-amperes.
+     */
+    public synchronized void addTransaction(long nanos, float currentUa) {
+        if (nanos < 0 || !(currentUa >= 0)) {
+            throw new IllegalArgumentException("invalid transaction " + currentUa + " uA for " + nanos + " ns");
+        }
+        mTransactionCount++;
+        mTransactionNanos += nanos;
+        mTransactionCharge += (double) nanos * currentUa;
+    }
+
+    /**
+     * Returns the current state.
+     */
+    public synchronized int getState() {
+        return mState;
+    }
+
+    /**
+     * Returns the supply current of the current state in micro-amperes, transactions excluded.
+     */
+    public synchronized float getStateCurrentUa() {
+        return mStateCurrentUa;
+    }
+
+    /**
+     * Returns the time spent in a state, up to now.
+     * @param state state index.
+     */
+    public synchronized long getStateNanos(int state) {
+        accumulate(mClock.nanoTime());
+        return mStateNanos[state];
+    }
+
+    /**
+     * Returns the charge drawn in a state in micro-ampere hours, transactions excluded.
+     * @param state state index.
+     */
+    public synchronized double getStateChargeUah(int state) {
+        accumulate(mClock.nanoTime());
+        return mStateCharge[state] / NANOS_PER_HOUR;
+    }
+
+    /**
+     * Returns the number of transactions recorded.
+     */
+    public synchronized long getTransactionCount() {
+        return mTransactionCount;
+    }
+
+    /**
+     * Returns the total time of the transactions recorded.
+     */
+    public synchronized long getTransactionNanos() {
+        return mTransactionNanos;
+    }
+
+    /**
+     * Returns the extra charge drawn by the transactions in micro-ampere hours.
+     */
+    public synchronized double getTransactionChargeUah() {
+        return mTransactionCharge / NANOS_PER_HOUR;
+    }
+
+    /**
+     * Returns the total charge drawn in micro-ampere hours.
+     */
+    public synchronized double getChargeUah() {
+        accumulate(mClock.nanoTime());
+        double charge = mTransactionCharge;
+        for (double stateCharge : mStateCharge) {
+            charge += stateCharge;
+        }
+        return charge / NANOS_PER_HOUR;
+    }
+
+    /**
+     * Returns the time since creation or the last reset.
+     */
+    public synchronized long getElapsedNanos() {
+        return mClock.nanoTime() - mStartNanos;
+    }
+
+    /**
+     * Returns the average supply current since creation or the last reset in micro-amperes, or
+     * the state's current if no time has passed.
+     */
+    public synchronized float getAverageCurrentUa() {
+        final long elapsed = getElapsedNanos();
+        return elapsed <= 0 ? mStateCurrentUa : (float) (getChargeUah() * NANOS_PER_HOUR / elapsed);
+    }
+
+    /**
+     * Clear the totals and start counting from now. The current state is kept.
+     */
+    public synchronized void reset() {
+        mStartNanos = mClock.nanoTime();
+        mStateSinceNanos = mStartNanos;
+        for (int i = 0; i < MAX_STATES; i++) {
+            mStateNanos[i] = 0;
+            mStateCharge[i] = 0;
+        }
+        mTransactionCount = 0;
+        mTransactionNanos = 0;
+        mTransactionCharge = 0;
+    }
+
+    private void accumulate(long now) {
+        final long nanos = now - mStateSinceNanos;
+        mStateNanos[mState] += nanos;
+        mStateCharge[mState] += (double) nanos * mStateCurrentUa;
+        mStateSinceNanos = now;
+    }
+}
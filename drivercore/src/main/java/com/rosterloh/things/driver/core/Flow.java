@@ -0,0 +1,69 @@
+package com.rosterloh.things.driver.core;
+
+/**
+ * Publisher and subscriber interfaces matching {@code java.util.concurrent.Flow}, which is only
+ * available from API 30. Signatures and rules are the same, so code written against these moves
+ * over by changing the import.
+ */
+public final class Flow {
+
+    private Flow() {
+    }
+
+    /**
+     * Producer of items received by subscribers, see {@link SamplePublisher}.
+     * @param <T> item type
+     */
+    public interface Publisher<T> {
+        /**
+         * Add a subscriber. Its {@link Subscriber#onSubscribe(Subscription)} is called first.
+         * @param subscriber subscriber to add.
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * Receiver of items. Methods are called one at a time, never concurrently.
+     * @param <T> item type
+     */
+    public interface Subscriber<T> {
+        /**
+         * Called once before any other method, with the subscription used to request items.
+         * @param subscription the new subscription.
+         */
+        void onSubscribe(Subscription subscription);
+
+        /**
+         * Called with the next item, once per item requested.
+         * @param item the item.
+         */
+        void onNext(T item);
+
+        /**
+         * Called when the publisher fails. No further methods are called.
+         * @param throwable the failure.
+         */
+        void onError(Throwable throwable);
+
+        /**
+         * Called when the publisher has no more items. No further methods are called.
+         */
+        void onComplete();
+    }
+
+    /**
+     * Link between a publisher and a subscriber.
+     */
+    public interface Subscription {
+        /**
+         * Request more items. Demand adds up, {@link Long#MAX_VALUE} means unbounded.
+         * @param n number of items, must be positive.
+         */
+        void request(long n);
+
+        /**
+         * Stop receiving items. Items already on their way may still arrive.
+         */
+        void cancel();
+    }
+}
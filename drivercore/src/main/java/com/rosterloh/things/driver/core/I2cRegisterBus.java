@@ -0,0 +1,107 @@
+package com.rosterloh.things.driver.core;
+
+import com.google.android.things.pio.I2cDevice;
+import com.google.android.things.pio.PeripheralManagerService;
+
+import java.io.IOException;
+
+/**
+ * {@link RegisterBus} on top of an Android Things {@link I2cDevice}.
+ */
+public class I2cRegisterBus implements RegisterBus {
+
+    private final I2cDevice mDevice;
+    private final String mName;
+
+    /**
+     * Wrap an already opened I2C device.
+     * @param device I2C device of the peripheral.
+     * @param name name of the bus the device was opened on.
+     */
+    public I2cRegisterBus(I2cDevice device, String name) {
+        mDevice = device;
+        mName = name;
+    }
+
+    /**
+     * Wrap an already opened I2C device on an unnamed bus.
+     * @param device I2C device of the peripheral.
+     */
+    public I2cRegisterBus(I2cDevice device) {
+        this(device, "I2C");
+    }
+
+    /**
+     * Open the I2C device at the given bus and address.
+     * @param bus I2C bus the peripheral is connected to.
+     * @param address I2C address of the peripheral.
+     * @return register bus for the device
+     * @throws IOException if the device cannot be opened
+     */
+    public static I2cRegisterBus open(String bus, int address) throws IOException {
+        final PeripheralManagerService pioService = new PeripheralManagerService();
+        return new I2cRegisterBus(pioService.openI2cDevice(bus, address), bus);
+    }
+
+    @Override
+    public String getName() {
+        return mName;
+    }
+
+    @Override
+    public synchronized byte readRegByte(int reg) throws IOException {
+        return mDevice.readRegByte(reg);
+    }
+
+    @Override
+    public synchronized short readRegWord(int reg) throws IOException {
+        return mDevice.readRegWord(reg);
+    }
+
+    @Override
+    public synchronized void readRegBuffer(int reg, byte[] buffer, int length) throws IOException {
+        mDevice.readRegBuffer(reg, buffer, length);
+    }
+
+    @Override
+    public synchronized void writeRegByte(int reg, byte data) throws IOException {
+        mDevice.writeRegByte(reg, data);
+    }
+
+    @Override
+    public synchronized void writeRegWord(int reg, short data) throws IOException {
+        mDevice.writeRegWord(reg, data);
+    }
+
+    @Override
+    public synchronized void writeRegBuffer(int reg, byte[] buffer, int length) throws IOException {
+        mDevice.writeRegBuffer(reg, buffer, length);
+    }
+
+    @Override
+    public synchronized void read(byte[] buffer, int length) throws IOException {
+        mDevice.read(buffer, length);
+    }
+
+    @Override
+    public synchronized void write(byte[] buffer, int length) throws IOException {
+        mDevice.write(buffer, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>The peripheral API has no repeated start for raw transfers, so this is a write followed
+     * by a read with the bus lock held across both.
+     */
+    @Override
+    public synchronized void transfer(byte[] command, int commandLength, byte[] response,
+                                      int responseLength) throws IOException {
+        mDevice.write(command, commandLength);
+        mDevice.read(response, responseLength);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mDevice.close();
+    }
+}
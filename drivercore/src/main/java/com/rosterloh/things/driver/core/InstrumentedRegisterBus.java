@@ -0,0 +1,186 @@
+package com.rosterloh.things.driver.core;
+
+import java.io.IOException;
+
+/**
+ * {@link RegisterBus} decorator that records every transaction into {@link BusStatistics}, e.g.
+ * <pre>
+ *     InstrumentedRegisterBus bus = new InstrumentedRegisterBus(I2cRegisterBus.open("I2C1", 0x77));
+ *     Bmx280 bmx280 = new Bmx280(bus);
+ *     ...
+ *     BusStatistics.Snapshot stats = bus.getStatistics().snapshot();
+ * </pre>
+ * Android Things reports a NACK as an IOException, so NACKs show up in the error counts.
+ */
+public class InstrumentedRegisterBus implements RegisterBus {
+
+    private final RegisterBus mDelegate;
+    private final BusStatistics mStatistics;
+    private final Clock mClock;
+
+    /**
+     * Instrument the given bus with its own statistics, timing with {@link Clock#SYSTEM}.
+     * @param delegate bus to instrument.
+     */
+    public InstrumentedRegisterBus(RegisterBus delegate) {
+        this(delegate, new BusStatistics());
+    }
+
+    /**
+     * Instrument the given bus, recording into the given statistics and timing with
+     * {@link Clock#SYSTEM}. Several devices can share one {@link BusStatistics} to get totals
+     * for a physical bus.
+     * @param delegate bus to instrument.
+     * @param statistics statistics to record into.
+     */
+    public InstrumentedRegisterBus(RegisterBus delegate, BusStatistics statistics) {
+        this(delegate, statistics, Clock.SYSTEM);
+    }
+
+    /**
+     * Instrument the given bus, recording into the given statistics.
+     * @param delegate bus to instrument.
+     * @param statistics statistics to record into.
+     * @param clock clock timing the transactions, e.g. the virtual clock of an emulated device.
+     */
+    public InstrumentedRegisterBus(RegisterBus delegate, BusStatistics statistics, Clock clock) {
+        mDelegate = delegate;
+        mStatistics = statistics;
+        mClock = clock;
+    }
+
+    /**
+     * Returns the statistics this bus records into.
+     */
+    public BusStatistics getStatistics() {
+        return mStatistics;
+    }
+
+    @Override
+    public String getName() {
+        return mDelegate.getName();
+    }
+
+    @Override
+    public byte readRegByte(int reg) throws IOException {
+        final long start = mClock.nanoTime();
+        boolean failed = true;
+        try {
+            final byte value = mDelegate.readRegByte(reg);
+            failed = false;
+            return value;
+        } finally {
+            mStatistics.record(reg, false, 1, mClock.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public short readRegWord(int reg) throws IOException {
+        final long start = mClock.nanoTime();
+        boolean failed = true;
+        try {
+            final short value = mDelegate.readRegWord(reg);
+            failed = false;
+            return value;
+        } finally {
+            mStatistics.record(reg, false, 2, mClock.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public void readRegBuffer(int reg, byte[] buffer, int length) throws IOException {
+        final long start = mClock.nanoTime();
+        boolean failed = true;
+        try {
+            mDelegate.readRegBuffer(reg, buffer, length);
+            failed = false;
+        } finally {
+            mStatistics.record(reg, false, length, mClock.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public void writeRegByte(int reg, byte data) throws IOException {
+        final long start = mClock.nanoTime();
+        boolean failed = true;
+        try {
+            mDelegate.writeRegByte(reg, data);
+            failed = false;
+        } finally {
+            mStatistics.record(reg, true, 1, mClock.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public void writeRegWord(int reg, short data) throws IOException {
+        final long start = mClock.nanoTime();
+        boolean failed = true;
+        try {
+            mDelegate.writeRegWord(reg, data);
+            failed = false;
+        } finally {
+            mStatistics.record(reg, true, 2, mClock.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public void writeRegBuffer(int reg, byte[] buffer, int length) throws IOException {
+        final long start = mClock.nanoTime();
+        boolean failed = true;
+        try {
+            mDelegate.writeRegBuffer(reg, buffer, length);
+            failed = false;
+        } finally {
+            mStatistics.record(reg, true, length, mClock.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public void read(byte[] buffer, int length) throws IOException {
+        final long start = mClock.nanoTime();
+        boolean failed = true;
+        try {
+            mDelegate.read(buffer, length);
+            failed = false;
+        } finally {
+            mStatistics.record(BusStatistics.RAW, false, length, mClock.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public void write(byte[] buffer, int length) throws IOException {
+        final long start = mClock.nanoTime();
+        boolean failed = true;
+        try {
+            mDelegate.write(buffer, length);
+            failed = false;
+        } finally {
+            mStatistics.record(BusStatistics.RAW, true, length, mClock.nanoTime() - start, failed);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>Recorded against the first command byte, which is the register or command code for the
+     * devices in this repository.
+     */
+    @Override
+    public void transfer(byte[] command, int commandLength, byte[] response, int responseLength)
+            throws IOException {
+        final int reg = commandLength > 0 ? command[0] & 0xff : BusStatistics.RAW;
+        final long start = mClock.nanoTime();
+        boolean failed = true;
+        try {
+            mDelegate.transfer(command, commandLength, response, responseLength);
+            failed = false;
+        } finally {
+            mStatistics.record(reg, false, commandLength + responseLength, mClock.nanoTime() - start,
+                    failed);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mDelegate.close();
+    }
+}
@@ -0,0 +1,179 @@
+package com.rosterloh.things.driver.core;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the latest sample of a sensor for any number of reader threads, e.g. UI, logging and
+ * upload threads that all want the current value without touching the bus themselves.
+ * <pre>
+ *     LatestSampleCell climate = new LatestSampleCell(3, 0);
+ *     // sampling thread
+ *     float[] values = bmx280.readTemperaturePressureAndHumidity(timestamps);
+ *     climate.publish(SampleTiming.midpoint(timestamps[0], timestamps[1]), values, null);
+ *     // any other thread, with a preallocated float[3]
+ *     if (climate.readIfFresh(TimeUnit.SECONDS.toNanos(2), values, null) != LatestSampleCell.NO_SAMPLE) {
+ *         ...
+ *     }
+ * </pre>
+ *
+ * <p>This is a sequence lock: {@link #publish(long, float[], int[])} makes the version odd,
+ * writes the values and makes it even again, and readers retry until they copied a sample with
+ * the same even version before and after. Readers never block the writer or each other and
+ * nothing allocates. There must be a single writer thread.
+ *
+ * <p>Timestamps use {@link Clock#ELAPSED_REALTIME} by default, the clock of
+ * {@link SampleTiming}, so {@link #getAgeNanos()} tells how old the value is.
+ */
+public final class LatestSampleCell {
+
+    /**
+     * Returned by reads when there is no sample, or none fresh enough.
+     */
+    public static final long NO_SAMPLE = Long.MIN_VALUE;
+
+    private final int mFloatChannels;
+    private final int mIntChannels;
+    private final Clock mClock;
+    private final AtomicLong mVersion = new AtomicLong();
+    // Float channels as raw int bits, then int channels. Element access is volatile, so the
+    // version reads around a copy can't be reordered with it.
+    private final AtomicIntegerArray mValues;
+    private volatile long mTimestamp = NO_SAMPLE;
+
+    /**
+     * Create an empty cell with {@link Clock#ELAPSED_REALTIME}.
+     * @param floatChannels float values per sample.
+     * @param intChannels int values per sample.
+     */
+    public LatestSampleCell(int floatChannels, int intChannels) {
+        this(floatChannels, intChannels, Clock.ELAPSED_REALTIME);
+    }
+
+    /**
+     * Create an empty cell.
+     * @param floatChannels float values per sample.
+     * @param intChannels int values per sample.
+     * @param clock clock of the sample timestamps, used to compute their age.
+     */
+    public LatestSampleCell(int floatChannels, int intChannels, Clock clock) {
+        if (floatChannels < 0 || intChannels < 0) {
+            throw new IllegalArgumentException("invalid channel count");
+        }
+        mFloatChannels = floatChannels;
+        mIntChannels = intChannels;
+        mClock = clock;
+        mValues = new AtomicIntegerArray(floatChannels + intChannels);
+    }
+
+    /**
+     * Replace the sample. Must only be called from one thread.
+     * @param timestamp sample time on the cell's clock.
+     * @param floats float channel values, may be null without float channels. Extra values are
+     *               ignored.
+     * @param ints int channel values, may be null without int channels. Extra values are ignored.
+     */
+    public void publish(long timestamp, float[] floats, int[] ints) {
+        if ((mFloatChannels > 0 && floats.length < mFloatChannels)
+                || (mIntChannels > 0 && ints.length < mIntChannels)) {
+            throw new IllegalArgumentException("too few values");
+        }
+        final long version = mVersion.get();
+        mVersion.set(version + 1);
+        for (int i = 0; i < mFloatChannels; i++) {
+            mValues.set(i, Float.floatToRawIntBits(floats[i]));
+        }
+        for (int i = 0; i < mIntChannels; i++) {
+            mValues.set(mFloatChannels + i, ints[i]);
+        }
+        mTimestamp = timestamp;
+        mVersion.set(version + 2);
+    }
+
+    /**
+     * Replace the sample, timestamped now.
+     * @param floats float channel values, may be null without float channels.
+     * @param ints int channel values, may be null without int channels.
+     */
+    public void publish(float[] floats, int[] ints) {
+        publish(mClock.nanoTime(), floats, ints);
+    }
+
+    /**
+     * Copy the latest sample.
+     * @param floats destination of the float channels, may be null to skip them.
+     * @param ints destination of the int channels, may be null to skip them.
+     * @return timestamp of the copied sample, or {@link #NO_SAMPLE} if nothing was published
+     */
+    public long read(float[] floats, int[] ints) {
+        while (true) {
+            final long before = mVersion.get();
+            if ((before & 1) != 0) {
+                continue;
+            }
+            final long timestamp = mTimestamp;
+            if (floats != null) {
+                for (int i = 0; i < mFloatChannels; i++) {
+                    floats[i] = Float.intBitsToFloat(mValues.get(i));
+                }
+            }
+            if (ints != null) {
+                for (int i = 0; i < mIntChannels; i++) {
+                    ints[i] = mValues.get(mFloatChannels + i);
+                }
+            }
+            if (mVersion.get() == before) {
+                return timestamp;
+            }
+        }
+    }
+
+    /**
+     * Copy the latest sample if it is recent enough.
+     * @param maxAgeNanos oldest acceptable sample age.
+     * @param floats destination of the float channels, may be null to skip them.
+     * @param ints destination of the int channels, may be null to skip them.
+     * @return timestamp of the copied sample, or {@link #NO_SAMPLE} if there is no sample
+     * younger than maxAgeNanos, in which case the destinations may have been written anyway
+     */
+    public long readIfFresh(long maxAgeNanos, float[] floats, int[] ints) {
+        final long timestamp = read(floats, ints);
+        if (timestamp == NO_SAMPLE || mClock.nanoTime() - timestamp > maxAgeNanos) {
+            return NO_SAMPLE;
+        }
+        return timestamp;
+    }
+
+    /**
+     * Returns one float channel of the latest sample, NaN before the first sample.
+     * @param channel float channel.
+     */
+    public float readFloat(int channel) {
+        if (channel < 0 || channel >= mFloatChannels) {
+            throw new IndexOutOfBoundsException("channel " + channel);
+        }
+        return mTimestamp == NO_SAMPLE ? Float.NaN : Float.intBitsToFloat(mValues.get(channel));
+    }
+
+    /**
+     * Returns the number of samples published.
+     */
+    public long getVersion() {
+        return mVersion.get() >>> 1;
+    }
+
+    /**
+     * Returns the timestamp of the latest sample, or {@link #NO_SAMPLE}.
+     */
+    public long getTimestampNanos() {
+        return mTimestamp;
+    }
+
+    /**
+     * Returns how long ago the latest sample was taken, or {@link Long#MAX_VALUE} without one.
+     */
+    public long getAgeNanos() {
+        final long timestamp = mTimestamp;
+        return timestamp == NO_SAMPLE ? Long.MAX_VALUE : mClock.nanoTime() - timestamp;
+    }
+}
@@ -0,0 +1,260 @@
+package com.rosterloh.things.driver.core;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Reads sensors on several buses at once, so a full set of readings takes as long as the
+ * slowest bus instead of the sum of all of them.
+ * <pre>
+ *     MultiBusReader reader = new MultiBusReader();
+ *     int climate = reader.add("I2C1", "bmx280", bmx280::readTemperaturePressureAndHumidity);
+ *     int humidity = reader.add("I2C2", "htu21d", htu21d::readTemperatureAndHumidity);
+ *     int air = reader.add("I2C2", "ccs811", ccs811::readAlgorithmResults);
+ *     MultiBusReader.Snapshot snapshot = reader.read();
+ *     float[] values = (float[]) snapshot.getValue(climate);
+ * </pre>
+ *
+ * <p>Sensors are grouped by bus name and each bus gets its own worker thread, which reads its
+ * sensors one after another in the order they were added. Sensors behind a multiplexer share the
+ * wires of their parent bus, so give them the parent's bus name. Workers are handed their bus one
+ * after another right after the snapshot timestamp is taken, so buses start within moments of
+ * each other rather than at one instant, and every reading also carries the midpoint of its own
+ * read. A failed read, whether an IOException or a runtime failure such as a closed driver, is
+ * recorded in the snapshot and the rest of the bus is still read.
+ */
+public class MultiBusReader implements AutoCloseable {
+
+    private final Clock mClock;
+    private final Map<String, Bus> mBuses = new LinkedHashMap<>();
+    private final List<String> mNames = new ArrayList<>();
+    private boolean mClosed;
+
+    /**
+     * Create a reader timestamping with {@link Clock#ELAPSED_REALTIME}.
+     */
+    public MultiBusReader() {
+        this(Clock.ELAPSED_REALTIME);
+    }
+
+    /**
+     * Create a reader.
+     * @param clock clock for timestamps and elapsed times.
+     */
+    public MultiBusReader(Clock clock) {
+        mClock = clock;
+    }
+
+    /**
+     * Add a sensor.
+     * @param bus name of the bus the sensor is on, e.g. "I2C1".
+     * @param name sensor name used in reports.
+     * @param sampler reads the sensor, e.g. {@code bmx280::readTemperaturePressureAndHumidity}.
+     * @return index of the sensor in snapshots
+     */
+    public synchronized int add(String bus, String name, SamplePublisher.Sampler<?> sampler) {
+        if (mClosed) {
+            throw new IllegalStateException("reader is closed");
+        }
+        Bus entry = mBuses.get(bus);
+        if (entry == null) {
+            entry = new Bus(bus);
+            mBuses.put(bus, entry);
+        }
+        final int index = mNames.size();
+        mNames.add(name);
+        entry.mIndices.add(index);
+        entry.mSamplers.add(sampler);
+        return index;
+    }
+
+    /**
+     * Returns the number of sensors added.
+     */
+    public synchronized int getSensorCount() {
+        return mNames.size();
+    }
+
+    /**
+     * Returns the names of the buses, in the order they were first used.
+     */
+    public synchronized List<String> getBusNames() {
+        return new ArrayList<>(mBuses.keySet());
+    }
+
+    /**
+     * Read every sensor, buses in parallel.
+     * @return the readings
+     * @throws InterruptedException if interrupted while waiting for the buses
+     */
+    public synchronized Snapshot read() throws InterruptedException {
+        if (mClosed) {
+            throw new IllegalStateException("reader is closed");
+        }
+        final Snapshot snapshot = new Snapshot(mNames, new ArrayList<>(mBuses.keySet()));
+        final CountDownLatch done = new CountDownLatch(mBuses.size());
+        snapshot.mTimestamp = mClock.nanoTime();
+        int busIndex = 0;
+        for (final Bus bus : mBuses.values()) {
+            final int slot = busIndex++;
+            bus.worker().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        bus.read(snapshot, slot);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        done.await();
+        snapshot.mElapsed = mClock.nanoTime() - snapshot.mTimestamp;
+        return snapshot;
+    }
+
+    /**
+     * Stop the bus workers. Reads in progress complete.
+     */
+    @Override
+    public synchronized void close() {
+        mClosed = true;
+        for (Bus bus : mBuses.values()) {
+            if (bus.mWorker != null) {
+                bus.mWorker.shutdown();
+            }
+        }
+    }
+
+    /**
+     * The sensors of one bus and the worker reading them.
+     */
+    private final class Bus {
+        private final String mName;
+        private final List<Integer> mIndices = new ArrayList<>();
+        private final List<SamplePublisher.Sampler<?>> mSamplers = new ArrayList<>();
+        private ExecutorService mWorker;
+
+        Bus(String name) {
+            mName = name;
+        }
+
+        ExecutorService worker() {
+            if (mWorker == null) {
+                mWorker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        final Thread thread = new Thread(runnable, "MultiBusReader-" + mName);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            return mWorker;
+        }
+
+        void read(Snapshot snapshot, int slot) {
+            final long busStart = mClock.nanoTime();
+            for (int i = 0; i < mSamplers.size(); i++) {
+                final int index = mIndices.get(i);
+                final long start = mClock.nanoTime();
+                try {
+                    snapshot.mValues[index] = mSamplers.get(i).sample();
+                } catch (Exception e) {
+                    snapshot.mErrors[index] = e;
+                }
+                final long end = mClock.nanoTime();
+                snapshot.mTimestamps[index] = start + (end - start) / 2;
+            }
+            snapshot.mBusElapsed[slot] = mClock.nanoTime() - busStart;
+        }
+    }
+
+    /**
+     * Readings of every sensor from one {@link #read()}. Sensors are addressed by the index
+     * returned by {@link #add(String, String, SamplePublisher.Sampler)}.
+     */
+    public static final class Snapshot {
+        private final List<String> mNames;
+        private final List<String> mBusNames;
+        private final Object[] mValues;
+        private final Exception[] mErrors;
+        private final long[] mTimestamps;
+        private final long[] mBusElapsed;
+        private long mTimestamp;
+        private long mElapsed;
+
+        private Snapshot(List<String> names, List<String> busNames) {
+            mNames = new ArrayList<>(names);
+            mBusNames = busNames;
+            mValues = new Object[names.size()];
+            mErrors = new Exception[names.size()];
+            mTimestamps = new long[names.size()];
+            mBusElapsed = new long[busNames.size()];
+        }
+
+        /**
+         * Returns the time the read started, just before the first bus was handed to its worker.
+         */
+        public long getTimestampNanos() {
+            return mTimestamp;
+        }
+
+        /**
+         * Returns the time the whole snapshot took, about that of the slowest bus.
+         */
+        public long getElapsedNanos() {
+            return mElapsed;
+        }
+
+        /**
+         * Returns the time one bus took to read all its sensors.
+         * @param bus bus name.
+         */
+        public long getBusElapsedNanos(String bus) {
+            final int slot = mBusNames.indexOf(bus);
+            if (slot < 0) {
+                throw new IllegalArgumentException("unknown bus " + bus);
+            }
+            return mBusElapsed[slot];
+        }
+
+        /**
+         * Returns the name of a sensor.
+         * @param sensor sensor index.
+         */
+        public String getName(int sensor) {
+            return mNames.get(sensor);
+        }
+
+        /**
+         * Returns what the sensor's sampler returned, or null if it failed.
+         * @param sensor sensor index.
+         */
+        public Object getValue(int sensor) {
+            return mValues[sensor];
+        }
+
+        /**
+         * Returns the error of a failed read, or null.
+         * @param sensor sensor index.
+         */
+        public Exception getError(int sensor) {
+            return mErrors[sensor];
+        }
+
+        /**
+         * Returns the midpoint of the sensor's read.
+         * @param sensor sensor index.
+         */
+        public long getTimestampNanos(int sensor) {
+            return mTimestamps[sensor];
+        }
+    }
+}
@@ -0,0 +1,457 @@
+package com.rosterloh.things.driver.core;
+
+import android.support.annotation.VisibleForTesting;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Polls any number of sensors from one thread, or a small pool, instead of a loop or timer per
+ * sensor, e.g.
+ * <pre>
+ *     PollingEngine engine = new PollingEngine(1);
+ *     engine.register("bmx280", TimeUnit.MILLISECONDS.toNanos(100),
+ *             () -&gt; onPressure(bmx280.readPressure()));
+ *     engine.register("ccs811", TimeUnit.SECONDS.toNanos(1),
+ *             () -&gt; onAirQuality(ccs811.readAlgorithmResults()));
+ *     engine.start();
+ * </pre>
+ *
+ * <p>Every task is released once per period, on a grid anchored when the engine is created, so
+ * periods never drift. Released tasks run earliest deadline first, a task's deadline being its
+ * next release. When a task is registered its phase within the period is chosen to keep its
+ * releases as far as possible from those of the tasks already registered, so sensors on one bus
+ * don't all fire together.
+ *
+ * <p>Each registration reports its release jitter (how late a poll started), overruns (polls that
+ * finished after the next release, whose missed periods are skipped to stay on the grid) and
+ * poll errors, including runtime exceptions thrown by the task.
+ */
+public class PollingEngine implements AutoCloseable {
+
+    // Number of candidate phases tried within a period when placing a new task
+    private static final int PHASE_CANDIDATES = 64;
+
+    private final Clock mClock;
+    private final int mThreads;
+    private final long mEpoch;
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mChanged = mLock.newCondition();
+    private final List<Registration> mRegistrations = new ArrayList<>();
+    private final List<Thread> mWorkers = new ArrayList<>();
+    private boolean mRunning;
+
+    /**
+     * Create an engine running on one thread with {@link Clock#SYSTEM}.
+     */
+    public PollingEngine() {
+        this(1);
+    }
+
+    /**
+     * Create an engine with {@link Clock#SYSTEM}.
+     * @param threads number of worker threads. One is enough unless sensors sit on separate buses
+     *                and should be polled in parallel.
+     */
+    public PollingEngine(int threads) {
+        this(threads, Clock.SYSTEM);
+    }
+
+    /**
+     * Create an engine.
+     * @param threads number of worker threads.
+     * @param clock clock for releases and jitter. Waiting between releases always uses real
+     *              time, use {@link #runDue(long)} to drive an engine from a virtual clock.
+     */
+    public PollingEngine(int threads, Clock clock) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("need at least one thread");
+        }
+        mThreads = threads;
+        mClock = clock;
+        mEpoch = clock.nanoTime();
+    }
+
+    /**
+     * Add a task, polled from the next free phase on.
+     * @param name task name used in reports.
+     * @param periodNanos poll period.
+     * @param task work to do on every release.
+     * @return registration handle reporting jitter and overruns
+     */
+    public Registration register(String name, long periodNanos, Task task) {
+        if (periodNanos <= 0) {
+            throw new IllegalArgumentException("invalid period " + periodNanos);
+        }
+        mLock.lock();
+        try {
+            final long phase = choosePhase(periodNanos);
+            final Registration registration = new Registration(name, periodNanos, phase, task);
+            registration.mRelease = nextRelease(mClock.nanoTime(), periodNanos, phase);
+            mRegistrations.add(registration);
+            mChanged.signalAll();
+            return registration;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Remove a task. A poll already running completes.
+     * @param registration handle returned by {@link #register(String, long, Task)}.
+     */
+    public void unregister(Registration registration) {
+        mLock.lock();
+        try {
+            registration.mCancelled = true;
+            mRegistrations.remove(registration);
+            mChanged.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Start the worker threads.
+     */
+    public void start() {
+        mLock.lock();
+        try {
+            if (mRunning) {
+                return;
+            }
+            mRunning = true;
+            for (int i = 0; i < mThreads; i++) {
+                final Thread worker = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        work();
+                    }
+                }, "PollingEngine-" + i);
+                worker.setDaemon(true);
+                mWorkers.add(worker);
+                worker.start();
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Stop the worker threads. Polls in progress complete.
+     */
+    @Override
+    public void close() {
+        final List<Thread> workers;
+        mLock.lock();
+        try {
+            mRunning = false;
+            mChanged.signalAll();
+            workers = new ArrayList<>(mWorkers);
+            mWorkers.clear();
+        } finally {
+            mLock.unlock();
+        }
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * Run every task released at the given time, earliest deadline first, on the calling thread.
+     * @param now current time of the engine's clock
+     * @return time of the next release, or {@link Long#MAX_VALUE} without tasks
+     */
+    @VisibleForTesting
+    long runDue(long now) {
+        while (true) {
+            final Registration next;
+            mLock.lock();
+            try {
+                next = takeReleased(now);
+                if (next == null) {
+                    return nextReleaseTime();
+                }
+            } finally {
+                mLock.unlock();
+            }
+            run(next, now);
+        }
+    }
+
+    private void work() {
+        while (true) {
+            final Registration next;
+            final long now;
+            mLock.lock();
+            try {
+                if (!mRunning) {
+                    return;
+                }
+                now = mClock.nanoTime();
+                next = takeReleased(now);
+                if (next == null) {
+                    final long wait = nextReleaseTime() - now;
+                    try {
+                        mChanged.awaitNanos(Math.min(wait, TimeUnit.SECONDS.toNanos(1)));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    continue;
+                }
+            } finally {
+                mLock.unlock();
+            }
+            run(next, now);
+        }
+    }
+
+    private void run(Registration registration, long now) {
+        final long release = registration.mRelease;
+        final long start = Math.max(now, mClock.nanoTime());
+        Exception error = null;
+        try {
+            registration.mTask.poll();
+        } catch (Exception e) {
+            // Runtime failures of a task count as poll errors too, they must not kill the worker
+            error = e;
+        } finally {
+            completed(registration, release, start, error);
+        }
+    }
+
+    private void completed(Registration registration, long release, long start, Exception error) {
+        final long finish = mClock.nanoTime();
+        mLock.lock();
+        try {
+            registration.onPolled(start - release, finish - start, error);
+            long nextRelease = release + registration.mPeriod;
+            if (finish > nextRelease) {
+                // Overran into the next period, skip whatever was missed to stay on the grid
+                final long missed = (finish - nextRelease) / registration.mPeriod + 1;
+                registration.onOverrun(missed);
+                nextRelease += missed * registration.mPeriod;
+            }
+            registration.mRelease = nextRelease;
+            registration.mRunning = false;
+            mChanged.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private Registration takeReleased(long now) {
+        Registration best = null;
+        for (Registration registration : mRegistrations) {
+            if (registration.mRunning || registration.mRelease > now) {
+                continue;
+            }
+            if (best == null || registration.getDeadline() < best.getDeadline()) {
+                best = registration;
+            }
+        }
+        if (best != null) {
+            best.mRunning = true;
+        }
+        return best;
+    }
+
+    private long nextReleaseTime() {
+        long next = Long.MAX_VALUE;
+        for (Registration registration : mRegistrations) {
+            if (!registration.mRunning && registration.mRelease < next) {
+                next = registration.mRelease;
+            }
+        }
+        return next;
+    }
+
+    private long nextRelease(long now, long period, long phase) {
+        final long sinceEpoch = now - mEpoch - phase;
+        final long periods = sinceEpoch <= 0 ? 0 : (sinceEpoch + period - 1) / period;
+        return mEpoch + phase + periods * period;
+    }
+
+    /**
+     * Choose the phase that keeps the new task's releases furthest from the releases of the
+     * tasks already registered. Two periodic tasks come as close as their phase difference
+     * modulo the gcd of their periods.
+     */
+    private long choosePhase(long period) {
+        long bestPhase = 0;
+        long bestDistance = -1;
+        for (int i = 0; i < PHASE_CANDIDATES; i++) {
+            final long phase = period * i / PHASE_CANDIDATES;
+            long distance = Long.MAX_VALUE;
+            for (Registration other : mRegistrations) {
+                final long gcd = gcd(period, other.mPeriod);
+                final long offset = Math.floorMod(phase - other.mPhase, gcd);
+                distance = Math.min(distance, Math.min(offset, gcd - offset));
+            }
+            if (distance > bestDistance) {
+                bestDistance = distance;
+                bestPhase = phase;
+            }
+        }
+        return bestPhase;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            final long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    /**
+     * Work done on every release of a registration.
+     */
+    public interface Task {
+        /**
+         * Poll the sensor. Called from a worker thread, never concurrently with itself.
+         * @throws IOException counted as a poll error, the task stays registered. So are
+         *                     runtime exceptions.
+         */
+        void poll() throws IOException;
+    }
+
+    /**
+     * A task registered with the engine and its timing statistics. Statistics are updated by
+     * the engine under its lock, the getters can be called from any thread.
+     */
+    public static final class Registration {
+        private final String mName;
+        private final long mPeriod;
+        private final long mPhase;
+        private final Task mTask;
+        private long mRelease;
+        private boolean mRunning;
+        private volatile boolean mCancelled;
+        private volatile long mPollCount;
+        private volatile long mErrorCount;
+        private volatile long mOverrunCount;
+        private volatile long mSkippedCount;
+        private volatile long mTotalLatenessNanos;
+        private volatile long mMaxLatenessNanos;
+        private volatile long mMaxRunNanos;
+        private volatile Exception mLastError;
+
+        private Registration(String name, long period, long phase, Task task) {
+            mName = name;
+            mPeriod = period;
+            mPhase = phase;
+            mTask = task;
+        }
+
+        /**
+         * Returns the task name.
+         */
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * Returns the poll period in nanoseconds.
+         */
+        public long getPeriodNanos() {
+            return mPeriod;
+        }
+
+        /**
+         * Returns the offset of the task's releases within its period.
+         */
+        public long getPhaseNanos() {
+            return mPhase;
+        }
+
+        /**
+         * Returns true once the task has been unregistered.
+         */
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /**
+         * Returns the number of polls run, including failed ones.
+         */
+        public long getPollCount() {
+            return mPollCount;
+        }
+
+        /**
+         * Returns the number of polls that threw an exception.
+         */
+        public long getErrorCount() {
+            return mErrorCount;
+        }
+
+        /**
+         * Returns the last poll error, or null.
+         */
+        public Exception getLastError() {
+            return mLastError;
+        }
+
+        /**
+         * Returns the number of polls that finished after the next release.
+         */
+        public long getOverrunCount() {
+            return mOverrunCount;
+        }
+
+        /**
+         * Returns the number of releases skipped because of overruns.
+         */
+        public long getSkippedCount() {
+            return mSkippedCount;
+        }
+
+        /**
+         * Returns the mean time between a release and the start of its poll.
+         */
+        public long getMeanJitterNanos() {
+            final long count = mPollCount;
+            return count == 0 ? 0 : mTotalLatenessNanos / count;
+        }
+
+        /**
+         * Returns the longest time between a release and the start of its poll.
+         */
+        public long getMaxJitterNanos() {
+            return mMaxLatenessNanos;
+        }
+
+        /**
+         * Returns the longest time a poll took.
+         */
+        public long getMaxRunNanos() {
+            return mMaxRunNanos;
+        }
+
+        private long getDeadline() {
+            return mRelease + mPeriod;
+        }
+
+        private void onPolled(long lateness, long runtime, Exception error) {
+            mPollCount++;
+            mTotalLatenessNanos += lateness;
+            mMaxLatenessNanos = Math.max(mMaxLatenessNanos, lateness);
+            mMaxRunNanos = Math.max(mMaxRunNanos, runtime);
+            if (error != null) {
+                mErrorCount++;
+                mLastError = error;
+            }
+        }
+
+        private void onOverrun(long missed) {
+            mOverrunCount++;
+            mSkippedCount += missed;
+        }
+    }
+}
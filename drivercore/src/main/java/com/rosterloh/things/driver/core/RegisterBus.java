@@ -0,0 +1,106 @@
+package com.rosterloh.things.driver.core;
+
+import java.io.IOException;
+
+/**
+ * Register level access to a single peripheral, independent of the transport it is attached to.
+ *
+ * <p>Every method is one bus transaction. Implementations are thread safe: concurrent callers
+ * never interleave within a transaction, but a driver that needs several transactions to happen
+ * back to back must hold its own lock around them.
+ *
+ * <p>The interface has no Android dependencies, so drivers written against it can also run on a
+ * plain JVM against an emulated or recorded device.
+ */
+public interface RegisterBus extends AutoCloseable {
+
+    /**
+     * Returns the name of the bus the device is attached to, e.g. "I2C1".
+     */
+    String getName();
+
+    /**
+     * Read a byte from a register.
+     * @param reg register address
+     * @return register value
+     * @throws IOException if the transaction fails
+     */
+    byte readRegByte(int reg) throws IOException;
+
+    /**
+     * Read a 16 bit little endian word starting at a register, as an SMBus read word.
+     * @param reg register address of the low byte
+     * @return register value
+     * @throws IOException if the transaction fails
+     */
+    short readRegWord(int reg) throws IOException;
+
+    /**
+     * Burst read consecutive registers, relying on the device auto-incrementing the address.
+     * @param reg first register address
+     * @param buffer buffer to read into
+     * @param length number of bytes to read
+     * @throws IOException if the transaction fails
+     */
+    void readRegBuffer(int reg, byte[] buffer, int length) throws IOException;
+
+    /**
+     * Write a byte to a register.
+     * @param reg register address
+     * @param data value to write
+     * @throws IOException if the transaction fails
+     */
+    void writeRegByte(int reg, byte data) throws IOException;
+
+    /**
+     * Write a 16 bit little endian word starting at a register, as an SMBus write word.
+     * @param reg register address of the low byte
+     * @param data value to write
+     * @throws IOException if the transaction fails
+     */
+    void writeRegWord(int reg, short data) throws IOException;
+
+    /**
+     * Burst write consecutive registers.
+     * @param reg first register address
+     * @param buffer data to write
+     * @param length number of bytes to write
+     * @throws IOException if the transaction fails
+     */
+    void writeRegBuffer(int reg, byte[] buffer, int length) throws IOException;
+
+    /**
+     * Raw read without a register address.
+     * @param buffer buffer to read into
+     * @param length number of bytes to read
+     * @throws IOException if the transaction fails
+     */
+    void read(byte[] buffer, int length) throws IOException;
+
+    /**
+     * Raw write without a register address.
+     * @param buffer data to write
+     * @param length number of bytes to write
+     * @throws IOException if the transaction fails
+     */
+    void write(byte[] buffer, int length) throws IOException;
+
+    /**
+     * Combined operation: write a command and read the response without another client getting
+     * onto the bus in between.
+     * @param command command bytes to write
+     * @param commandLength number of command bytes
+     * @param response buffer to read the response into
+     * @param responseLength number of response bytes
+     * @throws IOException if the transaction fails
+     */
+    void transfer(byte[] command, int commandLength, byte[] response, int responseLength)
+            throws IOException;
+
+    /**
+     * Close the underlying device.
+     * @throws IOException if the device cannot be closed
+     */
+    @Override
+    void close() throws IOException;
+}
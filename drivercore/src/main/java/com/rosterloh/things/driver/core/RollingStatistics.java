@@ -0,0 +1,310 @@
+package com.rosterloh.things.driver.core;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rolling minimum, maximum, mean and standard deviation of one sensor channel over several time
+ * windows at once, e.g. the last minute, 15 minutes and hour of temperature:
+ * <pre>
+ *     RollingStatistics temperature = RollingStatistics.forPeriod(TimeUnit.SECONDS.toNanos(1));
+ *     bmx280.setTemperatureStatistics(temperature);
+ *     // after some reads
+ *     float hourlyMax = temperature.getMax(RollingStatistics.ONE_HOUR_WINDOW);
+ * </pre>
+ *
+ * <p>A window covers the samples with timestamps in (t - length, t], t being the latest sample
+ * or {@link #expire(long)} time. Samples are kept once, in a ring of fixed capacity shared by all
+ * windows. Each window keeps a running Welford mean and sum of squared deviations, which samples
+ * enter and leave in constant time, and two monotonic deques of ring positions whose fronts are
+ * the minimum and maximum. A sample costs amortized constant time per window and queries are
+ * constant time. The deques start small and double when full, up to the capacity, so they only
+ * grow to what the data needs (a steady trend, not noise, fills them) and stop allocating once
+ * they have. If samples arrive faster than the capacity allows, the oldest leave their windows
+ * early.
+ *
+ * <p>Timestamps must not decrease, or must go through {@link #addClamped(long, float)} when several
+ * threads add samples. Methods are synchronized so a sampling thread can add while other threads
+ * query.
+ */
+public final class RollingStatistics {
+
+    /**
+     * Index of the one minute window of {@link #forPeriod(long)}.
+     */
+    public static final int ONE_MINUTE_WINDOW = 0;
+    /**
+     * Index of the 15 minute window of {@link #forPeriod(long)}.
+     */
+    public static final int FIFTEEN_MINUTE_WINDOW = 1;
+    /**
+     * Index of the one hour window of {@link #forPeriod(long)}.
+     */
+    public static final int ONE_HOUR_WINDOW = 2;
+
+    // Initial length of the min and max deques
+    private static final int INITIAL_DEQUE_LENGTH = 16;
+
+    private final int mCapacity;
+    private final long[] mWindowNanos;
+    private final long[] mTimestamps;
+    private final float[] mValues;
+    // Sequence number of the next sample; sample s is at ring position s % capacity
+    private long mHead;
+    // Per window: sequence number of its oldest sample, running mean and sum of squared deviations
+    private final long[] mTail;
+    private final double[] mMean;
+    private final double[] mM2;
+    // Per window: deques of ring positions with increasing (min) or decreasing (max) values
+    private final int[][] mMinDeque;
+    private final int[] mMinFirst;
+    private final int[] mMinSize;
+    private final int[][] mMaxDeque;
+    private final int[] mMaxFirst;
+    private final int[] mMaxSize;
+
+    /**
+     * Create statistics over the given windows.
+     * @param capacity maximum number of samples in the longest window.
+     * @param windowNanos window lengths in nanoseconds, queried by their index.
+     */
+    public RollingStatistics(int capacity, long... windowNanos) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("invalid capacity " + capacity);
+        }
+        if (windowNanos.length == 0) {
+            throw new IllegalArgumentException("no windows");
+        }
+        for (long window : windowNanos) {
+            if (window <= 0) {
+                throw new IllegalArgumentException("invalid window " + window);
+            }
+        }
+        final int windows = windowNanos.length;
+        mCapacity = capacity;
+        mWindowNanos = windowNanos.clone();
+        mTimestamps = new long[capacity];
+        mValues = new float[capacity];
+        mTail = new long[windows];
+        mMean = new double[windows];
+        mM2 = new double[windows];
+        final int dequeLength = Math.min(capacity, INITIAL_DEQUE_LENGTH);
+        mMinDeque = new int[windows][dequeLength];
+        mMinFirst = new int[windows];
+        mMinSize = new int[windows];
+        mMaxDeque = new int[windows][dequeLength];
+        mMaxFirst = new int[windows];
+        mMaxSize = new int[windows];
+    }
+
+    /**
+     * Create statistics over one minute, 15 minutes and one hour, with the capacity for a
+     * sensor read at most once per period.
+     * @param periodNanos shortest interval between samples.
+     */
+    public static RollingStatistics forPeriod(long periodNanos) {
+        final long hour = TimeUnit.HOURS.toNanos(1);
+        return new RollingStatistics(SampleRingStore.capacityFor(hour, periodNanos) + 1,
+                TimeUnit.MINUTES.toNanos(1), TimeUnit.MINUTES.toNanos(15), hour);
+    }
+
+    /**
+     * Returns the number of windows.
+     */
+    public int getWindowCount() {
+        return mWindowNanos.length;
+    }
+
+    /**
+     * Returns the length of a window in nanoseconds.
+     * @param window window index.
+     */
+    public long getWindowNanos(int window) {
+        return mWindowNanos[window];
+    }
+
+    /**
+     * Add a sample to every window, and drop the samples that are now too old.
+     * @param timestampNanos time of the sample, not before the previous one.
+     * @param value sample value.
+     */
+    public synchronized void add(long timestampNanos, float value) {
+        if (mHead > 0 && timestampNanos < mTimestamps[position(mHead - 1)]) {
+            throw new IllegalArgumentException("timestamp " + timestampNanos + " before last sample");
+        }
+        if (mHead >= mCapacity) {
+            // The ring is full: the oldest sample leaves the windows that still hold it
+            final long oldest = mHead - mCapacity;
+            for (int w = 0; w < mWindowNanos.length; w++) {
+                if (mTail[w] == oldest) {
+                    removeOldest(w);
+                }
+            }
+        }
+        final int position = position(mHead);
+        mTimestamps[position] = timestampNanos;
+        mValues[position] = value;
+        mHead++;
+        for (int w = 0; w < mWindowNanos.length; w++) {
+            final long count = mHead - mTail[w];
+            final double delta = value - mMean[w];
+            mMean[w] += delta / count;
+            mM2[w] += delta * (value - mMean[w]);
+            pushMin(w, position, value);
+            pushMax(w, position, value);
+        }
+        expire(timestampNanos);
+    }
+
+    /**
+     * Add a sample like {@link #add(long, float)}, but time it at the previous sample if its
+     * timestamp is earlier. Readers racing on the same channel can finish their bus transactions
+     * in one order and add their samples in the other, which should not fail a good read.
+     * @param timestampNanos time of the sample.
+     * @param value sample value.
+     */
+    public synchronized void addClamped(long timestampNanos, float value) {
+        final long last = mHead > 0 ? mTimestamps[position(mHead - 1)] : Long.MIN_VALUE;
+        add(Math.max(timestampNanos, last), value);
+    }
+
+    /**
+     * Drop the samples that are older than each window at the given time, e.g. when the sensor
+     * has stopped reporting.
+     * @param nowNanos current time.
+     */
+    public synchronized void expire(long nowNanos) {
+        for (int w = 0; w < mWindowNanos.length; w++) {
+            final long cutoff = nowNanos - mWindowNanos[w];
+            while (mTail[w] < mHead && mTimestamps[position(mTail[w])] <= cutoff) {
+                removeOldest(w);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of samples in a window.
+     * @param window window index.
+     */
+    public synchronized int getCount(int window) {
+        return (int) (mHead - mTail[window]);
+    }
+
+    /**
+     * Returns the minimum of a window, or NaN if it is empty.
+     * @param window window index.
+     */
+    public synchronized float getMin(int window) {
+        return mMinSize[window] == 0 ? Float.NaN : mValues[mMinDeque[window][mMinFirst[window]]];
+    }
+
+    /**
+     * Returns the maximum of a window, or NaN if it is empty.
+     * @param window window index.
+     */
+    public synchronized float getMax(int window) {
+        return mMaxSize[window] == 0 ? Float.NaN : mValues[mMaxDeque[window][mMaxFirst[window]]];
+    }
+
+    /**
+     * Returns the mean of a window, or NaN if it is empty.
+     * @param window window index.
+     */
+    public synchronized float getMean(int window) {
+        return getCount(window) == 0 ? Float.NaN : (float) mMean[window];
+    }
+
+    /**
+     * Returns the sample standard deviation of a window, or 0 with fewer than two samples.
+     * @param window window index.
+     */
+    public synchronized float getStandardDeviation(int window) {
+        final int count = getCount(window);
+        // Removing samples can leave a tiny negative rounding error
+        return count < 2 ? 0f : (float) Math.sqrt(Math.max(0, mM2[window] / (count - 1)));
+    }
+
+    /**
+     * Forget all samples.
+     */
+    public synchronized void clear() {
+        mHead = 0;
+        for (int w = 0; w < mWindowNanos.length; w++) {
+            mTail[w] = 0;
+            mMean[w] = 0;
+            mM2[w] = 0;
+            mMinSize[w] = 0;
+            mMaxSize[w] = 0;
+        }
+    }
+
+    private int position(long sequence) {
+        return (int) (sequence % mCapacity);
+    }
+
+    /**
+     * Take the oldest sample out of a window: reverse the Welford update and pop it off the front
+     * of the deques if it is the minimum or maximum.
+     */
+    private void removeOldest(int w) {
+        final int position = position(mTail[w]);
+        final float value = mValues[position];
+        mTail[w]++;
+        final long count = mHead - mTail[w];
+        if (count == 0) {
+            mMean[w] = 0;
+            mM2[w] = 0;
+        } else {
+            final double delta = value - mMean[w];
+            mMean[w] -= delta / count;
+            mM2[w] -= delta * (value - mMean[w]);
+        }
+        if (mMinSize[w] > 0 && mMinDeque[w][mMinFirst[w]] == position) {
+            mMinFirst[w] = (mMinFirst[w] + 1) % mMinDeque[w].length;
+            mMinSize[w]--;
+        }
+        if (mMaxSize[w] > 0 && mMaxDeque[w][mMaxFirst[w]] == position) {
+            mMaxFirst[w] = (mMaxFirst[w] + 1) % mMaxDeque[w].length;
+            mMaxSize[w]--;
+        }
+    }
+
+    private void pushMin(int w, int position, float value) {
+        int[] deque = mMinDeque[w];
+        while (mMinSize[w] > 0 && mValues[deque[(mMinFirst[w] + mMinSize[w] - 1) % deque.length]] >= value) {
+            mMinSize[w]--;
+        }
+        if (mMinSize[w] == deque.length) {
+            deque = grow(deque, mMinFirst[w]);
+            mMinDeque[w] = deque;
+            mMinFirst[w] = 0;
+        }
+        deque[(mMinFirst[w] + mMinSize[w]) % deque.length] = position;
+        mMinSize[w]++;
+    }
+
+    private void pushMax(int w, int position, float value) {
+        int[] deque = mMaxDeque[w];
+        while (mMaxSize[w] > 0 && mValues[deque[(mMaxFirst[w] + mMaxSize[w] - 1) % deque.length]] <= value) {
+            mMaxSize[w]--;
+        }
+        if (mMaxSize[w] == deque.length) {
+            deque = grow(deque, mMaxFirst[w]);
+            mMaxDeque[w] = deque;
+            mMaxFirst[w] = 0;
+        }
+        deque[(mMaxFirst[w] + mMaxSize[w]) % deque.length] = position;
+        mMaxSize[w]++;
+    }
+
+    /**
+     * Returns the positions of a full deque in order, from index 0 of an array up to twice as
+     * long. A window never holds more than the capacity, so neither does its deque.
+     */
+    private int[] grow(int[] deque, int first) {
+        final int[] grown = new int[Math.min(mCapacity, 2 * deque.length)];
+        final int head = deque.length - first;
+        System.arraycopy(deque, first, grown, 0, head);
+        System.arraycopy(deque, 0, grown, head, first);
+        return grown;
+    }
+}
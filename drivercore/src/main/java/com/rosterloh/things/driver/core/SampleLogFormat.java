@@ -0,0 +1,127 @@
+package com.rosterloh.things.driver.core;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * On disk layout shared by {@link SampleLogWriter} and {@link SampleLogReader}.
+ *
+ * <p>A log is a directory of segment files named {@code samples-NNNNNNNNNN.log}. Each segment
+ * is a 32 byte header followed by fixed width 32 byte records, all big endian:
+ * <pre>
+ * header   0  int    magic "SLOG"
+ *          4  short  format version
+ *          6  short  record size
+ *          8  long   segment index
+ *         16  int    records committed
+ *         20  int    CRC32 of the committed records
+ *         24  int    flags, bit 0 set once the segment is sealed
+ *         28  int    CRC32 of header bytes 0 to 27
+ * record   0  long   timestamp
+ *          8  short  sensor id
+ *         10  byte   kind, {@link #KIND_FLOAT} or {@link #KIND_INT}
+ *         11  byte   value count, up to {@link #MAX_VALUES}
+ *         12  int[4] values, floats stored as their IEEE 754 bits
+ *         28  int    CRC32 of record bytes 0 to 27
+ * </pre>
+ * A record is valid when its CRC matches. Zeroed space never matches, so the first invalid
+ * record ends the committed data of a segment.
+ */
+/*package*/ final class SampleLogFormat {
+
+    static final int MAGIC = 0x534C4F47;
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 32;
+    static final int MAX_VALUES = 4;
+    static final byte KIND_FLOAT = 1;
+    static final byte KIND_INT = 2;
+    static final int FLAG_SEALED = 1;
+
+    static final int HEADER_COUNT = 16;
+    static final int HEADER_CRC = 20;
+    static final int HEADER_FLAGS = 24;
+    static final int HEADER_CHECK = 28;
+    static final int RECORD_CHECK = 28;
+
+    private static final String PREFIX = "samples-";
+    private static final String SUFFIX = ".log";
+
+    private SampleLogFormat() {
+    }
+
+    static File segmentFile(File directory, long index) {
+        return new File(directory, String.format(Locale.US, "%s%010d%s", PREFIX, index, SUFFIX));
+    }
+
+    /**
+     * Returns the indices of the segments in a directory, oldest first.
+     */
+    static long[] listSegments(File directory) {
+        final String[] names = directory.list();
+        if (names == null) {
+            return new long[0];
+        }
+        long[] indices = new long[names.length];
+        int count = 0;
+        for (String name : names) {
+            if (name.startsWith(PREFIX) && name.endsWith(SUFFIX)) {
+                try {
+                    indices[count++] = Long.parseLong(
+                            name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        indices = Arrays.copyOf(indices, count);
+        Arrays.sort(indices);
+        return indices;
+    }
+
+    /**
+     * Returns true if the record at the given offset has a valid checksum.
+     * @param buffer segment contents
+     * @param offset record offset
+     * @param scratch RECORD_SIZE bytes of scratch space
+     * @param crc checksum to use, reset here
+     */
+    static boolean isValidRecord(ByteBuffer buffer, int offset, byte[] scratch, CRC32 crc) {
+        for (int i = 0; i < RECORD_SIZE; i++) {
+            scratch[i] = buffer.get(offset + i);
+        }
+        crc.reset();
+        crc.update(scratch, 0, RECORD_CHECK);
+        return (int) crc.getValue() == buffer.getInt(offset + RECORD_CHECK);
+    }
+
+    static void writeHeader(ByteBuffer buffer, long index, int count, int segmentCrc, int flags,
+                            CRC32 crc) {
+        buffer.putInt(0, MAGIC);
+        buffer.putShort(4, VERSION);
+        buffer.putShort(6, (short) RECORD_SIZE);
+        buffer.putLong(8, index);
+        buffer.putInt(HEADER_COUNT, count);
+        buffer.putInt(HEADER_CRC, segmentCrc);
+        buffer.putInt(HEADER_FLAGS, flags);
+        crc.reset();
+        for (int i = 0; i < HEADER_CHECK; i++) {
+            crc.update(buffer.get(i));
+        }
+        buffer.putInt(HEADER_CHECK, (int) crc.getValue());
+    }
+
+    static boolean isValidHeader(ByteBuffer buffer, CRC32 crc) {
+        if (buffer.getInt(0) != MAGIC || buffer.getShort(6) != RECORD_SIZE) {
+            return false;
+        }
+        crc.reset();
+        for (int i = 0; i < HEADER_CHECK; i++) {
+            crc.update(buffer.get(i));
+        }
+        return (int) crc.getValue() == buffer.getInt(HEADER_CHECK);
+    }
+}
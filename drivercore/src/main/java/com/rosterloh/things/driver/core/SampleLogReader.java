@@ -0,0 +1,195 @@
+package com.rosterloh.things.driver.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import static com.rosterloh.things.driver.core.SampleLogFormat.HEADER_COUNT;
+import static com.rosterloh.things.driver.core.SampleLogFormat.HEADER_CRC;
+import static com.rosterloh.things.driver.core.SampleLogFormat.HEADER_SIZE;
+import static com.rosterloh.things.driver.core.SampleLogFormat.KIND_INT;
+import static com.rosterloh.things.driver.core.SampleLogFormat.RECORD_SIZE;
+
+/**
+ * Cursor over the records of a log written by {@link SampleLogWriter}, oldest first.
+ *
+ * <pre>{@code
+ * try (SampleLogReader reader = new SampleLogReader(directory)) {
+ *     while (reader.next()) {
+ *         long timestamp = reader.getTimestamp();
+ *         float pressure = reader.getFloat(1);
+ *     }
+ * }
+ * }</pre>
+ *
+ * The segments present when the reader is created are read in order, each up to its first
+ * record with a bad checksum. A segment whose header does not agree with the records read,
+ * e.g. because a power loss hit between a record and its header, is counted by
+ * {@link #getMismatchedSegmentCount()}. Moving the cursor does not allocate except when opening
+ * the next segment.
+ */
+public class SampleLogReader implements Closeable {
+
+    private final File mDirectory;
+    private final long[] mSegments;
+    private final byte[] mRecord = new byte[RECORD_SIZE];
+    private final CRC32 mRecordCrc = new CRC32();
+    private final CRC32 mSegmentCrc = new CRC32();
+    private final CRC32 mHeaderCrc = new CRC32();
+    private final int[] mValues = new int[SampleLogFormat.MAX_VALUES];
+
+    private int mNextSegment;
+    private MappedByteBuffer mBuffer;
+    private boolean mHeaderValid;
+    private int mSegmentRecords;
+    private int mSegmentCapacity;
+    private int mMismatchedSegments;
+    private long mRecordCount;
+
+    private long mTimestamp;
+    private int mSensorId;
+    private boolean mRaw;
+    private int mValueCount;
+
+    /**
+     * Open a log for reading.
+     * @param directory directory holding the segment files.
+     */
+    public SampleLogReader(File directory) {
+        mDirectory = directory;
+        mSegments = SampleLogFormat.listSegments(directory);
+    }
+
+    /**
+     * Move to the next record.
+     * @return false at the end of the log
+     * @throws IOException
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            if (mBuffer != null) {
+                if (mSegmentRecords < mSegmentCapacity && SampleLogFormat.isValidRecord(
+                        mBuffer, HEADER_SIZE + mSegmentRecords * RECORD_SIZE, mRecord, mRecordCrc)) {
+                    load(HEADER_SIZE + mSegmentRecords * RECORD_SIZE);
+                    return true;
+                }
+                endSegment();
+            }
+            if (mNextSegment == mSegments.length) {
+                return false;
+            }
+            openSegment(mSegments[mNextSegment++]);
+        }
+    }
+
+    /**
+     * Returns the timestamp of the current record.
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * Returns the sensor id of the current record.
+     */
+    public int getSensorId() {
+        return mSensorId;
+    }
+
+    /**
+     * Returns true if the current record holds raw int values, false for compensated floats.
+     */
+    public boolean isRaw() {
+        return mRaw;
+    }
+
+    /**
+     * Returns the number of values in the current record.
+     */
+    public int getValueCount() {
+        return mValueCount;
+    }
+
+    /**
+     * Returns a compensated value of the current record.
+     * @param index value index.
+     */
+    public float getFloat(int index) {
+        return Float.intBitsToFloat(getInt(index));
+    }
+
+    /**
+     * Returns a raw value of the current record.
+     * @param index value index.
+     */
+    public int getInt(int index) {
+        if (index < 0 || index >= mValueCount) {
+            throw new IndexOutOfBoundsException("index " + index + ", count " + mValueCount);
+        }
+        return mValues[index];
+    }
+
+    /**
+     * Returns the index of the segment holding the current record.
+     */
+    public long getSegmentIndex() {
+        return mNextSegment == 0 ? -1 : mSegments[mNextSegment - 1];
+    }
+
+    /**
+     * Returns the number of records read so far.
+     */
+    public long getRecordCount() {
+        return mRecordCount;
+    }
+
+    /**
+     * Returns the number of segments read so far whose header did not match their records.
+     */
+    public int getMismatchedSegmentCount() {
+        return mMismatchedSegments;
+    }
+
+    @Override
+    public void close() {
+        mBuffer = null;
+        mNextSegment = mSegments.length;
+    }
+
+    private void load(int offset) {
+        mSegmentCrc.update(mRecord, 0, RECORD_SIZE);
+        mTimestamp = mBuffer.getLong(offset);
+        mSensorId = mBuffer.getShort(offset + 8) & 0xFFFF;
+        mRaw = mBuffer.get(offset + 10) == KIND_INT;
+        mValueCount = Math.min(mBuffer.get(offset + 11), SampleLogFormat.MAX_VALUES);
+        for (int i = 0; i < mValues.length; i++) {
+            mValues[i] = mBuffer.getInt(offset + 12 + 4 * i);
+        }
+        mSegmentRecords++;
+        mRecordCount++;
+    }
+
+    private void openSegment(long index) throws IOException {
+        final File file = SampleLogFormat.segmentFile(mDirectory, index);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            final long length = Math.min(raf.length(), Integer.MAX_VALUE);
+            mBuffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            mSegmentCapacity = length < HEADER_SIZE ? 0 : (int) ((length - HEADER_SIZE) / RECORD_SIZE);
+        }
+        mHeaderValid = mSegmentCapacity > 0 && SampleLogFormat.isValidHeader(mBuffer, mHeaderCrc);
+        mSegmentRecords = 0;
+        mSegmentCrc.reset();
+    }
+
+    private void endSegment() {
+        if (!mHeaderValid || mBuffer.getInt(HEADER_COUNT) != mSegmentRecords
+                || mBuffer.getInt(HEADER_CRC) != (int) mSegmentCrc.getValue()) {
+            mMismatchedSegments++;
+        }
+        mBuffer = null;
+    }
+}
@@ -0,0 +1,334 @@
+package com.rosterloh.things.driver.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import static com.rosterloh.things.driver.core.SampleLogFormat.FLAG_SEALED;
+import static com.rosterloh.things.driver.core.SampleLogFormat.HEADER_FLAGS;
+import static com.rosterloh.things.driver.core.SampleLogFormat.HEADER_SIZE;
+import static com.rosterloh.things.driver.core.SampleLogFormat.KIND_FLOAT;
+import static com.rosterloh.things.driver.core.SampleLogFormat.KIND_INT;
+import static com.rosterloh.things.driver.core.SampleLogFormat.RECORD_CHECK;
+import static com.rosterloh.things.driver.core.SampleLogFormat.RECORD_SIZE;
+
+/**
+ * Append only binary log of sensor samples, written through memory mapped segment files.
+ *
+ * <p>Each record is 32 bytes: a long timestamp, a sensor id from 0 to 65535 and up to
+ * {@link #MAX_VALUES} values, either compensated floats such as the {@code float[]} of
+ * {@code Bmx280.readTemperaturePressureAndHumidity()} or raw ints such as the {@code int[]} of
+ * {@code Ccs811.readAlgorithmResults()}. Appends copy the record into the mapping and never
+ * allocate; only rolling to a new segment does. When a segment is full it is sealed and the next
+ * one is created. With a segment limit the oldest segments are deleted.
+ *
+ * <p>Every record carries its own CRC32 and each segment header holds the CRC32 of all its
+ * records. Records survive a crash of the process as soon as they are appended, and a power
+ * loss once {@link #sync()} has returned. Opening a writer on an existing log recovers it: the
+ * last segment is scanned up to the first record with a bad checksum, i.e. one torn by a power
+ * loss, the space after the last committed record is cleared and appending carries on from there.
+ * Use {@link SampleLogReader} to read the log back. Not thread safe.
+ */
+public class SampleLogWriter implements Closeable {
+
+    /**
+     * Maximum number of values in a record.
+     */
+    public static final int MAX_VALUES = SampleLogFormat.MAX_VALUES;
+    /**
+     * Records per segment when not given, i.e. 1 MiB segments.
+     */
+    public static final int DEFAULT_RECORDS_PER_SEGMENT = 32767;
+
+    private static final int MAX_SENSOR_ID = 0xFFFF;
+
+    private final File mDirectory;
+    private final int mRecordsPerSegment;
+    private final int mMaxSegments;
+    private final byte[] mRecord = new byte[RECORD_SIZE];
+    private final ByteBuffer mRecordBuffer = ByteBuffer.wrap(mRecord);
+    private final CRC32 mRecordCrc = new CRC32();
+    private final CRC32 mSegmentCrc = new CRC32();
+    private final CRC32 mHeaderCrc = new CRC32();
+
+    private RandomAccessFile mFile;
+    private MappedByteBuffer mBuffer;
+    private long mFirstSegment;
+    private long mSegment;
+    private int mSegmentCapacity;
+    private int mSegmentRecords;
+    private int mRecoveredRecords;
+    private int mSyncInterval;
+    private int mUnsynced;
+    private long mAppendCount;
+
+    /**
+     * Open a log with the default segment size and no segment limit.
+     * @param directory directory holding the segment files, created if needed.
+     * @throws IOException
+     */
+    public SampleLogWriter(File directory) throws IOException {
+        this(directory, DEFAULT_RECORDS_PER_SEGMENT, 0);
+    }
+
+    /**
+     * Open a log.
+     * @param directory directory holding the segment files, created if needed.
+     * @param recordsPerSegment records in each new segment.
+     * @param maxSegments segments kept before the oldest is deleted, 0 for no limit.
+     * @throws IOException
+     */
+    public SampleLogWriter(File directory, int recordsPerSegment, int maxSegments) throws IOException {
+        if (recordsPerSegment <= 0) {
+            throw new IllegalArgumentException("invalid segment size " + recordsPerSegment);
+        }
+        if (maxSegments < 0) {
+            throw new IllegalArgumentException("invalid segment limit " + maxSegments);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create " + directory);
+        }
+        mDirectory = directory;
+        mRecordsPerSegment = recordsPerSegment;
+        mMaxSegments = maxSegments;
+
+        final long[] segments = SampleLogFormat.listSegments(directory);
+        if (segments.length == 0) {
+            mFirstSegment = 0;
+            createSegment(0);
+        } else {
+            mFirstSegment = segments[0];
+            final long last = segments[segments.length - 1];
+            if (!recover(last)) {
+                createSegment(last + 1);
+            }
+        }
+    }
+
+    /**
+     * Returns the directory holding the segment files.
+     */
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * Returns the index of the segment being written.
+     */
+    public long getSegmentIndex() {
+        return mSegment;
+    }
+
+    /**
+     * Returns the number of records found in the last segment when the log was opened.
+     */
+    public int getRecoveredRecordCount() {
+        return mRecoveredRecords;
+    }
+
+    /**
+     * Returns the number of records appended since the log was opened.
+     */
+    public long getAppendCount() {
+        return mAppendCount;
+    }
+
+    /**
+     * Sync automatically after a number of appends.
+     * @param records appends between syncs, 0 to only sync when {@link #sync()} is called.
+     */
+    public void setSyncInterval(int records) {
+        if (records < 0) {
+            throw new IllegalArgumentException("invalid sync interval " + records);
+        }
+        mSyncInterval = records;
+    }
+
+    /**
+     * Append compensated values.
+     * @param timestamp sample time.
+     * @param sensorId sensor id from 0 to 65535.
+     * @param values up to {@link #MAX_VALUES} values.
+     * @throws IOException
+     */
+    public void append(long timestamp, int sensorId, float[] values) throws IOException {
+        checkValues(values.length);
+        for (int i = 0; i < values.length; i++) {
+            mRecordBuffer.putInt(12 + 4 * i, Float.floatToRawIntBits(values[i]));
+        }
+        write(timestamp, sensorId, KIND_FLOAT, values.length);
+    }
+
+    /**
+     * Append a single compensated value.
+     * @param timestamp sample time.
+     * @param sensorId sensor id from 0 to 65535.
+     * @param value value.
+     * @throws IOException
+     */
+    public void append(long timestamp, int sensorId, float value) throws IOException {
+        mRecordBuffer.putInt(12, Float.floatToRawIntBits(value));
+        write(timestamp, sensorId, KIND_FLOAT, 1);
+    }
+
+    /**
+     * Append raw values, e.g. ADC readings or a CCS811 result.
+     * @param timestamp sample time.
+     * @param sensorId sensor id from 0 to 65535.
+     * @param values up to {@link #MAX_VALUES} values.
+     * @throws IOException
+     */
+    public void appendRaw(long timestamp, int sensorId, int[] values) throws IOException {
+        checkValues(values.length);
+        for (int i = 0; i < values.length; i++) {
+            mRecordBuffer.putInt(12 + 4 * i, values[i]);
+        }
+        write(timestamp, sensorId, KIND_INT, values.length);
+    }
+
+    /**
+     * Flush appended records to storage, so they survive a power loss.
+     * @throws IOException
+     */
+    public void sync() throws IOException {
+        checkOpen();
+        mBuffer.force();
+        mUnsynced = 0;
+    }
+
+    /**
+     * Sync and close the log. The last segment is left unsealed so reopening carries on in it.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (mFile != null) {
+            try {
+                mBuffer.force();
+            } finally {
+                mFile.close();
+                mFile = null;
+                mBuffer = null;
+            }
+        }
+    }
+
+    private void write(long timestamp, int sensorId, byte kind, int count) throws IOException {
+        checkOpen();
+        if (sensorId < 0 || sensorId > MAX_SENSOR_ID) {
+            throw new IllegalArgumentException("invalid sensor id " + sensorId);
+        }
+        if (mSegmentRecords == mSegmentCapacity) {
+            roll();
+        }
+        for (int i = count; i < MAX_VALUES; i++) {
+            mRecordBuffer.putInt(12 + 4 * i, 0);
+        }
+        mRecordBuffer.putLong(0, timestamp);
+        mRecordBuffer.putShort(8, (short) sensorId);
+        mRecordBuffer.put(10, kind);
+        mRecordBuffer.put(11, (byte) count);
+        mRecordCrc.reset();
+        mRecordCrc.update(mRecord, 0, RECORD_CHECK);
+        mRecordBuffer.putInt(RECORD_CHECK, (int) mRecordCrc.getValue());
+        mSegmentCrc.update(mRecord, 0, RECORD_SIZE);
+
+        // Record first, then the header that counts it
+        mBuffer.position(HEADER_SIZE + mSegmentRecords * RECORD_SIZE);
+        mBuffer.put(mRecord);
+        mSegmentRecords++;
+        writeHeader(0);
+        mAppendCount++;
+        if (mSyncInterval > 0 && ++mUnsynced >= mSyncInterval) {
+            sync();
+        }
+    }
+
+    private void roll() throws IOException {
+        writeHeader(FLAG_SEALED);
+        close();
+        createSegment(mSegment + 1);
+        while (mMaxSegments > 0 && mSegment - mFirstSegment >= mMaxSegments) {
+            final File oldest = SampleLogFormat.segmentFile(mDirectory, mFirstSegment++);
+            if (oldest.exists() && !oldest.delete()) {
+                throw new IOException("cannot delete " + oldest);
+            }
+        }
+    }
+
+    private void createSegment(long index) throws IOException {
+        final File file = SampleLogFormat.segmentFile(mDirectory, index);
+        mFile = new RandomAccessFile(file, "rw");
+        mFile.setLength(HEADER_SIZE + (long) mRecordsPerSegment * RECORD_SIZE);
+        mBuffer = mFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mFile.length());
+        mSegment = index;
+        mSegmentCapacity = mRecordsPerSegment;
+        mSegmentRecords = 0;
+        mSegmentCrc.reset();
+        writeHeader(0);
+        mBuffer.force();
+    }
+
+    /**
+     * Reopen the last segment and find its last committed record.
+     * @return false if the segment is sealed or unusable and a new one is needed
+     */
+    private boolean recover(long index) throws IOException {
+        final File file = SampleLogFormat.segmentFile(mDirectory, index);
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        final long length = raf.length();
+        if (length < HEADER_SIZE + RECORD_SIZE || (length - HEADER_SIZE) % RECORD_SIZE != 0
+                || length > Integer.MAX_VALUE) {
+            raf.close();
+            return false;
+        }
+        final MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+        if (SampleLogFormat.isValidHeader(buffer, mHeaderCrc)
+                && (buffer.getInt(HEADER_FLAGS) & FLAG_SEALED) != 0) {
+            raf.close();
+            return false;
+        }
+        mFile = raf;
+        mBuffer = buffer;
+        mSegment = index;
+        mSegmentCapacity = (int) ((length - HEADER_SIZE) / RECORD_SIZE);
+        mSegmentCrc.reset();
+        int records = 0;
+        while (records < mSegmentCapacity && SampleLogFormat.isValidRecord(
+                buffer, HEADER_SIZE + records * RECORD_SIZE, mRecord, mRecordCrc)) {
+            mSegmentCrc.update(mRecord, 0, RECORD_SIZE);
+            records++;
+        }
+        // Clear whatever follows, so stale records past a torn one can't reappear
+        for (int offset = HEADER_SIZE + records * RECORD_SIZE; offset < length; offset += Long.BYTES) {
+            buffer.putLong(offset, 0);
+        }
+        mSegmentRecords = records;
+        mRecoveredRecords = records;
+        writeHeader(0);
+        buffer.force();
+        return true;
+    }
+
+    private void writeHeader(int flags) {
+        SampleLogFormat.writeHeader(mBuffer, mSegment, mSegmentRecords, (int) mSegmentCrc.getValue(),
+                flags, mHeaderCrc);
+    }
+
+    private void checkValues(int count) {
+        if (count > MAX_VALUES) {
+            throw new IllegalArgumentException("at most " + MAX_VALUES + " values, got " + count);
+        }
+    }
+
+    private void checkOpen() {
+        if (mFile == null) {
+            throw new IllegalStateException("log is closed");
+        }
+    }
+}
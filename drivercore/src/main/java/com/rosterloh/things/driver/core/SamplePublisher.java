@@ -0,0 +1,375 @@
+package com.rosterloh.things.driver.core;
+
+import android.support.annotation.IntDef;
+
+import java.io.IOException;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes sensor samples to {@link Flow.Subscriber}s, sampling only while someone wants them.
+ * <pre>
+ *     SamplePublisher&lt;float[]&gt; readings = new SamplePublisher&lt;&gt;(engine, "bmx280",
+ *             TimeUnit.MILLISECONDS.toNanos(100), bmx280::readTemperaturePressureAndHumidity);
+ *     readings.subscribe(display, uiExecutor, SamplePublisher.KEEP_LATEST);
+ *     readings.subscribe(logger);
+ * </pre>
+ *
+ * <p>The sampler, e.g. a method reference to a {@code Bmx280}, {@code Htu21d} or {@code Ccs811}
+ * read method, is registered with a {@link PollingEngine} only while at least one subscription
+ * has outstanding demand, so without demand there is no bus traffic. Each subscription delivers
+ * on its own executor, one item at a time, and only against demand:
+ * <ul>
+ *     <li>{@link #KEEP_ALL} delivers every sample taken while it had demand, so a subscriber that
+ *     requests one item at a time gets exactly what it asked for.</li>
+ *     <li>{@link #KEEP_LATEST} holds at most one undelivered sample and replaces it with newer
+ *     ones, so a slow subscriber requesting {@link Long#MAX_VALUE} gets the latest value when it
+ *     is ready instead of a growing backlog.</li>
+ * </ul>
+ *
+ * <p>A sampler failure is passed to every subscriber with {@code onError}, ending their
+ * subscriptions. New subscribers start sampling again. {@link #close()} completes all
+ * subscriptions. Subscribers must not throw.
+ *
+ * @param <T> sample type
+ */
+public class SamplePublisher<T> implements Flow.Publisher<T>, AutoCloseable {
+
+    /**
+     * Deliver every sample taken while the subscription had demand.
+     */
+    public static final int KEEP_ALL = 0;
+    /**
+     * Deliver the latest sample, dropping older undelivered ones.
+     */
+    public static final int KEEP_LATEST = 1;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final PollingEngine mEngine;
+    private final String mName;
+    private final long mPeriodNanos;
+    private final Sampler<T> mSampler;
+    private final List<SampleSubscription> mSubscriptions = new CopyOnWriteArrayList<>();
+    private final Object mSampleLock = new Object();
+    // Counted by every subscription under its own lock
+    private final AtomicLong mConflatedCount = new AtomicLong();
+    private PollingEngine.Registration mRegistration;
+    private boolean mClosed;
+    private volatile long mSampleCount;
+
+    /**
+     * Create a publisher. Nothing is sampled until a subscriber requests items.
+     * @param engine engine polling the sampler, which must be started.
+     * @param name registration name, see {@link PollingEngine.Registration#getName()}.
+     * @param periodNanos sampling period while there is demand.
+     * @param sampler takes one sample.
+     */
+    public SamplePublisher(PollingEngine engine, String name, long periodNanos, Sampler<T> sampler) {
+        if (periodNanos <= 0) {
+            throw new IllegalArgumentException("invalid period " + periodNanos);
+        }
+        mEngine = engine;
+        mName = name;
+        mPeriodNanos = periodNanos;
+        mSampler = sampler;
+    }
+
+    /**
+     * Subscribe with {@link #KEEP_ALL}, delivering on the sampling thread.
+     * @param subscriber subscriber to add.
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        subscribe(subscriber, DIRECT, KEEP_ALL);
+    }
+
+    /**
+     * Subscribe.
+     * @param subscriber subscriber to add.
+     * @param executor executor calling the subscriber.
+     * @param conflation {@link #KEEP_ALL} or {@link #KEEP_LATEST}.
+     */
+    public void subscribe(Flow.Subscriber<? super T> subscriber, Executor executor,
+                          @Conflation int conflation) {
+        if (conflation != KEEP_ALL && conflation != KEEP_LATEST) {
+            throw new IllegalArgumentException("invalid conflation " + conflation);
+        }
+        final SampleSubscription subscription = new SampleSubscription(subscriber, executor, conflation);
+        synchronized (this) {
+            if (mClosed) {
+                subscription.terminate(null);
+            } else {
+                mSubscriptions.add(subscription);
+            }
+        }
+        subscription.schedule();
+    }
+
+    /**
+     * Returns the number of active subscriptions.
+     */
+    public int getSubscriberCount() {
+        return mSubscriptions.size();
+    }
+
+    /**
+     * Returns true while the sampler is registered with the engine.
+     */
+    public synchronized boolean isSampling() {
+        return mRegistration != null;
+    }
+
+    /**
+     * Returns the number of samples taken.
+     */
+    public long getSampleCount() {
+        return mSampleCount;
+    }
+
+    /**
+     * Returns the number of undelivered samples replaced by newer ones in {@link #KEEP_LATEST}
+     * subscriptions.
+     */
+    public long getConflatedCount() {
+        return mConflatedCount.get();
+    }
+
+    /**
+     * Stop sampling and complete every subscription.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            mClosed = true;
+        }
+        terminateAll(null);
+    }
+
+    /**
+     * Register the sampler when some subscription wants a sample and unregister it otherwise.
+     */
+    private synchronized void updateSampling() {
+        boolean wanted = false;
+        for (SampleSubscription subscription : mSubscriptions) {
+            if (subscription.wantsSample()) {
+                wanted = true;
+                break;
+            }
+        }
+        if (wanted && mRegistration == null && !mClosed) {
+            mRegistration = mEngine.register(mName, mPeriodNanos, new PollingEngine.Task() {
+                @Override
+                public void poll() throws IOException {
+                    sample();
+                }
+            });
+        } else if (!wanted && mRegistration != null) {
+            mEngine.unregister(mRegistration);
+            mRegistration = null;
+        }
+    }
+
+    private void sample() throws IOException {
+        // An unregistered poll may still be finishing when a new registration starts
+        synchronized (mSampleLock) {
+            final T item;
+            try {
+                item = mSampler.sample();
+            } catch (IOException e) {
+                terminateAll(e);
+                throw e;
+            }
+            mSampleCount++;
+            for (SampleSubscription subscription : mSubscriptions) {
+                subscription.offer(item);
+            }
+        }
+        updateSampling();
+    }
+
+    private void terminateAll(Throwable error) {
+        for (SampleSubscription subscription : mSubscriptions) {
+            mSubscriptions.remove(subscription);
+            subscription.terminate(error);
+            subscription.schedule();
+        }
+        updateSampling();
+    }
+
+    /**
+     * Conflation policy of a subscription.
+     */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({KEEP_ALL, KEEP_LATEST})
+    public @interface Conflation {}
+
+    /**
+     * Takes one sample, e.g. {@code bmx280::readTemperaturePressureAndHumidity}.
+     * @param <T> sample type
+     */
+    public interface Sampler<T> {
+        /**
+         * Read the sensor. Called from a polling engine thread.
+         * @return the sample, not null
+         * @throws IOException ends every subscription with onError
+         */
+        T sample() throws IOException;
+    }
+
+    /**
+     * One subscriber's demand and undelivered samples. Signals are delivered by a drain task
+     * on the subscriber's executor, at most one running at a time.
+     */
+    private final class SampleSubscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super T> mSubscriber;
+        private final Executor mExecutor;
+        private final int mConflation;
+        private final ArrayDeque<T> mQueue = new ArrayDeque<>();
+        private T mLatest;
+        private long mDemand;
+        private boolean mSubscribed;
+        private boolean mDraining;
+        private boolean mCancelled;
+        private boolean mDone;
+        private Throwable mError;
+
+        SampleSubscription(Flow.Subscriber<? super T> subscriber, Executor executor, int conflation) {
+            mSubscriber = subscriber;
+            mExecutor = executor;
+            mConflation = conflation;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                mSubscriptions.remove(this);
+                terminate(new IllegalArgumentException("non-positive request " + n));
+            } else {
+                synchronized (this) {
+                    mDemand = mDemand + n < 0 ? Long.MAX_VALUE : mDemand + n;
+                }
+            }
+            schedule();
+            updateSampling();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                mCancelled = true;
+                mQueue.clear();
+                mLatest = null;
+            }
+            mSubscriptions.remove(this);
+            updateSampling();
+        }
+
+        /**
+         * Returns true if a sample taken now would be delivered to this subscriber.
+         */
+        synchronized boolean wantsSample() {
+            if (mCancelled || mDone) {
+                return false;
+            }
+            return mConflation == KEEP_LATEST ? mDemand > 0 : mDemand > mQueue.size();
+        }
+
+        void offer(T item) {
+            synchronized (this) {
+                if (!wantsSample()) {
+                    return;
+                }
+                if (mConflation == KEEP_LATEST) {
+                    if (mLatest != null) {
+                        mConflatedCount.incrementAndGet();
+                    }
+                    mLatest = item;
+                } else {
+                    mQueue.add(item);
+                }
+            }
+            schedule();
+        }
+
+        synchronized void terminate(Throwable error) {
+            if (!mDone) {
+                mDone = true;
+                mError = error;
+            }
+        }
+
+        /**
+         * Start a drain task unless one is running.
+         */
+        void schedule() {
+            synchronized (this) {
+                if (mDraining || mCancelled) {
+                    return;
+                }
+                mDraining = true;
+            }
+            try {
+                mExecutor.execute(this);
+            } catch (RejectedExecutionException e) {
+                cancel();
+            }
+        }
+
+        @Override
+        public void run() {
+            if (!mSubscribed) {
+                mSubscribed = true;
+                mSubscriber.onSubscribe(this);
+            }
+            while (true) {
+                final T item;
+                final boolean done;
+                synchronized (this) {
+                    item = mDemand > 0 ? take() : null;
+                    if (item == null && (!mDone || mCancelled)) {
+                        mDraining = false;
+                        return;
+                    }
+                    if (item != null && mDemand != Long.MAX_VALUE) {
+                        mDemand--;
+                    }
+                    done = item == null;
+                    if (done) {
+                        // The drain flag stays set, so nothing follows the last signal
+                        mCancelled = true;
+                    }
+                }
+                if (!done) {
+                    mSubscriber.onNext(item);
+                } else if (mError != null) {
+                    mSubscriber.onError(mError);
+                    return;
+                } else {
+                    mSubscriber.onComplete();
+                    return;
+                }
+            }
+        }
+
+        private T take() {
+            if (mConflation == KEEP_LATEST) {
+                final T item = mLatest;
+                mLatest = null;
+                return item;
+            }
+            return mQueue.poll();
+        }
+    }
+}
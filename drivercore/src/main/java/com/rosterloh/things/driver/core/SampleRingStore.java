@@ -0,0 +1,313 @@
+package com.rosterloh.things.driver.core;
+
+/**
+ * Fixed capacity history of sensor samples, stored column by column in primitive arrays. Once
+ * full, every append overwrites the oldest sample.
+ *
+ * <p>A sample is a long timestamp plus a fixed number of float and int channels, e.g. the
+ * {@code float[]} returned by {@code Bmx280.readTemperaturePressureAndHumidity()} or the
+ * {@code int[]} of {@code Ccs811.readAlgorithmResults()}. All storage is allocated up front:
+ * appends and queries never allocate, and a sample costs {@link #bytesPerSample(int, int)} bytes
+ * instead of the 50 or so bytes of a timestamped {@code float[]} in a {@code List}. Two weeks
+ * of 1 Hz samples with three float channels fit in about 24 MB, see {@link #capacityFor(long, long)}.
+ *
+ * <p>Timestamps are in whatever unit the caller uses, and must not decrease, which lets time
+ * range queries use binary search. Samples are addressed by index, 0 being the oldest sample
+ * held. Methods are synchronized so a sampling thread can append while other threads query.
+ */
+public class SampleRingStore {
+
+    private final int mCapacity;
+    private final long[] mTimestamps;
+    private final float[][] mFloats;
+    private final int[][] mInts;
+    // Physical index of the next write
+    private int mHead;
+    private int mSize;
+    private long mAppendCount;
+
+    /**
+     * Create a store.
+     * @param capacity number of samples held.
+     * @param floatChannels float values per sample.
+     * @param intChannels int values per sample.
+     */
+    public SampleRingStore(int capacity, int floatChannels, int intChannels) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("invalid capacity " + capacity);
+        }
+        if (floatChannels < 0 || intChannels < 0) {
+            throw new IllegalArgumentException("invalid channel count");
+        }
+        mCapacity = capacity;
+        mTimestamps = new long[capacity];
+        mFloats = new float[floatChannels][capacity];
+        mInts = new int[intChannels][capacity];
+    }
+
+    /**
+     * Returns the heap used per sample, excluding the fixed array headers.
+     * @param floatChannels float values per sample.
+     * @param intChannels int values per sample.
+     */
+    public static int bytesPerSample(int floatChannels, int intChannels) {
+        return Long.BYTES + Float.BYTES * floatChannels + Integer.BYTES * intChannels;
+    }
+
+    /**
+     * Returns the capacity needed to hold a duration of samples at a fixed period.
+     * @param duration history to hold, in the same unit as the period.
+     * @param period sampling period.
+     */
+    public static int capacityFor(long duration, long period) {
+        final long capacity = (duration + period - 1) / period;
+        if (capacity <= 0 || capacity > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("invalid capacity for " + duration + "/" + period);
+        }
+        return (int) capacity;
+    }
+
+    /**
+     * Returns the maximum number of samples held.
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Returns the number of float channels.
+     */
+    public int getFloatChannelCount() {
+        return mFloats.length;
+    }
+
+    /**
+     * Returns the number of int channels.
+     */
+    public int getIntChannelCount() {
+        return mInts.length;
+    }
+
+    /**
+     * Returns the number of samples held.
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the number of samples appended since creation or {@link #clear()}, including
+     * those since overwritten.
+     */
+    public synchronized long getAppendCount() {
+        return mAppendCount;
+    }
+
+    /**
+     * Drop all samples.
+     */
+    public synchronized void clear() {
+        mHead = 0;
+        mSize = 0;
+        mAppendCount = 0;
+    }
+
+    /**
+     * Append a sample, overwriting the oldest one when full.
+     * @param timestamp sample time, not earlier than the last sample.
+     * @param floats float channel values, may be null when the store has no float channels.
+     *               Values past the channel count are ignored.
+     * @param ints int channel values, may be null when the store has no int channels. Values
+     *             past the channel count are ignored, e.g. the status and error id of a CCS811
+     *             result in a two channel store.
+     */
+    public synchronized void append(long timestamp, float[] floats, int[] ints) {
+        checkLength(floats == null ? 0 : floats.length, mFloats.length, "float");
+        checkLength(ints == null ? 0 : ints.length, mInts.length, "int");
+        final int slot = appendTimestamp(timestamp);
+        for (int channel = 0; channel < mFloats.length; channel++) {
+            mFloats[channel][slot] = floats[channel];
+        }
+        for (int channel = 0; channel < mInts.length; channel++) {
+            mInts[channel][slot] = ints[channel];
+        }
+    }
+
+    /**
+     * Append a sample with a single float channel.
+     * @param timestamp sample time, not earlier than the last sample.
+     * @param value channel 0 value.
+     */
+    public synchronized void append(long timestamp, float value) {
+        if (mFloats.length != 1 || mInts.length != 0) {
+            throw new IllegalStateException("store is not single float channel");
+        }
+        mFloats[0][appendTimestamp(timestamp)] = value;
+    }
+
+    /**
+     * Returns the timestamp of a sample.
+     * @param index sample index, 0 being the oldest.
+     */
+    public synchronized long getTimestamp(int index) {
+        return mTimestamps[checkedPhysical(index)];
+    }
+
+    /**
+     * Returns a float channel value of a sample.
+     * @param index sample index, 0 being the oldest.
+     * @param channel float channel.
+     */
+    public synchronized float getFloat(int index, int channel) {
+        return mFloats[channel][checkedPhysical(index)];
+    }
+
+    /**
+     * Returns an int channel value of a sample.
+     * @param index sample index, 0 being the oldest.
+     * @param channel int channel.
+     */
+    public synchronized int getInt(int index, int channel) {
+        return mInts[channel][checkedPhysical(index)];
+    }
+
+    /**
+     * Returns the index of the first sample at or after a time, or {@link #size()} if there is
+     * none. Together with {@link #indexAfter(long)} this gives the samples in a time range.
+     * @param timestamp start of the range, inclusive.
+     */
+    public synchronized int indexAtOrAfter(long timestamp) {
+        return search(timestamp, false);
+    }
+
+    /**
+     * Returns the index of the first sample after a time, or {@link #size()} if there is none.
+     * @param timestamp end of the range, inclusive.
+     */
+    public synchronized int indexAfter(long timestamp) {
+        return search(timestamp, true);
+    }
+
+    /**
+     * Returns the number of samples with {@code from <= timestamp <= to}.
+     * @param from start of the range, inclusive.
+     * @param to end of the range, inclusive.
+     */
+    public synchronized int count(long from, long to) {
+        return Math.max(0, search(to, true) - search(from, false));
+    }
+
+    /**
+     * Copy the timestamps of a time range.
+     * @param from start of the range, inclusive.
+     * @param to end of the range, inclusive.
+     * @param dest destination array.
+     * @param offset position in dest of the first timestamp.
+     * @return number of timestamps copied, at most what fits in dest
+     */
+    public synchronized int copyTimestamps(long from, long to, long[] dest, int offset) {
+        return copy(from, to, mTimestamps, dest, offset, dest.length);
+    }
+
+    /**
+     * Copy one float channel of a time range.
+     * @param from start of the range, inclusive.
+     * @param to end of the range, inclusive.
+     * @param channel float channel.
+     * @param dest destination array.
+     * @param offset position in dest of the first value.
+     * @return number of values copied, at most what fits in dest
+     */
+    public synchronized int copyFloats(long from, long to, int channel, float[] dest, int offset) {
+        return copy(from, to, mFloats[channel], dest, offset, dest.length);
+    }
+
+    /**
+     * Copy one int channel of a time range.
+     * @param from start of the range, inclusive.
+     * @param to end of the range, inclusive.
+     * @param channel int channel.
+     * @param dest destination array.
+     * @param offset position in dest of the first value.
+     * @return number of values copied, at most what fits in dest
+     */
+    public synchronized int copyInts(long from, long to, int channel, int[] dest, int offset) {
+        return copy(from, to, mInts[channel], dest, offset, dest.length);
+    }
+
+    /**
+     * Store the timestamp of a new sample, overwriting the oldest one when full.
+     * @return the physical index to store the sample's channel values at
+     */
+    private int appendTimestamp(long timestamp) {
+        if (mSize > 0 && timestamp < mTimestamps[physical(mSize - 1)]) {
+            throw new IllegalArgumentException("timestamp " + timestamp + " before last sample");
+        }
+        final int slot = mHead;
+        mTimestamps[slot] = timestamp;
+        mHead = slot + 1 == mCapacity ? 0 : slot + 1;
+        if (mSize < mCapacity) {
+            mSize++;
+        }
+        mAppendCount++;
+        return slot;
+    }
+
+    /**
+     * Copy the part of a column in a time range, in up to two pieces when it wraps.
+     * @param column timestamp or channel array.
+     * @param dest destination array of the same type.
+     * @param destLength length of dest.
+     * @return number of values copied
+     */
+    private int copy(long from, long to, Object column, Object dest, int offset, int destLength) {
+        final int first = search(from, false);
+        final int length = Math.min(search(to, true) - first, destLength - offset);
+        if (length <= 0) {
+            return 0;
+        }
+        final int start = physical(first);
+        final int tail = Math.min(length, mCapacity - start);
+        System.arraycopy(column, start, dest, offset, tail);
+        System.arraycopy(column, 0, dest, offset + tail, length - tail);
+        return length;
+    }
+
+    /**
+     * Lower bound binary search over the logical indices.
+     * @param timestamp time to search for
+     * @param after false for the first sample at or after timestamp, true for the first after
+     */
+    private int search(long timestamp, boolean after) {
+        int low = 0;
+        int high = mSize;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            final long value = mTimestamps[physical(mid)];
+            if (value < timestamp || (after && value == timestamp)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int checkedPhysical(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + mSize);
+        }
+        return physical(index);
+    }
+
+    private int physical(int index) {
+        final int slot = mHead - mSize + index;
+        return slot < 0 ? slot + mCapacity : slot;
+    }
+
+    private static void checkLength(int length, int expected, String type) {
+        if (length < expected) {
+            throw new IllegalArgumentException("expected " + expected + " " + type + " values, got " + length);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.rosterloh.things.driver.core;
+
+/**
+ * Timestamps and interval statistics of the samples read by one sensor driver.
+ *
+ * <p>Drivers call {@link #begin()} right before the bus transactions of a sample and
+ * {@link #end(long)} with its result right after, so the sample was taken somewhere between the
+ * two. The default clock is {@link Clock#ELAPSED_REALTIME}, the same time base on every driver
+ * and process of a device, so samples of different sensors can be lined up to within their bus
+ * time instead of the scheduling delay of whoever stamps them after the read returns.
+ *
+ * <p>Statistics cover completed samples only: the interval between consecutive sample starts
+ * (mean, minimum, maximum and standard deviation, i.e. jitter) and the bus time per sample.
+ *
+ * <p>Methods are synchronized and a sample's start is kept by its caller, so samples read by
+ * several threads at once are all counted. Intervals are taken between the starts of samples in
+ * order, and {@link #getLastStartNanos()} and friends belong to the latest started sample that
+ * has completed: a thread that needs the timestamps of its own sample gets
+ * them returned with the sample, e.g. by
+ * {@code Bmx280.readTemperaturePressureAndHumidity(long[])}.
+ */
+public final class SampleTiming {
+
+    private Clock mClock;
+    private long mLastStart;
+    private long mLastEnd;
+    private long mSampleCount;
+    private long mIntervalCount;
+    private long mMinInterval;
+    private long mMaxInterval;
+    // Welford running mean and sum of squared deviations of the interval
+    private double mMeanInterval;
+    private double mIntervalM2;
+    private long mTotalBusNanos;
+    private long mMaxBusNanos;
+
+    /**
+     * Create timing on {@link Clock#ELAPSED_REALTIME}.
+     */
+    public SampleTiming() {
+        this(Clock.ELAPSED_REALTIME);
+    }
+
+    /**
+     * Create timing on the given clock.
+     * @param clock time source, e.g. {@link Clock#SYSTEM} in unit tests.
+     */
+    public SampleTiming(Clock clock) {
+        mClock = clock;
+    }
+
+    /**
+     * Returns the middle of a sample's bus transactions, its best single timestamp. It is off by
+     * at most half of the bus time.
+     * @param start time returned by {@link #begin()}.
+     * @param end time returned by {@link #end(long)}.
+     */
+    public static long midpoint(long start, long end) {
+        return start + (end - start) / 2;
+    }
+
+    /**
+     * Change the clock, e.g. to a virtual clock in tests. Statistics are cleared.
+     * @param clock new time source.
+     */
+    public synchronized void setClock(Clock clock) {
+        mClock = clock;
+        reset();
+    }
+
+    /**
+     * Mark the start of a sample's bus transactions.
+     * @return the start time, to pass to {@link #end(long)}
+     */
+    public synchronized long begin() {
+        return mClock.nanoTime();
+    }
+
+    /**
+     * Mark the end of a sample's bus transactions and update the statistics.
+     * @param start time returned by {@link #begin()} for the same sample.
+     * @return the end time
+     */
+    public synchronized long end(long start) {
+        final long end = mClock.nanoTime();
+        mSampleCount++;
+        mTotalBusNanos += end - start;
+        mMaxBusNanos = Math.max(mMaxBusNanos, end - start);
+        if (mSampleCount > 1) {
+            if (start < mLastStart) {
+                // Overlapped a later sample that completed first, the interval is already counted
+                return end;
+            }
+            final long interval = start - mLastStart;
+            final long intervals = ++mIntervalCount;
+            mMinInterval = intervals == 1 ? interval : Math.min(mMinInterval, interval);
+            mMaxInterval = Math.max(mMaxInterval, interval);
+            final double delta = interval - mMeanInterval;
+            mMeanInterval += delta / intervals;
+            mIntervalM2 += delta * (interval - mMeanInterval);
+        }
+        mLastStart = start;
+        mLastEnd = end;
+        return end;
+    }
+
+    /**
+     * Clear the statistics and timestamps.
+     */
+    public synchronized void reset() {
+        mLastStart = 0;
+        mLastEnd = 0;
+        mSampleCount = 0;
+        mIntervalCount = 0;
+        mMinInterval = 0;
+        mMaxInterval = 0;
+        mMeanInterval = 0;
+        mIntervalM2 = 0;
+        mTotalBusNanos = 0;
+        mMaxBusNanos = 0;
+    }
+
+    /**
+     * Returns the time right before the bus transactions of the last sample, 0 if none.
+     */
+    public synchronized long getLastStartNanos() {
+        return mLastStart;
+    }
+
+    /**
+     * Returns the time right after the bus transactions of the last sample, 0 if none.
+     */
+    public synchronized long getLastEndNanos() {
+        return mLastEnd;
+    }
+
+    /**
+     * Returns the middle of the last sample's bus transactions, its best single timestamp. It is
+     * off by at most half of {@link #getLastEndNanos()} minus {@link #getLastStartNanos()}.
+     */
+    public synchronized long getLastMidpointNanos() {
+        return midpoint(mLastStart, mLastEnd);
+    }
+
+    /**
+     * Returns the number of completed samples.
+     */
+    public synchronized long getSampleCount() {
+        return mSampleCount;
+    }
+
+    /**
+     * Returns the mean time between the starts of consecutive samples.
+     */
+    public synchronized long getMeanIntervalNanos() {
+        return Math.round(mMeanInterval);
+    }
+
+    /**
+     * Returns the shortest time between the starts of consecutive samples.
+     */
+    public synchronized long getMinIntervalNanos() {
+        return mMinInterval;
+    }
+
+    /**
+     * Returns the longest time between the starts of consecutive samples.
+     */
+    public synchronized long getMaxIntervalNanos() {
+        return mMaxInterval;
+    }
+
+    /**
+     * Returns the standard deviation of the time between the starts of consecutive samples.
+     */
+    public synchronized long getIntervalJitterNanos() {
+        final long intervals = mIntervalCount;
+        return intervals < 2 ? 0 : Math.round(Math.sqrt(mIntervalM2 / (intervals - 1)));
+    }
+
+    /**
+     * Returns the mean bus time of a sample.
+     */
+    public synchronized long getMeanBusNanos() {
+        return mSampleCount == 0 ? 0 : mTotalBusNanos / mSampleCount;
+    }
+
+    /**
+     * Returns the longest bus time of a sample.
+     */
+    public synchronized long getMaxBusNanos() {
+        return mMaxBusNanos;
+    }
+}
@@ -0,0 +1,141 @@
+package com.rosterloh.things.driver.core;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import static com.rosterloh.things.driver.core.SampleWireFormat.MAX_DECIMALS;
+import static com.rosterloh.things.driver.core.SampleWireFormat.NAN;
+import static com.rosterloh.things.driver.core.SampleWireFormat.SCALE;
+import static com.rosterloh.things.driver.core.SampleWireFormat.getVarint;
+import static com.rosterloh.things.driver.core.SampleWireFormat.unzigzag;
+
+/**
+ * Cursor over records written by {@link SampleWireEncoder}:
+ * <pre>
+ *     SampleWireDecoder decoder = new SampleWireDecoder();
+ *     while (decoder.next(buffer)) {
+ *         long timestamp = decoder.getTimestampNanos();
+ *         float pressure = decoder.getFloat(1);
+ *     }
+ * </pre>
+ *
+ * <p>The decoder keeps the previous timestamp, so one instance reads one stream from its start;
+ * call {@link #reset()} before the next stream. Moving the cursor does not allocate.
+ */
+public final class SampleWireDecoder {
+
+    private final long mResolutionNanos;
+    private final long[] mFixed = new long[SampleWireFormat.MAX_VALUES];
+    private long mLastTicks;
+    private int mSensorId;
+    private long mTimestampNanos;
+    private int mValueCount;
+    private int mDecimals;
+
+    /**
+     * Create a decoder for streams with millisecond timestamps.
+     */
+    public SampleWireDecoder() {
+        this(SampleWireEncoder.DEFAULT_RESOLUTION_NANOS);
+    }
+
+    /**
+     * Create a decoder.
+     * @param resolutionNanos timestamp resolution in nanoseconds, the same as the encoder's.
+     */
+    public SampleWireDecoder(long resolutionNanos) {
+        if (resolutionNanos <= 0) {
+            throw new IllegalArgumentException("invalid resolution " + resolutionNanos);
+        }
+        mResolutionNanos = resolutionNanos;
+    }
+
+    /**
+     * Read the record at the buffer position.
+     * @param in buffer to read from.
+     * @return true if a record was read, false if the buffer does not hold a whole record, in
+     * which case its position is left unchanged
+     * @throws IllegalArgumentException if the record is malformed
+     */
+    public boolean next(ByteBuffer in) {
+        final int start = in.position();
+        final long id;
+        final long ticks;
+        final int header;
+        try {
+            id = getVarint(in);
+            ticks = mLastTicks + unzigzag(getVarint(in));
+            header = in.get() & 0xFF;
+            for (int i = 0; i < header >>> 3; i++) {
+                mFixed[i] = unzigzag(getVarint(in));
+            }
+        } catch (BufferUnderflowException e) {
+            in.position(start);
+            return false;
+        }
+        if (id < 0 || id > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("malformed record at " + start);
+        }
+        mSensorId = (int) id;
+        mLastTicks = ticks;
+        mTimestampNanos = ticks * mResolutionNanos;
+        mValueCount = header >>> 3;
+        mDecimals = header & MAX_DECIMALS;
+        return true;
+    }
+
+    /**
+     * Start a new stream: the next timestamp is decoded relative to 0.
+     */
+    public void reset() {
+        mLastTicks = 0;
+    }
+
+    /**
+     * Returns the sensor id of the current record.
+     */
+    public int getSensorId() {
+        return mSensorId;
+    }
+
+    /**
+     * Returns the timestamp of the current record, rounded down to the stream resolution.
+     */
+    public long getTimestampNanos() {
+        return mTimestampNanos;
+    }
+
+    /**
+     * Returns the number of values in the current record.
+     */
+    public int getValueCount() {
+        return mValueCount;
+    }
+
+    /**
+     * Returns the decimal places kept by the current record.
+     */
+    public int getDecimals() {
+        return mDecimals;
+    }
+
+    /**
+     * Returns a value of the current record.
+     * @param index value index.
+     */
+    public float getFloat(int index) {
+        final long fixed = getFixed(index);
+        return fixed == NAN ? Float.NaN : (float) (fixed / SCALE[mDecimals]);
+    }
+
+    /**
+     * Returns a value of the current record as written, scaled by 10 to the decimal places.
+     * @param index value index.
+     */
+    public long getFixed(int index) {
+        if (index < 0 || index >= mValueCount) {
+            throw new IndexOutOfBoundsException("value " + index + " of " + mValueCount);
+        }
+        return mFixed[index];
+    }
+}
@@ -0,0 +1,155 @@
+package com.rosterloh.things.driver.core;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static com.rosterloh.things.driver.core.SampleWireFormat.MAX_DECIMALS;
+import static com.rosterloh.things.driver.core.SampleWireFormat.MAX_VALUES;
+import static com.rosterloh.things.driver.core.SampleWireFormat.putVarint;
+import static com.rosterloh.things.driver.core.SampleWireFormat.varintSize;
+import static com.rosterloh.things.driver.core.SampleWireFormat.zigzag;
+
+/**
+ * Writes samples in a compact binary form for upload, straight into a reused buffer:
+ * <pre>
+ *     SampleWireEncoder encoder = new SampleWireEncoder();
+ *     float[] values = new float[3];
+ *     // for each sample
+ *     values[0] = temperature;
+ *     values[1] = pressure;
+ *     values[2] = humidity;
+ *     if (!encoder.encode(buffer, BMX280_ID, timestamp, 2, values, 3)) {
+ *         upload(buffer);
+ *         encoder.reset();
+ *         encoder.encode(buffer, BMX280_ID, timestamp, 2, values, 3);
+ *     }
+ * </pre>
+ *
+ * <p>Each record holds a varint sensor id, the timestamp as a delta from the previous record and
+ * the values as fixed point integers with a chosen number of decimal places; see
+ * {@link SampleWireDecoder} for the reading side. Timestamps are rounded down to the stream
+ * resolution. NaN survives the round trip, infinite values saturate. Encoding does not allocate.
+ *
+ * <p>The encoder keeps the previous timestamp, so it is not thread safe and one instance writes
+ * one stream. Call {@link #reset()} at the start of each stream.
+ */
+public final class SampleWireEncoder {
+
+    /**
+     * Default timestamp resolution, in nanoseconds.
+     */
+    public static final long DEFAULT_RESOLUTION_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Largest number of bytes a record can take.
+     */
+    public static final int MAX_RECORD_SIZE = SampleWireFormat.MAX_RECORD_SIZE;
+
+    private final long mResolutionNanos;
+    private final long[] mFixed = new long[MAX_VALUES];
+    private long mLastTicks;
+    private long mRecordCount;
+
+    /**
+     * Create an encoder with millisecond timestamps.
+     */
+    public SampleWireEncoder() {
+        this(DEFAULT_RESOLUTION_NANOS);
+    }
+
+    /**
+     * Create an encoder.
+     * @param resolutionNanos timestamp resolution in nanoseconds, the same as the decoder's.
+     */
+    public SampleWireEncoder(long resolutionNanos) {
+        if (resolutionNanos <= 0) {
+            throw new IllegalArgumentException("invalid resolution " + resolutionNanos);
+        }
+        mResolutionNanos = resolutionNanos;
+    }
+
+    /**
+     * Append a sample of float values.
+     * @param out buffer to write to, at its position.
+     * @param sensorId non negative id of the sensor.
+     * @param timestampNanos time of the sample.
+     * @param decimals decimal places kept, 0 to 7.
+     * @param values sample values.
+     * @param count number of values to write, up to 31.
+     * @return true if the record was written, false if it does not fit in the buffer, which is
+     * then left unchanged
+     */
+    public boolean encode(ByteBuffer out, int sensorId, long timestampNanos, int decimals,
+                          float[] values, int count) {
+        checkRecord(sensorId, decimals, count);
+        for (int i = 0; i < count; i++) {
+            mFixed[i] = zigzag(SampleWireFormat.toFixed(values[i], decimals));
+        }
+        return write(out, sensorId, timestampNanos, decimals, count);
+    }
+
+    /**
+     * Append a sample of integer values, e.g. CCS811 ppm and ppb readings.
+     * @param out buffer to write to, at its position.
+     * @param sensorId non negative id of the sensor.
+     * @param timestampNanos time of the sample.
+     * @param values sample values.
+     * @param count number of values to write, up to 31.
+     * @return true if the record was written, false if it does not fit in the buffer, which is
+     * then left unchanged
+     */
+    public boolean encode(ByteBuffer out, int sensorId, long timestampNanos, int[] values, int count) {
+        checkRecord(sensorId, 0, count);
+        for (int i = 0; i < count; i++) {
+            mFixed[i] = zigzag(values[i]);
+        }
+        return write(out, sensorId, timestampNanos, 0, count);
+    }
+
+    /**
+     * Start a new stream: the next timestamp is encoded relative to 0.
+     */
+    public void reset() {
+        mLastTicks = 0;
+    }
+
+    /**
+     * Returns the number of records written since creation.
+     */
+    public long getRecordCount() {
+        return mRecordCount;
+    }
+
+    private static void checkRecord(int sensorId, int decimals, int count) {
+        if (sensorId < 0) {
+            throw new IllegalArgumentException("invalid sensor id " + sensorId);
+        }
+        if (decimals < 0 || decimals > MAX_DECIMALS) {
+            throw new IllegalArgumentException("invalid decimal places " + decimals);
+        }
+        if (count < 0 || count > MAX_VALUES) {
+            throw new IllegalArgumentException("invalid value count " + count);
+        }
+    }
+
+    private boolean write(ByteBuffer out, int sensorId, long timestampNanos, int decimals, int count) {
+        final long ticks = Math.floorDiv(timestampNanos, mResolutionNanos);
+        final long delta = zigzag(ticks - mLastTicks);
+        int size = varintSize(sensorId) + varintSize(delta) + 1;
+        for (int i = 0; i < count; i++) {
+            size += varintSize(mFixed[i]);
+        }
+        if (out.remaining() < size) {
+            return false;
+        }
+        putVarint(out, sensorId);
+        putVarint(out, delta);
+        out.put((byte) (count << 3 | decimals));
+        for (int i = 0; i < count; i++) {
+            putVarint(out, mFixed[i]);
+        }
+        mLastTicks = ticks;
+        mRecordCount++;
+        return true;
+    }
+}
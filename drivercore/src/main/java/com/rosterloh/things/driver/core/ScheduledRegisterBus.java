@@ -0,0 +1,234 @@
+package com.rosterloh.things.driver.core;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+
+/**
+ * {@link RegisterBus} decorator that runs every transaction of one device through a shared
+ * {@link BusScheduler}, and reports how long the device waited for the bus. Created by
+ * {@link BusScheduler#register(RegisterBus, String, int, long)}.
+ *
+ * <p>The wait statistics are updated by the scheduler under its lock, so the getters may be
+ * called from any thread.
+ */
+public class ScheduledRegisterBus implements RegisterBus {
+
+    private final BusScheduler mScheduler;
+    private final RegisterBus mDelegate;
+    private final String mName;
+    private final int mPriority;
+    private final long mDeadlineNanos;
+    private final Condition mCondition;
+    private final ArrayDeque<BusScheduler.Ticket> mWaiting = new ArrayDeque<>();
+    private volatile long mTransactionCount;
+    private volatile long mWaitNanos;
+    private volatile long mMaxWaitNanos;
+    private volatile long mDeadlineMissCount;
+
+    /*package*/ ScheduledRegisterBus(BusScheduler scheduler, RegisterBus delegate, String name,
+                                     int priority, long deadlineNanos, Condition condition) {
+        mScheduler = scheduler;
+        mDelegate = delegate;
+        mName = name;
+        mPriority = priority;
+        mDeadlineNanos = deadlineNanos;
+        mCondition = condition;
+    }
+
+    /**
+     * Returns the client name given at registration. {@link #getName()} still returns the name
+     * of the underlying bus.
+     */
+    public String getClientName() {
+        return mName;
+    }
+
+    /**
+     * Returns the priority class of this client.
+     */
+    public @BusScheduler.Priority int getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * Returns the longest time a transaction of this client should wait, or
+     * {@link BusScheduler#NO_DEADLINE}.
+     */
+    public long getDeadlineNanos() {
+        return mDeadlineNanos;
+    }
+
+    /**
+     * Returns the number of transactions that got the bus.
+     */
+    public long getTransactionCount() {
+        return mTransactionCount;
+    }
+
+    /**
+     * Returns the total time transactions waited for the bus.
+     */
+    public long getTotalWaitNanos() {
+        return mWaitNanos;
+    }
+
+    /**
+     * Returns the mean time a transaction waited for the bus.
+     */
+    public long getMeanWaitNanos() {
+        final long count = mTransactionCount;
+        return count == 0 ? 0 : mWaitNanos / count;
+    }
+
+    /**
+     * Returns the longest time a transaction waited for the bus.
+     */
+    public long getMaxWaitNanos() {
+        return mMaxWaitNanos;
+    }
+
+    /**
+     * Returns the number of transactions that got the bus after their deadline.
+     */
+    public long getDeadlineMissCount() {
+        return mDeadlineMissCount;
+    }
+
+    @Override
+    public String getName() {
+        return mDelegate.getName();
+    }
+
+    @Override
+    public byte readRegByte(int reg) throws IOException {
+        mScheduler.acquire(this);
+        try {
+            return mDelegate.readRegByte(reg);
+        } finally {
+            mScheduler.release();
+        }
+    }
+
+    @Override
+    public short readRegWord(int reg) throws IOException {
+        mScheduler.acquire(this);
+        try {
+            return mDelegate.readRegWord(reg);
+        } finally {
+            mScheduler.release();
+        }
+    }
+
+    @Override
+    public void readRegBuffer(int reg, byte[] buffer, int length) throws IOException {
+        mScheduler.acquire(this);
+        try {
+            mDelegate.readRegBuffer(reg, buffer, length);
+        } finally {
+            mScheduler.release();
+        }
+    }
+
+    @Override
+    public void writeRegByte(int reg, byte data) throws IOException {
+        mScheduler.acquire(this);
+        try {
+            mDelegate.writeRegByte(reg, data);
+        } finally {
+            mScheduler.release();
+        }
+    }
+
+    @Override
+    public void writeRegWord(int reg, short data) throws IOException {
+        mScheduler.acquire(this);
+        try {
+            mDelegate.writeRegWord(reg, data);
+        } finally {
+            mScheduler.release();
+        }
+    }
+
+    @Override
+    public void writeRegBuffer(int reg, byte[] buffer, int length) throws IOException {
+        mScheduler.acquire(this);
+        try {
+            mDelegate.writeRegBuffer(reg, buffer, length);
+        } finally {
+            mScheduler.release();
+        }
+    }
+
+    @Override
+    public void read(byte[] buffer, int length) throws IOException {
+        mScheduler.acquire(this);
+        try {
+            mDelegate.read(buffer, length);
+        } finally {
+            mScheduler.release();
+        }
+    }
+
+    @Override
+    public void write(byte[] buffer, int length) throws IOException {
+        mScheduler.acquire(this);
+        try {
+            mDelegate.write(buffer, length);
+        } finally {
+            mScheduler.release();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>Scheduled as one transaction, the response follows the command without another client
+     * getting in between.
+     */
+    @Override
+    public void transfer(byte[] command, int commandLength, byte[] response, int responseLength)
+            throws IOException {
+        mScheduler.acquire(this);
+        try {
+            mDelegate.transfer(command, commandLength, response, responseLength);
+        } finally {
+            mScheduler.release();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mDelegate.close();
+    }
+
+    /*package*/ Condition getCondition() {
+        return mCondition;
+    }
+
+    /*package*/ void enqueue(BusScheduler.Ticket ticket) {
+        mWaiting.addLast(ticket);
+    }
+
+    /*package*/ BusScheduler.Ticket peek() {
+        return mWaiting.peekFirst();
+    }
+
+    /*package*/ BusScheduler.Ticket dequeue() {
+        return mWaiting.pollFirst();
+    }
+
+    /*package*/ void remove(BusScheduler.Ticket ticket) {
+        mWaiting.remove(ticket);
+    }
+
+    /*package*/ void onGranted(long waitNanos, boolean missedDeadline) {
+        mTransactionCount++;
+        mWaitNanos += waitNanos;
+        if (waitNanos > mMaxWaitNanos) {
+            mMaxWaitNanos = waitNanos;
+        }
+        if (missedDeadline) {
+            mDeadlineMissCount++;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.rosterloh.things.driver.core;
+
+import com.google.android.things.pio.PeripheralManagerService;
+import com.google.android.things.pio.SpiDevice;
+
+import java.io.IOException;
+
+/**
+ * {@link RegisterBus} on top of an Android Things {@link SpiDevice}, using the common register
+ * protocol where the first byte of every transfer is the register address with bit 7 set for a
+ * read and cleared for a write, followed by the data with the address auto-incrementing.
+ */
+public class SpiRegisterBus implements RegisterBus {
+
+    /**
+     * Default clock frequency used by {@link #open(String)}.
+     */
+    public static final int DEFAULT_FREQUENCY_HZ = 1000000;
+
+    private static final int SPI_READ_BIT = 0x80;
+    private static final int SPI_ADDRESS_MASK = 0x7f;
+    // Largest register burst a single transaction can carry
+    private static final int MAX_TRANSFER_LENGTH = 64;
+
+    private final SpiDevice mDevice;
+    private final byte[] mTxBuffer = new byte[MAX_TRANSFER_LENGTH + 1];
+    private final byte[] mRxBuffer = new byte[MAX_TRANSFER_LENGTH + 1];
+
+    /**
+     * Wrap an already opened and configured SPI device.
+     * @param device SPI device of the peripheral.
+     */
+    public SpiRegisterBus(SpiDevice device) {
+        mDevice = device;
+    }
+
+    /**
+     * Open the SPI device on the given bus in mode 0 at {@link #DEFAULT_FREQUENCY_HZ}.
+     * @param bus SPI bus and chip select the peripheral is connected to, e.g. "SPI0.0".
+     * @return register bus for the device
+     * @throws IOException if the device cannot be opened or configured
+     */
+    public static SpiRegisterBus open(String bus) throws IOException {
+        final PeripheralManagerService pioService = new PeripheralManagerService();
+        final SpiDevice device = pioService.openSpiDevice(bus);
+        try {
+            device.setMode(SpiDevice.MODE0);
+            device.setFrequency(DEFAULT_FREQUENCY_HZ);
+            device.setBitsPerWord(8);
+        } catch (IOException e) {
+            device.close();
+            throw e;
+        }
+        return new SpiRegisterBus(device);
+    }
+
+    @Override
+    public String getName() {
+        return mDevice.getName();
+    }
+
+    @Override
+    public synchronized byte readRegByte(int reg) throws IOException {
+        transferRegister(reg | SPI_READ_BIT, 1);
+        return mRxBuffer[1];
+    }
+
+    @Override
+    public synchronized short readRegWord(int reg) throws IOException {
+        transferRegister(reg | SPI_READ_BIT, 2);
+        return (short) ((mRxBuffer[1] & 0xff) | (mRxBuffer[2] << 8));
+    }
+
+    @Override
+    public synchronized void readRegBuffer(int reg, byte[] buffer, int length) throws IOException {
+        transferRegister(reg | SPI_READ_BIT, length);
+        System.arraycopy(mRxBuffer, 1, buffer, 0, length);
+    }
+
+    @Override
+    public synchronized void writeRegByte(int reg, byte data) throws IOException {
+        mTxBuffer[1] = data;
+        transferRegister(reg & SPI_ADDRESS_MASK, 1);
+    }
+
+    @Override
+    public synchronized void writeRegWord(int reg, short data) throws IOException {
+        mTxBuffer[1] = (byte) data;
+        mTxBuffer[2] = (byte) (data >> 8);
+        transferRegister(reg & SPI_ADDRESS_MASK, 2);
+    }
+
+    @Override
+    public synchronized void writeRegBuffer(int reg, byte[] buffer, int length) throws IOException {
+        checkLength(length);
+        System.arraycopy(buffer, 0, mTxBuffer, 1, length);
+        transferRegister(reg & SPI_ADDRESS_MASK, length);
+    }
+
+    @Override
+    public synchronized void read(byte[] buffer, int length) throws IOException {
+        mDevice.read(buffer, length);
+    }
+
+    @Override
+    public synchronized void write(byte[] buffer, int length) throws IOException {
+        mDevice.write(buffer, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>Sent as one full duplex transfer with chip select held, the response being the bytes
+     * clocked in after the command.
+     */
+    @Override
+    public synchronized void transfer(byte[] command, int commandLength, byte[] response,
+                                      int responseLength) throws IOException {
+        final int length = commandLength + responseLength;
+        if (length > mTxBuffer.length) {
+            throw new IllegalArgumentException("transfer too long: " + length);
+        }
+        System.arraycopy(command, 0, mTxBuffer, 0, commandLength);
+        for (int i = commandLength; i < length; i++) {
+            mTxBuffer[i] = 0;
+        }
+        mDevice.transfer(mTxBuffer, mRxBuffer, length);
+        System.arraycopy(mRxBuffer, commandLength, response, 0, responseLength);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mDevice.close();
+    }
+
+    /**
+     * Send the address byte followed by the data already in the transmit buffer.
+     */
+    private void transferRegister(int address, int length) throws IOException {
+        checkLength(length);
+        mTxBuffer[0] = (byte) address;
+        mDevice.transfer(mTxBuffer, mRxBuffer, length + 1);
+    }
+
+    private static void checkLength(int length) {
+        if (length > MAX_TRANSFER_LENGTH) {
+            throw new IllegalArgumentException("transfer too long: " + length);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.rosterloh.things.driver.core;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Binary layout of the bus traces written by {@link TraceRecorder} and played back by
+ * {@link TraceReplayBus}.
+ *
+ * <p>A trace starts with the int magic "I2CT", a version byte and the bus name as modified
+ * UTF-8. Then one record per transaction:
+ * <pre>
+ * byte     operation, OR {@link #FAILED} if it threw
+ * varint   nanoseconds since the start of the previous transaction
+ * varint   nanoseconds the transaction took
+ * byte     register, register operations only
+ * ...      operation data, see below
+ * utf      exception message, failed transactions only
+ * </pre>
+ * Byte and word operations carry their 1 or 2 data bytes. Buffer and raw operations carry a
+ * varint length followed by the data. A transfer carries the command length and bytes, then the
+ * response length and bytes. Data read is left out of failed transactions. The trace ends with
+ * an {@link #END} byte.
+ */
+/*package*/ final class TraceFormat {
+
+    static final int MAGIC = 0x49324354;
+    static final int VERSION = 1;
+
+    static final int END = 0;
+    static final int READ_REG_BYTE = 1;
+    static final int READ_REG_WORD = 2;
+    static final int READ_REG_BUFFER = 3;
+    static final int WRITE_REG_BYTE = 4;
+    static final int WRITE_REG_WORD = 5;
+    static final int WRITE_REG_BUFFER = 6;
+    static final int READ = 7;
+    static final int WRITE = 8;
+    static final int TRANSFER = 9;
+    static final int FAILED = 0x80;
+
+    private static final String[] NAMES = {
+            "end", "readRegByte", "readRegWord", "readRegBuffer", "writeRegByte", "writeRegWord",
+            "writeRegBuffer", "read", "write", "transfer"
+    };
+
+    private TraceFormat() {
+    }
+
+    static String name(int operation) {
+        final int op = operation & ~FAILED;
+        return op < NAMES.length ? NAMES[op] : "unknown " + op;
+    }
+
+    static boolean hasRegister(int operation) {
+        final int op = operation & ~FAILED;
+        return op >= READ_REG_BYTE && op <= WRITE_REG_BUFFER;
+    }
+
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+}
@@ -0,0 +1,273 @@
+package com.rosterloh.things.driver.core;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static com.rosterloh.things.driver.core.TraceFormat.END;
+import static com.rosterloh.things.driver.core.TraceFormat.FAILED;
+import static com.rosterloh.things.driver.core.TraceFormat.READ;
+import static com.rosterloh.things.driver.core.TraceFormat.READ_REG_BUFFER;
+import static com.rosterloh.things.driver.core.TraceFormat.READ_REG_BYTE;
+import static com.rosterloh.things.driver.core.TraceFormat.READ_REG_WORD;
+import static com.rosterloh.things.driver.core.TraceFormat.TRANSFER;
+import static com.rosterloh.things.driver.core.TraceFormat.WRITE;
+import static com.rosterloh.things.driver.core.TraceFormat.WRITE_REG_BUFFER;
+import static com.rosterloh.things.driver.core.TraceFormat.WRITE_REG_BYTE;
+import static com.rosterloh.things.driver.core.TraceFormat.WRITE_REG_WORD;
+
+/**
+ * {@link RegisterBus} decorator that writes every transaction into a compact binary trace, e.g.
+ * <pre>
+ *     OutputStream out = new BufferedOutputStream(new FileOutputStream(traceFile));
+ *     Bmx280 bmx280 = new Bmx280(new TraceRecorder(I2cRegisterBus.open("I2C1", 0x77), out));
+ * </pre>
+ *
+ * <p>Each record holds the operation, register, the data written and read, the start time and
+ * duration, and the message of any IOException. A register read of three bytes takes about ten
+ * bytes of trace. Recording only allocates for failed transactions. If writing the trace fails,
+ * recording stops and the error is kept in {@link #getTraceError()}, while the device itself
+ * keeps working. Closing the recorder ends the trace and closes both the stream and the device.
+ *
+ * <p>Play a trace back with {@link TraceReplayBus}.
+ */
+public class TraceRecorder implements RegisterBus {
+
+    private final RegisterBus mDelegate;
+    private final DataOutputStream mOut;
+    private final Clock mClock;
+    private final byte[] mScratch = new byte[2];
+    private long mLastStart;
+    // Start of the transaction in progress
+    private long mStart;
+    private long mRecordCount;
+    private IOException mTraceError;
+    private boolean mClosed;
+
+    /**
+     * Record the given bus with {@link Clock#SYSTEM}.
+     * @param delegate bus to record.
+     * @param out stream to write the trace to, preferably buffered.
+     * @throws IOException if the trace header cannot be written
+     */
+    public TraceRecorder(RegisterBus delegate, OutputStream out) throws IOException {
+        this(delegate, out, Clock.SYSTEM);
+    }
+
+    /**
+     * Record the given bus.
+     * @param delegate bus to record.
+     * @param out stream to write the trace to, preferably buffered.
+     * @param clock clock timing the transactions.
+     * @throws IOException if the trace header cannot be written
+     */
+    public TraceRecorder(RegisterBus delegate, OutputStream out, Clock clock) throws IOException {
+        mDelegate = delegate;
+        mOut = new DataOutputStream(out);
+        mClock = clock;
+        mOut.writeInt(TraceFormat.MAGIC);
+        mOut.writeByte(TraceFormat.VERSION);
+        mOut.writeUTF(delegate.getName());
+        mLastStart = clock.nanoTime();
+    }
+
+    /**
+     * Returns the number of transactions recorded.
+     */
+    public synchronized long getRecordCount() {
+        return mRecordCount;
+    }
+
+    /**
+     * Returns the error that stopped recording, or null.
+     */
+    public synchronized IOException getTraceError() {
+        return mTraceError;
+    }
+
+    @Override
+    public String getName() {
+        return mDelegate.getName();
+    }
+
+    @Override
+    public synchronized byte readRegByte(int reg) throws IOException {
+        mStart = mClock.nanoTime();
+        try {
+            final byte value = mDelegate.readRegByte(reg);
+            mScratch[0] = value;
+            record(READ_REG_BYTE, reg, null, 0, mScratch, 1, null);
+            return value;
+        } catch (IOException e) {
+            record(READ_REG_BYTE, reg, null, 0, null, 0, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized short readRegWord(int reg) throws IOException {
+        mStart = mClock.nanoTime();
+        try {
+            final short value = mDelegate.readRegWord(reg);
+            mScratch[0] = (byte) value;
+            mScratch[1] = (byte) (value >> 8);
+            record(READ_REG_WORD, reg, null, 0, mScratch, 2, null);
+            return value;
+        } catch (IOException e) {
+            record(READ_REG_WORD, reg, null, 0, null, 0, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void readRegBuffer(int reg, byte[] buffer, int length) throws IOException {
+        mStart = mClock.nanoTime();
+        try {
+            mDelegate.readRegBuffer(reg, buffer, length);
+            record(READ_REG_BUFFER, reg, null, 0, buffer, length, null);
+        } catch (IOException e) {
+            record(READ_REG_BUFFER, reg, null, 0, null, length, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void writeRegByte(int reg, byte data) throws IOException {
+        mStart = mClock.nanoTime();
+        mScratch[0] = data;
+        try {
+            mDelegate.writeRegByte(reg, data);
+            record(WRITE_REG_BYTE, reg, mScratch, 1, null, 0, null);
+        } catch (IOException e) {
+            record(WRITE_REG_BYTE, reg, mScratch, 1, null, 0, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void writeRegWord(int reg, short data) throws IOException {
+        mStart = mClock.nanoTime();
+        mScratch[0] = (byte) data;
+        mScratch[1] = (byte) (data >> 8);
+        try {
+            mDelegate.writeRegWord(reg, data);
+            record(WRITE_REG_WORD, reg, mScratch, 2, null, 0, null);
+        } catch (IOException e) {
+            record(WRITE_REG_WORD, reg, mScratch, 2, null, 0, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void writeRegBuffer(int reg, byte[] buffer, int length) throws IOException {
+        mStart = mClock.nanoTime();
+        try {
+            mDelegate.writeRegBuffer(reg, buffer, length);
+            record(WRITE_REG_BUFFER, reg, buffer, length, null, 0, null);
+        } catch (IOException e) {
+            record(WRITE_REG_BUFFER, reg, buffer, length, null, 0, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void read(byte[] buffer, int length) throws IOException {
+        mStart = mClock.nanoTime();
+        try {
+            mDelegate.read(buffer, length);
+            record(READ, 0, null, 0, buffer, length, null);
+        } catch (IOException e) {
+            record(READ, 0, null, 0, null, length, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void write(byte[] buffer, int length) throws IOException {
+        mStart = mClock.nanoTime();
+        try {
+            mDelegate.write(buffer, length);
+            record(WRITE, 0, buffer, length, null, 0, null);
+        } catch (IOException e) {
+            record(WRITE, 0, buffer, length, null, 0, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void transfer(byte[] command, int commandLength, byte[] response, int responseLength)
+            throws IOException {
+        mStart = mClock.nanoTime();
+        try {
+            mDelegate.transfer(command, commandLength, response, responseLength);
+            record(TRANSFER, 0, command, commandLength, response, responseLength, null);
+        } catch (IOException e) {
+            record(TRANSFER, 0, command, commandLength, null, responseLength, e);
+            throw e;
+        }
+    }
+
+    /**
+     * End the trace, then close the stream and the device.
+     * @throws IOException if the device cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            if (mTraceError == null) {
+                mOut.writeByte(END);
+            }
+            mOut.close();
+        } catch (IOException e) {
+            mTraceError = e;
+        } finally {
+            mDelegate.close();
+        }
+    }
+
+    /**
+     * Append one record.
+     * @param written data written, or null
+     * @param read data read, or null if the operation failed, in which case readLength is still
+     *             recorded for buffer and raw reads
+     */
+    private void record(int op, int reg, byte[] written, int writtenLength, byte[] read, int readLength,
+                        IOException error) {
+        final long start = mStart;
+        final long end = mClock.nanoTime();
+        if (mTraceError != null || mClosed) {
+            return;
+        }
+        try {
+            mOut.writeByte(error == null ? op : op | FAILED);
+            TraceFormat.writeVarLong(mOut, start - mLastStart);
+            TraceFormat.writeVarLong(mOut, end - start);
+            mLastStart = start;
+            if (TraceFormat.hasRegister(op)) {
+                mOut.writeByte(reg);
+            }
+            if (op == WRITE_REG_BYTE || op == WRITE_REG_WORD) {
+                mOut.write(written, 0, writtenLength);
+            } else if (written != null) {
+                TraceFormat.writeVarLong(mOut, writtenLength);
+                mOut.write(written, 0, writtenLength);
+            }
+            if (op == READ_REG_BUFFER || op == READ || op == TRANSFER) {
+                TraceFormat.writeVarLong(mOut, readLength);
+            }
+            if (error == null && read != null) {
+                mOut.write(read, 0, readLength);
+            }
+            if (error != null) {
+                mOut.writeUTF(error.getMessage() == null ? "" : error.getMessage());
+            }
+            mRecordCount++;
+        } catch (IOException e) {
+            mTraceError = e;
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package com.rosterloh.things.driver.core;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.rosterloh.things.driver.core.TraceFormat.END;
+import static com.rosterloh.things.driver.core.TraceFormat.FAILED;
+import static com.rosterloh.things.driver.core.TraceFormat.READ;
+import static com.rosterloh.things.driver.core.TraceFormat.READ_REG_BUFFER;
+import static com.rosterloh.things.driver.core.TraceFormat.READ_REG_BYTE;
+import static com.rosterloh.things.driver.core.TraceFormat.READ_REG_WORD;
+import static com.rosterloh.things.driver.core.TraceFormat.TRANSFER;
+import static com.rosterloh.things.driver.core.TraceFormat.WRITE;
+import static com.rosterloh.things.driver.core.TraceFormat.WRITE_REG_BUFFER;
+import static com.rosterloh.things.driver.core.TraceFormat.WRITE_REG_BYTE;
+import static com.rosterloh.things.driver.core.TraceFormat.WRITE_REG_WORD;
+
+/**
+ * {@link RegisterBus} that plays back a trace written by {@link TraceRecorder}, so a driver sees
+ * exactly what it saw in the field:
+ * <pre>
+ *     TraceReplayBus replay = new TraceReplayBus(new FileInputStream(traceFile));
+ *     Bmx280 bmx280 = new Bmx280(replay);
+ *     float[] values = bmx280.readTemperaturePressureAndHumidity();
+ * </pre>
+ *
+ * <p>Each call must match the next transaction of the trace: same operation, register, length
+ * and data written. Reads return the recorded data and recorded failures throw an IOException
+ * with the recorded message. A driver that does anything else has diverged from the recording,
+ * e.g. after a code change, and gets an IllegalStateException naming the transaction.
+ *
+ * <p>Playback runs at full speed by default. With {@link #setRealTime(boolean)} every transaction
+ * completes at its recorded offset from the start of playback, which needs a real time clock.
+ * {@link #mark()} and {@link #reset()} replay part of a trace again, e.g. the sampling after a
+ * driver's start up, to measure driver throughput on a captured workload.
+ */
+public class TraceReplayBus implements RegisterBus {
+
+    private final String mName;
+    private final Clock mClock;
+    private final List<Transaction> mTransactions = new ArrayList<>();
+    private final byte[] mScratch = new byte[2];
+    private boolean mRealTime;
+    private int mPosition;
+    private int mMark;
+    private long mPlaybackStart;
+    private boolean mClosed;
+
+    /**
+     * Load a trace, played back against {@link Clock#SYSTEM}.
+     * @param in trace written by {@link TraceRecorder}, read to the end but not closed. A trace
+     *           without an end marker is played up to its last complete transaction.
+     * @throws IOException if the trace cannot be read or is malformed, e.g. ends inside a
+     *                     transaction
+     */
+    public TraceReplayBus(InputStream in) throws IOException {
+        this(in, Clock.SYSTEM);
+    }
+
+    /**
+     * Load a trace.
+     * @param in trace written by {@link TraceRecorder}, read to the end but not closed. A trace
+     *           without an end marker is played up to its last complete transaction.
+     * @param clock clock pacing real time playback.
+     * @throws IOException if the trace cannot be read or is malformed, e.g. ends inside a
+     *                     transaction
+     */
+    public TraceReplayBus(InputStream in, Clock clock) throws IOException {
+        final DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != TraceFormat.MAGIC) {
+            throw new IOException("not a bus trace");
+        }
+        final int version = data.readUnsignedByte();
+        if (version != TraceFormat.VERSION) {
+            throw new IOException("unsupported trace version " + version);
+        }
+        mName = data.readUTF();
+        mClock = clock;
+        long offset = 0;
+        while (true) {
+            // A recorder that was never closed, e.g. on a unit that crashed, leaves no END
+            final int code = data.read();
+            if (code == END || code < 0) {
+                break;
+            }
+            offset += TraceFormat.readVarLong(data);
+            mTransactions.add(Transaction.read(data, code, offset));
+        }
+    }
+
+    /**
+     * Pace playback to the recorded timing.
+     * @param realTime true for real time, false for full speed.
+     */
+    public synchronized void setRealTime(boolean realTime) {
+        mRealTime = realTime;
+        mPlaybackStart = mClock.nanoTime() - offsetOf(mPosition);
+    }
+
+    /**
+     * Returns the number of transactions in the trace.
+     */
+    public int getTransactionCount() {
+        return mTransactions.size();
+    }
+
+    /**
+     * Returns the index of the next transaction to play.
+     */
+    public synchronized int getPosition() {
+        return mPosition;
+    }
+
+    /**
+     * Returns true once every transaction has been played.
+     */
+    public synchronized boolean isFinished() {
+        return mPosition == mTransactions.size();
+    }
+
+    /**
+     * Remember the current position for {@link #reset()}.
+     */
+    public synchronized void mark() {
+        mMark = mPosition;
+    }
+
+    /**
+     * Go back to the position of the last {@link #mark()}, or the start of the trace.
+     */
+    public synchronized void reset() {
+        mPosition = mMark;
+        mPlaybackStart = mClock.nanoTime() - offsetOf(mPosition);
+    }
+
+    @Override
+    public String getName() {
+        return mName;
+    }
+
+    @Override
+    public synchronized byte readRegByte(int reg) throws IOException {
+        return play(READ_REG_BYTE, reg, null, 0, 1).mRead[0];
+    }
+
+    @Override
+    public synchronized short readRegWord(int reg) throws IOException {
+        final byte[] read = play(READ_REG_WORD, reg, null, 0, 2).mRead;
+        return (short) (((read[1] & 0xff) << 8) | (read[0] & 0xff));
+    }
+
+    @Override
+    public synchronized void readRegBuffer(int reg, byte[] buffer, int length) throws IOException {
+        System.arraycopy(play(READ_REG_BUFFER, reg, null, 0, length).mRead, 0, buffer, 0, length);
+    }
+
+    @Override
+    public synchronized void writeRegByte(int reg, byte data) throws IOException {
+        mScratch[0] = data;
+        play(WRITE_REG_BYTE, reg, mScratch, 1, 0);
+    }
+
+    @Override
+    public synchronized void writeRegWord(int reg, short data) throws IOException {
+        mScratch[0] = (byte) data;
+        mScratch[1] = (byte) (data >> 8);
+        play(WRITE_REG_WORD, reg, mScratch, 2, 0);
+    }
+
+    @Override
+    public synchronized void writeRegBuffer(int reg, byte[] buffer, int length) throws IOException {
+        play(WRITE_REG_BUFFER, reg, buffer, length, 0);
+    }
+
+    @Override
+    public synchronized void read(byte[] buffer, int length) throws IOException {
+        System.arraycopy(play(READ, 0, null, 0, length).mRead, 0, buffer, 0, length);
+    }
+
+    @Override
+    public synchronized void write(byte[] buffer, int length) throws IOException {
+        play(WRITE, 0, buffer, length, 0);
+    }
+
+    @Override
+    public synchronized void transfer(byte[] command, int commandLength, byte[] response, int responseLength)
+            throws IOException {
+        System.arraycopy(play(TRANSFER, 0, command, commandLength, responseLength).mRead, 0,
+                response, 0, responseLength);
+    }
+
+    @Override
+    public synchronized void close() {
+        mClosed = true;
+    }
+
+    /**
+     * Returns true once the driver has closed the bus.
+     */
+    public synchronized boolean isClosed() {
+        return mClosed;
+    }
+
+    /**
+     * Check a call against the next transaction and play it.
+     * @return the transaction, whose read data has readLength bytes
+     * @throws IOException if the transaction failed when recorded
+     */
+    private Transaction play(int op, int reg, byte[] written, int writtenLength, int readLength)
+            throws IOException {
+        if (mPosition == mTransactions.size()) {
+            throw new IllegalStateException("trace exhausted after " + mPosition + " transactions");
+        }
+        final Transaction transaction = mTransactions.get(mPosition);
+        if (mPosition == 0) {
+            mPlaybackStart = mClock.nanoTime();
+        }
+        if (!transaction.matches(op, reg, written, writtenLength, readLength)) {
+            throw new IllegalStateException(String.format(Locale.US,
+                    "trace diverged at transaction %d: called %s(0x%02x), %d bytes out, %d bytes in;"
+                            + " recorded %s", mPosition, TraceFormat.name(op), reg & 0xff, writtenLength,
+                    readLength, transaction));
+        }
+        mPosition++;
+        if (mRealTime) {
+            final long due = mPlaybackStart + transaction.mOffset + transaction.mDuration;
+            for (long wait = due - mClock.nanoTime(); wait > 0; wait = due - mClock.nanoTime()) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+        if (transaction.mError != null) {
+            throw new IOException(transaction.mError);
+        }
+        return transaction;
+    }
+
+    private long offsetOf(int position) {
+        return position < mTransactions.size() ? mTransactions.get(position).mOffset : 0;
+    }
+
+    /**
+     * One recorded transaction.
+     */
+    private static final class Transaction {
+        private final int mOp;
+        private final int mReg;
+        private final long mOffset;
+        private final long mDuration;
+        private byte[] mWritten;
+        private byte[] mRead;
+        private String mError;
+
+        private Transaction(int op, int reg, long offset, long duration) {
+            mOp = op;
+            mReg = reg;
+            mOffset = offset;
+            mDuration = duration;
+        }
+
+        static Transaction read(DataInputStream in, int code, long offset) throws IOException {
+            final int op = code & ~FAILED;
+            final boolean failed = (code & FAILED) != 0;
+            if (op < READ_REG_BYTE || op > TRANSFER) {
+                throw new IOException("malformed trace, operation " + code);
+            }
+            final long duration = TraceFormat.readVarLong(in);
+            final int reg = TraceFormat.hasRegister(op) ? in.readUnsignedByte() : 0;
+            final Transaction transaction = new Transaction(op, reg, offset, duration);
+            if (op == WRITE_REG_BYTE || op == WRITE_REG_WORD) {
+                transaction.mWritten = readBytes(in, op == WRITE_REG_BYTE ? 1 : 2);
+            } else if (op == WRITE_REG_BUFFER || op == WRITE || op == TRANSFER) {
+                transaction.mWritten = readBytes(in, (int) TraceFormat.readVarLong(in));
+            }
+            int readLength = 0;
+            if (op == READ_REG_BYTE || op == READ_REG_WORD) {
+                readLength = op == READ_REG_BYTE ? 1 : 2;
+            } else if (op == READ_REG_BUFFER || op == READ || op == TRANSFER) {
+                readLength = (int) TraceFormat.readVarLong(in);
+            }
+            transaction.mRead = failed ? new byte[readLength] : readBytes(in, readLength);
+            if (failed) {
+                transaction.mError = in.readUTF();
+            }
+            return transaction;
+        }
+
+        private static byte[] readBytes(DataInputStream in, int length) throws IOException {
+            final byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return bytes;
+        }
+
+        boolean matches(int op, int reg, byte[] written, int writtenLength, int readLength) {
+            if (op != mOp || (reg & 0xff) != mReg || readLength != mRead.length) {
+                return false;
+            }
+            final int expected = mWritten == null ? 0 : mWritten.length;
+            if (writtenLength != expected) {
+                return false;
+            }
+            for (int i = 0; i < writtenLength; i++) {
+                if (written[i] != mWritten[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s(0x%02x), %d bytes out, %d bytes in%s", TraceFormat.name(mOp),
+                    mReg, mWritten == null ? 0 : mWritten.length, mRead.length,
+                    mError == null ? "" : ", failed: " + mError);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.rosterloh.things.driver.core;
+
+import org.hamcrest.CoreMatchers;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyInt;
+
+public class BusDiscoveryTest {
+
+    private static final int REG_ID = 0xD0;
+
+    @Rule
+    public ExpectedException mExpectedException = ExpectedException.none();
+
+    private final AtomicLong mNow = new AtomicLong();
+    // Buses opened by the discovery, by address
+    private final Map<Integer, RegisterBus> mBuses = new HashMap<>();
+    // Identity answered at each address, absent addresses do not acknowledge
+    private final Map<Integer, Integer> mIdentities = new HashMap<>();
+    private int mOpenCount;
+    private BusDiscovery mDiscovery;
+
+    @Before
+    public void setUp() {
+        mDiscovery = new BusDiscovery((bus, address) -> open(address), mNow::get);
+    }
+
+    @Test
+    public void findsAndOpensDevices() throws IOException {
+        mIdentities.put(0x77, 0x60);
+        mIdentities.put(0x40, 0x02);
+        final TestDevice chip = new TestDevice("chip", 0x60, 0x76, 0x77);
+        final TestDevice other = new TestDevice("other", 0x02, 0x40);
+        mDiscovery.add(chip).add(other);
+
+        final List<BusDiscovery.Found<?>> found = mDiscovery.scan("I2C1");
+
+        assertEquals(2, found.size());
+        assertSame(chip, found.get(0).getDevice());
+        assertEquals("I2C1", found.get(0).getBusName());
+        assertEquals(0x77, found.get(0).getAddress());
+        assertEquals(0x60, found.get(0).getIdentity());
+        assertEquals("chip at 0x77 on I2C1", found.get(0).toString());
+        assertEquals(0x40, found.get(1).getAddress());
+        // One transaction per address, the absent one closed straight away
+        for (RegisterBus bus : mBuses.values()) {
+            Mockito.verify(bus).readRegByte(REG_ID);
+        }
+        Mockito.verify(mBuses.get(0x76)).close();
+        Mockito.verify(mBuses.get(0x77), Mockito.never()).close();
+        assertEquals(0, chip.mConnectCount);
+
+        final String driver = mDiscovery.open("I2C1", chip);
+        assertEquals("chip@" + mBuses.get(0x77).hashCode(), driver);
+        assertSame(driver, mDiscovery.open("I2C1", chip));
+        assertEquals(1, chip.mConnectCount);
+    }
+
+    @Test
+    public void cachesScanPerBus() throws IOException {
+        mIdentities.put(0x40, 0x02);
+        mNow.set(100);
+        mDiscovery = new BusDiscovery((bus, address) -> {
+            mNow.addAndGet(250_000);
+            return open(address);
+        }, mNow::get);
+        mDiscovery.add(new TestDevice("other", 0x02, 0x40, 0x41));
+
+        assertEquals(-1, mDiscovery.getScanNanos("I2C1"));
+        assertEquals(1, mDiscovery.scan("I2C1").size());
+        assertEquals(1, mDiscovery.scan("I2C1").size());
+        assertEquals(2, mOpenCount);
+        assertEquals(500_000, mDiscovery.getScanNanos("I2C1"));
+
+        mDiscovery.forget("I2C1");
+        Mockito.verify(mBuses.get(0x40)).close();
+        assertEquals(-1, mDiscovery.getScanNanos("I2C1"));
+        mDiscovery.scan("I2C1");
+        assertEquals(4, mOpenCount);
+
+        mDiscovery.scan("I2C2");
+        assertEquals(6, mOpenCount);
+    }
+
+    @Test
+    public void skipsOtherChipsAndTakenAddresses() throws IOException {
+        mIdentities.put(0x77, 0x58);
+        final TestDevice chip = new TestDevice("chip", 0x60, 0x77);
+        final TestDevice first = new TestDevice("first", 0x58, 0x77);
+        final TestDevice second = new TestDevice("second", 0x58, 0x77);
+        mDiscovery.add(chip).add(first).add(second);
+
+        final List<BusDiscovery.Found<?>> found = mDiscovery.scan("I2C1");
+
+        assertEquals(1, found.size());
+        assertSame(first, found.get(0).getDevice());
+        // Probed for the first two devices only
+        assertEquals(2, mOpenCount);
+        assertNull(mDiscovery.open("I2C1", chip));
+        assertNull(mDiscovery.open("I2C1", second));
+    }
+
+    @Test
+    public void forgottenDeviceCannotOpen() throws IOException {
+        mIdentities.put(0x40, 0x02);
+        mDiscovery.add(new TestDevice("other", 0x02, 0x40));
+        final BusDiscovery.Found<?> found = mDiscovery.scan("I2C1").get(0);
+        mDiscovery.forget("I2C1");
+
+        mExpectedException.expect(IllegalStateException.class);
+        mDiscovery.open(found);
+    }
+
+    @Test
+    public void failedConnectIsRecorded() throws IOException {
+        mIdentities.put(0x40, 0x02);
+        final IOException error = new IOException("no response");
+        final TestDevice device = new TestDevice("other", 0x02, 0x40);
+        device.mConnect = () -> {
+            throw error;
+        };
+        mDiscovery.add(device);
+        final BusDiscovery.Found<?> found = mDiscovery.scan("I2C1").get(0);
+        try {
+            mDiscovery.open(found);
+            fail("expected IOException");
+        } catch (IOException expected) {
+            assertSame(error, expected);
+        }
+
+        // Not retried on the bus the failed driver owned, and not reported as forgotten
+        mExpectedException.expect(IOException.class);
+        mExpectedException.expectCause(CoreMatchers.sameInstance(error));
+        try {
+            mDiscovery.open("I2C1", device);
+        } finally {
+            assertEquals(1, device.mConnectCount);
+        }
+    }
+
+    @Test
+    public void connectsOutsideLock() throws Exception {
+        mIdentities.put(0x40, 0x02);
+        final CountDownLatch connecting = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final TestDevice device = new TestDevice("slow", 0x02, 0x40);
+        device.mConnect = () -> {
+            connecting.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IOException("interrupted", e);
+            }
+        };
+        mDiscovery.add(device);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<String> first = executor.submit(() -> mDiscovery.open("I2C1", device));
+            assertTrue(connecting.await(10, TimeUnit.SECONDS));
+            // Another bus scans while the driver connects, and a second open waits for it
+            assertEquals(1, mDiscovery.scan("I2C2").size());
+            final Future<String> second = executor.submit(() -> mDiscovery.open("I2C1", device));
+            release.countDown();
+            assertSame(first.get(10, TimeUnit.SECONDS), second.get(10, TimeUnit.SECONDS));
+            assertEquals(1, device.mConnectCount);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void failedScanClosesBuses() throws IOException {
+        mIdentities.put(0x40, 0x02);
+        final RuntimeException error = new IllegalStateException("bus busy");
+        mDiscovery = new BusDiscovery((bus, address) -> {
+            if (address == 0x41) {
+                throw error;
+            }
+            return open(address);
+        }, mNow::get);
+        mDiscovery.add(new TestDevice("other", 0x02, 0x40, 0x41));
+
+        try {
+            mDiscovery.scan("I2C1");
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+            assertSame(error, expected);
+        }
+        Mockito.verify(mBuses.get(0x40)).close();
+        assertEquals(-1, mDiscovery.getScanNanos("I2C1"));
+    }
+
+    private RegisterBus open(int address) throws IOException {
+        mOpenCount++;
+        final RegisterBus bus = Mockito.mock(RegisterBus.class);
+        final Integer identity = mIdentities.get(address);
+        if (identity == null) {
+            Mockito.when(bus.readRegByte(anyInt())).thenThrow(new IOException("no ack"));
+        } else {
+            Mockito.when(bus.readRegByte(REG_ID)).thenReturn((byte) (int) identity);
+        }
+        mBuses.put(address, bus);
+        return bus;
+    }
+
+    /**
+     * Identifies from a single id register and connects to a string naming the bus.
+     */
+    private static final class TestDevice extends BusDiscovery.Device<String> {
+        private final int mId;
+        private volatile int mConnectCount;
+        private Connect mConnect = () -> { };
+
+        TestDevice(String name, int id, int... addresses) {
+            super(name, addresses);
+            mId = id;
+        }
+
+        @Override
+        protected int identify(RegisterBus bus) throws IOException {
+            final int id = bus.readRegByte(REG_ID) & 0xFF;
+            return id == mId ? id : NOT_IDENTIFIED;
+        }
+
+        @Override
+        protected String connect(RegisterBus bus, Clock clock) throws IOException {
+            mConnectCount++;
+            mConnect.run();
+            return getName() + "@" + bus.hashCode();
+        }
+    }
+
+    private interface Connect {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,140 @@
+package com.rosterloh.things.driver.core;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+
+public class BusSchedulerTest {
+
+    private final AtomicLong mNow = new AtomicLong();
+    private final List<String> mOrder = Collections.synchronizedList(new ArrayList<String>());
+    private final CountDownLatch mHolding = new CountDownLatch(1);
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+    private final List<Thread> mThreads = new ArrayList<>();
+    private BusScheduler mScheduler;
+    private ScheduledRegisterBus mHolder;
+
+    @Before
+    public void setUp() throws IOException {
+        mScheduler = new BusScheduler(new Clock() {
+            @Override
+            public long nanoTime() {
+                return mNow.get();
+            }
+        });
+        RegisterBus bus = Mockito.mock(RegisterBus.class);
+        Mockito.when(bus.readRegByte(anyInt())).thenAnswer(invocation -> {
+            mOrder.add("holder");
+            mHolding.countDown();
+            mRelease.await(5, TimeUnit.SECONDS);
+            return (byte) 0;
+        });
+        mHolder = mScheduler.register(bus, "holder", BusScheduler.PRIORITY_NORMAL,
+                BusScheduler.NO_DEADLINE);
+    }
+
+    @Test
+    public void uncontended() throws IOException {
+        RegisterBus bus = Mockito.mock(RegisterBus.class);
+        ScheduledRegisterBus client = mScheduler.register(bus, "client",
+                BusScheduler.PRIORITY_LOW, BusScheduler.NO_DEADLINE);
+        client.writeRegByte(0xF4, (byte) 0x27);
+        Mockito.verify(bus).writeRegByte(0xF4, (byte) 0x27);
+        assertEquals(1, client.getTransactionCount());
+        assertEquals(0, client.getTotalWaitNanos());
+        assertEquals(0, mScheduler.getQueueLength());
+    }
+
+    @Test
+    public void priorityClasses() throws Exception {
+        ScheduledRegisterBus low = client("low", BusScheduler.PRIORITY_LOW, BusScheduler.NO_DEADLINE);
+        ScheduledRegisterBus high = client("high", BusScheduler.PRIORITY_HIGH, BusScheduler.NO_DEADLINE);
+        holdBus();
+        enqueue(low, 1);
+        enqueue(high, 2);
+        releaseBus();
+        assertEquals(Arrays.asList("holder", "high", "low"), mOrder);
+    }
+
+    @Test
+    public void fairWithinClass() throws Exception {
+        ScheduledRegisterBus a = client("a", BusScheduler.PRIORITY_NORMAL, BusScheduler.NO_DEADLINE);
+        ScheduledRegisterBus b = client("b", BusScheduler.PRIORITY_NORMAL, BusScheduler.NO_DEADLINE);
+        holdBus();
+        enqueue(a, 1);
+        enqueue(a, 2);
+        enqueue(b, 3);
+        releaseBus();
+        assertEquals(Arrays.asList("holder", "a", "b", "a"), mOrder);
+    }
+
+    @Test
+    public void overdueFirst() throws Exception {
+        ScheduledRegisterBus low = client("low", BusScheduler.PRIORITY_LOW, 1000);
+        ScheduledRegisterBus high = client("high", BusScheduler.PRIORITY_HIGH, BusScheduler.NO_DEADLINE);
+        holdBus();
+        enqueue(low, 1);
+        enqueue(high, 2);
+        mNow.set(2000);
+        releaseBus();
+        assertEquals(Arrays.asList("holder", "low", "high"), mOrder);
+        assertEquals(1, low.getDeadlineMissCount());
+        assertEquals(2000, low.getMaxWaitNanos());
+        assertEquals(0, high.getDeadlineMissCount());
+    }
+
+    private ScheduledRegisterBus client(final String name, int priority, long deadline) throws IOException {
+        RegisterBus bus = Mockito.mock(RegisterBus.class);
+        Mockito.when(bus.readRegByte(anyInt())).thenAnswer(invocation -> {
+            mOrder.add(name);
+            return (byte) 0;
+        });
+        return mScheduler.register(bus, name, priority, deadline);
+    }
+
+    private void holdBus() throws InterruptedException {
+        start(mHolder);
+        assertTrue(mHolding.await(5, TimeUnit.SECONDS));
+    }
+
+    private void enqueue(ScheduledRegisterBus client, int queueLength) throws InterruptedException {
+        start(client);
+        final long timeout = System.currentTimeMillis() + 5000;
+        while (mScheduler.getQueueLength() < queueLength && System.currentTimeMillis() < timeout) {
+            Thread.sleep(1);
+        }
+        assertEquals(queueLength, mScheduler.getQueueLength());
+    }
+
+    private void releaseBus() throws InterruptedException {
+        mRelease.countDown();
+        for (Thread thread : mThreads) {
+            thread.join(5000);
+        }
+    }
+
+    private void start(final ScheduledRegisterBus client) {
+        Thread thread = new Thread(() -> {
+            try {
+                client.readRegByte(0);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        mThreads.add(thread);
+        thread.start();
+    }
+}
@@ -0,0 +1,65 @@
+package com.rosterloh.things.driver.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeadbandChannelTest {
+
+    private final AtomicInteger mReads = new AtomicInteger();
+    private float mValue;
+    private final Deadband.Source mSource = () -> {
+        mReads.incrementAndGet();
+        return mValue;
+    };
+
+    @Test
+    public void reportsEveryReadingWithoutDeadband() throws IOException {
+        final DeadbandChannel channel = new DeadbandChannel();
+        channel.setEnabled(true);
+        mValue = 1f;
+        assertEquals(1f, channel.read(mSource), 0);
+        mValue = 1.01f;
+        assertEquals(1.01f, channel.read(mSource), 0);
+        assertEquals(2, mReads.get());
+    }
+
+    @Test
+    public void repeatsLastReportInsideDeadband() throws IOException {
+        final DeadbandChannel channel = new DeadbandChannel();
+        final Deadband deadband = Deadband.absolute(0.5f, Long.MAX_VALUE);
+        channel.setDeadband(deadband);
+        channel.setEnabled(true);
+        mValue = 10f;
+        assertEquals(10f, channel.read(mSource), 0);
+        mValue = 10.2f;
+        assertEquals(10f, channel.read(mSource), 0);
+        mValue = 11f;
+        assertEquals(11f, channel.read(mSource), 0);
+        assertEquals(3, mReads.get());
+        assertEquals(1, deadband.getSuppressedCount());
+
+        // Enabling again reports the next reading right away
+        channel.setEnabled(false);
+        channel.setEnabled(true);
+        mValue = 11.1f;
+        assertEquals(11.1f, channel.read(mSource), 0);
+    }
+
+    @Test
+    public void disabledChannelDoesNotRead() throws IOException {
+        final DeadbandChannel channel = new DeadbandChannel();
+        assertTrue(Float.isNaN(channel.read(mSource)));
+        channel.setEnabled(true);
+        mValue = 5f;
+        channel.read(mSource);
+        channel.setEnabled(false);
+        mValue = 6f;
+        assertEquals(5f, channel.read(mSource), 0);
+        assertEquals(1, mReads.get());
+    }
+}
@@ -0,0 +1,67 @@
+package com.rosterloh.things.driver.core;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DeadbandTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void absoluteThreshold() {
+        final Deadband deadband = Deadband.absolute(0.1f, 60 * SECOND);
+        assertTrue(deadband.accept(0, 21.00f));
+        assertFalse(deadband.accept(SECOND, 21.05f));
+        assertFalse(deadband.accept(2 * SECOND, 20.95f));
+        assertTrue(deadband.accept(3 * SECOND, 21.15f));
+        // Measured from the last reported value, not the last reading
+        assertFalse(deadband.accept(4 * SECOND, 21.06f));
+        assertTrue(deadband.accept(5 * SECOND, 21.0f));
+        assertTrue(deadband.accept(6 * SECOND, Float.NaN));
+        assertEquals(4, deadband.getReportedCount());
+        assertEquals(3, deadband.getSuppressedCount());
+        assertEquals(0, deadband.getHeartbeatCount());
+    }
+
+    @Test
+    public void relativeThreshold() {
+        final Deadband deadband = Deadband.relative(0.01f, Long.MAX_VALUE);
+        assertTrue(deadband.accept(0, 1000f));
+        assertFalse(deadband.accept(SECOND, 1009f));
+        assertTrue(deadband.accept(2 * SECOND, 989f));
+        assertFalse(deadband.accept(Long.MAX_VALUE - SECOND, 989f));
+    }
+
+    @Test
+    public void heartbeat() {
+        final Deadband deadband = Deadband.absolute(1f, 10 * SECOND);
+        assertTrue(deadband.accept(0, 50f));
+        assertFalse(deadband.accept(9 * SECOND, 50f));
+        assertTrue(deadband.accept(10 * SECOND, 50f));
+        assertFalse(deadband.accept(19 * SECOND, 50f));
+        assertEquals(1, deadband.getHeartbeatCount());
+        assertEquals(2, deadband.getReportedCount());
+
+        deadband.reset();
+        assertTrue(deadband.accept(20 * SECOND, 50f));
+    }
+
+    @Test
+    public void acceptTimestampsWithClock() {
+        final AtomicLong now = new AtomicLong();
+        final Deadband deadband = Deadband.absolute(0.5f, 3 * SECOND);
+        deadband.setClock(now::get);
+        assertTrue(deadband.accept(10f));
+        now.set(2 * SECOND);
+        assertFalse(deadband.accept(10f));
+        now.set(3 * SECOND);
+        assertTrue(deadband.accept(10f));
+        assertEquals(1, deadband.getHeartbeatCount());
+    }
+}
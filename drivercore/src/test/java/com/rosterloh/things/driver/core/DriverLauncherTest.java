@@ -0,0 +1,164 @@
+package com.rosterloh.things.driver.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.IOException;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DriverLauncherTest {
+
+    private static final long DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    @Rule
+    public ExpectedException mExpectedException = ExpectedException.none();
+
+    @Test
+    public void connectsConcurrently() throws Exception {
+        try (DriverLauncher launcher = new DriverLauncher(Clock.SYSTEM)) {
+            // Two devices on each bus, each only completing once all four are connecting
+            final CyclicBarrier connecting = new CyclicBarrier(4);
+            final Future<String> first = launcher.launch("I2C1", "first", () -> connect("first", connecting));
+            final Future<String> second = launcher.launch("I2C1", "second", () -> connect("second", connecting));
+            final Future<String> third = launcher.launch("I2C2", "third", () -> connect("third", connecting));
+            final Future<String> fourth = launcher.launch("I2C2", "fourth", () -> connect("fourth", connecting));
+            final DriverLauncher.Report report = launcher.awaitAll();
+
+            assertEquals("first", first.get());
+            assertEquals("fourth", fourth.get());
+            assertTrue(second.isDone() && third.isDone());
+            assertEquals(4, report.getDeviceCount());
+            assertEquals("third", report.getName(2));
+            assertEquals("I2C2", report.getBusName(2));
+            assertTrue(report.getSequentialNanos() >= 4 * DELAY_NANOS);
+            assertTrue(report.getBusElapsedNanos("I2C1") <= report.getElapsedNanos());
+            for (int i = 0; i < report.getDeviceCount(); i++) {
+                assertTrue(report.getDurationNanos(i) >= DELAY_NANOS);
+                // Every device started before any of them finished
+                for (int j = 0; j < report.getDeviceCount(); j++) {
+                    assertTrue(report.getStartNanos(i) < report.getStartNanos(j) + report.getDurationNanos(j));
+                }
+                assertNull(report.getError(i));
+            }
+        }
+    }
+
+    @Test
+    public void reportsFailure() throws InterruptedException {
+        final IOException error = new IOException("no ack");
+        try (DriverLauncher launcher = new DriverLauncher(Clock.SYSTEM)) {
+            final Future<String> failed = launcher.launch("I2C1", "missing", () -> {
+                throw error;
+            });
+            final Future<String> connected = launcher.launch("I2C1", "present", () -> "present");
+            final DriverLauncher.Report report = launcher.awaitAll();
+            assertSame(error, report.getError(0));
+            assertNull(report.getError(1));
+            assertTrue(report.toString().contains("missing on I2C1"));
+            assertTrue(report.toString().contains("failed: no ack"));
+            try {
+                failed.get();
+                fail("expected ExecutionException");
+            } catch (ExecutionException expected) {
+                assertSame(error, expected.getCause());
+            }
+            assertTrue(connected.isDone());
+        }
+    }
+
+    @Test
+    public void reportsRuntimeException() throws InterruptedException {
+        final IllegalStateException error = new IllegalStateException("unknown chip id");
+        try (DriverLauncher launcher = new DriverLauncher(Clock.SYSTEM)) {
+            launcher.launch("I2C1", "wrong", () -> {
+                throw error;
+            });
+            final DriverLauncher.Report report = launcher.awaitAll();
+            assertSame(error, report.getError(0));
+            assertTrue(report.toString().contains("failed: unknown chip id"));
+        }
+    }
+
+    @Test
+    public void reportsCancelledLaunch() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        try (DriverLauncher launcher = new DriverLauncher(Clock.SYSTEM)) {
+            final Future<String> stuck = launcher.launch("I2C1", "stuck", () -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException("interrupted", e);
+                }
+                return "stuck";
+            });
+            launcher.launch("I2C2", "present", () -> "present");
+            stuck.cancel(true);
+            final DriverLauncher.Report report = launcher.awaitAll();
+            assertTrue(report.getError(0) instanceof CancellationException);
+            assertEquals(0, report.getDurationNanos(0));
+            assertNull(report.getError(1));
+            assertTrue(report.toString().contains("stuck on I2C1"));
+            assertTrue(report.toString().contains("cancelled"));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void closesDriverConnectedAfterCancel() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+        try (DriverLauncher launcher = new DriverLauncher(Clock.SYSTEM)) {
+            final Future<AutoCloseable> late = launcher.launch("I2C1", "late", () -> {
+                started.countDown();
+                // Ignores the cancellation, like a driver in an uninterruptible bus transaction
+                while (release.getCount() > 0) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        // keep connecting
+                    }
+                }
+                return closed::countDown;
+            });
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            assertTrue(late.cancel(true));
+            release.countDown();
+            assertTrue(closed.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void rejectsLaunchAfterClose() {
+        final DriverLauncher launcher = new DriverLauncher(Clock.SYSTEM);
+        launcher.close();
+        mExpectedException.expect(IllegalStateException.class);
+        launcher.launch("I2C1", "late", () -> "late");
+    }
+
+    private static String connect(String name, CyclicBarrier connecting) throws IOException {
+        try {
+            connecting.await(10, TimeUnit.SECONDS);
+            // A start-up delay like the CCS811's
+            Thread.sleep(TimeUnit.NANOSECONDS.toMillis(DELAY_NANOS));
+        } catch (InterruptedException | BrokenBarrierException | TimeoutException e) {
+            throw new IOException("not connected concurrently", e);
+        }
+        return name;
+    }
+}
@@ -0,0 +1,63 @@
+package com.rosterloh.things.driver.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+public class EnergyMeterTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toNanos(1);
+
+    @Rule
+    public ExpectedException mExpectedException = ExpectedException.none();
+
+    @Test
+    public void integratesStatesAndTransactions() {
+        final AtomicLong now = new AtomicLong(5 * HOUR);
+        final EnergyMeter meter = new EnergyMeter(now::get);
+        meter.setState(0, 1f);
+        now.addAndGet(HOUR);
+        meter.setState(2, 100f);
+        now.addAndGet(HOUR / 2);
+        meter.addTransaction(TimeUnit.SECONDS.toNanos(36), 1000f);
+
+        assertEquals(2, meter.getState());
+        assertEquals(100f, meter.getStateCurrentUa(), 0);
+        assertEquals(HOUR, meter.getStateNanos(0));
+        assertEquals(HOUR / 2, meter.getStateNanos(2));
+        assertEquals(1.0, meter.getStateChargeUah(0), 1e-9);
+        assertEquals(50.0, meter.getStateChargeUah(2), 1e-9);
+        assertEquals(1, meter.getTransactionCount());
+        assertEquals(TimeUnit.SECONDS.toNanos(36), meter.getTransactionNanos());
+        assertEquals(10.0, meter.getTransactionChargeUah(), 1e-9);
+        assertEquals(61.0, meter.getChargeUah(), 1e-9);
+        assertEquals(61f / 1.5f, meter.getAverageCurrentUa(), 1e-3f);
+    }
+
+    @Test
+    public void resetKeepsState() {
+        final AtomicLong now = new AtomicLong();
+        final EnergyMeter meter = new EnergyMeter(now::get);
+        meter.setState(1, 20f);
+        assertEquals(20f, meter.getAverageCurrentUa(), 0);
+        now.addAndGet(HOUR);
+        meter.addTransaction(HOUR, 1f);
+        meter.reset();
+        assertEquals(0, meter.getChargeUah(), 0);
+        assertEquals(0, meter.getTransactionCount());
+        now.addAndGet(HOUR);
+        assertEquals(20.0, meter.getChargeUah(), 1e-9);
+        assertEquals(HOUR, meter.getStateNanos(1));
+    }
+
+    @Test
+    public void rejectsInvalidState() {
+        mExpectedException.expect(IllegalArgumentException.class);
+        new EnergyMeter(Clock.SYSTEM).setState(EnergyMeter.MAX_STATES, 1f);
+    }
+}
@@ -0,0 +1,98 @@
+package com.rosterloh.things.driver.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+
+public class InstrumentedRegisterBusTest {
+
+    @Mock
+    private RegisterBus mBus;
+
+    @Rule
+    public MockitoRule mMokitoRule = MockitoJUnit.rule();
+
+    @Test
+    public void recordsPerRegister() throws IOException {
+        InstrumentedRegisterBus bus = new InstrumentedRegisterBus(mBus);
+        bus.readRegBuffer(0xF7, new byte[8], 8);
+        bus.readRegBuffer(0xF7, new byte[8], 8);
+        bus.writeRegByte(0xF4, (byte) 0x27);
+        bus.write(new byte[1], 1);
+
+        BusStatistics.Snapshot stats = bus.getStatistics().snapshot();
+        assertEquals(2, stats.getTransactionCount(0xF7));
+        assertEquals(16, stats.getByteCount(0xF7));
+        assertEquals(1, stats.getTransactionCount(0xF4));
+        assertEquals(1, stats.getTransactionCount(BusStatistics.RAW));
+        assertEquals(4, stats.getTransactionCount());
+        assertEquals(18, stats.getByteCount());
+        assertEquals(0, stats.getErrorCount());
+        Mockito.verify(mBus, Mockito.times(2)).readRegBuffer(eq(0xF7), any(byte[].class), eq(8));
+    }
+
+    @Test
+    public void timesWithClock() throws IOException {
+        final AtomicLong now = new AtomicLong();
+        Mockito.doAnswer(invocation -> {
+            now.addAndGet(250000);
+            return null;
+        }).when(mBus).readRegBuffer(eq(0xF7), any(byte[].class), eq(8));
+        InstrumentedRegisterBus bus = new InstrumentedRegisterBus(mBus, new BusStatistics(), now::get);
+        bus.readRegBuffer(0xF7, new byte[8], 8);
+
+        assertEquals(250000, bus.getStatistics().snapshot().getBusTimeNanos(0xF7));
+    }
+
+    @Test
+    public void recordsFailures() throws IOException {
+        Mockito.when(mBus.readRegByte(anyInt())).thenThrow(new IOException("NACK"));
+        InstrumentedRegisterBus bus = new InstrumentedRegisterBus(mBus);
+        try {
+            bus.readRegByte(0x00);
+            fail("expected IOException");
+        } catch (IOException expected) {
+            // rethrown to the driver
+        }
+
+        BusStatistics.Snapshot stats = bus.getStatistics().snapshot();
+        assertEquals(1, stats.getTransactionCount(0x00));
+        assertEquals(1, stats.getErrorCount(0x00));
+        assertEquals(0, stats.getByteCount(0x00));
+    }
+
+    @Test
+    public void reset() throws IOException {
+        InstrumentedRegisterBus bus = new InstrumentedRegisterBus(mBus);
+        bus.readRegByte(0xD0);
+        bus.getStatistics().reset();
+        assertEquals(0, bus.getStatistics().snapshot().getTransactionCount());
+    }
+
+    @Test
+    public void latencyBuckets() {
+        assertEquals(0, BusStatistics.bucketOf(0));
+        assertEquals(0, BusStatistics.bucketOf(1999));
+        assertEquals(1, BusStatistics.bucketOf(2000));
+        assertEquals(10, BusStatistics.bucketOf(1024 * 1000));
+        assertEquals(BusStatistics.LATENCY_BUCKETS - 1, BusStatistics.bucketOf(Long.MAX_VALUE));
+
+        BusStatistics statistics = new BusStatistics();
+        statistics.record(0x02, false, 8, 500 * 1000, false);
+        long[] histogram = statistics.snapshot().getReadLatencyHistogram();
+        assertEquals(1, histogram[8]);
+        assertEquals(512 * 1000, statistics.snapshot().getLatencyPercentileNanos(50));
+    }
+}
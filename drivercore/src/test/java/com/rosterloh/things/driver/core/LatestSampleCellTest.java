@@ -0,0 +1,80 @@
+package com.rosterloh.things.driver.core;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LatestSampleCellTest {
+
+    private final AtomicLong mNow = new AtomicLong(1000);
+    private final LatestSampleCell mCell = new LatestSampleCell(2, 1, mNow::get);
+
+    @Test
+    public void emptyCell() {
+        assertEquals(LatestSampleCell.NO_SAMPLE, mCell.read(new float[2], new int[1]));
+        assertEquals(Long.MAX_VALUE, mCell.getAgeNanos());
+        assertTrue(Float.isNaN(mCell.readFloat(0)));
+        assertEquals(0, mCell.getVersion());
+    }
+
+    @Test
+    public void publishAndRead() {
+        mCell.publish(new float[]{25.08f, 1006.53f}, new int[]{7, 8});
+        float[] floats = new float[2];
+        int[] ints = new int[1];
+        assertEquals(1000, mCell.read(floats, ints));
+        assertArrayEquals(new float[]{25.08f, 1006.53f}, floats, 0);
+        assertArrayEquals(new int[]{7}, ints);
+        assertEquals(1006.53f, mCell.readFloat(1), 0);
+        assertEquals(1, mCell.getVersion());
+    }
+
+    @Test
+    public void rejectsStaleSamples() {
+        mCell.publish(900, new float[2], new int[1]);
+        mNow.set(1500);
+        assertEquals(600, mCell.getAgeNanos());
+        assertEquals(900, mCell.readIfFresh(600, null, null));
+        assertEquals(LatestSampleCell.NO_SAMPLE, mCell.readIfFresh(599, null, null));
+    }
+
+    @Test
+    public void readersSeeConsistentSamples() throws InterruptedException {
+        final LatestSampleCell cell = new LatestSampleCell(3, 0);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicBoolean torn = new AtomicBoolean();
+        Thread[] readers = new Thread[3];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread(() -> {
+                float[] values = new float[3];
+                while (running.get()) {
+                    final long timestamp = cell.read(values, null);
+                    if (timestamp != LatestSampleCell.NO_SAMPLE
+                            && (values[0] != timestamp || values[1] != timestamp || values[2] != timestamp)) {
+                        torn.set(true);
+                    }
+                }
+            });
+            readers[i].start();
+        }
+        float[] values = new float[3];
+        for (int i = 0; i < 200000; i++) {
+            values[0] = i;
+            values[1] = i;
+            values[2] = i;
+            cell.publish(i, values, null);
+        }
+        running.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(200000, cell.getVersion());
+        assertFalse(torn.get());
+    }
+}
@@ -0,0 +1,104 @@
+package com.rosterloh.things.driver.core;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MultiBusReaderTest {
+
+    private final AtomicLong mNow = new AtomicLong();
+    // Every reading of the clock is a tick later than the previous one
+    private final MultiBusReader mReader = new MultiBusReader(mNow::incrementAndGet);
+
+    @After
+    public void tearDown() {
+        mReader.close();
+    }
+
+    @Test
+    public void readsBusesInParallel() throws InterruptedException {
+        // Each sensor waits for the one of the same index on the other bus, so a read only
+        // succeeds if both bus workers run at the same time
+        final CyclicBarrier rendezvous = new CyclicBarrier(2);
+        final AtomicBoolean overlap = new AtomicBoolean();
+        final AtomicInteger busy1 = new AtomicInteger();
+        final AtomicInteger busy2 = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            mReader.add("I2C1", "a" + i, pairedSensor(rendezvous, busy1, overlap, new float[]{i}));
+            mReader.add("I2C2", "b" + i, pairedSensor(rendezvous, busy2, overlap, new int[]{i}));
+        }
+        assertEquals(Arrays.asList("I2C1", "I2C2"), mReader.getBusNames());
+
+        final MultiBusReader.Snapshot snapshot = mReader.read();
+        for (int i = 0; i < mReader.getSensorCount(); i++) {
+            assertNull(snapshot.getError(i));
+        }
+        // Sensors of the same bus still run one at a time
+        assertFalse(overlap.get());
+        assertArrayEquals(new float[]{2}, (float[]) snapshot.getValue(4), 0);
+        assertArrayEquals(new int[]{1}, (int[]) snapshot.getValue(3));
+        assertTrue(snapshot.getBusElapsedNanos("I2C1") > 0);
+        assertTrue(snapshot.getBusElapsedNanos("I2C2") > 0);
+        assertTrue(snapshot.getTimestampNanos(0) > snapshot.getTimestampNanos());
+        assertTrue(snapshot.getTimestampNanos(2) > snapshot.getTimestampNanos(0));
+    }
+
+    @Test
+    public void recordsFailures() throws InterruptedException {
+        final int broken = mReader.add("I2C1", "broken", () -> {
+            throw new IOException("NACK");
+        });
+        final int good = mReader.add("I2C1", "good", () -> 42);
+        MultiBusReader.Snapshot snapshot = mReader.read();
+        assertEquals("NACK", snapshot.getError(broken).getMessage());
+        assertNull(snapshot.getValue(broken));
+        assertEquals(42, snapshot.getValue(good));
+        assertEquals("good", snapshot.getName(good));
+    }
+
+    @Test
+    public void recordsRuntimeFailures() throws InterruptedException {
+        final int closed = mReader.add("I2C1", "closed", () -> {
+            throw new IllegalStateException("Bus device not open");
+        });
+        final int good = mReader.add("I2C1", "good", () -> 42);
+        MultiBusReader.Snapshot snapshot = mReader.read();
+        assertTrue(snapshot.getError(closed) instanceof IllegalStateException);
+        assertEquals(42, snapshot.getValue(good));
+        assertNull(snapshot.getError(good));
+    }
+
+    private static SamplePublisher.Sampler<Object> pairedSensor(final CyclicBarrier rendezvous,
+                                                                final AtomicInteger busy,
+                                                                final AtomicBoolean overlap,
+                                                                final Object value) {
+        return () -> {
+            if (busy.incrementAndGet() > 1) {
+                overlap.set(true);
+            }
+            try {
+                rendezvous.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException | BrokenBarrierException | TimeoutException e) {
+                throw new IOException("bus workers did not run concurrently", e);
+            } finally {
+                busy.decrementAndGet();
+            }
+            return value;
+        };
+    }
+}
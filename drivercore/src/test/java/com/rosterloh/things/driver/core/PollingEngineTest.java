@@ -0,0 +1,136 @@
+package com.rosterloh.things.driver.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PollingEngineTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final AtomicLong mNow = new AtomicLong();
+    private final List<String> mOrder = new ArrayList<>();
+    private final PollingEngine mEngine = new PollingEngine(1, new Clock() {
+        @Override
+        public long nanoTime() {
+            return mNow.get();
+        }
+    });
+
+    @Test
+    public void spreadsPhases() {
+        PollingEngine.Registration a = mEngine.register("a", 100 * MS, record("a"));
+        PollingEngine.Registration b = mEngine.register("b", 100 * MS, record("b"));
+        PollingEngine.Registration c = mEngine.register("c", 200 * MS, record("c"));
+        assertEquals(0, a.getPhaseNanos());
+        assertEquals(50 * MS, b.getPhaseNanos());
+        // Anywhere 25 ms from both a and b
+        assertEquals(25 * MS, c.getPhaseNanos() % (50 * MS));
+    }
+
+    @Test
+    public void earliestDeadlineFirst() {
+        mEngine.register("slow", 100 * MS, record("slow"));
+        mEngine.register("fast", 10 * MS, record("fast"));
+        // Both released by now, fast has the earlier deadline
+        mNow.set(60 * MS);
+        long next = mEngine.runDue(60 * MS);
+        assertEquals(Arrays.asList("fast", "slow"), mOrder);
+        // fast has phase 5 ms, its missed releases are skipped
+        assertEquals(65 * MS, next);
+    }
+
+    @Test
+    public void reportsJitterAndOverrun() {
+        PollingEngine.Registration registration = mEngine.register("sensor", 10 * MS, () -> {
+            mNow.addAndGet(25 * MS);
+        });
+        mNow.set(2 * MS);
+        long next = mEngine.runDue(2 * MS);
+        assertEquals(1, registration.getPollCount());
+        assertEquals(2 * MS, registration.getMaxJitterNanos());
+        assertEquals(25 * MS, registration.getMaxRunNanos());
+        // Finished at 27 ms, releases at 10 and 20 ms were missed
+        assertEquals(1, registration.getOverrunCount());
+        assertEquals(2, registration.getSkippedCount());
+        assertEquals(30 * MS, next);
+    }
+
+    @Test
+    public void countsErrors() {
+        PollingEngine.Registration registration = mEngine.register("broken", 10 * MS, () -> {
+            throw new IOException("NACK");
+        });
+        mEngine.runDue(0);
+        mEngine.runDue(10 * MS);
+        assertEquals(2, registration.getErrorCount());
+        assertEquals("NACK", registration.getLastError().getMessage());
+    }
+
+    @Test
+    public void runtimeExceptionIsCountedAndTaskPolledAgain() {
+        PollingEngine.Registration registration = mEngine.register("buggy", 10 * MS, () -> {
+            throw new IllegalStateException("oversampling is skipped");
+        });
+        assertEquals(10 * MS, mEngine.runDue(0));
+        assertEquals(10 * MS, mEngine.runDue(5 * MS));
+        mEngine.runDue(10 * MS);
+        assertEquals(2, registration.getPollCount());
+        assertEquals(2, registration.getErrorCount());
+        assertTrue(registration.getLastError() instanceof IllegalStateException);
+    }
+
+    @Test
+    public void workerSurvivesRuntimeException() throws InterruptedException {
+        final CountDownLatch polls = new CountDownLatch(2);
+        PollingEngine engine = new PollingEngine();
+        PollingEngine.Registration registration = engine.register("sensor", 5 * MS, () -> {
+            polls.countDown();
+            if (polls.getCount() == 1) {
+                throw new IllegalStateException("first poll fails");
+            }
+        });
+        engine.start();
+        try {
+            assertTrue(polls.await(5, TimeUnit.SECONDS));
+        } finally {
+            engine.close();
+        }
+        assertTrue(registration.getErrorCount() >= 1);
+    }
+
+    @Test
+    public void unregister() {
+        PollingEngine.Registration registration = mEngine.register("a", 10 * MS, record("a"));
+        mEngine.unregister(registration);
+        assertEquals(Long.MAX_VALUE, mEngine.runDue(100 * MS));
+        assertTrue(mOrder.isEmpty());
+        assertTrue(registration.isCancelled());
+    }
+
+    @Test
+    public void pollsOnWorkerThread() throws InterruptedException {
+        final CountDownLatch polls = new CountDownLatch(3);
+        PollingEngine engine = new PollingEngine();
+        engine.register("sensor", 5 * MS, polls::countDown);
+        engine.start();
+        try {
+            assertTrue(polls.await(5, TimeUnit.SECONDS));
+        } finally {
+            engine.close();
+        }
+    }
+
+    private PollingEngine.Task record(final String name) {
+        return () -> mOrder.add(name);
+    }
+}
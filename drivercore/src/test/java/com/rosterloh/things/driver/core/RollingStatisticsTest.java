@@ -0,0 +1,137 @@
+package com.rosterloh.things.driver.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RollingStatisticsTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Rule
+    public ExpectedException mExpectedException = ExpectedException.none();
+
+    @Test
+    public void matchesRecomputedWindows() {
+        final long[] windows = {10 * SECOND, 60 * SECOND, 300 * SECOND};
+        final int count = 2000;
+        final RollingStatistics statistics = new RollingStatistics(400, windows);
+        final long[] timestamps = new long[count];
+        final float[] values = new float[count];
+        final Random random = new Random(7);
+        long now = 0;
+        for (int i = 0; i < count; i++) {
+            // Irregular sampling, sometimes several samples at the same time
+            now += random.nextInt(3) * SECOND / 2 + 1;
+            timestamps[i] = now;
+            values[i] = 20 + 5 * (float) Math.sin(i / 50.0) + (float) random.nextGaussian();
+            statistics.add(now, values[i]);
+            for (int w = 0; w < windows.length; w++) {
+                assertWindow(statistics, w, timestamps, values, i, now - windows[w]);
+            }
+        }
+    }
+
+    @Test
+    public void expiresWithoutSamples() {
+        final RollingStatistics statistics = RollingStatistics.forPeriod(SECOND);
+        assertEquals(3, statistics.getWindowCount());
+        assertEquals(TimeUnit.MINUTES.toNanos(15), statistics.getWindowNanos(RollingStatistics.FIFTEEN_MINUTE_WINDOW));
+        assertTrue(Float.isNaN(statistics.getMin(RollingStatistics.ONE_MINUTE_WINDOW)));
+        statistics.add(0, 3f);
+        statistics.add(SECOND, 1f);
+        statistics.add(2 * SECOND, 2f);
+        assertEquals(1f, statistics.getMin(RollingStatistics.ONE_MINUTE_WINDOW), 0);
+        assertEquals(3f, statistics.getMax(RollingStatistics.ONE_MINUTE_WINDOW), 0);
+        assertEquals(2f, statistics.getMean(RollingStatistics.ONE_MINUTE_WINDOW), 1e-6f);
+        assertEquals(1f, statistics.getStandardDeviation(RollingStatistics.ONE_MINUTE_WINDOW), 1e-6f);
+
+        statistics.expire(61 * SECOND);
+        assertEquals(1, statistics.getCount(RollingStatistics.ONE_MINUTE_WINDOW));
+        assertEquals(2f, statistics.getMax(RollingStatistics.ONE_MINUTE_WINDOW), 0);
+        assertEquals(0f, statistics.getStandardDeviation(RollingStatistics.ONE_MINUTE_WINDOW), 0);
+        statistics.expire(TimeUnit.MINUTES.toNanos(10));
+        assertEquals(0, statistics.getCount(RollingStatistics.ONE_MINUTE_WINDOW));
+        assertTrue(Float.isNaN(statistics.getMean(RollingStatistics.ONE_MINUTE_WINDOW)));
+        assertEquals(3, statistics.getCount(RollingStatistics.ONE_HOUR_WINDOW));
+    }
+
+    @Test
+    public void dropsOldestWhenFull() {
+        final RollingStatistics statistics = new RollingStatistics(4, 100 * SECOND);
+        for (int i = 0; i < 10; i++) {
+            statistics.add(i * SECOND, 10 - i);
+        }
+        assertEquals(4, statistics.getCount(0));
+        assertEquals(4f, statistics.getMax(0), 0);
+        assertEquals(1f, statistics.getMin(0), 0);
+        assertEquals(2.5f, statistics.getMean(0), 1e-6f);
+    }
+
+    @Test
+    public void growsDequesForTrends() {
+        final RollingStatistics statistics = new RollingStatistics(100, 100 * SECOND, 30 * SECOND);
+        final long[] timestamps = new long[250];
+        final float[] values = new float[250];
+        for (int i = 0; i < values.length; i++) {
+            // Rising then falling, so every sample stays in one of the deques until it expires
+            timestamps[i] = i * SECOND;
+            values[i] = i < 120 ? i : 240 - i;
+            statistics.add(timestamps[i], values[i]);
+        }
+        assertEquals(100, statistics.getCount(0));
+        assertEquals(30, statistics.getCount(1));
+        assertWindow(statistics, 0, timestamps, values, values.length - 1, (values.length - 101) * SECOND);
+        assertWindow(statistics, 1, timestamps, values, values.length - 1, (values.length - 31) * SECOND);
+    }
+
+    @Test
+    public void rejectsEarlierTimestamp() {
+        final RollingStatistics statistics = new RollingStatistics(4, SECOND);
+        statistics.add(SECOND, 1f);
+        mExpectedException.expect(IllegalArgumentException.class);
+        statistics.add(0, 1f);
+    }
+
+    @Test
+    public void clampsEarlierTimestamp() {
+        final RollingStatistics statistics = new RollingStatistics(4, SECOND);
+        statistics.add(SECOND, 1f);
+        statistics.addClamped(0, 3f);
+        assertEquals(2, statistics.getCount(0));
+        assertEquals(2f, statistics.getMean(0), 0);
+        // The clamped sample leaves the window with the one it was clamped to
+        statistics.expire(2 * SECOND);
+        assertEquals(0, statistics.getCount(0));
+    }
+
+    private static void assertWindow(RollingStatistics statistics, int window, long[] timestamps,
+                                     float[] values, int last, long cutoff) {
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        double sum = 0;
+        int n = 0;
+        for (int i = last; i >= 0 && timestamps[i] > cutoff && n < 400; i--) {
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+            sum += values[i];
+            n++;
+        }
+        final double mean = sum / n;
+        double squares = 0;
+        for (int i = last; i > last - n; i--) {
+            squares += (values[i] - mean) * (values[i] - mean);
+        }
+        assertEquals(n, statistics.getCount(window));
+        assertEquals(min, statistics.getMin(window), 0);
+        assertEquals(max, statistics.getMax(window), 0);
+        assertEquals(mean, statistics.getMean(window), 1e-4);
+        assertEquals(n < 2 ? 0 : Math.sqrt(squares / (n - 1)), statistics.getStandardDeviation(window), 1e-4);
+    }
+}
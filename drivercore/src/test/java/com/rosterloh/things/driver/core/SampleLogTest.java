@@ -0,0 +1,127 @@
+package com.rosterloh.things.driver.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SampleLogTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Rule
+    public ExpectedException mExpectedException = ExpectedException.none();
+
+    @Test
+    public void writeAndRead() throws IOException {
+        File directory = mFolder.newFolder();
+        try (SampleLogWriter writer = new SampleLogWriter(directory)) {
+            writer.append(1000, 1, new float[]{25.08f, 1006.53f, 71.68f});
+            writer.appendRaw(2000, 2, new int[]{400, 0, 0x98, 0});
+            writer.append(3000, 3, 42.5f);
+        }
+        try (SampleLogReader reader = new SampleLogReader(directory)) {
+            assertTrue(reader.next());
+            assertEquals(1000, reader.getTimestamp());
+            assertEquals(1, reader.getSensorId());
+            assertFalse(reader.isRaw());
+            assertEquals(3, reader.getValueCount());
+            assertEquals(1006.53f, reader.getFloat(1), 0);
+            assertTrue(reader.next());
+            assertTrue(reader.isRaw());
+            assertEquals(0x98, reader.getInt(2));
+            assertTrue(reader.next());
+            assertEquals(42.5f, reader.getFloat(0), 0);
+            assertFalse(reader.next());
+            assertEquals(0, reader.getMismatchedSegmentCount());
+        }
+    }
+
+    @Test
+    public void rollsAndDeletesSegments() throws IOException {
+        File directory = mFolder.newFolder();
+        try (SampleLogWriter writer = new SampleLogWriter(directory, 4, 2)) {
+            for (int i = 0; i < 10; i++) {
+                writer.append(i, 0, i);
+            }
+            assertEquals(2, writer.getSegmentIndex());
+        }
+        // Segment 0 deleted, 1 holds 4 to 7, 2 holds 8 and 9
+        assertEquals(2, directory.list().length);
+        try (SampleLogReader reader = new SampleLogReader(directory)) {
+            long expected = 4;
+            while (reader.next()) {
+                assertEquals(expected++, reader.getTimestamp());
+            }
+            assertEquals(10, expected);
+            assertEquals(0, reader.getMismatchedSegmentCount());
+        }
+    }
+
+    @Test
+    public void recoversAfterTornRecord() throws IOException {
+        File directory = mFolder.newFolder();
+        try (SampleLogWriter writer = new SampleLogWriter(directory, 16, 0)) {
+            for (int i = 0; i < 5; i++) {
+                writer.append(i, 0, i);
+            }
+        }
+        // Tear the fourth record, the fifth is intact but follows it
+        try (RandomAccessFile file = new RandomAccessFile(
+                SampleLogFormat.segmentFile(directory, 0), "rw")) {
+            file.seek(SampleLogFormat.HEADER_SIZE + 3 * SampleLogFormat.RECORD_SIZE + 4);
+            file.writeInt(0xDEAD);
+        }
+        try (SampleLogReader reader = new SampleLogReader(directory)) {
+            while (reader.next()) {
+                continue;
+            }
+            assertEquals(3, reader.getRecordCount());
+            assertEquals(1, reader.getMismatchedSegmentCount());
+        }
+        try (SampleLogWriter writer = new SampleLogWriter(directory, 16, 0)) {
+            assertEquals(3, writer.getRecoveredRecordCount());
+            writer.append(10, 0, 10f);
+        }
+        try (SampleLogReader reader = new SampleLogReader(directory)) {
+            long last = -1;
+            while (reader.next()) {
+                last = reader.getTimestamp();
+            }
+            assertEquals(4, reader.getRecordCount());
+            assertEquals(10, last);
+            assertEquals(0, reader.getMismatchedSegmentCount());
+        }
+    }
+
+    @Test
+    public void startsNewSegmentAfterSealed() throws IOException {
+        File directory = mFolder.newFolder();
+        try (SampleLogWriter writer = new SampleLogWriter(directory, 2, 0)) {
+            for (int i = 0; i < 3; i++) {
+                writer.append(i, 0, i);
+            }
+        }
+        try (SampleLogWriter writer = new SampleLogWriter(directory, 2, 0)) {
+            assertEquals(1, writer.getSegmentIndex());
+            assertEquals(1, writer.getRecoveredRecordCount());
+        }
+    }
+
+    @Test
+    public void rejectsTooManyValues() throws IOException {
+        try (SampleLogWriter writer = new SampleLogWriter(mFolder.newFolder())) {
+            mExpectedException.expect(IllegalArgumentException.class);
+            writer.append(0, 0, new float[5]);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.rosterloh.things.driver.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SamplePublisherTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final PollingEngine mEngine = new PollingEngine(1, () -> 0);
+    private final AtomicInteger mReads = new AtomicInteger();
+    private final SamplePublisher<Integer> mPublisher = new SamplePublisher<>(mEngine, "sensor", 10 * MS,
+            mReads::incrementAndGet);
+
+    @Test
+    public void noDemandNoSampling() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        mPublisher.subscribe(subscriber);
+        assertTrue(subscriber.mSubscription != null);
+        assertFalse(mPublisher.isSampling());
+        mEngine.runDue(100 * MS);
+        assertEquals(0, mReads.get());
+    }
+
+    @Test
+    public void samplesOnlyWhatIsRequested() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        mPublisher.subscribe(subscriber);
+        subscriber.mSubscription.request(2);
+        assertTrue(mPublisher.isSampling());
+        for (long now = 0; now < 100 * MS; now += 10 * MS) {
+            mEngine.runDue(now);
+        }
+        assertEquals(Arrays.asList(1, 2), subscriber.mItems);
+        assertEquals(2, mReads.get());
+        assertFalse(mPublisher.isSampling());
+    }
+
+    @Test
+    public void keepLatestConflates() {
+        List<Runnable> tasks = new ArrayList<>();
+        Executor slow = tasks::add;
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        mPublisher.subscribe(subscriber, slow, SamplePublisher.KEEP_LATEST);
+        tasks.remove(0).run();
+        subscriber.mSubscription.request(Long.MAX_VALUE);
+        for (long now = 0; now < 30 * MS; now += 10 * MS) {
+            mEngine.runDue(now);
+        }
+        // Three samples, one drain task holding the latest
+        assertEquals(3, mReads.get());
+        assertEquals(1, tasks.size());
+        tasks.remove(0).run();
+        assertEquals(Arrays.asList(3), subscriber.mItems);
+        assertEquals(2, mPublisher.getConflatedCount());
+    }
+
+    @Test
+    public void errorEndsSubscriptions() {
+        SamplePublisher<Integer> publisher = new SamplePublisher<>(mEngine, "broken", 10 * MS, () -> {
+            throw new IOException("NACK");
+        });
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.mSubscription.request(1);
+        mEngine.runDue(0);
+        assertEquals("NACK", subscriber.mError.getMessage());
+        assertEquals(0, publisher.getSubscriberCount());
+        assertFalse(publisher.isSampling());
+    }
+
+    @Test
+    public void cancelStopsSampling() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        mPublisher.subscribe(subscriber);
+        subscriber.mSubscription.request(Long.MAX_VALUE);
+        mEngine.runDue(0);
+        subscriber.mSubscription.cancel();
+        assertFalse(mPublisher.isSampling());
+        mEngine.runDue(100 * MS);
+        assertEquals(1, mReads.get());
+    }
+
+    @Test
+    public void closeCompletes() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        mPublisher.subscribe(subscriber);
+        mPublisher.close();
+        assertTrue(subscriber.mComplete);
+        RecordingSubscriber late = new RecordingSubscriber();
+        mPublisher.subscribe(late);
+        assertTrue(late.mComplete);
+    }
+
+    private static class RecordingSubscriber implements Flow.Subscriber<Integer> {
+        private final List<Integer> mItems = new ArrayList<>();
+        private Flow.Subscription mSubscription;
+        private Throwable mError;
+        private boolean mComplete;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            mSubscription = subscription;
+        }
+
+        @Override
+        public void onNext(Integer item) {
+            mItems.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            mError = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            mComplete = true;
+        }
+    }
+}
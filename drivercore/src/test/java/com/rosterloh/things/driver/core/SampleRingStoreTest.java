@@ -0,0 +1,95 @@
+package com.rosterloh.things.driver.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SampleRingStoreTest {
+
+    @Rule
+    public ExpectedException mExpectedException = ExpectedException.none();
+
+    @Test
+    public void appendAndWrap() {
+        SampleRingStore store = new SampleRingStore(4, 2, 1);
+        for (int i = 0; i < 6; i++) {
+            store.append(i * 1000, new float[]{i, -i}, new int[]{i * 10});
+        }
+        assertEquals(4, store.size());
+        assertEquals(6, store.getAppendCount());
+        assertEquals(2000, store.getTimestamp(0));
+        assertEquals(5000, store.getTimestamp(3));
+        assertEquals(-5f, store.getFloat(3, 1), 0);
+        assertEquals(20, store.getInt(0, 0));
+    }
+
+    @Test
+    public void rangeQueries() {
+        SampleRingStore store = new SampleRingStore(5, 1, 0);
+        for (int i = 0; i < 8; i++) {
+            store.append(i * 10, i);
+        }
+        // Holds 30, 40, 50, 60, 70
+        assertEquals(0, store.indexAtOrAfter(0));
+        assertEquals(1, store.indexAtOrAfter(35));
+        assertEquals(1, store.indexAtOrAfter(40));
+        assertEquals(2, store.indexAfter(40));
+        assertEquals(5, store.indexAfter(100));
+        assertEquals(3, store.count(40, 60));
+        assertEquals(0, store.count(61, 69));
+    }
+
+    @Test
+    public void copyAcrossWrap() {
+        SampleRingStore store = new SampleRingStore(4, 1, 1);
+        for (int i = 0; i < 7; i++) {
+            store.append(i, new float[]{i / 2f}, new int[]{i});
+        }
+        // Holds 3, 4, 5, 6 with 3 at the end of the arrays
+        long[] timestamps = new long[4];
+        assertEquals(4, store.copyTimestamps(0, 10, timestamps, 0));
+        assertArrayEquals(new long[]{3, 4, 5, 6}, timestamps);
+        float[] floats = new float[3];
+        assertEquals(3, store.copyFloats(4, 6, 0, floats, 0));
+        assertArrayEquals(new float[]{2f, 2.5f, 3f}, floats, 0);
+        int[] ints = new int[2];
+        // Limited by the destination
+        assertEquals(2, store.copyInts(3, 6, 0, ints, 0));
+        assertArrayEquals(new int[]{3, 4}, ints);
+    }
+
+    @Test
+    public void ignoresExtraValues() {
+        SampleRingStore store = new SampleRingStore(4, 0, 2);
+        // eCO2, TVOC, status and error id of a CCS811 result
+        store.append(0, null, new int[]{400, 0, 0x98, 0});
+        assertEquals(400, store.getInt(0, 0));
+    }
+
+    @Test
+    public void rejectsEarlierTimestamp() {
+        SampleRingStore store = new SampleRingStore(4, 1, 0);
+        store.append(10, 1f);
+        mExpectedException.expect(IllegalArgumentException.class);
+        store.append(9, 1f);
+    }
+
+    @Test
+    public void rejectsWrongChannelCount() {
+        SampleRingStore store = new SampleRingStore(4, 3, 0);
+        mExpectedException.expect(IllegalArgumentException.class);
+        mExpectedException.expectMessage("expected 3 float values");
+        store.append(0, new float[2], null);
+    }
+
+    @Test
+    public void sizing() {
+        // Two weeks of BMx280 temperature, pressure and humidity at 1 Hz
+        int capacity = SampleRingStore.capacityFor(14 * 24 * 3600, 1);
+        assertEquals(1209600, capacity);
+        assertEquals(20, SampleRingStore.bytesPerSample(3, 0));
+    }
+}
@@ -0,0 +1,84 @@
+package com.rosterloh.things.driver.core;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+public class SampleTimingTest {
+
+    private final AtomicLong mNow = new AtomicLong(1000);
+    private final SampleTiming mTiming = new SampleTiming(mNow::get);
+
+    @Test
+    public void recordsLastSample() {
+        sample(0, 300);
+        assertEquals(1000, mTiming.getLastStartNanos());
+        assertEquals(1300, mTiming.getLastEndNanos());
+        assertEquals(1150, mTiming.getLastMidpointNanos());
+        assertEquals(300, mTiming.getMaxBusNanos());
+    }
+
+    @Test
+    public void intervalStatistics() {
+        // Starts at 1000, 2000, 3200 and 4000
+        sample(0, 100);
+        sample(900, 100);
+        sample(1100, 100);
+        sample(700, 100);
+        assertEquals(4, mTiming.getSampleCount());
+        assertEquals(1000, mTiming.getMeanIntervalNanos());
+        assertEquals(800, mTiming.getMinIntervalNanos());
+        assertEquals(1200, mTiming.getMaxIntervalNanos());
+        assertEquals(200, mTiming.getIntervalJitterNanos());
+        assertEquals(100, mTiming.getMeanBusNanos());
+    }
+
+    @Test
+    public void unfinishedSampleIsIgnored() {
+        sample(0, 100);
+        mTiming.begin();
+        assertEquals(1, mTiming.getSampleCount());
+        assertEquals(1000, mTiming.getLastStartNanos());
+    }
+
+    @Test
+    public void overlappingSamplesKeepTheirOwnTimestamps() {
+        // Two readers of one driver, the second starts before the first completes
+        final long first = mTiming.begin();
+        mNow.addAndGet(100);
+        final long second = mTiming.begin();
+        mNow.addAndGet(200);
+        assertEquals(1300, mTiming.end(first));
+        mNow.addAndGet(200);
+        assertEquals(1500, mTiming.end(second));
+        assertEquals(1000, first);
+        assertEquals(1100, second);
+        assertEquals(2, mTiming.getSampleCount());
+        assertEquals(100, mTiming.getMinIntervalNanos());
+        assertEquals(1100, mTiming.getLastStartNanos());
+        assertEquals(1500, mTiming.getLastEndNanos());
+        assertEquals(400, mTiming.getMaxBusNanos());
+
+        // A sample that started earlier but completed later only adds its bus time
+        final long third = mTiming.begin();
+        mNow.addAndGet(100);
+        final long fourth = mTiming.begin();
+        mNow.addAndGet(100);
+        mTiming.end(fourth);
+        mNow.addAndGet(100);
+        mTiming.end(third);
+        assertEquals(4, mTiming.getSampleCount());
+        assertEquals(300, mTiming.getMeanIntervalNanos());
+        assertEquals(1600, mTiming.getLastStartNanos());
+        assertEquals(1650, mTiming.getLastMidpointNanos());
+    }
+
+    private void sample(long wait, long busNanos) {
+        mNow.addAndGet(wait);
+        final long start = mTiming.begin();
+        mNow.addAndGet(busNanos);
+        mTiming.end(start);
+    }
+}
@@ -0,0 +1,175 @@
+package com.rosterloh.things.driver.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SampleWireEncoderTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Rule
+    public ExpectedException mExpectedException = ExpectedException.none();
+
+    @Test
+    public void fuzzRoundTrip() {
+        final Random random = new Random(46);
+        final ByteBuffer buffer = ByteBuffer.allocate(50 * SampleWireEncoder.MAX_RECORD_SIZE);
+        final SampleWireEncoder encoder = new SampleWireEncoder(TimeUnit.MICROSECONDS.toNanos(1));
+        final SampleWireDecoder decoder = new SampleWireDecoder(TimeUnit.MICROSECONDS.toNanos(1));
+        final float[] floats = new float[SampleWireFormat.MAX_VALUES];
+        final int[] ints = new int[SampleWireFormat.MAX_VALUES];
+        for (int stream = 0; stream < 200; stream++) {
+            final int records = random.nextInt(51);
+            final int[] ids = new int[records];
+            final long[] timestamps = new long[records];
+            final int[] decimals = new int[records];
+            final float[][] values = new float[records][];
+            final int[][] intValues = new int[records][];
+            final boolean[] integer = new boolean[records];
+            long now = random.nextLong() / 4;
+            buffer.clear();
+            encoder.reset();
+            for (int r = 0; r < records; r++) {
+                ids[r] = random.nextBoolean() ? random.nextInt(16) : random.nextInt(Integer.MAX_VALUE);
+                // Mostly increasing, sometimes out of order or with a huge jump
+                now += random.nextInt(10) == 0 ? random.nextLong() / 8 : random.nextInt((int) SECOND) - SECOND / 10;
+                timestamps[r] = now;
+                integer[r] = random.nextInt(4) == 0;
+                decimals[r] = integer[r] ? 0 : random.nextInt(SampleWireFormat.MAX_DECIMALS + 1);
+                final int count = random.nextInt(SampleWireFormat.MAX_VALUES + 1);
+                values[r] = new float[count];
+                intValues[r] = new int[count];
+                for (int i = 0; i < count; i++) {
+                    if (integer[r]) {
+                        ints[i] = random.nextInt();
+                        intValues[r][i] = ints[i];
+                    } else {
+                        floats[i] = randomValue(random);
+                        values[r][i] = floats[i];
+                    }
+                }
+                final boolean written = integer[r]
+                        ? encoder.encode(buffer, ids[r], now, ints, count)
+                        : encoder.encode(buffer, ids[r], now, decimals[r], floats, count);
+                assertTrue(written);
+            }
+            buffer.flip();
+            decoder.reset();
+            for (int r = 0; r < records; r++) {
+                assertTrue(decoder.next(buffer));
+                assertEquals(ids[r], decoder.getSensorId());
+                assertEquals(Math.floorDiv(timestamps[r], 1000) * 1000, decoder.getTimestampNanos());
+                assertEquals(decimals[r], decoder.getDecimals());
+                assertEquals(values[r].length, decoder.getValueCount());
+                for (int i = 0; i < values[r].length; i++) {
+                    if (integer[r]) {
+                        assertEquals(intValues[r][i], decoder.getFixed(i));
+                    } else {
+                        assertValue(values[r][i], decoder, i);
+                    }
+                }
+            }
+            assertFalse(decoder.next(buffer));
+        }
+    }
+
+    @Test
+    public void typicalSampleIsSmall() {
+        final ByteBuffer buffer = ByteBuffer.allocate(64);
+        final SampleWireEncoder encoder = new SampleWireEncoder();
+        final float[] values = {21.53f, 1006.53f, 45.21f};
+        assertTrue(encoder.encode(buffer, 1, 3600 * SECOND, 2, values, 3));
+        final int first = buffer.position();
+        assertTrue(encoder.encode(buffer, 1, 3601 * SECOND, 2, values, 3));
+        assertEquals(11, buffer.position() - first);
+        assertTrue(encoder.encode(buffer, 2, 3601 * SECOND, new int[]{415, 12}, 2));
+        assertEquals(2, encoder.getRecordCount() - 1);
+    }
+
+    @Test
+    public void fullBufferIsLeftUnchanged() {
+        final ByteBuffer buffer = ByteBuffer.allocate(14);
+        final SampleWireEncoder encoder = new SampleWireEncoder();
+        final float[] values = {1000f, 1000f, 1000f};
+        assertTrue(encoder.encode(buffer, 1, 0, 1, values, 1));
+        assertEquals(6, buffer.position());
+        assertFalse(encoder.encode(buffer, 1, SECOND, 1, values, 3));
+        assertEquals(6, buffer.position());
+        assertEquals(1, encoder.getRecordCount());
+        // The delta is still taken from the last record written
+        assertTrue(encoder.encode(buffer, 1, SECOND, 1, values, 1));
+
+        buffer.flip();
+        final SampleWireDecoder decoder = new SampleWireDecoder();
+        assertTrue(decoder.next(buffer));
+        assertTrue(decoder.next(buffer));
+        assertEquals(SECOND, decoder.getTimestampNanos());
+    }
+
+    @Test
+    public void truncatedRecordIsNotRead() {
+        final ByteBuffer buffer = ByteBuffer.allocate(64);
+        new SampleWireEncoder().encode(buffer, 300, SECOND, 3, new float[]{1.5f, Float.NaN}, 2);
+        final int size = buffer.position();
+        final SampleWireDecoder decoder = new SampleWireDecoder();
+        for (int length = 0; length < size; length++) {
+            buffer.position(0).limit(length);
+            assertFalse(decoder.next(buffer));
+            assertEquals(0, buffer.position());
+        }
+        buffer.limit(size);
+        assertTrue(decoder.next(buffer));
+        assertEquals(300, decoder.getSensorId());
+        assertEquals(1.5f, decoder.getFloat(0), 0);
+        assertTrue(Float.isNaN(decoder.getFloat(1)));
+    }
+
+    @Test
+    public void rejectsLongVarint() {
+        final ByteBuffer buffer = ByteBuffer.allocate(16);
+        for (int i = 0; i < 11; i++) {
+            buffer.put((byte) 0x80);
+        }
+        buffer.flip();
+        mExpectedException.expect(IllegalArgumentException.class);
+        new SampleWireDecoder().next(buffer);
+    }
+
+    @Test
+    public void rejectsTooManyValues() {
+        mExpectedException.expect(IllegalArgumentException.class);
+        new SampleWireEncoder().encode(ByteBuffer.allocate(1024), 1, 0, 0, new float[32], 32);
+    }
+
+    private static float randomValue(Random random) {
+        switch (random.nextInt(8)) {
+            case 0:
+                return Float.NaN;
+            case 1:
+                return 0f;
+            case 2:
+                return (float) (random.nextGaussian() * 1e6);
+            default:
+                return (float) (random.nextGaussian() * 1000);
+        }
+    }
+
+    private static void assertValue(float expected, SampleWireDecoder decoder, int index) {
+        if (Float.isNaN(expected)) {
+            assertTrue(Float.isNaN(decoder.getFloat(index)));
+        } else {
+            // Half a unit in the last decimal place kept, plus float rounding
+            final double tolerance = 0.5 / SampleWireFormat.SCALE[decoder.getDecimals()] + Math.ulp(expected);
+            assertEquals(expected, decoder.getFloat(index), tolerance);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.rosterloh.things.driver.core;
+
+import com.google.android.things.pio.SpiDevice;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+
+public class SpiRegisterBusTest {
+
+    @Mock
+    private SpiDevice mSpi;
+
+    @Rule
+    public MockitoRule mMokitoRule = MockitoJUnit.rule();
+
+    @Test
+    public void readRegBuffer_setsReadBit() throws IOException {
+        doAnswer(invocation -> {
+            byte[] rx = invocation.getArgument(1);
+            rx[1] = 0x12;
+            rx[2] = 0x34;
+            return null;
+        }).when(mSpi).transfer(any(byte[].class), any(byte[].class), eq(3));
+
+        SpiRegisterBus bus = new SpiRegisterBus(mSpi);
+        byte[] buffer = new byte[2];
+        bus.readRegBuffer(0x7A, buffer, 2);
+
+        ArgumentCaptor<byte[]> tx = ArgumentCaptor.forClass(byte[].class);
+        Mockito.verify(mSpi).transfer(tx.capture(), any(byte[].class), eq(3));
+        assertEquals((byte) 0xFA, tx.getValue()[0]);
+        assertEquals(0x12, buffer[0]);
+        assertEquals(0x34, buffer[1]);
+    }
+
+    @Test
+    public void readRegWord_isLittleEndian() throws IOException {
+        doAnswer(invocation -> {
+            byte[] rx = invocation.getArgument(1);
+            rx[1] = (byte) 0x70;
+            rx[2] = (byte) 0x6B;
+            return null;
+        }).when(mSpi).transfer(any(byte[].class), any(byte[].class), eq(3));
+
+        SpiRegisterBus bus = new SpiRegisterBus(mSpi);
+        assertEquals(0x6B70, bus.readRegWord(0x88));
+    }
+
+    @Test
+    public void writeRegByte_clearsReadBit() throws IOException {
+        SpiRegisterBus bus = new SpiRegisterBus(mSpi);
+        bus.writeRegByte(0xF4, (byte) 0x27);
+
+        ArgumentCaptor<byte[]> tx = ArgumentCaptor.forClass(byte[].class);
+        Mockito.verify(mSpi).transfer(tx.capture(), any(byte[].class), eq(2));
+        assertEquals((byte) 0x74, tx.getValue()[0]);
+        assertEquals((byte) 0x27, tx.getValue()[1]);
+    }
+
+    @Test
+    public void transfer_returnsBytesAfterCommand() throws IOException {
+        doAnswer(invocation -> {
+            byte[] rx = invocation.getArgument(1);
+            rx[1] = 0x55;
+            return null;
+        }).when(mSpi).transfer(any(byte[].class), any(byte[].class), eq(2));
+
+        SpiRegisterBus bus = new SpiRegisterBus(mSpi);
+        byte[] response = new byte[1];
+        bus.transfer(new byte[]{(byte) 0xE7}, 1, response, 1);
+        assertEquals(0x55, response[0]);
+    }
+}
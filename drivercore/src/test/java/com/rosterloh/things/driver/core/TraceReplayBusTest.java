@@ -0,0 +1,169 @@
+package com.rosterloh.things.driver.core;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+
+public class TraceReplayBusTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Mock
+    private RegisterBus mBus;
+
+    @Rule
+    public MockitoRule mMokitoRule = MockitoJUnit.rule();
+
+    @Rule
+    public ExpectedException mExpectedException = ExpectedException.none();
+
+    private final AtomicLong mNow = new AtomicLong();
+    private final ByteArrayOutputStream mTrace = new ByteArrayOutputStream();
+
+    @Before
+    public void setUp() throws IOException {
+        Mockito.when(mBus.getName()).thenReturn("I2C1");
+        Mockito.when(mBus.readRegByte(0xD0)).thenReturn((byte) 0x60);
+        Mockito.when(mBus.readRegWord(0x88)).thenReturn((short) 0x6B70);
+        Mockito.doAnswer(invocation -> {
+            byte[] buffer = invocation.getArgument(1);
+            buffer[0] = 0x51;
+            buffer[1] = 0x50;
+            buffer[2] = 0x00;
+            mNow.addAndGet(5 * MS);
+            return null;
+        }).when(mBus).readRegBuffer(eq(0xF7), any(byte[].class), anyInt());
+        Mockito.doThrow(new IOException("NACK")).when(mBus).write(any(byte[].class), anyInt());
+    }
+
+    @Test
+    public void replaysRecording() throws IOException {
+        TraceRecorder recorder = new TraceRecorder(mBus, mTrace, mNow::get);
+        recordSession(recorder);
+        assertEquals(5, recorder.getRecordCount());
+        recorder.close();
+        Mockito.verify(mBus).close();
+
+        TraceReplayBus replay = replay();
+        assertEquals("I2C1", replay.getName());
+        assertEquals(5, replay.getTransactionCount());
+        assertEquals(0x60, replay.readRegByte(0xD0));
+        assertEquals(0x6B70, replay.readRegWord(0x88));
+        replay.writeRegByte(0xF4, (byte) 0x27);
+        byte[] buffer = new byte[3];
+        replay.readRegBuffer(0xF7, buffer, 3);
+        assertArrayEquals(new byte[]{0x51, 0x50, 0x00}, buffer);
+        try {
+            replay.write(new byte[]{(byte) 0xFE}, 1);
+            fail("expected IOException");
+        } catch (IOException e) {
+            assertEquals("NACK", e.getMessage());
+        }
+        assertTrue(replay.isFinished());
+    }
+
+    @Test
+    public void replaysTraceWithoutEnd() throws IOException {
+        // The recorder is never closed, as on a unit that crashed
+        TraceRecorder recorder = new TraceRecorder(mBus, mTrace, mNow::get);
+        recordSession(recorder);
+
+        TraceReplayBus replay = replay();
+        assertEquals(5, replay.getTransactionCount());
+        assertEquals(0x60, replay.readRegByte(0xD0));
+    }
+
+    @Test
+    public void rejectsTruncatedTransaction() throws IOException {
+        TraceRecorder recorder = new TraceRecorder(mBus, mTrace, mNow::get);
+        recordSession(recorder);
+        final byte[] trace = mTrace.toByteArray();
+
+        mExpectedException.expect(EOFException.class);
+        new TraceReplayBus(new ByteArrayInputStream(Arrays.copyOf(trace, trace.length - 1)), mNow::get);
+    }
+
+    @Test
+    public void markAndReset() throws IOException {
+        TraceRecorder recorder = new TraceRecorder(mBus, mTrace, mNow::get);
+        recorder.readRegByte(0xD0);
+        recorder.readRegBuffer(0xF7, new byte[3], 3);
+        recorder.close();
+
+        TraceReplayBus replay = replay();
+        replay.readRegByte(0xD0);
+        replay.mark();
+        for (int i = 0; i < 3; i++) {
+            replay.readRegBuffer(0xF7, new byte[3], 3);
+            replay.reset();
+        }
+        assertEquals(1, replay.getPosition());
+    }
+
+    @Test
+    public void detectsDivergence() throws IOException {
+        TraceRecorder recorder = new TraceRecorder(mBus, mTrace, mNow::get);
+        recordSession(recorder);
+        recorder.close();
+
+        TraceReplayBus replay = replay();
+        replay.readRegByte(0xD0);
+        mExpectedException.expect(IllegalStateException.class);
+        mExpectedException.expectMessage("trace diverged at transaction 1");
+        replay.readRegWord(0x8A);
+    }
+
+    @Test
+    public void realTimePlayback() throws IOException {
+        TraceRecorder recorder = new TraceRecorder(mBus, mTrace, mNow::get);
+        recorder.readRegByte(0xD0);
+        mNow.addAndGet(20 * MS);
+        recorder.readRegByte(0xD0);
+        recorder.close();
+
+        TraceReplayBus replay = new TraceReplayBus(new ByteArrayInputStream(mTrace.toByteArray()));
+        replay.setRealTime(true);
+        final long start = System.nanoTime();
+        replay.readRegByte(0xD0);
+        replay.readRegByte(0xD0);
+        assertTrue(System.nanoTime() - start >= 20 * MS);
+    }
+
+    private void recordSession(RegisterBus bus) throws IOException {
+        bus.readRegByte(0xD0);
+        bus.readRegWord(0x88);
+        bus.writeRegByte(0xF4, (byte) 0x27);
+        bus.readRegBuffer(0xF7, new byte[3], 3);
+        try {
+            bus.write(new byte[]{(byte) 0xFE}, 1);
+            fail("expected IOException");
+        } catch (IOException expected) {
+            // recorded and rethrown
+        }
+    }
+
+    private TraceReplayBus replay() throws IOException {
+        return new TraceReplayBus(new ByteArrayInputStream(mTrace.toByteArray()), mNow::get);
+    }
+}
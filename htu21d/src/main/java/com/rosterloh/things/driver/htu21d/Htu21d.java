@@ -5,7 +5,13 @@ import android.support.annotation.VisibleForTesting;
 import android.util.Log;
 
 import com.google.android.things.pio.I2cDevice;
-import com.google.android.things.pio.PeripheralManagerService;
+import com.rosterloh.things.driver.core.BusDevice;
+import com.rosterloh.things.driver.core.BusDiscovery;
+import com.rosterloh.things.driver.core.Clock;
+import com.rosterloh.things.driver.core.I2cRegisterBus;
+import com.rosterloh.things.driver.core.RegisterBus;
+import com.rosterloh.things.driver.core.RollingStatistics;
+import com.rosterloh.things.driver.core.SampleTiming;
 
 import java.io.IOException;
 import java.lang.annotation.Retention;
@@ -15,7 +21,7 @@ import java.lang.annotation.RetentionPolicy;
  * Driver for the HTU21D environmental sensor.
  */
 @SuppressWarnings({"unused", "WeakerAccess"})
-public class Htu21d implements AutoCloseable {
+public class Htu21d extends BusDevice {
 
     /**
      * Default I2C address for the sensor.
@@ -44,6 +50,10 @@ public class Htu21d implements AutoCloseable {
      * Maximum power consumption in micro-amperes.
      */
     public static final float MAX_POWER_CONSUMPTION_UA = 500f;
+    /**
+     * Maximum power consumption in micro-amperes while idle between measurements.
+     */
+    public static final float MAX_POWER_CONSUMPTION_SLEEP_UA = 0.14f;
 
     /**
      * Sampling mode in bits for temperature and humidity.
@@ -53,6 +63,26 @@ public class Htu21d implements AutoCloseable {
     public static final int MODE_10_13 = 2;
     public static final int MODE_11_11 = 3;
 
+    /**
+     * Finds an HTU21D for {@link BusDiscovery}. It has no identity register, so a device is taken
+     * for one if its user register has the reserved bits 3 to 5 all clear, as on an HTU21D, or
+     * all set, as on the Si70xx clones; the identity is the user register.
+     */
+    public static final BusDiscovery.Device<Htu21d> DISCOVERY =
+            new BusDiscovery.Device<Htu21d>("htu21d", DEFAULT_I2C_ADDRESS) {
+        @Override
+        protected int identify(RegisterBus bus) throws IOException {
+            final int user = bus.readRegByte(HTU21D_REG_USER_READ) & 0xFF;
+            final int reserved = user & HTU21D_USER_RESERVED_MASK;
+            return reserved == 0 || reserved == HTU21D_USER_RESERVED_MASK ? user : NOT_IDENTIFIED;
+        }
+
+        @Override
+        protected Htu21d connect(RegisterBus bus, Clock clock) throws IOException {
+            return new Htu21d(bus, clock);
+        }
+    };
+
     private static final String TAG = Htu21d.class.getSimpleName();
 
     /**
@@ -67,10 +97,18 @@ public class Htu21d implements AutoCloseable {
     private static final int HTU21D_REG_RESET        = 0xFE;
 
     private static final int HTU21D_RESOLUTION_MASK = 0b10000001;
+    private static final int HTU21D_USER_RESERVED_MASK = 0b00111000;
+
+    // Maximum conversion times per mode, see datasheet page 3
+    private static final int[] TEMP_CONVERSION_US = {50000, 13000, 25000, 7000};
+    private static final int[] HUM_CONVERSION_US = {16000, 3000, 5000, 8000};
+    // The sensor only draws more than its idle current while converting
+    private static final int ENERGY_STATE_IDLE = 0;
 
-    private I2cDevice mDevice;
     private final byte[] mBuffer = new byte[3]; // for reading sensor values
     private int mSensorResolution;
+    private RollingStatistics mTemperatureStatistics;
+    private RollingStatistics mHumidityStatistics;
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({MODE_12_14, MODE_8_12, MODE_10_13, MODE_11_11})
@@ -92,10 +130,29 @@ public class Htu21d implements AutoCloseable {
      * @throws IOException if device cannot be opened
      */
     public Htu21d(final String bus, final int address) throws IOException {
-        final PeripheralManagerService pioService = new PeripheralManagerService();
-        final I2cDevice device = pioService.openI2cDevice(bus, address);
+        this(I2cRegisterBus.open(bus, address));
+    }
+
+    /**
+     * Create a new HTU21D sensor driver connected to the given register bus.
+     * @param bus register bus of the sensor.
+     * @throws IOException if device cannot be opened
+     */
+    public Htu21d(final RegisterBus bus) throws IOException {
+        this(bus, Clock.ELAPSED_REALTIME);
+    }
+
+    /**
+     * Create a new HTU21D sensor driver connected to the given register bus.
+     * @param bus register bus of the sensor.
+     * @param clock time source of the sample timestamps and energy meter, e.g.
+     *              {@link Clock#SYSTEM} or a virtual clock in unit tests.
+     * @throws IOException if device cannot be opened
+     */
+    public Htu21d(final RegisterBus bus, final Clock clock) throws IOException {
+        super(bus, clock);
         try {
-            connect(device);
+            connect();
         } catch (IOException e) {
             try {
                 close();
@@ -107,37 +164,34 @@ public class Htu21d implements AutoCloseable {
     }
 
     /**
-     * Create a new HTU21D sensor driver connected to the given I2c device.
+     * Create a new HTU21D sensor driver connected to the given I2c device, timing with
+     * {@link Clock#SYSTEM}.
      * @param device I2C device of the sensor.
      * @throws IOException if device cannot be opened
      */
     /*package*/ Htu21d(final I2cDevice device) throws IOException {
-        connect(device);
+        this(device, Clock.SYSTEM);
     }
 
-    private void connect(final I2cDevice device) throws IOException {
-        mDevice = device;
+    /**
+     * Create a new HTU21D sensor driver connected to the given I2c device.
+     * @param device I2C device of the sensor.
+     * @param clock time source of the sample timestamps and energy meter.
+     * @throws IOException if device cannot be opened
+     */
+    /*package*/ Htu21d(final I2cDevice device, final Clock clock) throws IOException {
+        this(new I2cRegisterBus(device), clock);
+    }
+
+    private void connect() throws IOException {
+        final RegisterBus bus = getBus();
 
         // Read current resolution of the sensors.
-        mSensorResolution = mDevice.readRegByte(HTU21D_REG_USER_READ) & HTU21D_RESOLUTION_MASK;
+        mSensorResolution = bus.readRegByte(HTU21D_REG_USER_READ) & HTU21D_RESOLUTION_MASK;
 
         // Issue a soft reset
-        mDevice.writeRegByte(HTU21D_REG_RESET, (byte) 1);
-    }
-
-    /**
-     * Close the driver and the underlying device.
-     * @throws IOException if device cannot be closed
-     */
-    @Override
-    public void close() throws IOException {
-        if (mDevice != null) {
-            try {
-                mDevice.close();
-            } finally {
-                mDevice = null;
-            }
-        }
+        bus.writeRegByte(HTU21D_REG_RESET, (byte) 1);
+        getEnergyMeter().setState(ENERGY_STATE_IDLE, MAX_POWER_CONSUMPTION_SLEEP_UA);
     }
 
     /**
@@ -148,6 +202,27 @@ public class Htu21d implements AutoCloseable {
         return mSensorResolution;
     }
 
+    /**
+     * Returns the maximum conversion time of a measurement, in microseconds.
+     * @param mode resolution mode.
+     * @param humidity true for a humidity measurement, false for temperature.
+     */
+    public static int getConversionTimeUs(@Mode int mode, boolean humidity) {
+        return humidity ? HUM_CONVERSION_US[mode] : TEMP_CONVERSION_US[mode];
+    }
+
+    /**
+     * Returns the estimated supply current when reading temperature and humidity at a given rate,
+     * in micro-amperes.
+     * @param mode resolution mode.
+     * @param rateHz number of temperature and humidity pairs read per second.
+     */
+    public static float getSupplyCurrentUa(@Mode int mode, float rateHz) {
+        final float activeSeconds = (getConversionTimeUs(mode, false) + getConversionTimeUs(mode, true)) * 1e-6f;
+        return MAX_POWER_CONSUMPTION_SLEEP_UA
+                + Math.min(1f, rateHz * activeSeconds) * (MAX_POWER_CONSUMPTION_UA - MAX_POWER_CONSUMPTION_SLEEP_UA);
+    }
+
     /**
      * Read the current temperature while holding the master.
      * @return the measured temperature in degrees Celsius
@@ -168,13 +243,19 @@ public class Htu21d implements AutoCloseable {
     public float readTemperature(final boolean hold) throws IOException, IllegalStateException {
         int rawTemp;
 
+        final SampleTiming timing = getSampleTiming();
+        final long start = timing.begin();
         if (hold) {
             rawTemp = readSampleWithHold(HTU21D_REG_TEMP_HOLD);
         } else {
             rawTemp = readSampleWithoutHold(HTU21D_REG_TEMP_NO_HOLD);
         }
+        final long timestamp = SampleTiming.midpoint(start, timing.end(start));
+        addConversion(false);
 
-        return compensateTemperature(rawTemp);
+        final float temperature = compensateTemperature(rawTemp);
+        addToStatistics(mTemperatureStatistics, timestamp, temperature);
+        return temperature;
     }
 
     /**
@@ -197,13 +278,19 @@ public class Htu21d implements AutoCloseable {
     public float readHumidity(final boolean hold) throws IOException, IllegalStateException {
         int rawHum;
 
+        final SampleTiming timing = getSampleTiming();
+        final long start = timing.begin();
         if (hold) {
             rawHum = readSampleWithHold(HTU21D_REG_HUM_HOLD);
         } else {
             rawHum = readSampleWithoutHold(HTU21D_REG_HUM_NO_HOLD);
         }
+        final long timestamp = SampleTiming.midpoint(start, timing.end(start));
+        addConversion(true);
 
-        return compensateHumidity(rawHum);
+        final float humidity = compensateHumidity(rawHum);
+        addToStatistics(mHumidityStatistics, timestamp, humidity);
+        return humidity;
     }
 
     /**
@@ -226,11 +313,28 @@ public class Htu21d implements AutoCloseable {
      * @throws IllegalStateException if bus is not open
      */
     public float[] readTemperatureAndHumidity(final boolean hold) throws IOException, IllegalStateException {
+        return readTemperatureAndHumidity(hold, null);
+    }
+
+    /**
+     * Read the current temperature and humidity, and when they were read.
+     * @param hold will hold the I2C master while processing the result
+     * @param timestamps array receiving the time right before and right after the bus
+     *                   transactions in its first two elements, on the driver's clock, or null.
+     * @return a 2-element array. The first element is temperature in degrees Celsius, and the
+     * second is relative humidity in %.
+     * @throws IOException if read fails
+     * @throws IllegalStateException if bus is not open
+     */
+    public float[] readTemperatureAndHumidity(final boolean hold, final long[] timestamps)
+            throws IOException, IllegalStateException {
         int rawTemp;
         int rawHumidity;
         float temperature;
         float humidity;
 
+        final SampleTiming timing = getSampleTiming();
+        final long start = timing.begin();
         if (hold) {
             rawTemp = readSampleWithHold(HTU21D_REG_TEMP_HOLD);
             temperature = compensateTemperature(rawTemp);
@@ -242,10 +346,44 @@ public class Htu21d implements AutoCloseable {
             rawHumidity = readSampleWithHold(HTU21D_REG_HUM_NO_HOLD);
             humidity = compensateHumidity(rawHumidity);
         }
-
+        final long end = timing.end(start);
+        putTimestamps(timestamps, start, end);
+        addConversion(false);
+        addConversion(true);
+
+        final long timestamp = SampleTiming.midpoint(start, end);
+        addToStatistics(mTemperatureStatistics, timestamp, temperature);
+        addToStatistics(mHumidityStatistics, timestamp, humidity);
         return new float[]{temperature, humidity};
     }
 
+    /**
+     * Collect rolling statistics of every temperature read from now on.
+     * @param statistics statistics in degrees Celsius, or null to stop collecting.
+     */
+    public void setTemperatureStatistics(RollingStatistics statistics) {
+        mTemperatureStatistics = statistics;
+    }
+
+    /**
+     * Collect rolling statistics of every humidity read from now on.
+     * @param statistics statistics in %rH, or null to stop collecting.
+     */
+    public void setHumidityStatistics(RollingStatistics statistics) {
+        mHumidityStatistics = statistics;
+    }
+
+    /**
+     * Record the conversion of a measurement just read with the energy meter.
+     * @param humidity true for a humidity measurement, false for temperature.
+     */
+    private void addConversion(boolean humidity) {
+        // The mode bits are 7 and 0 of the user register
+        final int mode = ((mSensorResolution >> 6) & 0b10) | (mSensorResolution & 0b01);
+        getEnergyMeter().addTransaction(getConversionTimeUs(mode, humidity) * 1000L,
+                MAX_POWER_CONSUMPTION_UA - MAX_POWER_CONSUMPTION_SLEEP_UA);
+    }
+
     /**
      * Reads a 14 bit sample while holding the master. See datasheet page 11
      * @param address location of address to read
@@ -254,13 +392,9 @@ public class Htu21d implements AutoCloseable {
      * @throws IllegalStateException if bus is not open
      */
     private int readSampleWithHold(final int address) throws IOException, IllegalStateException {
-        if (mDevice == null) {
-            throw new IllegalStateException("I2C device not open");
-        }
-
         synchronized (mBuffer) {
             try {
-                mDevice.readRegBuffer(address, mBuffer, 3);
+                getBus().readRegBuffer(address, mBuffer, 3);
             } catch (IOException e) {
                 // NACK can occur after 2nd byte to omit crc. See datasheet page 12
                 return ((mBuffer[0] & 0xff) << 8) | (mBuffer[1] & 0xfc);
@@ -285,15 +419,12 @@ public class Htu21d implements AutoCloseable {
      * @throws IllegalStateException if bus is not open
      */
     private int readSampleWithoutHold(final int address) throws IOException, IllegalStateException {
-        if (mDevice == null) {
-            throw new IllegalStateException("I2C device not open");
-        }
-
+        final RegisterBus bus = getBus();
         synchronized (mBuffer) {
-            mDevice.write(new byte[]{(byte) address}, 1);
+            bus.write(new byte[]{(byte) address}, 1);
             for (int i = 0; i < 50; i++) {
                 try {
-                    mDevice.read(mBuffer, 2);
+                    bus.read(mBuffer, 2);
                     // msb[7:0] lsb[7:2]
                     final int msb = mBuffer[0] & 0xff;
                     final int lsb = mBuffer[1] & 0xfc; // last 2 bits are status
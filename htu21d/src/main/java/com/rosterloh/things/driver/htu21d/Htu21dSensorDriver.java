@@ -1,11 +1,14 @@
 package com.rosterloh.things.driver.htu21d;
 
 import android.hardware.Sensor;
+import android.support.annotation.VisibleForTesting;
 
 import com.google.android.things.userdriver.UserDriverManager;
 import com.google.android.things.userdriver.UserSensor;
 import com.google.android.things.userdriver.UserSensorDriver;
 import com.google.android.things.userdriver.UserSensorReading;
+import com.rosterloh.things.driver.core.Deadband;
+import com.rosterloh.things.driver.core.DeadbandChannel;
 
 import java.io.IOException;
 import java.util.UUID;
@@ -21,6 +24,18 @@ public class Htu21dSensorDriver implements AutoCloseable {
 
     private TemperatureUserDriver mTemperatureUserDriver;
     private HumidityUserDriver mHumidityUserDriver;
+    private final Measurement mTemperature = new Measurement() {
+        @Override
+        public float readValue() throws IOException {
+            return mDevice.readTemperature();
+        }
+    };
+    private final Measurement mHumidity = new Measurement() {
+        @Override
+        public float readValue() throws IOException {
+            return mDevice.readHumidity();
+        }
+    };
 
     /**
      * Create a new framework sensor driver connected on the given bus.
@@ -49,6 +64,11 @@ public class Htu21dSensorDriver implements AutoCloseable {
         mDevice = new Htu21d(bus, address);
     }
 
+    @VisibleForTesting
+    Htu21dSensorDriver(Htu21d device) {
+        mDevice = device;
+    }
+
     /**
      * Close the driver and the underlying device.
      * @throws IOException if device cannot be closed
@@ -92,6 +112,20 @@ public class Htu21dSensorDriver implements AutoCloseable {
         }
     }
 
+    /**
+     * Filter temperature readings through a deadband.
+     * @param deadband change-only filter, or null to report every reading.
+     * @see DeadbandChannel#setDeadband(Deadband)
+     */
+    public void setTemperatureDeadband(Deadband deadband) {
+        mTemperature.setDeadband(deadband);
+    }
+
+    @VisibleForTesting
+    Measurement getTemperature() {
+        return mTemperature;
+    }
+
     /**
      * Unregister the temperature {@link UserSensor}.
      */
@@ -101,6 +135,20 @@ public class Htu21dSensorDriver implements AutoCloseable {
         }
     }
 
+    /**
+     * Filter humidity readings through a deadband.
+     * @param deadband change-only filter, or null to report every reading.
+     * @see DeadbandChannel#setDeadband(Deadband)
+     */
+    public void setHumidityDeadband(Deadband deadband) {
+        mHumidity.setDeadband(deadband);
+    }
+
+    @VisibleForTesting
+    Measurement getHumidity() {
+        return mHumidity;
+    }
+
     /**
      * Unregister the humidity {@link UserSensor}.
      */
@@ -121,7 +169,6 @@ public class Htu21dSensorDriver implements AutoCloseable {
         private static final String DRIVER_REQUIRED_PERMISSION = "";
         private static final int DRIVER_MAX_DELAY_US = 0;
 
-        private boolean mEnabled;
         private UserSensor mUserSensor;
 
         private UserSensor getUserSensor() {
@@ -146,16 +193,12 @@ public class Htu21dSensorDriver implements AutoCloseable {
 
         @Override
         public UserSensorReading read() throws IOException {
-            return new UserSensorReading(new float[]{mDevice.readTemperature()});
+            return new UserSensorReading(new float[]{mTemperature.read()});
         }
 
         @Override
         public void setEnabled(final boolean enabled) throws IOException {
-            mEnabled = enabled;
-        }
-
-        private boolean isEnabled() {
-            return mEnabled;
+            mTemperature.setEnabled(enabled);
         }
     }
 
@@ -170,7 +213,6 @@ public class Htu21dSensorDriver implements AutoCloseable {
         private static final String DRIVER_REQUIRED_PERMISSION = "";
         private static final int DRIVER_MAX_DELAY_US = 0;
 
-        private boolean mEnabled;
         private UserSensor mUserSensor;
 
         private UserSensor getUserSensor() {
@@ -195,16 +237,32 @@ public class Htu21dSensorDriver implements AutoCloseable {
 
         @Override
         public UserSensorReading read() throws IOException {
-            return new UserSensorReading(new float[]{mDevice.readHumidity()});
+            return new UserSensorReading(new float[]{mHumidity.read()});
         }
 
         @Override
         public void setEnabled(final boolean enabled) throws IOException {
-            mEnabled = enabled;
+            mHumidity.setEnabled(enabled);
+        }
+    }
+
+    /**
+     * One measurement of the device, reported through a {@link DeadbandChannel}.
+     */
+    @VisibleForTesting
+    abstract class Measurement implements Deadband.Source {
+        private final DeadbandChannel mChannel = new DeadbandChannel();
+
+        void setDeadband(Deadband deadband) {
+            mChannel.setDeadband(deadband);
+        }
+
+        float read() throws IOException {
+            return mChannel.read(this);
         }
 
-        private boolean isEnabled() {
-            return mEnabled;
+        void setEnabled(boolean enabled) {
+            mChannel.setEnabled(enabled);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,63 @@
+package com.rosterloh.things.driver.htu21d;
+
+import com.rosterloh.things.driver.core.Deadband;
+import com.rosterloh.things.driver.testutils.Htu21dEmulator;
+import com.rosterloh.things.driver.testutils.VirtualClock;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+public class Htu21dSensorDriverTest {
+
+    // 30.02 degrees and 44.85 %RH
+    private static final int RAW_TEMPERATURE = 28671;
+    private static final int RAW_HUMIDITY = 26662;
+
+    private final VirtualClock mClock = new VirtualClock();
+    private final Htu21dEmulator mEmulator = new Htu21dEmulator(mClock);
+    private Htu21dSensorDriver mDriver;
+
+    @Before
+    public void setUp() throws IOException {
+        mEmulator.setRawSamples(RAW_TEMPERATURE, RAW_HUMIDITY);
+        mDriver = new Htu21dSensorDriver(new Htu21d(mEmulator, mClock));
+        // Wait out the soft reset issued on connect
+        mClock.advanceMillis(15);
+    }
+
+    @Test
+    public void readInsideDeadbandRepeatsLastReportUntilHeartbeat() throws IOException {
+        final Deadband deadband = Deadband.absolute(1f, TimeUnit.SECONDS.toNanos(1));
+        deadband.setClock(mClock);
+        mDriver.setHumidityDeadband(deadband);
+        final Htu21dSensorDriver.Measurement humidity = mDriver.getHumidity();
+        humidity.setEnabled(true);
+
+        final float reported = humidity.read();
+        Assert.assertEquals(44.85f, reported, 0.05f);
+        // About a tenth of a percent more: suppressed, then sent as the heartbeat
+        mEmulator.setRawSamples(RAW_TEMPERATURE, RAW_HUMIDITY + 64);
+        Assert.assertEquals(reported, humidity.read(), 0);
+        mClock.advanceMillis(1000);
+        final float heartbeat = humidity.read();
+        Assert.assertTrue(heartbeat > reported);
+        Assert.assertEquals(1, deadband.getSuppressedCount());
+        Assert.assertEquals(1, deadband.getHeartbeatCount());
+    }
+
+    @Test
+    public void readAfterDisableDoesNotTouchDevice() throws IOException {
+        mDriver.setTemperatureDeadband(Deadband.absolute(0.5f, Long.MAX_VALUE));
+        final Htu21dSensorDriver.Measurement temperature = mDriver.getTemperature();
+        temperature.setEnabled(true);
+        final float reported = temperature.read();
+
+        temperature.setEnabled(false);
+        final long conversions = mEmulator.getConversionCount();
+        Assert.assertEquals(reported, temperature.read(), 0);
+        Assert.assertEquals(conversions, mEmulator.getConversionCount());
+    }
+}
@@ -2,6 +2,11 @@ package com.rosterloh.things.driver.htu21d;
 
 import com.google.android.things.pio.I2cDevice;
 
+import com.rosterloh.things.driver.core.BusDiscovery;
+import com.rosterloh.things.driver.core.EnergyMeter;
+import com.rosterloh.things.driver.core.RegisterBus;
+import com.rosterloh.things.driver.testutils.Htu21dEmulator;
+import com.rosterloh.things.driver.testutils.VirtualClock;
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
@@ -143,4 +148,66 @@ public class Htu21dTest {
         mExpectedException.expectMessage("not open");
         htu21d.readTemperatureAndHumidity();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void readFromEmulator() throws IOException {
+        VirtualClock clock = new VirtualClock();
+        Htu21dEmulator emulator = new Htu21dEmulator(clock);
+        emulator.setRawSamples(RAW_TEMPERATURE, RAW_HUMIDITY);
+        Htu21d htu21d = new Htu21d(emulator, clock);
+        // Wait out the soft reset issued on connect
+        clock.advanceMillis(15);
+
+        final long start = clock.nanoTime();
+        final float temperature = htu21d.readTemperature();
+        Assert.assertEquals(EXPECTED_TEMPERATURE, temperature, EXPECTED_TEMPERATURE * TOLERANCE);
+        // The hold master read stretches the clock for the whole 14 bit conversion
+        Assert.assertTrue(clock.nanoTime() - start >= emulator.getConversionTimeNanos(false));
+        final float humidity = htu21d.readHumidity();
+        Assert.assertEquals(EXPECTED_HUMIDITY, humidity, EXPECTED_HUMIDITY * TOLERANCE);
+    }
+
+    @Test
+    public void metersConversions() throws IOException {
+        VirtualClock clock = new VirtualClock();
+        Htu21dEmulator emulator = new Htu21dEmulator(clock);
+        Htu21d htu21d = new Htu21d(emulator, clock);
+        EnergyMeter meter = htu21d.getEnergyMeter();
+        clock.advanceMillis(15);
+        htu21d.readTemperatureAndHumidity();
+        Assert.assertEquals(2, meter.getTransactionCount());
+        Assert.assertEquals(emulator.getConversionTimeNanos(false) + emulator.getConversionTimeNanos(true),
+                meter.getTransactionNanos());
+        Assert.assertEquals(Htu21d.MAX_POWER_CONSUMPTION_SLEEP_UA, meter.getStateCurrentUa(), 0);
+        // One pair a second at the 66 ms of the default 12/14 bit mode
+        Assert.assertEquals(0.14f + 0.066f * (500f - 0.14f), Htu21d.getSupplyCurrentUa(Htu21d.MODE_12_14, 1f), 1e-3f);
+    }
+
+    @Test
+    public void discoveredOnEmulator() throws IOException {
+        VirtualClock clock = new VirtualClock();
+        Htu21dEmulator emulator = new Htu21dEmulator(clock);
+        emulator.setRawSamples(RAW_TEMPERATURE, RAW_HUMIDITY);
+        BusDiscovery discovery = new BusDiscovery((bus, address) -> emulator, clock);
+        discovery.add(Htu21d.DISCOVERY);
+
+        Assert.assertEquals(Htu21d.DEFAULT_I2C_ADDRESS, discovery.scan("I2C1").get(0).getAddress());
+        final Htu21d htu21d = discovery.open("I2C1", Htu21d.DISCOVERY);
+        clock.advanceMillis(15);
+        Assert.assertEquals(EXPECTED_TEMPERATURE, htu21d.readTemperature(), EXPECTED_TEMPERATURE * TOLERANCE);
+    }
+
+    @Test
+    public void discoveryChecksReservedUserBits() throws IOException {
+        final RegisterBus other = Mockito.mock(RegisterBus.class);
+        BusDiscovery discovery = new BusDiscovery((bus, address) -> other, new VirtualClock());
+        discovery.add(Htu21d.DISCOVERY);
+
+        // Some other device at 0x40 acknowledging the user register read
+        Mockito.when(other.readRegByte(0xE7)).thenReturn((byte) 0x5C);
+        Assert.assertTrue(discovery.scan("I2C1").isEmpty());
+        // An Si7021 after reset
+        Mockito.when(other.readRegByte(0xE7)).thenReturn((byte) 0x3A);
+        Assert.assertEquals(0x3A, discovery.scan("I2C2").get(0).getIdentity());
+    }
+}
@@ -0,0 +1,243 @@
+package com.rosterloh.things.driver.testutils;
+
+import com.rosterloh.things.driver.core.Clock;
+
+/**
+ * Register map emulator of a Bosch BMP280/BME280.
+ *
+ * <p>Holds the chip id and calibration words, and latches the configured raw samples into the
+ * data registers once a conversion has had time to complete after the sensor is taken out of
+ * sleep. Conversion time follows the maximum measurement time in the datasheet (section 9.1) for
+ * the configured oversampling, and the status register reports measuring while it runs. Data
+ * registers read back their reset value (0x80000) until the first conversion completes.
+ */
+public class Bmx280Emulator extends RegisterMapEmulator {
+
+    /**
+     * Chip id of a BMP280.
+     */
+    public static final int CHIP_ID_BMP280 = 0x58;
+    /**
+     * Chip id of a BME280.
+     */
+    public static final int CHIP_ID_BME280 = 0x60;
+
+    private static final int REG_TEMP_CALIB = 0x88;
+    private static final int REG_PRESS_CALIB = 0x8E;
+    private static final int REG_HUM_CALIB_1 = 0xA1;
+    private static final int REG_HUM_CALIB_2 = 0xE1;
+    private static final int REG_ID = 0xD0;
+    private static final int REG_CTRL_HUM = 0xF2;
+    private static final int REG_STATUS = 0xF3;
+    private static final int REG_CTRL = 0xF4;
+    private static final int REG_CONFIG = 0xF5;
+    private static final int REG_PRESS = 0xF7;
+    private static final int REG_TEMP = 0xFA;
+    private static final int REG_HUM = 0xFD;
+
+    private static final int STATUS_MEASURING = 0b00001000;
+    private static final int RESET_SAMPLE = 0x80000;
+    private static final int RESET_HUMIDITY = 0x8000;
+    // Standby time of the default config register, 0.5 ms
+    private static final long STANDBY_NANOS = 500000L;
+
+    private final int mChipId;
+    private int mRawTemperature = 519888;
+    private int mRawPressure = 415148;
+    private int mRawHumidity = 34345;
+    private long mConversionStart = -1;
+    private long mConversionNanos;
+    private boolean mContinuous;
+    private long mConversionCount;
+
+    /**
+     * Create a BME280 emulator on a virtual clock with the calibration and samples of the
+     * datasheet compensation example.
+     */
+    public Bmx280Emulator() {
+        this(CHIP_ID_BME280, new VirtualClock());
+    }
+
+    /**
+     * Create an emulator with the calibration of the datasheet compensation example.
+     * @param chipId {@link #CHIP_ID_BMP280} or {@link #CHIP_ID_BME280}.
+     * @param clock time source.
+     */
+    public Bmx280Emulator(int chipId, Clock clock) {
+        super("I2C-BMX280", clock);
+        mChipId = chipId;
+        setRegister(REG_ID, chipId);
+        setCalibration(new int[]{27504, 26435, -1000},
+                new int[]{36477, -10685, 3024, 2855, 140, -7, 15500, -14600, 6000},
+                new int[]{75, 356, 0, 333, 0, 30});
+        setSample(REG_TEMP, RESET_SAMPLE);
+        setSample(REG_PRESS, RESET_SAMPLE);
+        setRegister(REG_HUM, RESET_HUMIDITY >> 8);
+    }
+
+    /**
+     * Load the calibration words in the layout of the sensor's NVM.
+     * @param temperature dig_T1 to dig_T3.
+     * @param pressure dig_P1 to dig_P9.
+     * @param humidity dig_H1 to dig_H6.
+     */
+    public final synchronized void setCalibration(int[] temperature, int[] pressure, int[] humidity) {
+        for (int i = 0; i < 3; i++) {
+            setWord(REG_TEMP_CALIB + 2 * i, temperature[i]);
+        }
+        for (int i = 0; i < 9; i++) {
+            setWord(REG_PRESS_CALIB + 2 * i, pressure[i]);
+        }
+        setRegister(REG_HUM_CALIB_1, humidity[0]);
+        setWord(REG_HUM_CALIB_2, humidity[1]);
+        setRegister(REG_HUM_CALIB_2 + 2, humidity[2]);
+        // dig_H4 and dig_H5 are 12 bits sharing the nibbles of 0xE5
+        setRegister(REG_HUM_CALIB_2 + 3, humidity[3] >> 4);
+        setRegister(REG_HUM_CALIB_2 + 4, ((humidity[4] & 0xf) << 4) | (humidity[3] & 0xf));
+        setRegister(REG_HUM_CALIB_2 + 5, humidity[4] >> 4);
+        setRegister(REG_HUM_CALIB_2 + 6, humidity[5]);
+    }
+
+    /**
+     * Set the raw ADC values produced by the following conversions.
+     * @param temperature 20 bit raw temperature.
+     * @param pressure 20 bit raw pressure.
+     * @param humidity 16 bit raw humidity, ignored on a BMP280.
+     */
+    public synchronized void setRawSamples(int temperature, int pressure, int humidity) {
+        mRawTemperature = temperature;
+        mRawPressure = pressure;
+        mRawHumidity = humidity;
+    }
+
+    /**
+     * Returns the number of conversions completed and latched into the data registers.
+     */
+    public synchronized long getConversionCount() {
+        updateConversion();
+        return mConversionCount;
+    }
+
+    /**
+     * Returns the maximum measurement time in nanoseconds for the given oversampling settings,
+     * with each setting in the encoding of the control registers (0 skipped, 1 to 5 for 1x to
+     * 16x).
+     * @param temperature temperature oversampling.
+     * @param pressure pressure oversampling.
+     * @param humidity humidity oversampling.
+     */
+    public static long getMeasurementTimeNanos(int temperature, int pressure, int humidity) {
+        // t_measure,max = 1.25 + 2.3 * T + (2.3 * P + 0.575) + (2.3 * H + 0.575) ms
+        long micros = 1250;
+        if (temperature > 0) {
+            micros += 2300L * oversamplingRatio(temperature);
+        }
+        if (pressure > 0) {
+            micros += 2300L * oversamplingRatio(pressure) + 575;
+        }
+        if (humidity > 0) {
+            micros += 2300L * oversamplingRatio(humidity) + 575;
+        }
+        return micros * 1000;
+    }
+
+    @Override
+    protected byte readRegister(int reg) {
+        updateConversion();
+        if (reg == REG_STATUS) {
+            return (byte) (isMeasuring() ? STATUS_MEASURING : 0);
+        }
+        return getRegister(reg);
+    }
+
+    @Override
+    protected void writeRegister(int reg, byte value) {
+        switch (reg) {
+            case REG_CTRL:
+                updateConversion();
+                setRegister(reg, value);
+                startConversion(value & 0b11);
+                break;
+            case REG_CTRL_HUM:
+                // Only takes effect after the next write to ctrl_meas, as on the real part
+                setRegister(reg, value & 0b111);
+                break;
+            case REG_CONFIG:
+                // Writes in normal mode may be ignored by the real part, so they always are here
+                if ((getRegister(REG_CTRL) & 0b11) == 0) {
+                    setRegister(reg, value);
+                }
+                break;
+            default:
+                // calibration, id and data registers are read only
+                break;
+        }
+    }
+
+    private void startConversion(int mode) {
+        if (mode == 0) {
+            mConversionStart = -1;
+            mContinuous = false;
+            return;
+        }
+        final int ctrl = getRegister(REG_CTRL) & 0xff;
+        final int humidity = mChipId == CHIP_ID_BME280 ? getRegister(REG_CTRL_HUM) & 0b111 : 0;
+        mConversionNanos = getMeasurementTimeNanos(ctrl >> 5, (ctrl >> 2) & 0b111, humidity);
+        mContinuous = mode == 0b11;
+        mConversionStart = now();
+    }
+
+    private boolean isMeasuring() {
+        return mConversionStart >= 0 && now() - mConversionStart < mConversionNanos;
+    }
+
+    private void updateConversion() {
+        if (mConversionStart < 0) {
+            return;
+        }
+        final long elapsed = now() - mConversionStart;
+        if (elapsed < mConversionNanos) {
+            return;
+        }
+        latchSamples();
+        if (mContinuous) {
+            // Skip whole cycles so a long idle period does not replay every conversion
+            final long cycle = mConversionNanos + STANDBY_NANOS;
+            final long cycles = 1 + (elapsed - mConversionNanos) / cycle;
+            mConversionCount += cycles;
+            mConversionStart += cycles * cycle;
+        } else {
+            mConversionCount++;
+            mConversionStart = -1;
+            // Forced mode returns to sleep when done
+            setRegister(REG_CTRL, getRegister(REG_CTRL) & ~0b11);
+        }
+    }
+
+    private void latchSamples() {
+        final int ctrl = getRegister(REG_CTRL) & 0xff;
+        setSample(REG_TEMP, (ctrl >> 5) != 0 ? mRawTemperature : RESET_SAMPLE);
+        setSample(REG_PRESS, ((ctrl >> 2) & 0b111) != 0 ? mRawPressure : RESET_SAMPLE);
+        if (mChipId == CHIP_ID_BME280) {
+            final int humidity = (getRegister(REG_CTRL_HUM) & 0b111) != 0 ? mRawHumidity : RESET_HUMIDITY;
+            setRegister(REG_HUM, humidity >> 8);
+            setRegister(REG_HUM + 1, humidity);
+        }
+    }
+
+    private void setSample(int reg, int value) {
+        // msb[7:0] lsb[7:0] xlsb[7:4]
+        setRegister(reg, value >> 12);
+        setRegister(reg + 1, value >> 4);
+        setRegister(reg + 2, (value & 0xf) << 4);
+    }
+
+    private void setWord(int reg, int value) {
+        setRegister(reg, value);
+        setRegister(reg + 1, value >> 8);
+    }
+
+    private static int oversamplingRatio(int setting) {
+        return 1 << (Math.min(setting, 5) - 1);
+    }
+}
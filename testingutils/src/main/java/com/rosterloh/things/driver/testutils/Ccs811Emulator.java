@@ -0,0 +1,269 @@
+package com.rosterloh.things.driver.testutils;
+
+import com.rosterloh.things.driver.core.Clock;
+
+import java.io.IOException;
+
+/**
+ * Mailbox emulator of an ams CCS811.
+ *
+ * <p>Boots into the boot loader with a valid application, moves to application mode on
+ * APP_START and produces a result every drive mode period from then on. The data ready status
+ * bit clears when ALG_RESULT_DATA is read. The nINT pin is modelled by
+ * {@link #isInterruptAsserted()} following the interrupt bits of MEAS_MODE and the thresholds
+ * written to THRESHOLDS.
+ */
+public class Ccs811Emulator extends RegisterMapEmulator {
+
+    private static final int MB_STATUS = 0x00;
+    private static final int MB_MEAS_MODE = 0x01;
+    private static final int MB_ALG_RESULT_DATA = 0x02;
+    private static final int MB_RAW_DATA = 0x03;
+    private static final int MB_THRESHOLDS = 0x10;
+    private static final int MB_HW_ID = 0x20;
+    private static final int MB_HW_VERSION = 0x21;
+    private static final int MB_FW_BOOT_VERSION = 0x23;
+    private static final int MB_FW_APP_VERSION = 0x24;
+    private static final int MB_ERROR_ID = 0xE0;
+    private static final int MB_APP_START = 0xF4;
+    private static final int MB_SW_RESET = 0xFF;
+
+    private static final int HW_ID = 0x81;
+    private static final int HW_VERSION = 0x12;
+    private static final int STATUS_ERROR = 0b00000001;
+    private static final int STATUS_DATA_READY = 0b00001000;
+    private static final int STATUS_APP_VALID = 0b00010000;
+    private static final int STATUS_FW_MODE = 0b10000000;
+    private static final int ERROR_WRITE_REG_INVALID = 0b00000001;
+    private static final int ERROR_READ_REG_INVALID = 0b00000010;
+    private static final int MEAS_MODE_INT_THRESH = 0b00000100;
+    private static final int MEAS_MODE_INT_DATARDY = 0b00001000;
+    private static final byte[] RESET_SEQUENCE = {0x11, (byte) 0xE5, 0x72, (byte) 0x8A};
+    private static final long[] PERIOD_MILLIS = {0, 1000, 10000, 60000, 250};
+
+    private final boolean mAppValid;
+    private boolean mAppMode;
+    private int mMeasMode;
+    private int mErrorId;
+    private boolean mDataReady;
+    private boolean mThresholdCrossed;
+    private long mNextResult;
+    private long mResultCount;
+    private int mECO2 = 400;
+    private int mTVOC;
+    private int mLastECO2 = 400;
+    private int mThresholdLowMedium = 1500;
+    private int mThresholdMediumHigh = 2500;
+    private int mThresholdHysteresis = 50;
+
+    /**
+     * Create an emulator with a valid application on a virtual clock.
+     */
+    public Ccs811Emulator() {
+        this(true, new VirtualClock());
+    }
+
+    /**
+     * Create an emulator.
+     * @param appValid whether a valid application is loaded, a driver refuses the device if not.
+     * @param clock time source.
+     */
+    public Ccs811Emulator(boolean appValid, Clock clock) {
+        super("I2C-CCS811", clock);
+        mAppValid = appValid;
+    }
+
+    /**
+     * Set the values reported by the following results.
+     * @param eCO2 equivalent CO2 in ppm.
+     * @param tVOC total VOC in ppb.
+     */
+    public synchronized void setAirQuality(int eCO2, int tVOC) {
+        mECO2 = eCO2;
+        mTVOC = tVOC;
+    }
+
+    /**
+     * Returns the number of results produced since application start.
+     */
+    public synchronized long getResultCount() {
+        updateResults();
+        return mResultCount;
+    }
+
+    /**
+     * Returns true while the open drain nINT pin is pulled low.
+     */
+    public synchronized boolean isInterruptAsserted() {
+        updateResults();
+        if ((mMeasMode & MEAS_MODE_INT_DATARDY) == 0 || !mDataReady) {
+            return false;
+        }
+        return (mMeasMode & MEAS_MODE_INT_THRESH) == 0 || mThresholdCrossed;
+    }
+
+    @Override
+    protected byte readRegister(int reg) throws IOException {
+        final byte[] value = new byte[1];
+        readBlock(reg, value, 1);
+        return value[0];
+    }
+
+    @Override
+    protected void writeRegister(int reg, byte value) throws IOException {
+        writeBlock(reg, new byte[]{value}, 1);
+    }
+
+    @Override
+    protected void readBlock(int reg, byte[] buffer, int length) throws IOException {
+        updateResults();
+        switch (reg) {
+            case MB_STATUS:
+                fill(buffer, length, getStatus());
+                break;
+            case MB_MEAS_MODE:
+                fill(buffer, length, mMeasMode);
+                break;
+            case MB_ALG_RESULT_DATA:
+                fill(buffer, length, mECO2 >> 8, mECO2, mTVOC >> 8, mTVOC, getStatus(), mErrorId, 0, 0);
+                mDataReady = false;
+                mThresholdCrossed = false;
+                break;
+            case MB_RAW_DATA:
+                fill(buffer, length, 0, 0);
+                break;
+            case MB_HW_ID:
+                fill(buffer, length, HW_ID);
+                break;
+            case MB_HW_VERSION:
+                fill(buffer, length, HW_VERSION);
+                break;
+            case MB_FW_BOOT_VERSION:
+                fill(buffer, length, 0x10, 0x00);
+                break;
+            case MB_FW_APP_VERSION:
+                fill(buffer, length, 0x11, 0x00);
+                break;
+            case MB_ERROR_ID:
+                fill(buffer, length, mErrorId);
+                mErrorId = 0;
+                break;
+            default:
+                mErrorId |= ERROR_READ_REG_INVALID;
+                fill(buffer, length);
+                break;
+        }
+    }
+
+    @Override
+    protected void writeBlock(int reg, byte[] buffer, int length) throws IOException {
+        updateResults();
+        switch (reg) {
+            case MB_MEAS_MODE:
+                if (!mAppMode) {
+                    mErrorId |= ERROR_WRITE_REG_INVALID;
+                    break;
+                }
+                final int period = (mMeasMode >> 4) & 0b111;
+                mMeasMode = buffer[0] & 0b01111100;
+                if (((mMeasMode >> 4) & 0b111) != period) {
+                    mDataReady = false;
+                    mNextResult = now() + getPeriodNanos();
+                }
+                break;
+            case MB_THRESHOLDS:
+                if (length >= 5) {
+                    mThresholdLowMedium = ((buffer[0] & 0xff) << 8) | (buffer[1] & 0xff);
+                    mThresholdMediumHigh = ((buffer[2] & 0xff) << 8) | (buffer[3] & 0xff);
+                    mThresholdHysteresis = buffer[4] & 0xff;
+                } else {
+                    mErrorId |= ERROR_WRITE_REG_INVALID;
+                }
+                break;
+            case MB_SW_RESET:
+                if (length == RESET_SEQUENCE.length && buffer[0] == RESET_SEQUENCE[0]
+                        && buffer[1] == RESET_SEQUENCE[1] && buffer[2] == RESET_SEQUENCE[2]
+                        && buffer[3] == RESET_SEQUENCE[3]) {
+                    reset();
+                }
+                break;
+            default:
+                mErrorId |= ERROR_WRITE_REG_INVALID;
+                break;
+        }
+    }
+
+    @Override
+    protected void writeRaw(byte[] buffer, int length) throws IOException {
+        if (length == 1 && (buffer[0] & 0xff) == MB_APP_START) {
+            if (!mAppValid) {
+                throw new IOException("NACK: no valid application");
+            }
+            mAppMode = true;
+        } else if (length > 0) {
+            writeBlock(buffer[0] & 0xff, copyPayload(buffer, length), length - 1);
+        }
+    }
+
+    private void reset() {
+        mAppMode = false;
+        mMeasMode = 0;
+        mErrorId = 0;
+        mDataReady = false;
+        mThresholdCrossed = false;
+    }
+
+    private int getStatus() {
+        int status = mAppValid ? STATUS_APP_VALID : 0;
+        if (mAppMode) {
+            status |= STATUS_FW_MODE;
+        }
+        if (mDataReady) {
+            status |= STATUS_DATA_READY;
+        }
+        if (mErrorId != 0) {
+            status |= STATUS_ERROR;
+        }
+        return status;
+    }
+
+    private long getPeriodNanos() {
+        final int mode = (mMeasMode >> 4) & 0b111;
+        return mode < PERIOD_MILLIS.length ? PERIOD_MILLIS[mode] * 1000000L : 0;
+    }
+
+    private void updateResults() {
+        final long period = getPeriodNanos();
+        if (!mAppMode || period == 0 || now() < mNextResult) {
+            return;
+        }
+        final long results = 1 + (now() - mNextResult) / period;
+        mResultCount += results;
+        mNextResult += results * period;
+        mDataReady = true;
+        if (classify(mECO2) != classify(mLastECO2)
+                && Math.abs(mECO2 - mLastECO2) > mThresholdHysteresis) {
+            mThresholdCrossed = true;
+        }
+        mLastECO2 = mECO2;
+    }
+
+    private int classify(int eCO2) {
+        if (eCO2 < mThresholdLowMedium) {
+            return 0;
+        }
+        return eCO2 < mThresholdMediumHigh ? 1 : 2;
+    }
+
+    private static void fill(byte[] buffer, int length, int... values) {
+        for (int i = 0; i < length; i++) {
+            buffer[i] = (byte) (i < values.length ? values[i] : 0);
+        }
+    }
+
+    private static byte[] copyPayload(byte[] buffer, int length) {
+        final byte[] payload = new byte[Math.max(0, length - 1)];
+        System.arraycopy(buffer, 1, payload, 0, payload.length);
+        return payload;
+    }
+}
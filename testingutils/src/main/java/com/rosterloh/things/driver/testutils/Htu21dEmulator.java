@@ -0,0 +1,203 @@
+package com.rosterloh.things.driver.testutils;
+
+import com.rosterloh.things.driver.core.Clock;
+
+import java.io.IOException;
+
+/**
+ * Command emulator of a TE Connectivity HTU21D(F).
+ *
+ * <p>Hold master reads take the conversion time of the configured resolution before they return,
+ * as the device stretches the clock. No hold reads start a conversion on the command write and
+ * NACK every read until it completes. Conversion times are the datasheet maxima. Results carry
+ * the status bits and a CRC-8 checksum.
+ */
+public class Htu21dEmulator extends RegisterMapEmulator {
+
+    private static final int CMD_TEMP_HOLD = 0xE3;
+    private static final int CMD_HUM_HOLD = 0xE5;
+    private static final int CMD_TEMP_NO_HOLD = 0xF3;
+    private static final int CMD_HUM_NO_HOLD = 0xF5;
+    private static final int CMD_USER_WRITE = 0xE6;
+    private static final int CMD_USER_READ = 0xE7;
+    private static final int CMD_RESET = 0xFE;
+
+    // Disable OTP reload is set after reset, see datasheet page 13
+    private static final int USER_REGISTER_DEFAULT = 0b00000010;
+    private static final int USER_REGISTER_RESOLUTION_MASK = 0b10000001;
+    private static final int STATUS_HUMIDITY = 0b10;
+    private static final long RESET_NANOS = 15000000L;
+
+    // Max conversion time in us indexed by resolution mode, see datasheet page 3
+    private static final long[] TEMP_CONVERSION_MICROS = {50000, 13000, 25000, 7000};
+    private static final long[] HUM_CONVERSION_MICROS = {16000, 3000, 5000, 8000};
+
+    private int mUserRegister = USER_REGISTER_DEFAULT;
+    private int mRawTemperature = 26796; // 25 °C
+    private int mRawHumidity = 29360; // 50 %RH
+    private long mBusyUntil = Long.MIN_VALUE;
+    private int mPendingSample = -1;
+    private long mConversionCount;
+
+    /**
+     * Create an emulator on a virtual clock reading 25 °C and 50 %RH.
+     */
+    public Htu21dEmulator() {
+        this(new VirtualClock());
+    }
+
+    /**
+     * Create an emulator reading 25 °C and 50 %RH.
+     * @param clock time source.
+     */
+    public Htu21dEmulator(Clock clock) {
+        super("I2C-HTU21D", clock);
+    }
+
+    /**
+     * Set the raw ADC values produced by the following conversions.
+     * @param temperature 16 bit raw temperature, the two status bits are ignored.
+     * @param humidity 16 bit raw humidity, the two status bits are ignored.
+     */
+    public synchronized void setRawSamples(int temperature, int humidity) {
+        mRawTemperature = temperature & 0xfffc;
+        mRawHumidity = humidity & 0xfffc;
+    }
+
+    /**
+     * Returns the number of conversions started.
+     */
+    public synchronized long getConversionCount() {
+        return mConversionCount;
+    }
+
+    /**
+     * Returns the maximum conversion time in nanoseconds for the current resolution.
+     * @param humidity true for a humidity conversion, false for temperature.
+     */
+    public synchronized long getConversionTimeNanos(boolean humidity) {
+        final int mode = ((mUserRegister >> 6) & 0b10) | (mUserRegister & 0b1);
+        return (humidity ? HUM_CONVERSION_MICROS[mode] : TEMP_CONVERSION_MICROS[mode]) * 1000;
+    }
+
+    @Override
+    protected byte readRegister(int reg) throws IOException {
+        checkNotBusy();
+        if (reg == CMD_USER_READ) {
+            return (byte) mUserRegister;
+        }
+        throw new IOException("NACK: unknown command " + reg);
+    }
+
+    @Override
+    protected void writeRegister(int reg, byte value) throws IOException {
+        checkNotBusy();
+        switch (reg) {
+            case CMD_USER_WRITE:
+                mUserRegister = (mUserRegister & ~USER_REGISTER_RESOLUTION_MASK)
+                        | (value & USER_REGISTER_RESOLUTION_MASK);
+                break;
+            case CMD_RESET:
+                mUserRegister = USER_REGISTER_DEFAULT;
+                mPendingSample = -1;
+                mBusyUntil = now() + RESET_NANOS;
+                break;
+            default:
+                throw new IOException("NACK: unknown command " + reg);
+        }
+    }
+
+    @Override
+    protected void readBlock(int reg, byte[] buffer, int length) throws IOException {
+        checkNotBusy();
+        switch (reg) {
+            case CMD_TEMP_HOLD:
+                mConversionCount++;
+                // Clock stretched for the whole conversion
+                elapse(getConversionTimeNanos(false));
+                fillSample(mRawTemperature, buffer, length);
+                break;
+            case CMD_HUM_HOLD:
+                mConversionCount++;
+                elapse(getConversionTimeNanos(true));
+                fillSample(mRawHumidity | STATUS_HUMIDITY, buffer, length);
+                break;
+            default:
+                super.readBlock(reg, buffer, length);
+                break;
+        }
+    }
+
+    @Override
+    protected void writeRaw(byte[] buffer, int length) throws IOException {
+        if (length == 0) {
+            return;
+        }
+        switch (buffer[0] & 0xff) {
+            case CMD_TEMP_NO_HOLD:
+                checkNotBusy();
+                mConversionCount++;
+                mPendingSample = mRawTemperature;
+                mBusyUntil = now() + getConversionTimeNanos(false);
+                break;
+            case CMD_HUM_NO_HOLD:
+                checkNotBusy();
+                mConversionCount++;
+                mPendingSample = mRawHumidity | STATUS_HUMIDITY;
+                mBusyUntil = now() + getConversionTimeNanos(true);
+                break;
+            default:
+                writeRegister(buffer[0] & 0xff, length > 1 ? buffer[1] : 0);
+                break;
+        }
+    }
+
+    @Override
+    protected void readRaw(byte[] buffer, int length) throws IOException {
+        checkNotBusy();
+        if (mPendingSample < 0) {
+            throw new IOException("NACK: no measurement started");
+        }
+        fillSample(mPendingSample, buffer, length);
+        mPendingSample = -1;
+    }
+
+    /**
+     * Calculates the CRC-8 the device appends to a result, polynomial x^8 + x^5 + x^4 + 1.
+     * @param msb first data byte.
+     * @param lsb second data byte.
+     * @return checksum byte
+     */
+    public static int crc8(int msb, int lsb) {
+        int crc = 0;
+        for (final int data : new int[]{msb, lsb}) {
+            crc ^= data & 0xff;
+            for (int i = 0; i < 8; i++) {
+                crc = (crc & 0x80) != 0 ? (crc << 1) ^ 0x31 : crc << 1;
+            }
+            crc &= 0xff;
+        }
+        return crc;
+    }
+
+    private void fillSample(int sample, byte[] buffer, int length) {
+        final int msb = (sample >> 8) & 0xff;
+        final int lsb = sample & 0xff;
+        if (length > 0) {
+            buffer[0] = (byte) msb;
+        }
+        if (length > 1) {
+            buffer[1] = (byte) lsb;
+        }
+        if (length > 2) {
+            buffer[2] = (byte) crc8(msb, lsb);
+        }
+    }
+
+    private void checkNotBusy() throws IOException {
+        if (now() < mBusyUntil) {
+            // The device does not acknowledge its address while converting
+            throw new IOException("NACK: conversion in progress");
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package com.rosterloh.things.driver.testutils;
+
+import com.rosterloh.things.driver.core.Clock;
+import com.rosterloh.things.driver.core.RegisterBus;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Base class for stateful emulators of register mapped peripherals. Unlike a mock, an emulator
+ * keeps a register map that the driver under test reads back, auto-increments the address on
+ * burst access, charges the time each transaction takes on the bus and can fail transactions on
+ * demand.
+ *
+ * <p>Time comes from a {@link Clock}. With a {@link VirtualClock} the emulator advances it by the
+ * bus and conversion time instead of waiting, so long runs finish quickly; with any other clock
+ * it parks the calling thread for that time, which gives real time behaviour for soak tests.
+ */
+public abstract class RegisterMapEmulator implements RegisterBus {
+
+    /**
+     * Standard mode I2C clock, the default bus speed.
+     */
+    public static final int STANDARD_MODE_HZ = 100000;
+
+    // Address byte plus one bit of ACK per byte
+    private static final int BITS_PER_BYTE = 9;
+
+    private final String mName;
+    private final Clock mClock;
+    private final byte[] mRegisters = new byte[256];
+    private int mBusFrequencyHz = STANDARD_MODE_HZ;
+    private long mTransactionCount;
+    private int mFailAfter = -1;
+    private double mFailureRate;
+    private Random mRandom = new Random(0);
+    private boolean mClosed;
+
+    /**
+     * Create an emulator on the given bus.
+     * @param name bus name reported by {@link #getName()}.
+     * @param clock time source, usually a {@link VirtualClock}.
+     */
+    protected RegisterMapEmulator(String name, Clock clock) {
+        mName = name;
+        mClock = clock;
+    }
+
+    /**
+     * Returns the clock driving this emulator.
+     */
+    public Clock getClock() {
+        return mClock;
+    }
+
+    /**
+     * Set the bus clock used to charge transfer time. 0 makes transfers take no time.
+     * @param hz bus clock frequency
+     */
+    public void setBusFrequency(int hz) {
+        mBusFrequencyHz = hz;
+    }
+
+    /**
+     * Fail a future transaction with an IOException, as a NACK would.
+     * @param transactions number of transactions to let through first
+     */
+    public synchronized void failAfter(int transactions) {
+        mFailAfter = transactions;
+    }
+
+    /**
+     * Fail transactions at random with the given probability.
+     * @param probability probability between 0 and 1 that a transaction fails
+     * @param seed random seed, so failures are repeatable
+     */
+    public synchronized void setFailureRate(double probability, long seed) {
+        mFailureRate = probability;
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Returns the number of transactions seen, including failed ones.
+     */
+    public synchronized long getTransactionCount() {
+        return mTransactionCount;
+    }
+
+    /**
+     * Returns true once the driver has closed the bus.
+     */
+    public boolean isClosed() {
+        return mClosed;
+    }
+
+    @Override
+    public String getName() {
+        return mName;
+    }
+
+    @Override
+    public synchronized byte readRegByte(int reg) throws IOException {
+        beginTransaction(2);
+        return readRegister(reg & 0xff);
+    }
+
+    @Override
+    public synchronized short readRegWord(int reg) throws IOException {
+        beginTransaction(3);
+        final int lsb = readRegister(reg & 0xff) & 0xff;
+        final int msb = readRegister((reg + 1) & 0xff);
+        return (short) ((msb << 8) | lsb);
+    }
+
+    @Override
+    public synchronized void readRegBuffer(int reg, byte[] buffer, int length) throws IOException {
+        beginTransaction(length + 1);
+        readBlock(reg & 0xff, buffer, length);
+    }
+
+    @Override
+    public synchronized void writeRegByte(int reg, byte data) throws IOException {
+        beginTransaction(2);
+        writeRegister(reg & 0xff, data);
+    }
+
+    @Override
+    public synchronized void writeRegWord(int reg, short data) throws IOException {
+        beginTransaction(3);
+        writeRegister(reg & 0xff, (byte) data);
+        writeRegister((reg + 1) & 0xff, (byte) (data >> 8));
+    }
+
+    @Override
+    public synchronized void writeRegBuffer(int reg, byte[] buffer, int length) throws IOException {
+        beginTransaction(length + 1);
+        writeBlock(reg & 0xff, buffer, length);
+    }
+
+    @Override
+    public synchronized void read(byte[] buffer, int length) throws IOException {
+        beginTransaction(length);
+        readRaw(buffer, length);
+    }
+
+    @Override
+    public synchronized void write(byte[] buffer, int length) throws IOException {
+        beginTransaction(length);
+        writeRaw(buffer, length);
+    }
+
+    @Override
+    public synchronized void transfer(byte[] command, int commandLength, byte[] response,
+                                      int responseLength) throws IOException {
+        write(command, commandLength);
+        read(response, responseLength);
+    }
+
+    @Override
+    public void close() {
+        mClosed = true;
+    }
+
+    /**
+     * Read a register as the device would, with any side effects.
+     * @param reg register address
+     * @return register value
+     * @throws IOException to NACK the read
+     */
+    protected byte readRegister(int reg) throws IOException {
+        return mRegisters[reg];
+    }
+
+    /**
+     * Write a register as the device would, with any side effects.
+     * @param reg register address
+     * @param value value written by the driver
+     * @throws IOException to NACK the write
+     */
+    protected void writeRegister(int reg, byte value) throws IOException {
+        mRegisters[reg] = value;
+    }
+
+    /**
+     * Handle a burst read. By default reads consecutive registers, as devices with address
+     * auto-increment do.
+     * @param reg first register address
+     * @param buffer buffer to fill
+     * @param length number of bytes requested
+     * @throws IOException to NACK the read
+     */
+    protected void readBlock(int reg, byte[] buffer, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            buffer[i] = readRegister((reg + i) & 0xff);
+        }
+    }
+
+    /**
+     * Handle a burst write. By default writes consecutive registers, as devices with address
+     * auto-increment do.
+     * @param reg first register address
+     * @param buffer data written by the driver
+     * @param length number of bytes written
+     * @throws IOException to NACK the write
+     */
+    protected void writeBlock(int reg, byte[] buffer, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            writeRegister((reg + i) & 0xff, buffer[i]);
+        }
+    }
+
+    /**
+     * Handle a raw read without a register address. NACKs by default.
+     * @param buffer buffer to fill
+     * @param length number of bytes requested
+     * @throws IOException to NACK the read
+     */
+    protected void readRaw(byte[] buffer, int length) throws IOException {
+        throw new IOException("NACK: raw read not supported");
+    }
+
+    /**
+     * Handle a raw write without a register address. NACKs by default.
+     * @param buffer data written by the driver
+     * @param length number of bytes written
+     * @throws IOException to NACK the write
+     */
+    protected void writeRaw(byte[] buffer, int length) throws IOException {
+        throw new IOException("NACK: raw write not supported");
+    }
+
+    /**
+     * Set a register directly, without side effects.
+     * @param reg register address
+     * @param value register value
+     */
+    protected final void setRegister(int reg, int value) {
+        mRegisters[reg & 0xff] = (byte) value;
+    }
+
+    /**
+     * Get a register directly, without side effects.
+     * @param reg register address
+     * @return register value
+     */
+    protected final byte getRegister(int reg) {
+        return mRegisters[reg & 0xff];
+    }
+
+    /**
+     * Returns the current time of the emulator's clock.
+     */
+    protected final long now() {
+        return mClock.nanoTime();
+    }
+
+    /**
+     * Let the given time pass, e.g. for a conversion that holds the bus.
+     * @param nanos time to pass
+     */
+    protected final void elapse(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        if (mClock instanceof VirtualClock) {
+            ((VirtualClock) mClock).advance(nanos);
+        } else {
+            LockSupport.parkNanos(nanos);
+        }
+    }
+
+    private void beginTransaction(int bytes) throws IOException {
+        if (mClosed) {
+            throw new IllegalStateException("emulated device closed");
+        }
+        mTransactionCount++;
+        if (mBusFrequencyHz > 0) {
+            elapse(bytes * BITS_PER_BYTE * 1000000000L / mBusFrequencyHz);
+        }
+        if (mFailAfter == 0 || (mFailureRate > 0 && mRandom.nextDouble() < mFailureRate)) {
+            mFailAfter = -1;
+            throw new IOException("NACK: injected fault");
+        }
+        if (mFailAfter > 0) {
+            mFailAfter--;
+        }
+    }
+}
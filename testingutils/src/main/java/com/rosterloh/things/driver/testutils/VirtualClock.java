@@ -0,0 +1,39 @@
+package com.rosterloh.things.driver.testutils;
+
+import com.rosterloh.things.driver.core.Clock;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Clock that only moves when told to. Emulators advance it by the time each transaction and
+ * conversion would take on real hardware, so a test can run hours of sensor time in milliseconds
+ * and still see realistic timing.
+ */
+public final class VirtualClock implements Clock {
+
+    private final AtomicLong mNanos = new AtomicLong();
+
+    @Override
+    public long nanoTime() {
+        return mNanos.get();
+    }
+
+    /**
+     * Move the clock forward.
+     * @param nanos time to advance by, must not be negative
+     */
+    public void advance(long nanos) {
+        if (nanos < 0) {
+            throw new IllegalArgumentException("time can't go backwards: " + nanos);
+        }
+        mNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Move the clock forward by whole milliseconds.
+     * @param millis time to advance by
+     */
+    public void advanceMillis(long millis) {
+        advance(millis * 1000000L);
+    }
+}
@@ -0,0 +1,116 @@
+package com.rosterloh.things.driver.testutils;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class RegisterMapEmulatorTest {
+
+    @Test
+    public void chargesBusTime() throws IOException {
+        VirtualClock clock = new VirtualClock();
+        Bmx280Emulator emulator = new Bmx280Emulator(Bmx280Emulator.CHIP_ID_BMP280, clock);
+        assertEquals(Bmx280Emulator.CHIP_ID_BMP280, emulator.readRegByte(0xD0));
+        // 2 bytes of 9 bits at 100 kHz
+        assertEquals(180000, clock.nanoTime());
+
+        emulator.setBusFrequency(0);
+        emulator.readRegBuffer(0x88, new byte[24], 24);
+        assertEquals(180000, clock.nanoTime());
+        assertEquals(2, emulator.getTransactionCount());
+    }
+
+    @Test
+    public void injectsFaults() throws IOException {
+        Bmx280Emulator emulator = new Bmx280Emulator();
+        emulator.failAfter(1);
+        emulator.readRegByte(0xD0);
+        try {
+            emulator.readRegByte(0xD0);
+            fail("expected IOException");
+        } catch (IOException expected) {
+            // injected NACK
+        }
+        emulator.readRegByte(0xD0);
+
+        emulator.setFailureRate(1, 0);
+        try {
+            emulator.readRegByte(0xD0);
+            fail("expected IOException");
+        } catch (IOException expected) {
+            // injected NACK
+        }
+    }
+
+    @Test
+    public void bmx280Conversion() throws IOException {
+        VirtualClock clock = new VirtualClock();
+        Bmx280Emulator emulator = new Bmx280Emulator(Bmx280Emulator.CHIP_ID_BME280, clock);
+        emulator.setBusFrequency(0);
+        byte[] buffer = new byte[3];
+        emulator.readRegBuffer(0xFA, buffer, 3);
+        assertEquals((byte) 0x80, buffer[0]);
+
+        // Forced mode, temperature and pressure 1x
+        emulator.writeRegByte(0xF4, (byte) 0b00100101);
+        assertEquals(0b1000, emulator.readRegByte(0xF3));
+        clock.advance(Bmx280Emulator.getMeasurementTimeNanos(1, 1, 0));
+        assertEquals(0, emulator.readRegByte(0xF3));
+        emulator.readRegBuffer(0xFA, buffer, 3);
+        assertEquals(519888, ((buffer[0] & 0xff) << 12) | ((buffer[1] & 0xff) << 4) | ((buffer[2] & 0xff) >> 4));
+        // Back to sleep after a forced conversion
+        assertEquals(0, emulator.readRegByte(0xF4) & 0b11);
+        assertEquals(1, emulator.getConversionCount());
+    }
+
+    @Test
+    public void htu21dNacksWhileConverting() throws IOException {
+        VirtualClock clock = new VirtualClock();
+        Htu21dEmulator emulator = new Htu21dEmulator(clock);
+        emulator.setBusFrequency(0);
+        emulator.write(new byte[]{(byte) 0xF3}, 1);
+        byte[] buffer = new byte[3];
+        try {
+            emulator.read(buffer, 3);
+            fail("expected IOException");
+        } catch (IOException expected) {
+            // still converting
+        }
+
+        clock.advance(emulator.getConversionTimeNanos(false));
+        emulator.read(buffer, 3);
+        assertEquals(26796, ((buffer[0] & 0xff) << 8) | (buffer[1] & 0xff));
+        assertEquals(Htu21dEmulator.crc8(buffer[0], buffer[1]), buffer[2] & 0xff);
+        assertEquals(0x7C, Htu21dEmulator.crc8(0x68, 0x3A));
+    }
+
+    @Test
+    public void ccs811ThresholdInterrupt() throws IOException {
+        VirtualClock clock = new VirtualClock();
+        Ccs811Emulator emulator = new Ccs811Emulator(true, clock);
+        emulator.write(new byte[]{(byte) 0xF4}, 1);
+        assertEquals((byte) 0b10010000, emulator.readRegByte(0x00));
+
+        // 1 s drive mode, interrupt on threshold
+        emulator.writeRegByte(0x01, (byte) 0b00011100);
+        clock.advanceMillis(1000);
+        assertFalse(emulator.isInterruptAsserted());
+
+        emulator.setAirQuality(1600, 100);
+        clock.advanceMillis(1000);
+        assertTrue(emulator.isInterruptAsserted());
+        emulator.readRegBuffer(0x02, new byte[8], 8);
+        assertFalse(emulator.isInterruptAsserted());
+        assertEquals(2, emulator.getResultCount());
+    }
+
+    @Test
+    public void ccs811RejectsModeInBootMode() throws IOException {
+        Ccs811Emulator emulator = new Ccs811Emulator();
+        emulator.writeRegByte(0x01, (byte) 0b00010000);
+        assertEquals(0b1, emulator.readRegByte(0x00) & 0b1);
+        assertEquals(0b1, emulator.readRegByte(0xE0));
+    }
+}